@@ -381,6 +381,9 @@ public class GerritServer implements AutoCloseable {
     cfg.setString("gerrit", null, "basePath", "git");
     cfg.setBoolean("sendemail", null, "enable", true);
     cfg.setInt("sendemail", null, "threadPoolSize", 0);
+    if (cfg.getString("event", null, "asyncDispatch") == null) {
+      cfg.setBoolean("event", null, "asyncDispatch", false);
+    }
     cfg.setInt("cache", "projects", "checkFrequency", 0);
     cfg.setInt("plugins", null, "checkFrequency", 0);
 
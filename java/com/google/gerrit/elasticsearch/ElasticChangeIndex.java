@@ -32,9 +32,11 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.elasticsearch.ElasticMapping.MappingProperties;
 import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.query.PaginatingResultSet;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.reviewdb.client.Account;
@@ -50,6 +52,7 @@ import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -69,13 +72,17 @@ import io.searchbox.core.Search;
 import io.searchbox.core.search.sort.Sort;
 import io.searchbox.core.search.sort.Sort.Sorting;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.apache.commons.codec.binary.Base64;
 import org.eclipse.jgit.lib.Config;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -120,6 +127,38 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
 
   @Override
   public void replace(ChangeData cd) throws IOException {
+    Bulk bulk =
+        addReplaceActions(new Bulk.Builder().defaultIndex(indexName).defaultType("changes"), cd)
+            .refresh(true)
+            .build();
+    JestResult result = client.execute(bulk);
+    if (!result.isSucceeded()) {
+      throw new IOException(
+          String.format(
+              "Failed to replace change %s in index %s: %s",
+              cd.getId(), indexName, result.getErrorMessage()));
+    }
+  }
+
+  @Override
+  public void replaceAll(Collection<ChangeData> cds) throws IOException {
+    if (cds.isEmpty()) {
+      return;
+    }
+    Builder builder = new Bulk.Builder().defaultIndex(indexName).defaultType("changes");
+    for (ChangeData cd : cds) {
+      addReplaceActions(builder, cd);
+    }
+    JestResult result = client.execute(builder.refresh(true).build());
+    if (!result.isSucceeded()) {
+      throw new IOException(
+          String.format(
+              "Failed to replace %d changes in index %s: %s",
+              cds.size(), indexName, result.getErrorMessage()));
+    }
+  }
+
+  private Builder addReplaceActions(Builder builder, ChangeData cd) throws IOException {
     String deleteIndex;
     String insertIndex;
 
@@ -135,21 +174,9 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
       throw new IOException(e);
     }
 
-    Bulk bulk =
-        new Bulk.Builder()
-            .defaultIndex(indexName)
-            .defaultType("changes")
-            .addAction(insert(insertIndex, cd))
-            .addAction(delete(deleteIndex, cd.getId()))
-            .refresh(true)
-            .build();
-    JestResult result = client.execute(bulk);
-    if (!result.isSucceeded()) {
-      throw new IOException(
-          String.format(
-              "Failed to replace change %s in index %s: %s",
-              cd.getId(), indexName, result.getErrorMessage()));
-    }
+    return builder
+        .addAction(insert(insertIndex, cd))
+        .addAction(delete(deleteIndex, cd.getId()));
   }
 
   @Override
@@ -195,6 +222,12 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
         sort.setIgnoreUnmapped();
       }
       QueryBuilder qb = queryBuilder.toQueryBuilder(p);
+      ChangeIndexCursor cursor = ChangeIndexCursor.parse(opts.searchAfter());
+      if (cursor != null) {
+        // Elasticsearch 2 has no search_after; restrict the query to changes that sort after the
+        // cursor instead, which is as cheap to page through.
+        qb = QueryBuilders.boolQuery().must(qb).filter(after(cursor));
+      }
       fields = IndexUtils.changeFields(opts);
       SearchSourceBuilder searchSource =
           new SearchSourceBuilder()
@@ -220,6 +253,8 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
     public ResultSet<ChangeData> read() throws OrmException {
       try {
         List<ChangeData> results = Collections.emptyList();
+        Map<ChangeData, ChangeIndexCursor> cursors = new HashMap<>();
+        ChangeIndexCursor cursor = null;
         JestResult result = client.execute(search);
         if (result.isSucceeded()) {
           JsonObject obj = result.getJsonObject().getAsJsonObject("hits");
@@ -227,14 +262,20 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
             JsonArray json = obj.getAsJsonArray("hits");
             results = Lists.newArrayListWithCapacity(json.size());
             for (int i = 0; i < json.size(); i++) {
-              results.add(toChangeData(json.get(i)));
+              ChangeData cd = toChangeData(json.get(i));
+              results.add(cd);
+              cursor = toCursor(json.get(i));
+              if (cursor != null) {
+                cursors.put(cd, cursor);
+              }
             }
           }
         } else {
           log.error(result.getErrorMessage());
         }
         final List<ChangeData> r = Collections.unmodifiableList(results);
-        return new ResultSet<ChangeData>() {
+        final ChangeIndexCursor searchAfter = cursor;
+        return new PaginatingResultSet<ChangeData>() {
           @Override
           public Iterator<ChangeData> iterator() {
             return r.iterator();
@@ -245,6 +286,16 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
             return r;
           }
 
+          @Override
+          public Object searchAfter() {
+            return searchAfter;
+          }
+
+          @Override
+          public Object searchAfter(ChangeData cd) {
+            return cursors.get(cd);
+          }
+
           @Override
           public void close() {
             // Do nothing.
@@ -265,6 +316,29 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
       return search.toString();
     }
 
+    private QueryBuilder after(ChangeIndexCursor cursor) {
+      String updated = ChangeField.UPDATED.getName();
+      return QueryBuilders.boolQuery()
+          .should(QueryBuilders.rangeQuery(updated).lt(cursor.updated()))
+          .should(
+              QueryBuilders.boolQuery()
+                  .must(QueryBuilders.termQuery(updated, cursor.updated()))
+                  .must(
+                      QueryBuilders.rangeQuery(ChangeField.LEGACY_ID.getName())
+                          .lt(cursor.changeId())))
+          .minimumNumberShouldMatch(1);
+    }
+
+    @Nullable
+    private ChangeIndexCursor toCursor(JsonElement json) {
+      JsonElement sort = json.getAsJsonObject().get("sort");
+      if (sort == null || sort.getAsJsonArray().size() != 2) {
+        return null;
+      }
+      JsonArray values = sort.getAsJsonArray();
+      return ChangeIndexCursor.create(values.get(0).getAsLong(), values.get(1).getAsInt());
+    }
+
     private ChangeData toChangeData(JsonElement json) {
       JsonElement sourceElement = json.getAsJsonObject().get("_source");
       if (sourceElement == null) {
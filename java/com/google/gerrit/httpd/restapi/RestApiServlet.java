@@ -111,6 +111,7 @@ import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonReader;
@@ -138,6 +139,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -211,6 +213,7 @@ public class RestApiServlet extends HttpServlet {
     final AuditService auditService;
     final RestApiMetrics metrics;
     final Pattern allowOrigin;
+    final int streamJsonThreshold;
 
     @Inject
     Globals(
@@ -228,6 +231,7 @@ public class RestApiServlet extends HttpServlet {
       this.auditService = auditService;
       this.metrics = metrics;
       allowOrigin = makeAllowOrigin(cfg);
+      streamJsonThreshold = cfg.getInt("site", "streamJsonThreshold", 1000);
     }
 
     private static Pattern makeAllowOrigin(Config cfg) {
@@ -431,10 +435,16 @@ public class RestApiServlet extends HttpServlet {
         result = Response.unwrap(result);
         if (result instanceof BinaryResult) {
           responseBytes = replyBinaryResult(req, res, (BinaryResult) result);
+        } else if (isStreamable(result)) {
+          responseBytes = replyJsonStream(req, res, qp.config(), result);
         } else {
           responseBytes = replyJson(req, res, qp.config(), result);
         }
       }
+    } catch (StreamAbortedException e) {
+      // Let the servlet container abort the connection.
+      status = SC_INTERNAL_SERVER_ERROR;
+      throw e;
     } catch (MalformedJsonException e) {
       responseBytes =
           replyError(req, res, status = SC_BAD_REQUEST, "Invalid " + JSON_TYPE + " in request", e);
@@ -876,6 +886,116 @@ public class RestApiServlet extends HttpServlet {
         req, res, asBinaryResult(buf).setContentType(JSON_TYPE).setCharacterEncoding(UTF_8));
   }
 
+  private boolean isStreamable(Object result) {
+    int threshold = globals.streamJsonThreshold;
+    if (threshold <= 0) {
+      return false;
+    } else if (result instanceof Collection) {
+      return ((Collection<?>) result).size() >= threshold;
+    } else if (result instanceof Map) {
+      return ((Map<?, ?>) result).size() >= threshold;
+    }
+    return false;
+  }
+
+  /**
+   * Write a large {@link Collection} or {@link Map} result incrementally.
+   *
+   * <p>Unlike {@link #replyJson(HttpServletRequest, HttpServletResponse, ListMultimap, Object)} the
+   * body is not buffered before it is sent, so the response has no Content-Length and is sent
+   * chunked. Each element is serialized separately and the output may be gzip compressed on the
+   * fly.
+   *
+   * @throws StreamAbortedException if serializing an element failed after part of the response
+   *     was already sent.
+   */
+  private static long replyJsonStream(
+      HttpServletRequest req,
+      HttpServletResponse res,
+      ListMultimap<String, String> config,
+      Object result)
+      throws IOException {
+    res.setContentType(JSON_TYPE);
+    res.setCharacterEncoding(UTF_8.name());
+    if ("HEAD".equals(req.getMethod())) {
+      return 0;
+    }
+    boolean gzip = acceptsGzip(req);
+    if (gzip) {
+      res.setHeader("Content-Encoding", "gzip");
+    }
+
+    Gson gson = newGson(config, req);
+    CountingOutputStream dst = new CountingOutputStream(res.getOutputStream());
+    // Closing the compressor must not complete the response if writing it failed.
+    GZIPOutputStream gz = gzip ? new GZIPOutputStream(closeShield(dst)) : null;
+    try {
+      OutputStream out = gz != null ? gz : dst;
+      out.write(JSON_MAGIC);
+      Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+      JsonWriter json = gson.newJsonWriter(w);
+      if (result instanceof Map) {
+        json.beginObject();
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) result).entrySet()) {
+          json.name(String.valueOf(e.getKey()));
+          writeJsonValue(gson, json, e.getValue());
+        }
+        json.endObject();
+      } else {
+        json.beginArray();
+        for (Object o : (Collection<?>) result) {
+          writeJsonValue(gson, json, o);
+        }
+        json.endArray();
+      }
+      w.write('\n');
+      w.flush();
+      if (gz != null) {
+        gz.finish();
+      }
+    } catch (RuntimeException e) {
+      if (!res.isCommitted()) {
+        throw e;
+      }
+      // The status and part of the body were already sent, so the error can't be reported to the
+      // client anymore. Leave the response incomplete so that the client doesn't mistake the
+      // truncated body for the whole result.
+      log.error(
+          String.format("Error streaming response of %s %s", req.getMethod(), req.getRequestURI()),
+          e);
+      throw new StreamAbortedException(e);
+    } finally {
+      if (gz != null) {
+        gz.close();
+      }
+    }
+    dst.close();
+    return dst.getCount();
+  }
+
+  /** Stream writing to {@code out} that leaves it open when it is closed. */
+  private static OutputStream closeShield(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+
+  private static void writeJsonValue(Gson gson, JsonWriter json, @Nullable Object value) {
+    if (value == null) {
+      gson.toJson(JsonNull.INSTANCE, json);
+    } else {
+      gson.toJson(value, value.getClass(), json);
+    }
+  }
+
   private static Gson newGson(
       ListMultimap<String, String> config, @Nullable HttpServletRequest req) {
     GsonBuilder gb = OutputFormat.JSON_COMPACT.newGsonBuilder();
@@ -1301,6 +1421,14 @@ public class RestApiServlet extends HttpServlet {
     }
   }
 
+  /** Thrown if a streamed response failed after it was committed. */
+  @SuppressWarnings("serial")
+  private static class StreamAbortedException extends IOException {
+    StreamAbortedException(Throwable cause) {
+      super(cause);
+    }
+  }
+
   static class ViewData {
     String pluginName;
     RestView<RestResource> view;
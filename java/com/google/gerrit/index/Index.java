@@ -20,6 +20,7 @@ import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gwtorm.server.OrmException;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -51,6 +52,21 @@ public interface Index<K, V> {
    */
   void replace(V obj) throws IOException;
 
+  /**
+   * Update multiple documents in the index.
+   *
+   * <p>Semantically equivalent to calling {@link #replace(Object)} for each document, but
+   * implementations may write all documents in a single request to the index.
+   *
+   * @param objs document objects
+   * @throws IOException
+   */
+  default void replaceAll(Collection<V> objs) throws IOException {
+    for (V obj : objs) {
+      replace(obj);
+    }
+  }
+
   /**
    * Delete a document from the index by key.
    *
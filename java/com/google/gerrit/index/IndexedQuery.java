@@ -101,6 +101,18 @@ public class IndexedQuery<I, T> extends Predicate<T> implements DataSource<T>, P
     return read();
   }
 
+  @Override
+  public ResultSet<T> restart(Object searchAfter, int start) throws OrmException {
+    opts = opts.withSearchAfter(searchAfter).withStart(0);
+    try {
+      source = index.getSource(pred, opts);
+    } catch (QueryParseException e) {
+      // Cursors returned by the index are always valid for it.
+      throw new OrmException(e);
+    }
+    return read();
+  }
+
   @Override
   public Predicate<T> copy(Collection<? extends Predicate<T>> children) {
     return this;
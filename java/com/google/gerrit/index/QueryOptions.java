@@ -19,14 +19,25 @@ import static com.google.common.base.Preconditions.checkArgument;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import java.util.Set;
 
 @AutoValue
 public abstract class QueryOptions {
   public static QueryOptions create(IndexConfig config, int start, int limit, Set<String> fields) {
+    return create(config, start, null, limit, fields);
+  }
+
+  public static QueryOptions create(
+      IndexConfig config,
+      int start,
+      @Nullable Object searchAfter,
+      int limit,
+      Set<String> fields) {
     checkArgument(start >= 0, "start must be nonnegative: %s", start);
     checkArgument(limit > 0, "limit must be positive: %s", limit);
-    return new AutoValue_QueryOptions(config, start, limit, ImmutableSet.copyOf(fields));
+    return new AutoValue_QueryOptions(
+        config, start, searchAfter, limit, ImmutableSet.copyOf(fields));
   }
 
   public QueryOptions convertForBackend() {
@@ -35,22 +46,36 @@ public abstract class QueryOptions {
     int backendLimit = config().maxLimit();
     int limit = Ints.saturatedCast((long) limit() + start());
     limit = Math.min(limit, backendLimit);
-    return create(config(), 0, limit, fields());
+    return create(config(), 0, searchAfter(), limit, fields());
   }
 
   public abstract IndexConfig config();
 
   public abstract int start();
 
+  /**
+   * Position in the index sort order after which results start, before skipping {@link #start()}
+   * results.
+   *
+   * <p>The value is opaque to callers: it is either a cursor previously returned by the index, or
+   * its string form as handed out to clients. Indexes that do not support cursors ignore it.
+   */
+  @Nullable
+  public abstract Object searchAfter();
+
   public abstract int limit();
 
   public abstract ImmutableSet<String> fields();
 
   public QueryOptions withLimit(int newLimit) {
-    return create(config(), start(), newLimit, fields());
+    return create(config(), start(), searchAfter(), newLimit, fields());
   }
 
   public QueryOptions withStart(int newStart) {
-    return create(config(), newStart, limit(), fields());
+    return create(config(), newStart, searchAfter(), limit(), fields());
+  }
+
+  public QueryOptions withSearchAfter(@Nullable Object newSearchAfter) {
+    return create(config(), start(), newSearchAfter, limit(), fields());
   }
 }
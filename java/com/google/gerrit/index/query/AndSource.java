@@ -20,6 +20,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.gerrit.common.Nullable;
 import com.google.gwtorm.server.ListResultSet;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.OrmRuntimeException;
@@ -28,7 +29,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class AndSource<T> extends AndPredicate<T>
     implements DataSource<T>, Comparator<Predicate<T>> {
@@ -94,18 +97,22 @@ public class AndSource<T> extends AndPredicate<T>
       throw new OrmException("No DataSource: " + this);
     }
     List<T> r = new ArrayList<>();
+    Map<T, Object> cursors = new IdentityHashMap<>();
     T last = null;
     int nextStart = 0;
     boolean skipped = false;
-    for (T data : buffer(source.read())) {
+    ResultSet<T> rs = source.read();
+    for (T data : buffer(rs)) {
       if (!isMatchable() || match(data)) {
         r.add(data);
+        addCursor(cursors, rs, data);
       } else {
         skipped = true;
       }
       last = data;
       nextStart++;
     }
+    Object searchAfter = searchAfter(rs);
 
     if (skipped && last != null && source instanceof Paginated) {
       // If our source is a paginated source and we skipped at
@@ -116,16 +123,21 @@ public class AndSource<T> extends AndPredicate<T>
       Paginated<T> p = (Paginated<T>) source;
       while (skipped && r.size() < p.getOptions().limit() + start) {
         skipped = false;
-        ResultSet<T> next = p.restart(nextStart);
+        // Continue after the last result if the source supports it, instead of
+        // making it skip over all results read so far.
+        ResultSet<T> next =
+            searchAfter != null ? p.restart(searchAfter, nextStart) : p.restart(nextStart);
 
         for (T data : buffer(next)) {
           if (match(data)) {
             r.add(data);
+            addCursor(cursors, next, data);
           } else {
             skipped = true;
           }
           nextStart++;
         }
+        searchAfter = searchAfter(next);
       }
     }
 
@@ -134,7 +146,7 @@ public class AndSource<T> extends AndPredicate<T>
     } else if (start > 0) {
       r = ImmutableList.copyOf(r.subList(start, r.size()));
     }
-    return new ListResultSet<>(r);
+    return new CursorResultSet<>(r, searchAfter, cursors);
   }
 
   @Override
@@ -155,6 +167,43 @@ public class AndSource<T> extends AndPredicate<T>
     return true;
   }
 
+  @Nullable
+  private static Object searchAfter(ResultSet<?> rs) {
+    return rs instanceof PaginatingResultSet ? ((PaginatingResultSet<?>) rs).searchAfter() : null;
+  }
+
+  private static <T> void addCursor(Map<T, Object> cursors, ResultSet<T> rs, T data) {
+    if (rs instanceof PaginatingResultSet) {
+      Object cursor = ((PaginatingResultSet<T>) rs).searchAfter(data);
+      if (cursor != null) {
+        cursors.put(data, cursor);
+      }
+    }
+  }
+
+  /** Matching results, remembering where the source's results continue after each of them. */
+  private static class CursorResultSet<T> extends ListResultSet<T>
+      implements PaginatingResultSet<T> {
+    private final Object searchAfter;
+    private final Map<T, Object> cursors;
+
+    CursorResultSet(List<T> r, @Nullable Object searchAfter, Map<T, Object> cursors) {
+      super(r);
+      this.searchAfter = searchAfter;
+      this.cursors = cursors;
+    }
+
+    @Override
+    public Object searchAfter() {
+      return searchAfter;
+    }
+
+    @Override
+    public Object searchAfter(T result) {
+      return cursors.get(result);
+    }
+  }
+
   private Iterable<T> buffer(ResultSet<T> scanner) {
     return FluentIterable.from(Iterables.partition(scanner, 50))
         .transformAndConcat(this::transformBuffer);
@@ -22,4 +22,17 @@ public interface Paginated<T> {
   QueryOptions getOptions();
 
   ResultSet<T> restart(int start) throws OrmException;
+
+  /**
+   * Restart the query after the given position.
+   *
+   * <p>Sources that cannot resume from a cursor restart at the given offset instead.
+   *
+   * @param searchAfter cursor returned by {@link PaginatingResultSet#searchAfter()} of a previous
+   *     page of this query.
+   * @param start offset of the same position, counted from the first result of this query.
+   */
+  default ResultSet<T> restart(Object searchAfter, int start) throws OrmException {
+    return restart(start);
+  }
 }
@@ -0,0 +1,38 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gwtorm.server.ResultSet;
+
+/** Results of an index query that know where the next page of results starts. */
+public interface PaginatingResultSet<T> extends ResultSet<T> {
+  /**
+   * @return opaque cursor positioned after the last result of this page, suitable for {@link
+   *     Paginated#restart(Object, int)}; null if there were no results or the index does not
+   *     support cursors. Only valid once all results were read.
+   */
+  @Nullable
+  Object searchAfter();
+
+  /**
+   * @param result a result previously returned by this result set.
+   * @return opaque cursor positioned right after {@code result}; null if unknown.
+   */
+  @Nullable
+  default Object searchAfter(T result) {
+    return null;
+  }
+}
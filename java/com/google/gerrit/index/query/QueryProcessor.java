@@ -79,6 +79,7 @@ public abstract class QueryProcessor<T> {
   private final AtomicBoolean used;
 
   protected int start;
+  private Object searchAfter;
 
   private boolean enforceVisibility = true;
   private int userProvidedLimit;
@@ -107,6 +108,20 @@ public abstract class QueryProcessor<T> {
     return this;
   }
 
+  /**
+   * Start results after a cursor previously handed out for the same query.
+   *
+   * <p>Unlike {@link #setStart(int)}, the index does not need to read and skip over all previous
+   * results, so the cost of a page does not grow with its position.
+   *
+   * @param searchAfter opaque cursor; null to start at the beginning.
+   * @return this.
+   */
+  public QueryProcessor<T> setSearchAfter(@Nullable Object searchAfter) {
+    this.searchAfter = searchAfter;
+    return this;
+  }
+
   /**
    * Specify whether to enforce visibility by filtering out results that are not visible to the
    * user.
@@ -220,7 +235,9 @@ public abstract class QueryProcessor<T> {
       // Always bump limit by 1, even if this results in exceeding the permitted
       // max for this user. The only way to see if there are more entities is to
       // ask for one more result from the query.
-      QueryOptions opts = createOptions(indexConfig, start, limit + 1, getRequestedFields());
+      QueryOptions opts =
+          createOptions(indexConfig, start, limit + 1, getRequestedFields())
+              .withSearchAfter(searchAfter);
       Predicate<T> pred = rewriter.rewrite(q, opts);
       if (enforceVisibility) {
         pred = enforceVisibility(pred);
@@ -245,7 +262,7 @@ public abstract class QueryProcessor<T> {
               queryStrings != null ? queryStrings.get(i) : null,
               predicates.get(i),
               limits.get(i),
-              matches.get(i).toList()));
+              matches.get(i)));
     }
 
     // Only measure successful queries that actually touched the index.
@@ -16,6 +16,7 @@ package com.google.gerrit.index.query;
 
 import com.google.auto.value.AutoValue;
 import com.google.gerrit.common.Nullable;
+import com.google.gwtorm.server.ResultSet;
 import java.util.List;
 
 /** Results of a query over entities. */
@@ -23,6 +24,23 @@ import java.util.List;
 public abstract class QueryResult<T> {
   public static <T> QueryResult<T> create(
       @Nullable String query, Predicate<T> predicate, int limit, List<T> entites) {
+    return create(query, predicate, limit, entites, null);
+  }
+
+  public static <T> QueryResult<T> create(
+      @Nullable String query, Predicate<T> predicate, int limit, ResultSet<T> results) {
+    List<T> entities = results.toList();
+    PaginatingResultSet<T> paginating =
+        results instanceof PaginatingResultSet ? (PaginatingResultSet<T>) results : null;
+    return create(query, predicate, limit, entities, paginating);
+  }
+
+  private static <T> QueryResult<T> create(
+      @Nullable String query,
+      Predicate<T> predicate,
+      int limit,
+      List<T> entites,
+      @Nullable PaginatingResultSet<T> results) {
     boolean more;
     if (entites.size() > limit) {
       more = true;
@@ -30,7 +48,11 @@ public abstract class QueryResult<T> {
     } else {
       more = false;
     }
-    return new AutoValue_QueryResult<>(query, predicate, entites, more);
+    Object searchAfter =
+        results != null && !entites.isEmpty()
+            ? results.searchAfter(entites.get(entites.size() - 1))
+            : null;
+    return new AutoValue_QueryResult<>(query, predicate, entites, more, searchAfter);
   }
 
   /** @return the original query string, or null if the query was created programmatically. */
@@ -48,4 +70,12 @@ public abstract class QueryResult<T> {
    *     Never true if {@link #entities()} is empty.
    */
   public abstract boolean more();
+
+  /**
+   * @return opaque cursor positioned right after the last of {@link #entities()}, to continue the
+   *     query with {@link QueryProcessor#setSearchAfter(Object)}; null if the index does not
+   *     support cursors.
+   */
+  @Nullable
+  public abstract Object searchAfter();
 }
@@ -15,6 +15,7 @@
 package com.google.gerrit.lucene;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.lucene.AbstractLuceneIndex.sortFieldName;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.INTERACTIVE;
 import static com.google.gerrit.server.index.change.ChangeField.APPROVAL_CODEC;
@@ -27,16 +28,21 @@ import static com.google.gerrit.server.index.change.ChangeIndexRewriter.OPEN_STA
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.query.PaginatingResultSet;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.reviewdb.client.Account;
@@ -51,6 +57,7 @@ import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -63,20 +70,27 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -216,6 +230,28 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  @Override
+  public void replaceAll(Collection<ChangeData> cds) throws IOException {
+    // Queue all updates before waiting, so they can be committed together.
+    List<ListenableFuture<?>> futures = new ArrayList<>(2 * cds.size());
+    try {
+      for (ChangeData cd : cds) {
+        Term id = LuceneChangeIndex.idTerm(cd);
+        Document doc = openIndex.toDocument(cd);
+        if (cd.change().getStatus().isOpen()) {
+          futures.add(closedIndex.delete(id));
+          futures.add(openIndex.replace(id, doc));
+        } else {
+          futures.add(openIndex.delete(id));
+          futures.add(closedIndex.replace(id, doc));
+        }
+      }
+      Futures.allAsList(futures).get();
+    } catch (OrmException | ExecutionException | InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
   @Override
   public void delete(Change.Id id) throws IOException {
     Term idTerm = LuceneChangeIndex.idTerm(id);
@@ -269,6 +305,7 @@ public class LuceneChangeIndex implements ChangeIndex {
     private final Query query;
     private final QueryOptions opts;
     private final Sort sort;
+    private final FieldDoc searchAfter;
 
     private QuerySource(
         List<ChangeSubIndex> indexes, Predicate<ChangeData> predicate, QueryOptions opts, Sort sort)
@@ -278,6 +315,7 @@ public class LuceneChangeIndex implements ChangeIndex {
       this.query = checkNotNull(queryBuilder.toQuery(predicate), "null query from Lucene");
       this.opts = opts;
       this.sort = sort;
+      this.searchAfter = toFieldDoc(ChangeIndexCursor.parse(opts.searchAfter()));
     }
 
     @Override
@@ -303,12 +341,17 @@ public class LuceneChangeIndex implements ChangeIndex {
       }
 
       final Set<String> fields = IndexUtils.changeFields(opts);
+      final BlockingQueue<Hit> docs = new LinkedBlockingQueue<>();
       return new ChangeDataResults(
           executor.submit(
-              new Callable<List<Document>>() {
+              new Callable<ChangeIndexCursor>() {
                 @Override
-                public List<Document> call() throws IOException {
-                  return doRead(fields);
+                public ChangeIndexCursor call() throws IOException {
+                  try {
+                    return doRead(fields, docs);
+                  } finally {
+                    docs.add(END_OF_RESULTS);
+                  }
                 }
 
                 @Override
@@ -316,30 +359,58 @@ public class LuceneChangeIndex implements ChangeIndex {
                   return predicate.toString();
                 }
               }),
+          docs,
           fields);
     }
 
-    private List<Document> doRead(Set<String> fields) throws IOException {
+    private ChangeIndexCursor doRead(Set<String> fields, BlockingQueue<Hit> out)
+        throws IOException {
       IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
+      List<SubIndexSearch<TopFieldDocs>> searches = new ArrayList<>(indexes.size());
       try {
         int realLimit = opts.start() + opts.limit();
         if (Integer.MAX_VALUE - opts.limit() < opts.start()) {
           realLimit = Integer.MAX_VALUE;
         }
-        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
         for (int i = 0; i < indexes.size(); i++) {
           searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
+          searches.add(newSearch(searchers[i], realLimit));
+        }
+
+        // Search the other sub-indexes on the executor while this thread searches the first one.
+        // Any search the executor has not started by then runs here, so a saturated pool never
+        // blocks the query.
+        for (int i = 1; i < searches.size(); i++) {
+          try {
+            executor.execute(searches.get(i));
+          } catch (RejectedExecutionException e) {
+            // Run it on this thread below.
+          }
+        }
+        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
+        for (int i = 0; i < searches.size(); i++) {
+          hits[i] = getHits(searches.get(i));
         }
         TopDocs docs = TopDocs.merge(sort, realLimit, hits);
 
-        List<Document> result = new ArrayList<>(docs.scoreDocs.length);
+        // Hand each document over as soon as its stored fields are loaded, so the caller can
+        // decode it while the next one is read.
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+          out.add(
+              new Hit(
+                  fields(searchers[sd.shardIndex].doc(sd.doc, fields), fields),
+                  toCursor((FieldDoc) sd)));
         }
-        return result;
+        return docs.scoreDocs.length > 0
+            ? toCursor((FieldDoc) docs.scoreDocs[docs.scoreDocs.length - 1])
+            : null;
       } finally {
+        // On failure, skip the searches nobody has started yet. Searches running on other threads
+        // must be done before their searchers are released.
+        for (SubIndexSearch<TopFieldDocs> search : searches) {
+          search.cancelOrAwait();
+        }
         for (int i = 0; i < indexes.size(); i++) {
           if (searchers[i] != null) {
             try {
@@ -351,32 +422,135 @@ public class LuceneChangeIndex implements ChangeIndex {
         }
       }
     }
+
+    private SubIndexSearch<TopFieldDocs> newSearch(IndexSearcher searcher, int limit) {
+      return new SubIndexSearch<>(
+          new Callable<TopFieldDocs>() {
+            @Override
+            public TopFieldDocs call() throws IOException {
+              return searcher.searchAfter(searchAfter, query, limit, sort, false, false);
+            }
+
+            @Override
+            public String toString() {
+              return predicate.toString();
+            }
+          });
+    }
+
+    private TopFieldDocs getHits(SubIndexSearch<TopFieldDocs> search) throws IOException {
+      search.run();
+      try {
+        return search.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getCause());
+      }
+    }
+  }
+
+  @Nullable
+  private static FieldDoc toFieldDoc(@Nullable ChangeIndexCursor cursor) {
+    if (cursor == null) {
+      return null;
+    }
+    // Sort values are unique, so the document number only matters for the change at the cursor
+    // itself: a maximal one excludes it from the results.
+    return new FieldDoc(
+        Integer.MAX_VALUE, Float.NaN, new Object[] {cursor.updated(), (long) cursor.changeId()});
+  }
+
+  private static ChangeIndexCursor toCursor(FieldDoc doc) {
+    return ChangeIndexCursor.create(
+        ((Number) doc.fields[0]).longValue(), ((Number) doc.fields[1]).intValue());
   }
 
-  private class ChangeDataResults implements ResultSet<ChangeData> {
-    private final Future<List<Document>> future;
+  /** Stored fields of a result, with its position in the sort order. */
+  private static class Hit {
+    final ListMultimap<String, IndexableField> fields;
+    final ChangeIndexCursor cursor;
+
+    Hit(ListMultimap<String, IndexableField> fields, @Nullable ChangeIndexCursor cursor) {
+      this.fields = fields;
+      this.cursor = cursor;
+    }
+  }
+
+  private class ChangeDataResults implements PaginatingResultSet<ChangeData> {
+    private final Future<ChangeIndexCursor> future;
+    private final BlockingQueue<Hit> docs;
     private final Set<String> fields;
+    private final Map<ChangeData, ChangeIndexCursor> cursors = new HashMap<>();
+    private boolean consumed;
+    private List<ChangeData> result;
 
-    ChangeDataResults(Future<List<Document>> future, Set<String> fields) {
+    ChangeDataResults(
+        Future<ChangeIndexCursor> future, BlockingQueue<Hit> docs, Set<String> fields) {
       this.future = future;
+      this.docs = docs;
       this.fields = fields;
     }
 
     @Override
     public Iterator<ChangeData> iterator() {
-      return toList().iterator();
+      if (result != null) {
+        return result.iterator();
+      }
+      checkState(!consumed, "ResultSet already iterated");
+      consumed = true;
+      String idFieldName = LEGACY_ID.getName();
+      return new AbstractIterator<ChangeData>() {
+        @Override
+        protected ChangeData computeNext() {
+          Hit hit = take();
+          if (hit == END_OF_RESULTS) {
+            checkDone();
+            return endOfData();
+          }
+          ChangeData cd = toChangeData(hit.fields, fields, idFieldName);
+          cursors.put(cd, hit.cursor);
+          return cd;
+        }
+      };
     }
 
     @Override
     public List<ChangeData> toList() {
+      if (result == null) {
+        List<ChangeData> r = new ArrayList<>();
+        Iterators.addAll(r, iterator());
+        result = r;
+      }
+      return result;
+    }
+
+    private Hit take() {
       try {
-        List<Document> docs = future.get();
-        List<ChangeData> result = new ArrayList<>(docs.size());
-        String idFieldName = LEGACY_ID.getName();
-        for (Document doc : docs) {
-          result.add(toChangeData(fields(doc, fields), fields, idFieldName));
-        }
-        return result;
+        return docs.take();
+      } catch (InterruptedException e) {
+        close();
+        throw new OrmRuntimeException(e);
+      }
+    }
+
+    @Override
+    public ChangeIndexCursor searchAfter() {
+      checkState(consumed, "ResultSet not yet iterated");
+      return checkDone();
+    }
+
+    @Override
+    public ChangeIndexCursor searchAfter(ChangeData cd) {
+      return cursors.get(cd);
+    }
+
+    private ChangeIndexCursor checkDone() {
+      try {
+        return future.get();
       } catch (InterruptedException e) {
         close();
         throw new OrmRuntimeException(e);
@@ -392,6 +566,9 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  private static final Hit END_OF_RESULTS =
+      new Hit(MultimapBuilder.hashKeys(0).arrayListValues(0).build(), null);
+
   private static ListMultimap<String, IndexableField> fields(Document doc, Set<String> fields) {
     ListMultimap<String, IndexableField> stored =
         MultimapBuilder.hashKeys(fields.size()).arrayListValues(4).build();
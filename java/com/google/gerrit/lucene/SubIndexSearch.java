@@ -0,0 +1,64 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Search of one sub-index that may run either on an executor or on the querying thread.
+ *
+ * <p>Whichever thread calls {@link #run()} first executes the search; later calls return
+ * immediately. {@link #cancelOrAwait()} lets the querying thread give up on a search that has not
+ * started yet, or wait for a running one to finish, before it releases the searchers.
+ */
+class SubIndexSearch<T> extends FutureTask<T> {
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final CountDownLatch finished = new CountDownLatch(1);
+
+  SubIndexSearch(Callable<T> callable) {
+    super(callable);
+  }
+
+  @Override
+  public void run() {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      super.run();
+    } finally {
+      finished.countDown();
+    }
+  }
+
+  /**
+   * Cancel the search if no thread has started it, otherwise wait until it finishes.
+   *
+   * <p>A running search is never interrupted: Lucene closes the underlying file channels of a
+   * thread interrupted during I/O, which breaks the shared index reader for all other searches.
+   */
+  void cancelOrAwait() {
+    if (started.compareAndSet(false, true)) {
+      cancel(false);
+      finished.countDown();
+    } else {
+      Uninterruptibles.awaitUninterruptibly(finished);
+    }
+  }
+}
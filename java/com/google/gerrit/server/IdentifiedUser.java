@@ -301,7 +301,7 @@ public class IdentifiedUser extends CurrentUser {
     return state().getAccount();
   }
 
-  public boolean hasEmailAddress(String email) {
+  public synchronized boolean hasEmailAddress(String email) {
     if (validEmails.contains(email)) {
       return true;
     } else if (invalidEmails != null && invalidEmails.contains(email)) {
@@ -316,7 +316,7 @@ public class IdentifiedUser extends CurrentUser {
     return false;
   }
 
-  public Set<String> getEmailAddresses() {
+  public synchronized Set<String> getEmailAddresses() {
     if (!loadedAllEmails) {
       validEmails.addAll(realm.getEmailAddresses(this));
       loadedAllEmails = true;
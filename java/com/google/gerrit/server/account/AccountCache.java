@@ -17,6 +17,8 @@ package com.google.gerrit.server.account;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Account;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
 
 /** Caches important (but small) account state to avoid database hits. */
 public interface AccountCache {
@@ -42,6 +44,17 @@ public interface AccountCache {
   @Nullable
   AccountState getOrNull(Account.Id accountId);
 
+  /**
+   * Returns {@code AccountState} instances for the given account IDs. Accounts that are not cached
+   * yet are loaded together in one batch. Missing accounts, and accounts that cannot be loaded, are
+   * represented by empty {@code AccountState} instances, as for {@link #get(Account.Id)}.
+   *
+   * @param accountIds IDs of the accounts that should be retrieved
+   * @return {@code AccountState} instances by account ID, containing an entry for each of the
+   *     given account IDs
+   */
+  Map<Account.Id, AccountState> get(Set<Account.Id> accountIds);
+
   /**
    * Returns an {@code AccountState} instance for the given username.
    *
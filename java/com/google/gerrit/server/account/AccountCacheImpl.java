@@ -17,15 +17,19 @@ package com.google.gerrit.server.account;
 import static com.google.gerrit.server.account.externalids.ExternalId.SCHEME_USERNAME;
 
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.extensions.client.GeneralPreferencesInfo;
 import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.account.externalids.ExternalId;
 import com.google.gerrit.server.account.externalids.ExternalIds;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.index.account.AccountIndexer;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -36,9 +40,15 @@ import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -100,6 +110,28 @@ public class AccountCacheImpl implements AccountCache {
     }
   }
 
+  @Override
+  public Map<Account.Id, AccountState> get(Set<Account.Id> accountIds) {
+    Map<Account.Id, Optional<AccountState>> loaded;
+    try {
+      loaded = byId.getAll(accountIds);
+    } catch (InvalidCacheLoadException e) {
+      // Some accounts could not be loaded. The others are cached now.
+      loaded = byId.getAllPresent(accountIds);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      log.warn("Cannot load " + accountIds.size() + " AccountStates at once", e);
+      loaded = byId.getAllPresent(accountIds);
+    }
+
+    Map<Account.Id, AccountState> result = new HashMap<>();
+    for (Account.Id accountId : accountIds) {
+      Optional<AccountState> state = loaded.get(accountId);
+      // Accounts that failed to load are retried one by one, which reports their errors.
+      result.put(accountId, state != null ? state.orElse(missing(accountId)) : get(accountId));
+    }
+    return result;
+  }
+
   @Override
   public AccountState getByUsername(String username) {
     try {
@@ -134,46 +166,107 @@ public class AccountCacheImpl implements AccountCache {
   }
 
   static class ByIdLoader extends CacheLoader<Account.Id, Optional<AccountState>> {
+    private final GitRepositoryManager repoManager;
     private final AllUsersName allUsersName;
     private final Accounts accounts;
     private final GeneralPreferencesLoader loader;
-    private final Provider<WatchConfig.Accessor> watchConfig;
     private final ExternalIds externalIds;
 
     @Inject
     ByIdLoader(
+        GitRepositoryManager repoManager,
         AllUsersName allUsersName,
         Accounts accounts,
         GeneralPreferencesLoader loader,
-        Provider<WatchConfig.Accessor> watchConfig,
         ExternalIds externalIds) {
+      this.repoManager = repoManager;
       this.allUsersName = allUsersName;
       this.accounts = accounts;
       this.loader = loader;
-      this.watchConfig = watchConfig;
       this.externalIds = externalIds;
     }
 
     @Override
     public Optional<AccountState> load(Account.Id who) throws Exception {
-      Account account = accounts.get(who);
+      try (Repository allUsers = repoManager.openRepository(allUsersName);
+          RevWalk rw = new RevWalk(allUsers)) {
+        return load(allUsers, rw, loadDefaultPrefs(allUsers, rw), who);
+      }
+    }
+
+    /**
+     * Loads the given accounts from one walk over {@code All-Users}.
+     *
+     * <p>Accounts that fail to load are left out of the result, so that they are loaded on their
+     * own by {@link AccountCacheImpl#get(Set)} while the others are still cached.
+     */
+    @Override
+    public Map<Account.Id, Optional<AccountState>> loadAll(Iterable<? extends Account.Id> keys)
+        throws Exception {
+      Map<Account.Id, Optional<AccountState>> result = new HashMap<>();
+      try (Repository allUsers = repoManager.openRepository(allUsersName);
+          RevWalk rw = new RevWalk(allUsers)) {
+        VersionedAccountPreferences defaultPrefs = loadDefaultPrefs(allUsers, rw);
+        for (Account.Id who : keys) {
+          try {
+            result.put(who, load(allUsers, rw, defaultPrefs, who));
+          } catch (IOException | ConfigInvalidException | RuntimeException e) {
+            // Loaded again on its own, see above.
+          }
+        }
+      }
+      return result;
+    }
+
+    @Nullable
+    private static VersionedAccountPreferences loadDefaultPrefs(Repository allUsers, RevWalk rw)
+        throws IOException {
+      VersionedAccountPreferences defaultPrefs = VersionedAccountPreferences.forDefault();
+      try {
+        defaultPrefs.load(rw, revision(allUsers, RefNames.REFS_USERS_DEFAULT));
+      } catch (IOException | ConfigInvalidException e) {
+        log.warn("Cannot load default GeneralPreferences (using default)", e);
+        return null;
+      }
+      return defaultPrefs;
+    }
+
+    private Optional<AccountState> load(
+        Repository allUsers,
+        RevWalk rw,
+        @Nullable VersionedAccountPreferences defaultPrefs,
+        Account.Id who)
+        throws IOException, ConfigInvalidException {
+      ObjectId rev = revision(allUsers, RefNames.refsUsers(who));
+      Account account = accounts.get(rw, who, rev);
       if (account == null) {
         return Optional.empty();
       }
 
       try {
-        account.setGeneralPreferences(loader.load(who));
+        if (defaultPrefs == null) {
+          account.setGeneralPreferences(GeneralPreferencesInfo.defaults());
+        } else {
+          VersionedAccountPreferences prefs = VersionedAccountPreferences.forUser(who);
+          prefs.load(rw, rev);
+          account.setGeneralPreferences(loader.load(prefs, defaultPrefs));
+        }
       } catch (IOException | ConfigInvalidException e) {
         log.warn("Cannot load GeneralPreferences for " + who + " (using default)", e);
         account.setGeneralPreferences(GeneralPreferencesInfo.defaults());
       }
 
+      WatchConfig watchConfig = new WatchConfig(who);
+      watchConfig.load(rw, rev);
       return Optional.of(
           new AccountState(
-              allUsersName,
-              account,
-              externalIds.byAccount(who),
-              watchConfig.get().getProjectWatches(who)));
+              allUsersName, account, externalIds.byAccount(who), watchConfig.getProjectWatches()));
+    }
+
+    @Nullable
+    private static ObjectId revision(Repository repo, String refName) throws IOException {
+      Ref ref = repo.exactRef(refName);
+      return ref != null ? ref.getObjectId() : null;
     }
   }
 }
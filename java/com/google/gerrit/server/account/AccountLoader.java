@@ -86,6 +86,12 @@ public class AccountLoader {
     provided.add(info);
   }
 
+  /** Adds the accounts requested from {@code other}, so that {@link #fill()} fills them too. */
+  public void putAll(AccountLoader other) {
+    provided.addAll(other.created.values());
+    provided.addAll(other.provided);
+  }
+
   public void fill() throws OrmException {
     try {
       directory.fillAccountInfo(Iterables.concat(created.values(), provided), options);
@@ -18,6 +18,7 @@ import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.config.AllUsersName;
@@ -33,7 +34,9 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Stream;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,6 +76,22 @@ public class Accounts {
     return accounts;
   }
 
+  /**
+   * Reads an account from an open walk over the {@code All-Users} repository.
+   *
+   * @param rw open walk over the {@code All-Users} repository
+   * @param accountId ID of the account that should be read
+   * @param rev revision of the user branch of the account, {@code null} if it doesn't exist
+   * @return the account, {@code null} if it doesn't exist
+   */
+  @Nullable
+  Account get(RevWalk rw, Account.Id accountId, @Nullable ObjectId rev)
+      throws IOException, ConfigInvalidException {
+    AccountConfig accountConfig = new AccountConfig(emailValidator, accountId);
+    accountConfig.load(rw, rev);
+    return accountConfig.getAccount();
+  }
+
   /**
    * Returns all accounts.
    *
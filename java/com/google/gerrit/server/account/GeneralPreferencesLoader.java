@@ -81,19 +81,34 @@ public class GeneralPreferencesLoader {
       // Load user prefs
       VersionedAccountPreferences p = VersionedAccountPreferences.forUser(id);
       p.load(allUsers);
-      GeneralPreferencesInfo r =
-          loadSection(
-              p.getConfig(),
-              UserConfigSections.GENERAL,
-              null,
-              new GeneralPreferencesInfo(),
-              readDefaultsFromGit(dp.getConfig(), in),
-              in);
-      loadChangeTableColumns(r, p, dp);
-      return loadMyMenusAndUrlAliases(r, p, dp);
+      return parse(p, dp, in);
     }
   }
 
+  /**
+   * Parses the preferences of a user that were already loaded together with the default
+   * preferences, e.g. when loading many accounts from one open walk.
+   */
+  public GeneralPreferencesInfo load(VersionedAccountPreferences p, VersionedAccountPreferences dp)
+      throws ConfigInvalidException {
+    return parse(p, dp, null);
+  }
+
+  private GeneralPreferencesInfo parse(
+      VersionedAccountPreferences p, VersionedAccountPreferences dp, GeneralPreferencesInfo in)
+      throws ConfigInvalidException {
+    GeneralPreferencesInfo r =
+        loadSection(
+            p.getConfig(),
+            UserConfigSections.GENERAL,
+            null,
+            new GeneralPreferencesInfo(),
+            readDefaultsFromGit(dp.getConfig(), in),
+            in);
+    loadChangeTableColumns(r, p, dp);
+    return loadMyMenusAndUrlAliases(r, p, dp);
+  }
+
   public GeneralPreferencesInfo readDefaultsFromGit(Repository git, GeneralPreferencesInfo in)
       throws ConfigInvalidException, IOException {
     VersionedAccountPreferences dp = VersionedAccountPreferences.forDefault();
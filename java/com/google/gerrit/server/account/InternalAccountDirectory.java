@@ -30,7 +30,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Singleton
@@ -64,9 +66,13 @@ public class InternalAccountDirectory extends AccountDirectory {
     if (options.equals(ID_ONLY)) {
       return;
     }
+    Set<Account.Id> ids = new HashSet<>();
     for (AccountInfo info : in) {
-      Account.Id id = new Account.Id(info._accountId);
-      AccountState state = accountCache.get(id);
+      ids.add(new Account.Id(info._accountId));
+    }
+    Map<Account.Id, AccountState> states = accountCache.get(ids);
+    for (AccountInfo info : in) {
+      AccountState state = states.get(new Account.Id(info._accountId));
       fill(info, state.getAccount(), state.getExternalIds(), options);
     }
   }
@@ -14,66 +14,47 @@
 
 package com.google.gerrit.server.account.externalids;
 
-import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
 import static java.util.stream.Collectors.toSet;
 
-import com.google.auto.value.AutoValue;
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Caches external IDs of all accounts. The external IDs are always loaded from NoteDb. */
+/**
+ * Caches external IDs of all accounts. The external IDs are always loaded from NoteDb.
+ *
+ * <p>Only the external IDs of the latest known revision of the refs/meta/external-ids branch are
+ * kept. Readers access this snapshot without locking. If the branch has moved on, the snapshot is
+ * brought up to date by reading only the notes that differ between the two revisions, and the
+ * per-account and per-email sets that did not change are shared between the old and the new
+ * snapshot.
+ */
 @Singleton
 class ExternalIdCacheImpl implements ExternalIdCache {
   private static final Logger log = LoggerFactory.getLogger(ExternalIdCacheImpl.class);
 
-  private final LoadingCache<ObjectId, AllExternalIds> extIdsByAccount;
   private final ExternalIdReader externalIdReader;
-  private final Lock lock;
+  private volatile AllExternalIds latest;
 
   @Inject
   ExternalIdCacheImpl(ExternalIdReader externalIdReader) {
-    this.extIdsByAccount =
-        CacheBuilder.newBuilder()
-            // The cached data is potentially pretty large and we are always only interested
-            // in the latest value, hence the maximum cache size is set to 1.
-            // This can lead to extra cache loads in case of the following race:
-            // 1. thread 1 reads the notes ref at revision A
-            // 2. thread 2 updates the notes ref to revision B and stores the derived value
-            //    for B in the cache
-            // 3. thread 1 attempts to read the data for revision A from the cache, and misses
-            // 4. later threads attempt to read at B
-            // In this race unneeded reloads are done in step 3 (reload from revision A) and
-            // step 4 (reload from revision B, because the value for revision B was lost when the
-            // reload from revision A was done, since the cache can hold only one entry).
-            // These reloads could be avoided by increasing the cache size to 2. However the race
-            // window between reading the ref and looking it up in the cache is small so that
-            // it's rare that this race happens. Therefore it's not worth to double the memory
-            // usage of this cache, just to avoid this.
-            .maximumSize(1)
-            .build(new Loader(externalIdReader));
     this.externalIdReader = externalIdReader;
-    this.lock = new ReentrantLock(true /* fair */);
   }
 
   @Override
@@ -82,10 +63,10 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     updateCache(
         oldNotesRev,
         newNotesRev,
-        m -> {
+        u -> {
           for (ExternalId extId : extIds) {
             extId.checkThatBlobIdIsSet();
-            m.put(extId.accountId(), extId);
+            u.add(extId);
           }
         });
   }
@@ -96,9 +77,9 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     updateCache(
         oldNotesRev,
         newNotesRev,
-        m -> {
+        u -> {
           for (ExternalId extId : extIds) {
-            m.remove(extId.accountId(), extId);
+            u.remove(extId);
           }
         });
   }
@@ -110,11 +91,11 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     updateCache(
         oldNotesRev,
         newNotesRev,
-        m -> {
-          removeKeys(m.values(), updatedExtIds.stream().map(e -> e.key()).collect(toSet()));
+        u -> {
+          u.removeKeys(updatedExtIds);
           for (ExternalId updatedExtId : updatedExtIds) {
             updatedExtId.checkThatBlobIdIsSet();
-            m.put(updatedExtId.accountId(), updatedExtId);
+            u.add(updatedExtId);
           }
         });
   }
@@ -129,18 +110,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       throws IOException {
     ExternalIdsUpdate.checkSameAccount(Iterables.concat(toRemove, toAdd), accountId);
 
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          for (ExternalId extId : toRemove) {
-            m.remove(extId.accountId(), extId);
-          }
-          for (ExternalId extId : toAdd) {
-            extId.checkThatBlobIdIsSet();
-            m.put(extId.accountId(), extId);
-          }
-        });
+    onReplace(oldNotesRev, newNotesRev, toRemove, toAdd);
   }
 
   @Override
@@ -153,25 +123,25 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     updateCache(
         oldNotesRev,
         newNotesRev,
-        m -> {
+        u -> {
           for (ExternalId extId : toRemove) {
-            m.remove(extId.accountId(), extId);
+            u.remove(extId);
           }
           for (ExternalId extId : toAdd) {
             extId.checkThatBlobIdIsSet();
-            m.put(extId.accountId(), extId);
+            u.add(extId);
           }
         });
   }
 
   @Override
   public ImmutableSet<ExternalId> byAccount(Account.Id accountId) throws IOException {
-    return get().byAccount().get(accountId);
+    return get().byAccount(accountId);
   }
 
   @Override
   public ImmutableSetMultimap<Account.Id, ExternalId> allByAccount() throws IOException {
-    return get().byAccount();
+    return get().allByAccount();
   }
 
   @Override
@@ -179,86 +149,215 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     AllExternalIds allExternalIds = get();
     ImmutableSetMultimap.Builder<String, ExternalId> byEmails = ImmutableSetMultimap.builder();
     for (String email : emails) {
-      byEmails.putAll(email, allExternalIds.byEmail().get(email));
+      byEmails.putAll(email, allExternalIds.byEmail(email));
     }
     return byEmails.build();
   }
 
   @Override
   public ImmutableSetMultimap<String, ExternalId> allByEmail() throws IOException {
-    return get().byEmail();
+    return get().allByEmail();
   }
 
   private AllExternalIds get() throws IOException {
-    try {
-      return extIdsByAccount.get(externalIdReader.readRevision());
-    } catch (ExecutionException e) {
-      throw new IOException("Cannot load external ids", e);
+    ObjectId rev = externalIdReader.readRevision();
+    AllExternalIds allExternalIds = latest;
+    if (allExternalIds != null && allExternalIds.rev.equals(rev)) {
+      return allExternalIds;
     }
+    return load(rev);
   }
 
-  private void updateCache(
-      ObjectId oldNotesRev,
-      ObjectId newNotesRev,
-      Consumer<Multimap<Account.Id, ExternalId>> update) {
-    lock.lock();
-    try {
-      ListMultimap<Account.Id, ExternalId> m;
-      if (!ObjectId.zeroId().equals(oldNotesRev)) {
-        m =
-            MultimapBuilder.hashKeys()
-                .arrayListValues()
-                .build(extIdsByAccount.get(oldNotesRev).byAccount());
-      } else {
-        m = MultimapBuilder.hashKeys().arrayListValues().build();
+  private synchronized AllExternalIds load(ObjectId rev) throws IOException {
+    AllExternalIds allExternalIds = latest;
+    if (allExternalIds != null && allExternalIds.rev.equals(rev)) {
+      return allExternalIds;
+    }
+
+    Updater u;
+    if (allExternalIds == null) {
+      u = new Updater(AllExternalIds.EMPTY);
+      for (ExternalId extId : externalIdReader.all(rev)) {
+        extId.checkThatBlobIdIsSet();
+        u.add(extId);
+      }
+    } else {
+      ExternalIdReader.Diff diff = externalIdReader.diff(allExternalIds.rev, rev);
+      u = new Updater(allExternalIds);
+      for (ExternalId extId : diff.removed()) {
+        u.remove(extId);
+      }
+      for (ExternalId extId : diff.added()) {
+        extId.checkThatBlobIdIsSet();
+        u.add(extId);
       }
-      update.accept(m);
-      extIdsByAccount.put(newNotesRev, AllExternalIds.create(m));
-    } catch (ExecutionException e) {
-      log.warn("Cannot update external IDs", e);
-    } finally {
-      lock.unlock();
     }
+    allExternalIds = u.build(rev);
+    latest = allExternalIds;
+    return allExternalIds;
   }
 
-  private static void removeKeys(Collection<ExternalId> ids, Collection<ExternalId.Key> toRemove) {
-    Collections2.transform(ids, e -> e.key()).removeAll(toRemove);
+  private synchronized void updateCache(
+      ObjectId oldNotesRev, ObjectId newNotesRev, Consumer<Updater> update) {
+    AllExternalIds base;
+    if (ObjectId.zeroId().equals(oldNotesRev)) {
+      base = AllExternalIds.EMPTY;
+    } else {
+      base = latest;
+      if (base == null || !base.rev.equals(oldNotesRev)) {
+        // The cache doesn't know the old revision. The next read catches up with newNotesRev by
+        // diffing from whatever revision is cached.
+        return;
+      }
+    }
+    Updater u = new Updater(base);
+    update.accept(u);
+    latest = u.build(newNotesRev);
   }
 
-  private static class Loader extends CacheLoader<ObjectId, AllExternalIds> {
-    private final ExternalIdReader externalIdReader;
+  /** Immutable snapshot of all external IDs at one revision of refs/meta/external-ids. */
+  private static class AllExternalIds {
+    static final AllExternalIds EMPTY =
+        new AllExternalIds(ObjectId.zeroId(), ShardedMap.empty(), ShardedMap.empty());
+
+    final ObjectId rev;
+    private final ShardedMap<Account.Id, ImmutableSet<ExternalId>> byAccount;
+    private final ShardedMap<String, ImmutableSet<ExternalId>> byEmail;
+    private final Supplier<ImmutableSetMultimap<Account.Id, ExternalId>> allByAccount;
+    private final Supplier<ImmutableSetMultimap<String, ExternalId>> allByEmail;
 
-    Loader(ExternalIdReader externalIdReader) {
-      this.externalIdReader = externalIdReader;
+    AllExternalIds(
+        ObjectId rev,
+        ShardedMap<Account.Id, ImmutableSet<ExternalId>> byAccount,
+        ShardedMap<String, ImmutableSet<ExternalId>> byEmail) {
+      this.rev = rev.copy();
+      this.byAccount = byAccount;
+      this.byEmail = byEmail;
+      this.allByAccount = Suppliers.memoize(() -> toMultimap(byAccount));
+      this.allByEmail = Suppliers.memoize(() -> toMultimap(byEmail));
     }
 
-    @Override
-    public AllExternalIds load(ObjectId notesRev) throws Exception {
-      Multimap<Account.Id, ExternalId> extIdsByAccount =
-          MultimapBuilder.hashKeys().arrayListValues().build();
-      for (ExternalId extId : externalIdReader.all(notesRev)) {
-        extId.checkThatBlobIdIsSet();
-        extIdsByAccount.put(extId.accountId(), extId);
+    ImmutableSet<ExternalId> byAccount(Account.Id accountId) {
+      return MoreObjects.firstNonNull(byAccount.get(accountId), ImmutableSet.of());
+    }
+
+    ImmutableSet<ExternalId> byEmail(String email) {
+      return MoreObjects.firstNonNull(byEmail.get(email), ImmutableSet.of());
+    }
+
+    ImmutableSetMultimap<Account.Id, ExternalId> allByAccount() {
+      return allByAccount.get();
+    }
+
+    ImmutableSetMultimap<String, ExternalId> allByEmail() {
+      return allByEmail.get();
+    }
+
+    private static <K> ImmutableSetMultimap<K, ExternalId> toMultimap(
+        ShardedMap<K, ImmutableSet<ExternalId>> m) {
+      ImmutableSetMultimap.Builder<K, ExternalId> b = ImmutableSetMultimap.builder();
+      for (Map.Entry<K, ImmutableSet<ExternalId>> e : m.entries()) {
+        b.putAll(e.getKey(), e.getValue());
       }
-      return AllExternalIds.create(extIdsByAccount);
+      return b.build();
     }
   }
 
-  @AutoValue
-  abstract static class AllExternalIds {
-    static AllExternalIds create(Multimap<Account.Id, ExternalId> byAccount) {
-      ImmutableSetMultimap<String, ExternalId> byEmail =
-          byAccount
-              .values()
-              .stream()
-              .filter(e -> !Strings.isNullOrEmpty(e.email()))
-              .collect(toImmutableSetMultimap(ExternalId::email, e -> e));
-      return new AutoValue_ExternalIdCacheImpl_AllExternalIds(
-          ImmutableSetMultimap.copyOf(byAccount), byEmail);
+  /**
+   * Derives a new snapshot from an existing one. Only the shards of the maps that contain modified
+   * accounts and emails are copied; everything else is shared with the base snapshot.
+   */
+  private static class Updater {
+    private final ShardedMap.Builder<Account.Id, ImmutableSet<ExternalId>> byAccount;
+    private final ShardedMap.Builder<String, ImmutableSet<ExternalId>> byEmail;
+
+    Updater(AllExternalIds base) {
+      byAccount = base.byAccount.toBuilder();
+      byEmail = base.byEmail.toBuilder();
+    }
+
+    void add(ExternalId extId) {
+      remove(extId.accountId(), extId.key());
+      byAccount.put(extId.accountId(), with(byAccount.get(extId.accountId()), extId));
+      if (!Strings.isNullOrEmpty(extId.email())) {
+        byEmail.put(extId.email(), with(byEmail.get(extId.email()), extId));
+      }
     }
 
-    public abstract ImmutableSetMultimap<Account.Id, ExternalId> byAccount();
+    void remove(ExternalId extId) {
+      remove(extId.accountId(), extId.key());
+    }
 
-    public abstract ImmutableSetMultimap<String, ExternalId> byEmail();
+    /** Removes external IDs by key, even if they were assigned to another account before. */
+    void removeKeys(Collection<ExternalId> extIds) {
+      Set<ExternalId.Key> keys = extIds.stream().map(ExternalId::key).collect(toSet());
+      for (ExternalId extId : extIds) {
+        if (remove(extId.accountId(), extId.key())) {
+          keys.remove(extId.key());
+        }
+      }
+      if (!keys.isEmpty()) {
+        for (ImmutableSet<ExternalId> ids : ImmutableSet.copyOf(byAccount.values())) {
+          for (ExternalId extId : ids) {
+            if (keys.contains(extId.key())) {
+              remove(extId.accountId(), extId.key());
+            }
+          }
+        }
+      }
+    }
+
+    private boolean remove(Account.Id accountId, ExternalId.Key key) {
+      ExternalId old = find(byAccount.get(accountId), key);
+      if (old == null) {
+        return false;
+      }
+      putOrRemove(byAccount, accountId, without(byAccount.get(accountId), old));
+      if (!Strings.isNullOrEmpty(old.email())) {
+        putOrRemove(byEmail, old.email(), without(byEmail.get(old.email()), old));
+      }
+      return true;
+    }
+
+    AllExternalIds build(ObjectId rev) {
+      return new AllExternalIds(rev, byAccount.build(), byEmail.build());
+    }
+
+    @Nullable
+    private static ExternalId find(@Nullable ImmutableSet<ExternalId> ids, ExternalId.Key key) {
+      if (ids != null) {
+        for (ExternalId extId : ids) {
+          if (extId.key().equals(key)) {
+            return extId;
+          }
+        }
+      }
+      return null;
+    }
+
+    private static ImmutableSet<ExternalId> with(
+        @Nullable ImmutableSet<ExternalId> ids, ExternalId extId) {
+      if (ids == null) {
+        return ImmutableSet.of(extId);
+      }
+      return ImmutableSet.<ExternalId>builder().addAll(ids).add(extId).build();
+    }
+
+    private static ImmutableSet<ExternalId> without(
+        @Nullable ImmutableSet<ExternalId> ids, ExternalId extId) {
+      if (ids == null) {
+        return ImmutableSet.of();
+      }
+      return ids.stream().filter(e -> !e.equals(extId)).collect(ImmutableSet.toImmutableSet());
+    }
+
+    private static <K> void putOrRemove(
+        ShardedMap.Builder<K, ImmutableSet<ExternalId>> m, K key, ImmutableSet<ExternalId> ids) {
+      if (ids.isEmpty()) {
+        m.remove(key);
+      } else {
+        m.put(key, ids);
+      }
+    }
   }
 }
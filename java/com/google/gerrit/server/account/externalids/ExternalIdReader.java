@@ -16,7 +16,10 @@ package com.google.gerrit.server.account.externalids;
 
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.metrics.Description;
@@ -32,12 +35,19 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.notes.Note;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -135,18 +145,78 @@ public class ExternalIdReader {
       NoteMap noteMap = readNoteMap(rw, rev);
       Set<ExternalId> extIds = new HashSet<>();
       for (Note note : noteMap) {
-        byte[] raw =
-            rw.getObjectReader().open(note.getData(), OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
-        try {
-          extIds.add(ExternalId.parse(note.getName(), raw, note.getData()));
-        } catch (Exception e) {
-          log.error(String.format("Ignoring invalid external ID note %s", note.getName()), e);
+        ExternalId extId = parseOrNull(rw.getObjectReader(), note.getName(), note.getData());
+        if (extId != null) {
+          extIds.add(extId);
         }
       }
       return extIds;
     }
   }
 
+  /**
+   * Reads the external IDs that differ between two revisions of the refs/meta/external-ids branch.
+   *
+   * <p>Only the notes that changed between the two revisions are read, by diffing their trees.
+   * Modified external IDs are contained in both {@link Diff#removed()} and {@link Diff#added()}.
+   */
+  Diff diff(ObjectId oldRev, ObjectId newRev) throws IOException {
+    checkReadEnabled();
+
+    try (Repository repo = repoManager.openRepository(allUsersName);
+        RevWalk rw = new RevWalk(repo);
+        TreeWalk tw = new TreeWalk(rw.getObjectReader())) {
+      tw.setRecursive(true);
+      tw.setFilter(TreeFilter.ANY_DIFF);
+      tw.addTree(treeIterator(rw, oldRev));
+      tw.addTree(treeIterator(rw, newRev));
+
+      ImmutableList.Builder<ExternalId> removed = ImmutableList.builder();
+      ImmutableList.Builder<ExternalId> added = ImmutableList.builder();
+      while (tw.next()) {
+        // Notes may be stored in fan-out directories, e.g. "ab/cdef...".
+        String noteName = CharMatcher.is('/').removeFrom(tw.getPathString());
+        if (!ObjectId.isId(noteName)) {
+          continue;
+        }
+        if (tw.getFileMode(0) != FileMode.MISSING) {
+          ExternalId extId = parseOrNull(rw.getObjectReader(), noteName, tw.getObjectId(0));
+          if (extId != null) {
+            removed.add(extId);
+          }
+        }
+        if (tw.getFileMode(1) != FileMode.MISSING) {
+          ExternalId extId = parseOrNull(rw.getObjectReader(), noteName, tw.getObjectId(1));
+          if (extId != null) {
+            added.add(extId);
+          }
+        }
+      }
+      return Diff.create(removed.build(), added.build());
+    }
+  }
+
+  private static AbstractTreeIterator treeIterator(RevWalk rw, ObjectId rev) throws IOException {
+    if (rev.equals(ObjectId.zeroId())) {
+      return new EmptyTreeIterator();
+    }
+    CanonicalTreeParser p = new CanonicalTreeParser();
+    p.reset(rw.getObjectReader(), rw.parseCommit(rev).getTree());
+    return p;
+  }
+
+  @Nullable
+  private static ExternalId parseOrNull(ObjectReader reader, String noteName, ObjectId noteData)
+      throws IOException {
+    byte[] raw = reader.open(noteData, OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
+    try {
+      return ExternalId.parse(noteName, raw, noteData);
+    } catch (Exception e) {
+      log.error(String.format("Ignoring invalid external ID note %s", noteName), e);
+      return null;
+    }
+  }
+
   /** Reads and returns the specified external ID. */
   @Nullable
   ExternalId get(ExternalId.Key key) throws IOException, ConfigInvalidException {
@@ -196,4 +266,18 @@ public class ExternalIdReader {
       throw new IOException("Reading from external IDs is disabled");
     }
   }
+
+  /** External IDs that differ between two revisions of the refs/meta/external-ids branch. */
+  @AutoValue
+  abstract static class Diff {
+    static Diff create(ImmutableList<ExternalId> removed, ImmutableList<ExternalId> added) {
+      return new AutoValue_ExternalIdReader_Diff(removed, added);
+    }
+
+    /** External IDs as of the old revision that were removed or modified. */
+    abstract ImmutableList<ExternalId> removed();
+
+    /** External IDs as of the new revision that were added or modified. */
+    abstract ImmutableList<ExternalId> added();
+  }
 }
@@ -0,0 +1,119 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import com.google.common.collect.Iterables;
+import com.google.gerrit.common.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable map that is split into a fixed number of shards.
+ *
+ * <p>A modified copy of the map only copies the shards that contain modified keys, and shares all
+ * other shards with the original. Updating a few keys of a large map therefore costs a fraction
+ * of copying the whole map.
+ */
+class ShardedMap<K, V> {
+  private static final int SHARDS = 256;
+
+  private static final ShardedMap<?, ?> EMPTY = new ShardedMap<>(emptyShards());
+
+  @SuppressWarnings("unchecked")
+  static <K, V> ShardedMap<K, V> empty() {
+    return (ShardedMap<K, V>) EMPTY;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Map<K, V>[] emptyShards() {
+    Map<K, V>[] shards = new Map[SHARDS];
+    Arrays.fill(shards, Collections.emptyMap());
+    return shards;
+  }
+
+  private static int shard(Object key) {
+    int h = key.hashCode();
+    return (h ^ (h >>> 16)) & (SHARDS - 1);
+  }
+
+  private final Map<K, V>[] shards;
+
+  private ShardedMap(Map<K, V>[] shards) {
+    this.shards = shards;
+  }
+
+  @Nullable
+  V get(Object key) {
+    return shards[shard(key)].get(key);
+  }
+
+  Iterable<Map.Entry<K, V>> entries() {
+    return Iterables.concat(Iterables.transform(Arrays.asList(shards), Map::entrySet));
+  }
+
+  Builder<K, V> toBuilder() {
+    return new Builder<>(shards);
+  }
+
+  /** Modifies a copy of a map; shards are copied when they are first modified. */
+  static class Builder<K, V> {
+    private final Map<K, V>[] shards;
+    private final boolean[] copied;
+
+    private Builder(Map<K, V>[] base) {
+      shards = base.clone();
+      copied = new boolean[SHARDS];
+    }
+
+    @Nullable
+    V get(Object key) {
+      return shards[shard(key)].get(key);
+    }
+
+    void put(K key, V value) {
+      writableShard(shard(key)).put(key, value);
+    }
+
+    void remove(Object key) {
+      int i = shard(key);
+      if (shards[i].containsKey(key)) {
+        writableShard(i).remove(key);
+      }
+    }
+
+    Iterable<V> values() {
+      return Iterables.concat(Iterables.transform(Arrays.asList(shards), Map::values));
+    }
+
+    /**
+     * Returns the modified map. The builder can still be used afterwards; later modifications do
+     * not affect the returned map.
+     */
+    ShardedMap<K, V> build() {
+      Arrays.fill(copied, false);
+      return new ShardedMap<>(shards.clone());
+    }
+
+    private Map<K, V> writableShard(int i) {
+      if (!copied[i]) {
+        shards[i] = new HashMap<>(shards[i]);
+        copied[i] = true;
+      }
+      return shards[i];
+    }
+  }
+}
@@ -0,0 +1,33 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/** Serializes a {@link Boolean} as a single byte. */
+public enum BooleanCacheSerializer implements CacheSerializer<Boolean> {
+  INSTANCE;
+
+  @Override
+  public byte[] serialize(Boolean object) {
+    return new byte[] {object ? (byte) 1 : (byte) 0};
+  }
+
+  @Override
+  public Boolean deserialize(byte[] in) {
+    checkArgument(in.length == 1, "invalid Boolean of length %s", in.length);
+    return in[0] != 0;
+  }
+}
@@ -25,6 +25,14 @@ public interface CacheBinding<K, V> {
   /** Set the total size of the cache. */
   CacheBinding<K, V> maximumWeight(long weight);
 
+  /**
+   * Set the number of segments the in-memory cache is split into.
+   *
+   * <p>Each segment holds an equal share of the maximum weight, so no single entry can weigh more
+   * than that share. Caches with few, heavy entries should use a concurrency level of 1.
+   */
+  CacheBinding<K, V> concurrencyLevel(int concurrencyLevel);
+
   /** Set the total on-disk limit of the cache */
   CacheBinding<K, V> diskLimit(long limit);
 
@@ -37,6 +45,13 @@ public interface CacheBinding<K, V> {
   /** Algorithm to weigh an object with a method other than the unit weight 1. */
   CacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> clazz);
 
+  /**
+   * Set the serializer used to store values outside of the Java heap.
+   *
+   * <p>Memory caches have no serializer by default and can only be kept off-heap once one is set.
+   */
+  CacheBinding<K, V> valueSerializer(CacheSerializer<V> valueSerializer);
+
   String name();
 
   TypeLiteral<K> keyType();
@@ -47,6 +62,9 @@ public interface CacheBinding<K, V> {
 
   long diskLimit();
 
+  @Nullable
+  Integer concurrencyLevel();
+
   @Nullable
   Long expireAfterWrite(TimeUnit unit);
 
@@ -55,4 +73,7 @@ public interface CacheBinding<K, V> {
 
   @Nullable
   CacheLoader<K, V> loader();
+
+  @Nullable
+  CacheSerializer<V> valueSerializer();
 }
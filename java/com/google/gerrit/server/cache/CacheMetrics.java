@@ -63,9 +63,18 @@ public class CacheMetrics {
             Double.class,
             new Description("Disk hit ratio for persistent cache").setGauge().setUnit("percent"),
             F_NAME);
+    CallbackMetric1<String, Long> perDiskPending =
+        metrics.newCallbackMetric(
+            "caches/disk_pending_writes",
+            Long.class,
+            new Description("Entries waiting to be written to persistent cache")
+                .setGauge()
+                .setUnit("entries"),
+            F_NAME);
 
     Set<CallbackMetric<?>> cacheMetrics =
-        ImmutableSet.<CallbackMetric<?>>of(memEnt, memHit, memEvict, perDiskEnt, perDiskHit);
+        ImmutableSet.<CallbackMetric<?>>of(
+            memEnt, memHit, memEvict, perDiskEnt, perDiskHit, perDiskPending);
 
     metrics.newTrigger(
         cacheMetrics,
@@ -81,6 +90,7 @@ public class CacheMetrics {
               PersistentCache.DiskStats d = ((PersistentCache) c).diskStats();
               perDiskEnt.set(name, d.size());
               perDiskHit.set(name, hitRatio(d));
+              perDiskPending.set(name, d.pendingWrites());
             }
           }
           cacheMetrics.forEach(CallbackMetric::prune);
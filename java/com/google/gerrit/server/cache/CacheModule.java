@@ -123,7 +123,7 @@ public abstract class CacheModule extends FactoryModule {
    * @param <V> type of value stored by the cache.
    * @return binding to describe the cache.
    */
-  protected <K extends Serializable, V extends Serializable> CacheBinding<K, V> persist(
+  protected <K extends Serializable, V extends Serializable> PersistentCacheBinding<K, V> persist(
       String name, Class<K> keyType, Class<V> valType) {
     return persist(name, TypeLiteral.get(keyType), TypeLiteral.get(valType));
   }
@@ -135,7 +135,7 @@ public abstract class CacheModule extends FactoryModule {
    * @param <V> type of value stored by the cache.
    * @return binding to describe the cache.
    */
-  protected <K extends Serializable, V extends Serializable> CacheBinding<K, V> persist(
+  protected <K extends Serializable, V extends Serializable> PersistentCacheBinding<K, V> persist(
       String name, Class<K> keyType, TypeLiteral<V> valType) {
     return persist(name, TypeLiteral.get(keyType), valType);
   }
@@ -143,12 +143,36 @@ public abstract class CacheModule extends FactoryModule {
   /**
    * Declare a named in-memory/on-disk cache.
    *
+   * <p>Keys and values are stored on disk using Java serialization unless the returned binding is
+   * configured with a {@link CacheSerializer}.
+   *
    * @param <K> type of key used to lookup entries.
    * @param <V> type of value stored by the cache.
    * @return binding to describe the cache.
    */
-  protected <K extends Serializable, V extends Serializable> CacheBinding<K, V> persist(
+  protected <K extends Serializable, V extends Serializable> PersistentCacheBinding<K, V> persist(
       String name, TypeLiteral<K> keyType, TypeLiteral<V> valType) {
     return ((CacheProvider<K, V>) cache(name, keyType, valType)).persist(true);
   }
+
+  /**
+   * Declare a named in-memory/on-disk cache whose key and value types are not {@link
+   * Serializable}.
+   *
+   * @param <K> type of key used to lookup entries.
+   * @param <V> type of value stored by the cache.
+   * @param keySerializer serializer used to store keys on disk.
+   * @param valueSerializer serializer used to store values on disk.
+   * @return binding to describe the cache.
+   */
+  protected <K, V> PersistentCacheBinding<K, V> persist(
+      String name,
+      Class<K> keyType,
+      Class<V> valType,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer) {
+    CacheProvider<K, V> m =
+        (CacheProvider<K, V>) cache(name, TypeLiteral.get(keyType), TypeLiteral.get(valType));
+    return m.persist(true).keySerializer(keySerializer).valueSerializer(valueSerializer);
+  }
 }
@@ -28,17 +28,21 @@ import com.google.inject.Provider;
 import com.google.inject.TypeLiteral;
 import java.util.concurrent.TimeUnit;
 
-class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
+class CacheProvider<K, V> implements Provider<Cache<K, V>>, PersistentCacheBinding<K, V> {
   private final CacheModule module;
   final String name;
   private final TypeLiteral<K> keyType;
   private final TypeLiteral<V> valType;
   private boolean persist;
   private long maximumWeight;
+  private Integer concurrencyLevel;
   private long diskLimit;
   private Long expireAfterWrite;
   private Provider<CacheLoader<K, V>> loader;
   private Provider<Weigher<K, V>> weigher;
+  private int version;
+  private CacheSerializer<K> keySerializer = new JavaCacheSerializer<>();
+  private CacheSerializer<V> valueSerializer;
 
   private String plugin;
   private MemoryCacheFactory memoryCacheFactory;
@@ -67,21 +71,32 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
     this.persistentCacheFactory = factory;
   }
 
-  CacheBinding<K, V> persist(boolean p) {
+  PersistentCacheBinding<K, V> persist(boolean p) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     persist = p;
+    if (p && valueSerializer == null) {
+      valueSerializer = new JavaCacheSerializer<>();
+    }
     return this;
   }
 
   @Override
-  public CacheBinding<K, V> maximumWeight(long weight) {
+  public PersistentCacheBinding<K, V> maximumWeight(long weight) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     maximumWeight = weight;
     return this;
   }
 
   @Override
-  public CacheBinding<K, V> diskLimit(long limit) {
+  public PersistentCacheBinding<K, V> concurrencyLevel(int level) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    Preconditions.checkArgument(level > 0, "concurrencyLevel must be positive");
+    concurrencyLevel = level;
+    return this;
+  }
+
+  @Override
+  public PersistentCacheBinding<K, V> diskLimit(long limit) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     Preconditions.checkState(persist, "diskLimit supported for persistent caches only");
     diskLimit = limit;
@@ -89,26 +104,49 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
   }
 
   @Override
-  public CacheBinding<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+  public PersistentCacheBinding<K, V> expireAfterWrite(long duration, TimeUnit unit) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     expireAfterWrite = SECONDS.convert(duration, unit);
     return this;
   }
 
   @Override
-  public CacheBinding<K, V> loader(Class<? extends CacheLoader<K, V>> impl) {
+  public PersistentCacheBinding<K, V> loader(Class<? extends CacheLoader<K, V>> impl) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     loader = module.bindCacheLoader(this, impl);
     return this;
   }
 
   @Override
-  public CacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> impl) {
+  public PersistentCacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> impl) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     weigher = module.bindWeigher(this, impl);
     return this;
   }
 
+  @Override
+  public PersistentCacheBinding<K, V> version(int v) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    Preconditions.checkState(persist, "version supported for persistent caches only");
+    version = v;
+    return this;
+  }
+
+  @Override
+  public PersistentCacheBinding<K, V> keySerializer(CacheSerializer<K> serializer) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    Preconditions.checkState(persist, "keySerializer supported for persistent caches only");
+    keySerializer = Preconditions.checkNotNull(serializer);
+    return this;
+  }
+
+  @Override
+  public PersistentCacheBinding<K, V> valueSerializer(CacheSerializer<V> serializer) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    valueSerializer = Preconditions.checkNotNull(serializer);
+    return this;
+  }
+
   @Override
   public String name() {
     if (!Strings.isNullOrEmpty(plugin)) {
@@ -132,6 +170,12 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
     return maximumWeight;
   }
 
+  @Override
+  @Nullable
+  public Integer concurrencyLevel() {
+    return concurrencyLevel;
+  }
+
   @Override
   public long diskLimit() {
     if (diskLimit > 0) {
@@ -146,6 +190,22 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
     return expireAfterWrite != null ? unit.convert(expireAfterWrite, SECONDS) : null;
   }
 
+  @Override
+  public int version() {
+    return version;
+  }
+
+  @Override
+  public CacheSerializer<K> keySerializer() {
+    return keySerializer;
+  }
+
+  @Override
+  @Nullable
+  public CacheSerializer<V> valueSerializer() {
+    return valueSerializer;
+  }
+
   @Override
   @Nullable
   public Weigher<K, V> weigher() {
@@ -0,0 +1,41 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serializes an enum constant by its {@link Enum#name() name}.
+ *
+ * <p>Names are used rather than ordinals so that adding or reordering constants does not silently
+ * change the meaning of entries already on disk.
+ */
+public class EnumCacheSerializer<E extends Enum<E>> implements CacheSerializer<E> {
+  private final Class<E> clazz;
+
+  public EnumCacheSerializer(Class<E> clazz) {
+    this.clazz = clazz;
+  }
+
+  @Override
+  public byte[] serialize(E object) {
+    return object.name().getBytes(UTF_8);
+  }
+
+  @Override
+  public E deserialize(byte[] in) {
+    return Enum.valueOf(clazz, new String(in, UTF_8));
+  }
+}
@@ -52,6 +52,11 @@ public class ForwardingRemovalListener<K, V> implements RemovalListener<K, V> {
     }
   }
 
+  /** Whether any listener is registered to receive removal notifications. */
+  public boolean hasListeners() {
+    return listeners.iterator().hasNext();
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public void onRemoval(RemovalNotification<K, V> notification) {
@@ -23,12 +23,26 @@ public interface PersistentCache {
     private final long space;
     private final long hitCount;
     private final long missCount;
+    private final long pendingWrites;
+    private final long droppedWrites;
 
     public DiskStats(long size, long space, long hitCount, long missCount) {
+      this(size, space, hitCount, missCount, 0, 0);
+    }
+
+    public DiskStats(
+        long size,
+        long space,
+        long hitCount,
+        long missCount,
+        long pendingWrites,
+        long droppedWrites) {
       this.size = size;
       this.space = space;
       this.hitCount = hitCount;
       this.missCount = missCount;
+      this.pendingWrites = pendingWrites;
+      this.droppedWrites = droppedWrites;
     }
 
     public long size() {
@@ -46,5 +60,15 @@ public interface PersistentCache {
     public long requestCount() {
       return hitCount + missCount;
     }
+
+    /** Number of entries waiting to be written to disk. */
+    public long pendingWrites() {
+      return pendingWrites;
+    }
+
+    /** Number of entries not written to disk because the write queue was full. */
+    public long droppedWrites() {
+      return droppedWrites;
+    }
   }
 }
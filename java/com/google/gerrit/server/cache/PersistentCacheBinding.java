@@ -0,0 +1,66 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.Weigher;
+import java.util.concurrent.TimeUnit;
+
+/** Configure a persistent cache declared within a {@link CacheModule} instance. */
+public interface PersistentCacheBinding<K, V> extends CacheBinding<K, V> {
+  @Override
+  PersistentCacheBinding<K, V> maximumWeight(long weight);
+
+  @Override
+  PersistentCacheBinding<K, V> concurrencyLevel(int concurrencyLevel);
+
+  @Override
+  PersistentCacheBinding<K, V> diskLimit(long limit);
+
+  @Override
+  PersistentCacheBinding<K, V> expireAfterWrite(long duration, TimeUnit durationUnits);
+
+  @Override
+  PersistentCacheBinding<K, V> loader(Class<? extends CacheLoader<K, V>> clazz);
+
+  @Override
+  PersistentCacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> clazz);
+
+  /**
+   * Set the version of the on-disk format of this cache.
+   *
+   * <p>Entries stored with a different version are discarded when the cache is opened. Bump the
+   * version whenever the serialized form of the key or value changes.
+   */
+  PersistentCacheBinding<K, V> version(int version);
+
+  /**
+   * Set the serializer used to store keys on disk. Defaults to Java serialization.
+   *
+   * <p>{@code String} keys are always stored as plain text and ignore this setting.
+   */
+  PersistentCacheBinding<K, V> keySerializer(CacheSerializer<K> keySerializer);
+
+  /** Set the serializer used to store values on disk. Defaults to Java serialization. */
+  @Override
+  PersistentCacheBinding<K, V> valueSerializer(CacheSerializer<V> valueSerializer);
+
+  int version();
+
+  CacheSerializer<K> keySerializer();
+
+  @Override
+  CacheSerializer<V> valueSerializer();
+}
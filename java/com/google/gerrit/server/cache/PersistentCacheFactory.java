@@ -20,9 +20,9 @@ import com.google.common.cache.LoadingCache;
 import com.google.gerrit.server.plugins.Plugin;
 
 public interface PersistentCacheFactory {
-  <K, V> Cache<K, V> build(CacheBinding<K, V> def);
+  <K, V> Cache<K, V> build(PersistentCacheBinding<K, V> def);
 
-  <K, V> LoadingCache<K, V> build(CacheBinding<K, V> def, CacheLoader<K, V> loader);
+  <K, V> LoadingCache<K, V> build(PersistentCacheBinding<K, V> def, CacheLoader<K, V> loader);
 
   void onStop(Plugin plugin);
 }
@@ -31,8 +31,13 @@ import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DefaultCacheFactory implements MemoryCacheFactory {
+  private static final Logger log = LoggerFactory.getLogger(DefaultCacheFactory.class);
+  private static final long DEFAULT_OFF_HEAP_LIMIT = 64 << 20;
+
   public static class Module extends LifecycleModule {
     @Override
     protected void configure() {
@@ -57,19 +62,50 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
 
   @Override
   public <K, V> Cache<K, V> build(CacheBinding<K, V> def) {
+    if (offHeap(def)) {
+      return createOffHeap(def, null);
+    }
     return create(def, false).build();
   }
 
   @Override
   public <K, V> LoadingCache<K, V> build(CacheBinding<K, V> def, CacheLoader<K, V> loader) {
+    if (offHeap(def)) {
+      return createOffHeap(def, loader);
+    }
     return create(def, false).build(loader);
   }
 
+  private boolean offHeap(CacheBinding<?, ?> def) {
+    if (!cfg.getBoolean("cache", def.name(), "offHeap", false)) {
+      return false;
+    }
+    if (def.valueSerializer() == null) {
+      log.warn("Cache {} has no value serializer, keeping it on the heap", def.name());
+      return false;
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <K, V> OffHeapCacheImpl<K, V> createOffHeap(
+      CacheBinding<K, V> def, CacheLoader<K, V> loader) {
+    ForwardingRemovalListener<K, V> listener = forwardingRemovalListenerFactory.create(def.name());
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    builder.recordStats();
+    builder.maximumWeight(cfg.getLong("cache", def.name(), "offHeapLimit", DEFAULT_OFF_HEAP_LIMIT));
+    concurrencyLevel(builder, def);
+    expireAfterWrite(builder, def);
+    return new OffHeapCacheImpl<>(
+        builder, def.valueSerializer(), listener, listener::hasListeners, loader);
+  }
+
   @SuppressWarnings("unchecked")
   <K, V> CacheBuilder<K, V> create(CacheBinding<K, V> def, boolean unwrapValueHolder) {
     CacheBuilder<K, V> builder = newCacheBuilder();
     builder.recordStats();
     builder.maximumWeight(cfg.getLong("cache", def.name(), "memoryLimit", def.maximumWeight()));
+    concurrencyLevel(builder, def);
 
     builder = builder.removalListener(forwardingRemovalListenerFactory.create(def.name()));
 
@@ -89,6 +125,18 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
     }
     builder.weigher(weigher);
 
+    expireAfterWrite(builder, def);
+    return builder;
+  }
+
+  private static void concurrencyLevel(CacheBuilder<?, ?> builder, CacheBinding<?, ?> def) {
+    Integer level = def.concurrencyLevel();
+    if (level != null) {
+      builder.concurrencyLevel(level);
+    }
+  }
+
+  private void expireAfterWrite(CacheBuilder<?, ?> builder, CacheBinding<?, ?> def) {
     Long age = def.expireAfterWrite(TimeUnit.SECONDS);
     if (has(def.name(), "maxAge")) {
       builder.expireAfterWrite(
@@ -98,8 +146,6 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
     } else if (age != null) {
       builder.expireAfterWrite(age, TimeUnit.SECONDS);
     }
-
-    return builder;
   }
 
   private boolean has(String name, String var) {
@@ -0,0 +1,102 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Allocator handing out fixed-size slices of large direct buffers.
+ *
+ * <p>{@link ByteBuffer#allocateDirect(int)} is expensive, and direct memory is only returned to the
+ * system once the owning buffer object is collected, so allocating one buffer per cache entry is
+ * slow and lets freed memory pile up until the next full GC. Instead requests are rounded up to a
+ * power of two, carved out of 1 MiB slabs, and returned to a free list of their size class once
+ * released, ready for the next allocation of that size. The most recently released buffer is reused
+ * first. Slabs are never released, so the pool
+ * holds on to its peak usage plus up to one partially used slab per size class.
+ *
+ * <p>Requests larger than a slab get a buffer of their own, which is left to the garbage collector
+ * when released.
+ */
+class DirectBufferPool {
+  static final int SLAB_SIZE = 1 << 20;
+  private static final int MIN_SHIFT = 6;
+  private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(SLAB_SIZE);
+
+  private final Deque<ByteBuffer>[] free;
+
+  @SuppressWarnings("unchecked")
+  DirectBufferPool() {
+    free = new Deque[MAX_SHIFT - MIN_SHIFT + 1];
+    for (int i = 0; i < free.length; i++) {
+      free[i] = new ConcurrentLinkedDeque<>();
+    }
+  }
+
+  /**
+   * Allocate a buffer of at least {@code size} bytes.
+   *
+   * @return buffer positioned at 0 with its limit set to {@code size}; its capacity is the number
+   *     of bytes actually reserved.
+   */
+  ByteBuffer allocate(int size) {
+    checkArgument(size >= 0, "negative size %s", size);
+    if (size > SLAB_SIZE) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    int shift = shift(size);
+    ByteBuffer buf = free[shift - MIN_SHIFT].poll();
+    if (buf == null) {
+      buf = carve(shift);
+    }
+    buf.clear();
+    buf.limit(size);
+    return buf;
+  }
+
+  /** Return a buffer obtained from {@link #allocate(int)} to the pool. */
+  void release(ByteBuffer buf) {
+    if (buf.capacity() <= SLAB_SIZE) {
+      free[shift(buf.capacity()) - MIN_SHIFT].push(buf);
+    }
+  }
+
+  private ByteBuffer carve(int shift) {
+    ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+    int chunk = 1 << shift;
+    ByteBuffer first = null;
+    for (int off = 0; off < SLAB_SIZE; off += chunk) {
+      slab.limit(off + chunk).position(off);
+      ByteBuffer buf = slab.slice();
+      if (first == null) {
+        first = buf;
+      } else {
+        free[shift - MIN_SHIFT].push(buf);
+      }
+    }
+    return first;
+  }
+
+  private static int shift(int size) {
+    if (size <= 1 << MIN_SHIFT) {
+      return MIN_SHIFT;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}
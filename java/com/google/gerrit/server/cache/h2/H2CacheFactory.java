@@ -20,7 +20,11 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
-import com.google.gerrit.server.cache.CacheBinding;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cache.PersistentCacheBinding;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
@@ -30,7 +34,6 @@ import com.google.gerrit.server.plugins.Plugin;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import com.google.inject.TypeLiteral;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -49,6 +52,7 @@ import org.slf4j.LoggerFactory;
 @Singleton
 class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private static final Logger log = LoggerFactory.getLogger(H2CacheFactory.class);
+  private static final int DEFAULT_WRITE_QUEUE_SIZE = 1024;
 
   private final DefaultCacheFactory defaultFactory;
   private final Config config;
@@ -59,13 +63,15 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private final ScheduledExecutorService cleanup;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
+  private final Counter1<String> droppedWrites;
 
   @Inject
   H2CacheFactory(
       DefaultCacheFactory defaultCacheFactory,
       @GerritServerConfig Config cfg,
       SitePaths site,
-      DynamicMap<Cache<?, ?>> cacheMap) {
+      DynamicMap<Cache<?, ?>> cacheMap,
+      MetricMaker metricMaker) {
     defaultFactory = defaultCacheFactory;
     config = cfg;
     cacheDir = getCacheDir(site, cfg.getString("cache", null, "directory"));
@@ -73,6 +79,13 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     h2AutoServer = cfg.getBoolean("cache", null, "h2AutoServer", false);
     caches = new LinkedList<>();
     this.cacheMap = cacheMap;
+    droppedWrites =
+        metricMaker.newCounter(
+            "caches/disk_dropped_writes",
+            new Description("Writes to persistent cache dropped because the write queue was full")
+                .setRate()
+                .setUnit("entries"),
+            Field.ofString("cache_name"));
 
     if (cacheDir != null) {
       executor =
@@ -154,15 +167,14 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
 
   @SuppressWarnings({"unchecked"})
   @Override
-  public <K, V> Cache<K, V> build(CacheBinding<K, V> def) {
+  public <K, V> Cache<K, V> build(PersistentCacheBinding<K, V> def) {
     long limit = config.getLong("cache", def.name(), "diskLimit", 128 << 20);
 
     if (cacheDir == null || limit <= 0) {
       return defaultFactory.build(def);
     }
 
-    SqlStore<K, V> store =
-        newSqlStore(def.name(), def.keyType(), limit, def.expireAfterWrite(TimeUnit.SECONDS));
+    SqlStore<K, V> store = newSqlStore(def, limit);
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
             executor,
@@ -177,15 +189,15 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
 
   @SuppressWarnings("unchecked")
   @Override
-  public <K, V> LoadingCache<K, V> build(CacheBinding<K, V> def, CacheLoader<K, V> loader) {
+  public <K, V> LoadingCache<K, V> build(
+      PersistentCacheBinding<K, V> def, CacheLoader<K, V> loader) {
     long limit = config.getLong("cache", def.name(), "diskLimit", def.diskLimit());
 
     if (cacheDir == null || limit <= 0) {
       return defaultFactory.build(def, loader);
     }
 
-    SqlStore<K, V> store =
-        newSqlStore(def.name(), def.keyType(), limit, def.expireAfterWrite(TimeUnit.SECONDS));
+    SqlStore<K, V> store = newSqlStore(def, limit);
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
             defaultFactory
@@ -209,10 +221,9 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     }
   }
 
-  private <V, K> SqlStore<K, V> newSqlStore(
-      String name, TypeLiteral<K> keyType, long maxSize, Long expireAfterWrite) {
+  private <V, K> SqlStore<K, V> newSqlStore(PersistentCacheBinding<K, V> def, long maxSize) {
     StringBuilder url = new StringBuilder();
-    url.append("jdbc:h2:").append(cacheDir.resolve(name).toUri());
+    url.append("jdbc:h2:").append(cacheDir.resolve(def.name()).toUri());
     if (h2CacheSize >= 0) {
       url.append(";CACHE_SIZE=");
       // H2 CACHE_SIZE is always given in KB
@@ -221,10 +232,19 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     if (h2AutoServer) {
       url.append(";AUTO_SERVER=TRUE");
     }
+    Long expireAfterWrite = def.expireAfterWrite(TimeUnit.SECONDS);
+    int writeQueueSize =
+        config.getInt("cache", def.name(), "diskWriteQueueSize", DEFAULT_WRITE_QUEUE_SIZE);
     return new SqlStore<>(
         url.toString(),
-        keyType,
+        cacheDir.resolve(def.name() + ".bloom"),
+        def.keyType(),
+        def.keySerializer(),
+        def.valueSerializer(),
+        def.version(),
         maxSize,
-        expireAfterWrite == null ? 0 : expireAfterWrite.longValue());
+        expireAfterWrite == null ? 0 : expireAfterWrite.longValue(),
+        writeQueueSize,
+        () -> droppedWrites.increment(def.name()));
   }
 }
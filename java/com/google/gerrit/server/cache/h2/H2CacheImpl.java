@@ -21,36 +21,46 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
-import com.google.common.hash.PrimitiveSink;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.server.cache.CacheSerializer;
 import com.google.gerrit.server.cache.PersistentCache;
 import com.google.inject.TypeLiteral;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import org.h2.jdbc.JdbcSQLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,12 +74,25 @@ import org.slf4j.LoggerFactory;
  * such as the PatchListCache.
  *
  * <p>Cache stores and invalidations are performed on a background thread, hiding the latency
- * associated with serializing the key and value pairs and writing them to the database log.
+ * associated with serializing the key and value pairs and writing them to the database log. Stores
+ * are buffered in a bounded write-behind queue: repeated stores of the same key before the queue is
+ * flushed are coalesced, and each flush writes all pending entries in a single transaction. When
+ * the queue is full new stores are dropped; the entries remain in memory and are written when the
+ * cache is stopped.
  *
  * <p>A BloomFilter is used around the database to reduce the number of SELECTs issued against the
  * database for new cache items that have not been seen before, a common operation for the
  * PatchListCache. The BloomFilter is sized when the cache starts to be 64,000 entries or double the
- * number of items currently in the database table.
+ * number of items currently in the database table. When the cache is stopped or pruned the
+ * BloomFilter is written next to the database together with the number of insertions it was sized
+ * for, and loaded on the next start instead of being rebuilt by scanning every key in the table, as
+ * long as it was written for the same format version and the same number of entries. A filter that
+ * has received more keys than it was sized for, or whose expected false positive probability has
+ * grown above 10%, is rebuilt from the table at a larger size.
+ *
+ * <p>Keys and values are stored using the {@link CacheSerializer}s supplied by the cache binding.
+ * Each row records the version of the serialized format it was written with; rows with a version
+ * other than the current one are discarded when the cache is opened.
  *
  * <p>This cache does not export its items as a ConcurrentMap.
  *
@@ -143,7 +166,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
               ValueHolder<V> h = new ValueHolder<>(valueLoader.call());
               h.created = TimeUtil.nowMs();
-              executor.execute(() -> store.put(key, h));
+              store.putAsync(executor, key, h);
               return h;
             })
         .value;
@@ -154,14 +177,17 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     final ValueHolder<V> h = new ValueHolder<>(val);
     h.created = TimeUtil.nowMs();
     mem.put(key, h);
-    executor.execute(() -> store.put(key, h));
+    store.putAsync(executor, key, h);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void invalidate(Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(() -> store.invalidate((K) key));
+    if (keyType.getRawType().isInstance(key)) {
+      store.cancelPut((K) key);
+      if (store.mightContain((K) key)) {
+        executor.execute(() -> store.invalidate((K) key));
+      }
     }
     mem.invalidate(key);
   }
@@ -192,17 +218,21 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   }
 
   void stop() {
+    store.flushPending();
+    List<Map.Entry<K, ValueHolder<V>>> dirty = new ArrayList<>();
     for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
-      ValueHolder<V> h = e.getValue();
-      if (!h.clean) {
-        store.put(e.getKey(), h);
+      if (!e.getValue().clean) {
+        dirty.add(e);
       }
     }
+    store.putAll(dirty);
+    store.saveBloomFilter();
     store.close();
   }
 
   void prune(ScheduledExecutorService service) {
     store.prune(mem);
+    store.saveBloomFilter();
 
     Calendar cal = Calendar.getInstance();
     cal.set(Calendar.HOUR_OF_DAY, 01);
@@ -249,52 +279,44 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
       final ValueHolder<V> h = new ValueHolder<>(loader.load(key));
       h.created = TimeUtil.nowMs();
-      executor.execute(() -> store.put(key, h));
+      store.putAsync(executor, key, h);
       return h;
     }
   }
 
   private static class KeyType<K> {
+    private final CacheSerializer<K> serializer;
+
+    KeyType(CacheSerializer<K> serializer) {
+      this.serializer = serializer;
+    }
+
     String columnType() {
       return "OTHER";
     }
 
-    @SuppressWarnings("unchecked")
     K get(ResultSet rs, int col) throws SQLException {
-      return (K) rs.getObject(col);
+      return serializer.deserialize(rs.getBytes(col));
     }
 
     void set(PreparedStatement ps, int col, K value) throws SQLException {
-      ps.setObject(col, value, Types.JAVA_OBJECT);
+      ps.setBytes(col, serializer.serialize(value));
     }
 
     Funnel<K> funnel() {
-      return new Funnel<K>() {
-        private static final long serialVersionUID = 1L;
-
-        @Override
-        public void funnel(K from, PrimitiveSink into) {
-          try (ObjectOutputStream ser = new ObjectOutputStream(new SinkOutputStream(into))) {
-            ser.writeObject(from);
-            ser.flush();
-          } catch (IOException err) {
-            throw new RuntimeException("Cannot hash as Serializable", err);
-          }
-        }
-      };
+      return (from, into) -> into.putBytes(serializer.serialize(from));
     }
 
     @SuppressWarnings("unchecked")
-    static <K> KeyType<K> create(TypeLiteral<K> type) {
+    static <K> KeyType<K> create(TypeLiteral<K> type, CacheSerializer<K> serializer) {
       if (type.getRawType() == String.class) {
         return (KeyType<K>) STRING;
       }
-      return (KeyType<K>) OTHER;
+      return new KeyType<>(serializer);
     }
 
-    static final KeyType<?> OTHER = new KeyType<>();
     static final KeyType<String> STRING =
-        new KeyType<String>() {
+        new KeyType<String>(null) {
           @Override
           String columnType() {
             return "VARCHAR(4096)";
@@ -320,21 +342,53 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   }
 
   static class SqlStore<K, V> {
+    private static final int BLOOM_FILTER_MAGIC = 0x47424c32;
+    private static final double MAX_BLOOM_FILTER_FPP = 0.1;
+
+    /** Whether a BloomFilter has become too full to be useful and should be rebuilt. */
+    static boolean isSaturated(BloomFilter<?> b, long expectedInsertions, long count) {
+      return count > expectedInsertions || b.expectedFpp() > MAX_BLOOM_FILTER_FPP;
+    }
+
     private final String url;
+    @Nullable private final Path bloomFilterFile;
     private final KeyType<K> keyType;
+    private final CacheSerializer<V> valueSerializer;
+    private final int version;
     private final long maxSize;
     private final long expireAfterWrite;
+    private final int maxPendingWrites;
+    private final Runnable onDroppedWrite;
     private final BlockingQueue<SqlHandle> handles;
+    private final ConcurrentMap<K, ValueHolder<V>> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
     private final AtomicLong hitCount = new AtomicLong();
     private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
     private volatile BloomFilter<K> bloomFilter;
+    private volatile int bloomFilterCapacity;
     private int estimatedSize;
 
-    SqlStore(String jdbcUrl, TypeLiteral<K> keyType, long maxSize, long expireAfterWrite) {
+    SqlStore(
+        String jdbcUrl,
+        @Nullable Path bloomFilterFile,
+        TypeLiteral<K> keyType,
+        CacheSerializer<K> keySerializer,
+        CacheSerializer<V> valueSerializer,
+        int version,
+        long maxSize,
+        long expireAfterWrite,
+        int maxPendingWrites,
+        Runnable onDroppedWrite) {
       this.url = jdbcUrl;
-      this.keyType = KeyType.create(keyType);
+      this.bloomFilterFile = bloomFilterFile;
+      this.keyType = KeyType.create(keyType, keySerializer);
+      this.valueSerializer = valueSerializer;
+      this.version = version;
       this.maxSize = maxSize;
       this.expireAfterWrite = expireAfterWrite;
+      this.maxPendingWrites = maxPendingWrites;
+      this.onDroppedWrite = onDroppedWrite;
 
       int cores = Runtime.getRuntime().availableProcessors();
       int keep = Math.min(cores, 16);
@@ -372,29 +426,32 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       SqlHandle c = null;
       try {
         c = acquire();
+        deleteOtherVersions(c);
         try (Statement s = c.conn.createStatement()) {
-          if (estimatedSize <= 0) {
-            try (ResultSet r = s.executeQuery("SELECT COUNT(*) FROM data")) {
-              estimatedSize = r.next() ? r.getInt(1) : 0;
-            }
+          long count;
+          try (ResultSet r = s.executeQuery("SELECT COUNT(*) FROM data")) {
+            count = r.next() ? r.getLong(1) : 0;
+          }
+          estimatedSize = (int) Math.min(count, Integer.MAX_VALUE);
+
+          BloomFilter<K> b = readBloomFilter(count);
+          if (b != null) {
+            return b;
           }
 
-          BloomFilter<K> b = newBloomFilter();
+          b = newBloomFilter();
           try (ResultSet r = s.executeQuery("SELECT k FROM data")) {
             while (r.next()) {
               b.put(keyType.get(r, 1));
             }
-          } catch (JdbcSQLException e) {
-            if (e.getCause() instanceof InvalidClassException) {
-              log.warn(
-                  "Entries cached for "
-                      + url
-                      + " have an incompatible class and can't be deserialized. "
-                      + "Cache is flushed.");
-              invalidateAll();
-            } else {
-              throw e;
-            }
+            pending.keySet().forEach(b::put);
+          } catch (RuntimeException e) {
+            log.warn(
+                "Entries cached for "
+                    + url
+                    + " can't be deserialized. Cache is flushed: "
+                    + e.getMessage());
+            invalidateAll();
           }
           return b;
         }
@@ -407,14 +464,122 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    /**
+     * Read the BloomFilter saved by {@link #saveBloomFilter()}.
+     *
+     * <p>The snapshot is only trusted if it was written for the current format version, the table
+     * still holds the same number of entries, and the filter is not saturated; otherwise the caller
+     * rebuilds the filter from the table.
+     */
+    @Nullable
+    private BloomFilter<K> readBloomFilter(long count) {
+      if (bloomFilterFile == null) {
+        return null;
+      }
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(bloomFilterFile)))) {
+        if (in.readInt() != BLOOM_FILTER_MAGIC || in.readInt() != version) {
+          log.info("Ignoring BloomFilter {} written by another cache version", bloomFilterFile);
+          return null;
+        }
+        long savedCount = in.readLong();
+        if (savedCount != count) {
+          log.info(
+              "Ignoring BloomFilter {} for {} entries, cache has {}",
+              bloomFilterFile,
+              savedCount,
+              count);
+          return null;
+        }
+        int capacity = in.readInt();
+        BloomFilter<K> b = BloomFilter.readFrom(in, keyType.funnel());
+        if (isSaturated(b, capacity, count)) {
+          log.info(
+              "Rebuilding BloomFilter {} sized for {} entries, cache has {}",
+              bloomFilterFile,
+              capacity,
+              count);
+          return null;
+        }
+        bloomFilterCapacity = capacity;
+        return b;
+      } catch (NoSuchFileException e) {
+        return null;
+      } catch (IOException | RuntimeException e) {
+        log.warn("Cannot read BloomFilter " + bloomFilterFile, e);
+        return null;
+      }
+    }
+
+    void saveBloomFilter() {
+      BloomFilter<K> b = bloomFilter;
+      if (bloomFilterFile == null || b == null) {
+        return;
+      }
+
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        long count;
+        try (Statement s = c.conn.createStatement();
+            ResultSet r = s.executeQuery("SELECT COUNT(*) FROM data")) {
+          count = r.next() ? r.getLong(1) : 0;
+        }
+
+        Path tmp = bloomFilterFile.resolveSibling(bloomFilterFile.getFileName() + ".tmp");
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.writeInt(BLOOM_FILTER_MAGIC);
+          out.writeInt(version);
+          out.writeLong(count);
+          out.writeInt(bloomFilterCapacity);
+          b.writeTo(out);
+        }
+        Files.move(
+            tmp,
+            bloomFilterFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (SQLException e) {
+        log.warn("Cannot save BloomFilter for " + url, e);
+        c = close(c);
+      } catch (IOException e) {
+        log.warn("Cannot save BloomFilter " + bloomFilterFile, e);
+      } finally {
+        release(c);
+      }
+    }
+
+    private void deleteBloomFilter() {
+      if (bloomFilterFile != null) {
+        try {
+          Files.deleteIfExists(bloomFilterFile);
+        } catch (IOException e) {
+          log.warn("Cannot delete BloomFilter " + bloomFilterFile, e);
+        }
+      }
+    }
+
+    private void deleteOtherVersions(SqlHandle c) throws SQLException {
+      try (PreparedStatement ps = c.conn.prepareStatement("DELETE FROM data WHERE version!=?")) {
+        ps.setInt(1, version);
+        int oldEntries = ps.executeUpdate();
+        if (oldEntries > 0) {
+          log.info(
+              "Cleared {} entries with other versions than {} from {}", oldEntries, version, url);
+        }
+      }
+    }
+
     ValueHolder<V> getIfPresent(K key) {
       SqlHandle c = null;
       try {
         c = acquire();
         if (c.get == null) {
-          c.get = c.conn.prepareStatement("SELECT v, created FROM data WHERE k=?");
+          c.get = c.conn.prepareStatement("SELECT v, created FROM data WHERE k=? AND version=?");
         }
         keyType.set(c.get, 1, key);
+        c.get.setInt(2, version);
         try (ResultSet r = c.get.executeQuery()) {
           if (!r.next()) {
             missCount.incrementAndGet();
@@ -428,8 +593,17 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
             return null;
           }
 
-          @SuppressWarnings("unchecked")
-          V val = (V) r.getObject(1);
+          V val;
+          try {
+            val = valueSerializer.deserialize(r.getBytes(1));
+          } catch (RuntimeException e) {
+            if (!isOldClassNameError(e)) {
+              log.warn("Cannot deserialize cache " + url + " entry for " + key, e);
+            }
+            invalidate(c, key);
+            missCount.incrementAndGet();
+            return null;
+          }
           ValueHolder<V> h = new ValueHolder<>(val);
           h.clean = true;
           hitCount.incrementAndGet();
@@ -479,15 +653,55 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void put(K key, ValueHolder<V> holder) {
+    /**
+     * Queue an entry to be written to the database on {@code executor}.
+     *
+     * <p>If an earlier write of the same key is still pending it is replaced. If the queue is full
+     * the write is dropped; the holder stays dirty so it is written on {@link H2CacheImpl#stop()}
+     * if it is still in memory at that point.
+     */
+    void putAsync(Executor executor, K key, ValueHolder<V> holder) {
       if (holder.clean) {
         return;
       }
+      if (pending.size() >= maxPendingWrites && !pending.containsKey(key)) {
+        droppedWrites.incrementAndGet();
+        onDroppedWrite.run();
+        return;
+      }
+      pending.put(key, holder);
+      if (flushScheduled.compareAndSet(false, true)) {
+        executor.execute(this::flushPending);
+      }
+    }
+
+    void cancelPut(K key) {
+      pending.remove(key);
+    }
+
+    void flushPending() {
+      flushScheduled.set(false);
+      List<Map.Entry<K, ValueHolder<V>>> batch = new ArrayList<>(pending.size());
+      for (Map.Entry<K, ValueHolder<V>> e : pending.entrySet()) {
+        if (pending.remove(e.getKey(), e.getValue())) {
+          batch.add(Maps.immutableEntry(e.getKey(), e.getValue()));
+        }
+      }
+      putAll(batch);
+    }
+
+    void putAll(List<Map.Entry<K, ValueHolder<V>>> entries) {
+      if (entries.isEmpty()) {
+        return;
+      }
 
       BloomFilter<K> b = bloomFilter;
+      boolean saturated = false;
       if (b != null) {
-        b.put(key);
-        bloomFilter = b;
+        for (Map.Entry<K, ValueHolder<V>> e : entries) {
+          b.put(e.getKey());
+        }
+        saturated = b.expectedFpp() > MAX_BLOOM_FILTER_FPP;
       }
 
       SqlHandle c = null;
@@ -495,20 +709,39 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         c = acquire();
         if (c.put == null) {
           c.put =
-              c.conn.prepareStatement("MERGE INTO data (k, v, created, accessed) VALUES(?,?,?,?)");
+              c.conn.prepareStatement(
+                  "MERGE INTO data (k, v, version, created, accessed) VALUES(?,?,?,?,?)");
         }
+        c.conn.setAutoCommit(false);
         try {
-          keyType.set(c.put, 1, key);
-          c.put.setObject(2, holder.value, Types.JAVA_OBJECT);
-          c.put.setTimestamp(3, new Timestamp(holder.created));
-          c.put.setTimestamp(4, TimeUtil.nowTs());
-          c.put.executeUpdate();
-          holder.clean = true;
+          for (Map.Entry<K, ValueHolder<V>> e : entries) {
+            ValueHolder<V> holder = e.getValue();
+            keyType.set(c.put, 1, e.getKey());
+            c.put.setBytes(2, valueSerializer.serialize(holder.value));
+            c.put.setInt(3, version);
+            c.put.setTimestamp(4, new Timestamp(holder.created));
+            c.put.setTimestamp(5, TimeUtil.nowTs());
+            c.put.addBatch();
+          }
+          c.put.executeBatch();
+          c.conn.commit();
+          for (Map.Entry<K, ValueHolder<V>> e : entries) {
+            e.getValue().clean = true;
+          }
+          if (saturated) {
+            // Rebuild at a larger size from the table on the next lookup.
+            bloomFilter = null;
+          }
+        } catch (SQLException | RuntimeException e) {
+          c.conn.rollback();
+          throw e;
         } finally {
+          c.put.clearBatch();
           c.put.clearParameters();
+          c.conn.setAutoCommit(true);
         }
-      } catch (SQLException e) {
-        log.warn("Cannot put into cache " + url, e);
+      } catch (SQLException | RuntimeException e) {
+        log.warn("Cannot put " + entries.size() + " entries into cache " + url, e);
         c = close(c);
       } finally {
         release(c);
@@ -541,6 +774,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     }
 
     void invalidateAll() {
+      pending.clear();
       SqlHandle c = null;
       try {
         c = acquire();
@@ -548,6 +782,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           s.executeUpdate("DELETE FROM data");
         }
         bloomFilter = newBloomFilter();
+        deleteBloomFilter();
       } catch (SQLException e) {
         log.warn("Cannot invalidate cache " + url, e);
         c = close(c);
@@ -611,7 +846,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       } finally {
         release(c);
       }
-      return new DiskStats(size, space, hitCount.get(), missCount.get());
+      return new DiskStats(
+          size, space, hitCount.get(), missCount.get(), pending.size(), droppedWrites.get());
     }
 
     private SqlHandle acquire() throws SQLException {
@@ -634,6 +870,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
     private BloomFilter<K> newBloomFilter() {
       int cnt = Math.max(64 * 1024, 2 * estimatedSize);
+      bloomFilterCapacity = cnt;
       return BloomFilter.create(keyType.funnel(), cnt);
     }
   }
@@ -662,6 +899,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         stmt.addBatch(
             "ALTER TABLE data ADD COLUMN IF NOT EXISTS "
                 + "space BIGINT AS OCTET_LENGTH(k) + OCTET_LENGTH(v)");
+        stmt.addBatch("ALTER TABLE data ADD COLUMN IF NOT EXISTS version INT DEFAULT 0 NOT NULL");
         stmt.executeBatch();
       }
     }
@@ -694,22 +932,4 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return null;
     }
   }
-
-  private static class SinkOutputStream extends OutputStream {
-    private final PrimitiveSink sink;
-
-    SinkOutputStream(PrimitiveSink sink) {
-      this.sink = sink;
-    }
-
-    @Override
-    public void write(int b) {
-      sink.putByte((byte) b);
-    }
-
-    @Override
-    public void write(byte[] b, int p, int n) {
-      sink.putBytes(b, p, n);
-    }
-  }
 }
@@ -0,0 +1,218 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.CacheSerializer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Memory cache holding serialized values in direct buffers outside of the Java heap.
+ *
+ * <p>Only keys and small buffer handles are kept on the heap, so large caches do not add to the
+ * live set the garbage collector has to trace. Buffers come from a {@link DirectBufferPool} and are
+ * returned to it when their entry is removed, once no reader is still decoding them. Entries are
+ * weighed by the bytes reserved for them and evicted in LRU order once the configured limit is
+ * reached. Values are decoded on every read, so this is only worthwhile for caches whose values are
+ * expensive to compute but cheap to deserialize.
+ */
+class OffHeapCacheImpl<K, V> extends AbstractLoadingCache<K, V> {
+  private final DirectBufferPool pool;
+  private final Cache<K, Slot> slots;
+  private final CacheSerializer<V> serializer;
+  @Nullable private final CacheLoader<K, V> loader;
+
+  /**
+   * @param builder builder for the underlying cache, with size limits and expiry already set.
+   * @param serializer serializer for values.
+   * @param listener listener notified of removed entries.
+   * @param notifyRemovals whether {@code listener} currently wants notifications; checked before
+   *     each removed value is decoded.
+   * @param loader loader for {@link #get(Object)}, or null.
+   */
+  OffHeapCacheImpl(
+      CacheBuilder<Object, Object> builder,
+      CacheSerializer<V> serializer,
+      RemovalListener<K, V> listener,
+      BooleanSupplier notifyRemovals,
+      @Nullable CacheLoader<K, V> loader) {
+    this.pool = new DirectBufferPool();
+    this.serializer = serializer;
+    this.loader = loader;
+    this.slots =
+        builder
+            .weigher((K k, Slot s) -> s.buf.capacity())
+            .removalListener(
+                (RemovalNotification<K, Slot> n) -> {
+                  Slot s = n.getValue();
+                  if (s == null) {
+                    return;
+                  }
+                  if (notifyRemovals.getAsBoolean() && s.retain()) {
+                    V val;
+                    try {
+                      val = s.decode();
+                    } finally {
+                      s.release();
+                    }
+                    listener.onRemoval(RemovalNotification.create(n.getKey(), val, n.getCause()));
+                  }
+                  s.release();
+                })
+            .build();
+  }
+
+  @Override
+  public V get(K key) throws ExecutionException {
+    if (loader == null) {
+      throw new UnsupportedOperationException("no loader configured");
+    }
+    return get(key, () -> loader.load(key));
+  }
+
+  @Override
+  @Nullable
+  public V getIfPresent(Object key) {
+    Slot s = slots.getIfPresent(key);
+    if (s == null || !s.retain()) {
+      return null;
+    }
+    try {
+      return s.decode();
+    } finally {
+      s.release();
+    }
+  }
+
+  @Override
+  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+    // Hand the freshly loaded instance back to the caller instead of decoding it again.
+    AtomicReference<V> loaded = new AtomicReference<>();
+    while (true) {
+      Slot s =
+          slots.get(
+              key,
+              () -> {
+                V val = valueLoader.call();
+                loaded.set(val);
+                return encode(val);
+              });
+      V val = loaded.get();
+      if (val != null) {
+        return val;
+      }
+      if (s.retain()) {
+        try {
+          return s.decode();
+        } finally {
+          s.release();
+        }
+      }
+      // The entry was removed and its buffer released after the lookup; load it again.
+    }
+  }
+
+  @Override
+  public void put(K key, V val) {
+    slots.put(key, encode(val));
+  }
+
+  @Override
+  public void invalidate(Object key) {
+    slots.invalidate(key);
+  }
+
+  @Override
+  public void invalidateAll() {
+    slots.invalidateAll();
+  }
+
+  @Override
+  public long size() {
+    return slots.size();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return slots.stats();
+  }
+
+  @Override
+  public void cleanUp() {
+    slots.cleanUp();
+  }
+
+  private Slot encode(V val) {
+    byte[] bytes = serializer.serialize(val);
+    ByteBuffer buf = pool.allocate(bytes.length);
+    buf.put(bytes);
+    return new Slot(buf, bytes.length);
+  }
+
+  /**
+   * Pooled buffer holding one serialized value.
+   *
+   * <p>The cache owns one reference, readers take another while decoding. The buffer goes back to
+   * the pool when the last reference is released, so it is never reused while still being read.
+   */
+  private class Slot {
+    final ByteBuffer buf;
+    final int length;
+    final AtomicInteger refs = new AtomicInteger(1);
+
+    Slot(ByteBuffer buf, int length) {
+      this.buf = buf;
+      this.length = length;
+    }
+
+    boolean retain() {
+      while (true) {
+        int r = refs.get();
+        if (r == 0) {
+          return false;
+        }
+        if (refs.compareAndSet(r, r + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        pool.release(buf);
+      }
+    }
+
+    V decode() {
+      ByteBuffer view = buf.duplicate();
+      view.clear();
+      byte[] bytes = new byte[length];
+      view.get(bytes);
+      return serializer.deserialize(bytes);
+    }
+  }
+}
@@ -57,6 +57,8 @@ import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelType;
 import com.google.gerrit.common.data.LabelTypes;
@@ -108,13 +110,16 @@ import com.google.gerrit.server.WebLinks;
 import com.google.gerrit.server.account.AccountLoader;
 import com.google.gerrit.server.api.accounts.AccountInfoComparator;
 import com.google.gerrit.server.api.accounts.GpgApiAdapter;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.mail.Address;
 import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.notedb.ReviewerStateInternal;
 import com.google.gerrit.server.patch.PatchListNotAvailableException;
 import com.google.gerrit.server.permissions.ChangePermission;
@@ -129,7 +134,10 @@ import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
 import com.google.gerrit.server.query.change.PluginDefinedAttributesFactory;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
@@ -147,6 +155,9 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -227,6 +238,12 @@ public class ChangeJson {
   private final ApprovalsUtil approvalsUtil;
   private final RemoveReviewerControl removeReviewerControl;
   private final TrackingFooters trackingFooters;
+  private final NotesMigration notesMigration;
+  private final ThreadLocalRequestContext requestContext;
+  private final SchemaFactory<ReviewDb> schemaFactory;
+  private final AssistedFactory jsonFactory;
+  private final ListeningExecutorService formatExecutor;
+  private final int formatThreads;
   private boolean lazyLoad = true;
   private AccountLoader accountLoader;
   private FixInput fix;
@@ -259,6 +276,12 @@ public class ChangeJson {
       ApprovalsUtil approvalsUtil,
       RemoveReviewerControl removeReviewerControl,
       TrackingFooters trackingFooters,
+      NotesMigration notesMigration,
+      ThreadLocalRequestContext requestContext,
+      SchemaFactory<ReviewDb> schemaFactory,
+      AssistedFactory jsonFactory,
+      @ChangeJsonExecutor ListeningExecutorService formatExecutor,
+      @GerritServerConfig Config cfg,
       @Assisted Iterable<ListChangesOption> options) {
     this.db = db;
     this.userProvider = user;
@@ -286,6 +309,16 @@ public class ChangeJson {
     this.removeReviewerControl = removeReviewerControl;
     this.options = Sets.immutableEnumSet(options);
     this.trackingFooters = trackingFooters;
+    this.notesMigration = notesMigration;
+    this.requestContext = requestContext;
+    this.schemaFactory = schemaFactory;
+    this.jsonFactory = jsonFactory;
+    this.formatExecutor = formatExecutor;
+    this.formatThreads = formatThreads(cfg);
+  }
+
+  static int formatThreads(Config cfg) {
+    return cfg.getInt("change", null, "formatThreads", 1);
   }
 
   public ChangeJson lazyLoad(boolean load) {
@@ -365,10 +398,17 @@ public class ChangeJson {
 
     List<List<ChangeInfo>> res = Lists.newArrayListWithCapacity(in.size());
     Map<Change.Id, ChangeInfo> out = new HashMap<>();
+    if (canFormatInParallel()) {
+      formatInParallel(out, FluentIterable.from(in).transformAndConcat(QueryResult::entities));
+    }
     for (QueryResult<ChangeData> r : in) {
       List<ChangeInfo> infos = toChangeInfo(out, r.entities());
       if (!infos.isEmpty() && r.more()) {
-        infos.get(infos.size() - 1)._moreChanges = true;
+        ChangeInfo last = infos.get(infos.size() - 1);
+        last._moreChanges = true;
+        if (r.searchAfter() instanceof ChangeIndexCursor) {
+          last._searchAfter = ((ChangeIndexCursor) r.searchAfter()).token();
+        }
       }
       res.add(infos);
     }
@@ -389,6 +429,7 @@ public class ChangeJson {
 
   private void ensureLoaded(Iterable<ChangeData> all) throws OrmException {
     if (lazyLoad) {
+      ChangeData.ensureNotesLoaded(all);
       ChangeData.ensureChangeLoaded(all);
       if (has(ALL_REVISIONS)) {
         ChangeData.ensureAllPatchSetsLoaded(all);
@@ -413,37 +454,128 @@ public class ChangeJson {
   private List<ChangeInfo> toChangeInfo(Map<Change.Id, ChangeInfo> out, List<ChangeData> changes) {
     List<ChangeInfo> info = Lists.newArrayListWithCapacity(changes.size());
     for (ChangeData cd : changes) {
-      ChangeInfo i = out.get(cd.getId());
-      if (i == null) {
-        try {
-          i = toChangeInfo(cd, Optional.empty());
-        } catch (PatchListNotAvailableException
-            | GpgException
-            | OrmException
-            | IOException
-            | PermissionBackendException
-            | NoSuchProjectException
-            | RuntimeException e) {
-          if (has(CHECK)) {
-            i = checkOnly(cd);
-          } else if (e instanceof NoSuchChangeException) {
-            log.info(
-                "NoSuchChangeException: Omitting corrupt change "
-                    + cd.getId()
-                    + " from results. Seems to be stale in the index.");
-            continue;
-          } else {
-            log.warn("Omitting corrupt change " + cd.getId() + " from results", e);
-            continue;
-          }
-        }
+      ChangeInfo i;
+      if (out.containsKey(cd.getId())) {
+        i = out.get(cd.getId());
+      } else {
+        i = toChangeInfoOrNull(cd);
         out.put(cd.getId(), i);
       }
-      info.add(i);
+      if (i != null) {
+        info.add(i);
+      }
     }
     return info;
   }
 
+  /**
+   * Format one change of a query result.
+   *
+   * @return the change, or null if it is corrupt and should be omitted from the results.
+   */
+  @Nullable
+  private ChangeInfo toChangeInfoOrNull(ChangeData cd) {
+    try {
+      return toChangeInfo(cd, Optional.empty());
+    } catch (PatchListNotAvailableException
+        | GpgException
+        | OrmException
+        | IOException
+        | PermissionBackendException
+        | NoSuchProjectException
+        | RuntimeException e) {
+      if (has(CHECK)) {
+        return checkOnly(cd);
+      } else if (e instanceof NoSuchChangeException) {
+        log.info(
+            "NoSuchChangeException: Omitting corrupt change "
+                + cd.getId()
+                + " from results. Seems to be stale in the index.");
+      } else {
+        log.warn("Omitting corrupt change " + cd.getId() + " from results", e);
+      }
+      return null;
+    }
+  }
+
+  private boolean canFormatInParallel() {
+    // The ChangeData of the query result still refer to the ReviewDb of the request, which is only
+    // safe to share if changes are not read from it. Consistency checks may also fix changes, so
+    // they are kept sequential.
+    return formatThreads > 1 && !has(CHECK) && notesMigration.disableChangeReviewDb();
+  }
+
+  /**
+   * Format distinct changes on the {@link ChangeJsonExecutor} with up to {@code formatThreads}
+   * workers, and store the results in {@code out}.
+   *
+   * <p>Each worker formats changes with its own {@link ChangeJson}, so that no state is shared
+   * between threads. The accounts its {@link AccountLoader} collects are handed to the request's
+   * loader, so that all accounts are still filled by a single {@link AccountLoader#fill()}.
+   */
+  private void formatInParallel(Map<Change.Id, ChangeInfo> out, Iterable<ChangeData> all)
+      throws OrmException {
+    Map<Change.Id, ChangeData> distinct = new LinkedHashMap<>();
+    for (ChangeData cd : all) {
+      distinct.putIfAbsent(cd.getId(), cd);
+    }
+    if (distinct.size() <= 1) {
+      return;
+    }
+
+    // Request scoped objects can't be looked up from other threads. Each worker runs as the
+    // current user with its own database connection, like a separate request would.
+    CurrentUser user = userProvider.get();
+
+    List<ChangeData> changes = new ArrayList<>(distinct.values());
+    ChangeInfo[] infos = new ChangeInfo[changes.size()];
+    AtomicInteger next = new AtomicInteger();
+    int workers = Math.min(formatThreads, changes.size());
+    List<ChangeJson> formatters = new ArrayList<>(workers);
+    List<Future<?>> futures = new ArrayList<>(workers);
+    try {
+      for (int i = 0; i < workers; i++) {
+        ChangeJson json = newParallelFormatter();
+        formatters.add(json);
+        futures.add(
+            formatExecutor.submit(
+                () -> {
+                  try (ManualRequestContext ctx =
+                      new ManualRequestContext(user, schemaFactory, requestContext)) {
+                    int j;
+                    while ((j = next.getAndIncrement()) < infos.length) {
+                      infos[j] = json.toChangeInfoOrNull(changes.get(j));
+                    }
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> f : futures) {
+        Futures.getChecked(f, OrmException.class);
+      }
+    } finally {
+      // Stop the other workers if one of them failed.
+      next.set(infos.length);
+      for (Future<?> f : futures) {
+        f.cancel(false);
+      }
+    }
+
+    for (ChangeJson json : formatters) {
+      accountLoader.putAll(json.accountLoader);
+    }
+    for (int i = 0; i < infos.length; i++) {
+      out.put(changes.get(i).getId(), infos[i]);
+    }
+  }
+
+  private ChangeJson newParallelFormatter() {
+    ChangeJson json = jsonFactory.create(options).lazyLoad(lazyLoad);
+    json.pluginDefinedAttributesFactory = pluginDefinedAttributesFactory;
+    json.accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
+    return json;
+  }
+
   private ChangeInfo checkOnly(ChangeData cd) {
     ChangeNotes notes;
     try {
@@ -30,6 +30,8 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.gerrit.server.cache.EnumCacheSerializer;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.InMemoryInserter;
@@ -39,6 +41,10 @@ import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.name.Named;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -71,6 +77,9 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
       protected void configure() {
         bind(ChangeKindCache.class).to(ChangeKindCacheImpl.class);
         persist(ID_CACHE, Key.class, ChangeKind.class)
+            .version(2)
+            .keySerializer(Key.Serializer.INSTANCE)
+            .valueSerializer(new EnumCacheSerializer<>(ChangeKind.class))
             .maximumWeight(2 << 20)
             .weigher(ChangeKindWeigher.class);
       }
@@ -125,6 +134,33 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
   public static class Key implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    /** Compact binary serializer for keys of the persistent {@code change_kind} cache. */
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Key object) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+          writeNotNull(out, object.prior);
+          writeNotNull(out, object.next);
+          out.writeUTF(object.strategyName);
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to serialize change kind key", e);
+        }
+        return buf.toByteArray();
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in))) {
+          return new Key(readNotNull(data), readNotNull(data), data.readUTF());
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to deserialize change kind key", e);
+        }
+      }
+    }
+
     private transient ObjectId prior;
     private transient ObjectId next;
     private transient String strategyName;
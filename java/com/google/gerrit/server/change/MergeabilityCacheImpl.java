@@ -28,7 +28,9 @@ import com.google.common.collect.ImmutableBiMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.server.cache.BooleanCacheSerializer;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheSerializer;
 import com.google.gerrit.server.git.CodeReviewCommit;
 import com.google.gerrit.server.git.CodeReviewCommit.CodeReviewRevWalk;
 import com.google.gerrit.server.git.strategy.SubmitDryRun;
@@ -36,6 +38,10 @@ import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -78,6 +84,9 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
       @Override
       protected void configure() {
         persist(CACHE_NAME, EntryKey.class, Boolean.class)
+            .version(2)
+            .keySerializer(EntryKey.Serializer.INSTANCE)
+            .valueSerializer(BooleanCacheSerializer.INSTANCE)
             .maximumWeight(1 << 20)
             .weigher(MergeabilityWeigher.class);
         bind(MergeabilityCache.class).to(MergeabilityCacheImpl.class);
@@ -92,6 +101,37 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
   public static class EntryKey implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    /** Compact binary serializer for keys of the persistent {@code mergeability} cache. */
+    enum Serializer implements CacheSerializer<EntryKey> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(EntryKey object) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+          writeNotNull(out, object.commit);
+          writeNotNull(out, object.into);
+          out.writeChar(SUBMIT_TYPES.get(object.submitType));
+          writeString(out, object.mergeStrategy);
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to serialize mergeability key", e);
+        }
+        return buf.toByteArray();
+      }
+
+      @Override
+      public EntryKey deserialize(byte[] in) {
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in))) {
+          ObjectId commit = readNotNull(data);
+          ObjectId into = readNotNull(data);
+          SubmitType submitType = SUBMIT_TYPES.inverse().get(data.readChar());
+          return new EntryKey(commit, into, submitType, readString(data));
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to deserialize mergeability key", e);
+        }
+      }
+    }
+
     private ObjectId commit;
     private ObjectId into;
     private SubmitType submitType;
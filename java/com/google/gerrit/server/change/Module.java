@@ -25,11 +25,21 @@ import static com.google.gerrit.server.change.RevisionResource.REVISION_KIND;
 import static com.google.gerrit.server.change.RobotCommentResource.ROBOT_COMMENT_KIND;
 import static com.google.gerrit.server.change.VoteResource.VOTE_KIND;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.restapi.RestApiModule;
 import com.google.gerrit.server.account.AccountLoader;
 import com.google.gerrit.server.change.Reviewed.DeleteReviewed;
 import com.google.gerrit.server.change.Reviewed.PutReviewed;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
 
 public class Module extends RestApiModule {
   @Override
@@ -179,4 +189,27 @@ public class Module extends RestApiModule {
     factory(SetHashtagsOp.Factory.class);
     factory(WorkInProgressOp.Factory.class);
   }
+
+  @Provides
+  @Singleton
+  @ChangeJsonExecutor
+  ListeningExecutorService createChangeJsonExecutor(@GerritServerConfig Config cfg) {
+    int poolSize = ChangeJson.formatThreads(cfg);
+    if (poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    // A ThreadPoolExecutor only starts more than its core threads once the queue is full, so the
+    // core size must be the pool size; idle threads are still released.
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            10,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<Runnable>(poolSize),
+            new ThreadFactoryBuilder().setNameFormat("ChangeJson-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(MoreExecutors.getExitingExecutorService(executor));
+  }
 }
@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.events;
 
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.restapi.AuthException;
@@ -24,6 +25,8 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -33,14 +36,29 @@ import com.google.gerrit.server.permissions.RefPermission;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Distributes Events to listeners if they are allowed to see them */
+/**
+ * Distributes Events to listeners if they are allowed to see them
+ *
+ * <p>Events are delivered on the {@link EventDispatchExecutor}, so posting an event does not wait
+ * for visibility checks. Each event loads its change at most once, and only if there are
+ * user-scoped listeners. Visibility is evaluated once per distinct user rather than once per
+ * listener.
+ */
 @Singleton
 public class EventBroker implements EventDispatcher {
   private static final Logger log = LoggerFactory.getLogger(EventBroker.class);
@@ -51,6 +69,20 @@ public class EventBroker implements EventDispatcher {
       DynamicItem.itemOf(binder(), EventDispatcher.class);
       DynamicItem.bind(binder(), EventDispatcher.class).to(EventBroker.class);
     }
+
+    @Provides
+    @Singleton
+    @EventDispatchExecutor
+    ExecutorService createEventDispatchExecutor(WorkQueue queues) {
+      // A single thread keeps events in the order they were posted.
+      return queues.createQueue(1, "EventDispatch");
+    }
+  }
+
+  /** Visibility of a single event, evaluated once per distinct user. */
+  @FunctionalInterface
+  protected interface VisibilityCheck {
+    boolean isVisibleTo(CurrentUser user) throws OrmException, PermissionBackendException;
   }
 
   /** Listeners to receive changes as they happen (limited by visibility of user). */
@@ -66,6 +98,10 @@ public class EventBroker implements EventDispatcher {
 
   protected final Provider<ReviewDb> dbProvider;
 
+  // Null if events are delivered on the posting thread.
+  private ExecutorService executor;
+  private OneOffRequestContext requestContext;
+
   @Inject
   public EventBroker(
       DynamicSet<UserScopedEventListener> listeners,
@@ -82,26 +118,110 @@ public class EventBroker implements EventDispatcher {
     this.dbProvider = dbProvider;
   }
 
+  /**
+   * Deliver events on the {@link EventDispatchExecutor}, unless {@code event.asyncDispatch} is
+   * false. Brokers not created by Guice deliver events on the posting thread.
+   */
+  @Inject
+  void setDispatchExecutor(
+      @GerritServerConfig Config cfg,
+      OneOffRequestContext requestContext,
+      @EventDispatchExecutor Provider<ExecutorService> executor) {
+    if (cfg.getBoolean("event", null, "asyncDispatch", true)) {
+      this.requestContext = requestContext;
+      this.executor = executor.get();
+    }
+  }
+
   @Override
   public void postEvent(Change change, ChangeEvent event)
       throws OrmException, PermissionBackendException {
-    fireEvent(change, event);
+    if (!dispatch(event, () -> fireEvent(change, event))) {
+      fireEvent(change, event);
+    }
   }
 
   @Override
   public void postEvent(Branch.NameKey branchName, RefEvent event)
       throws PermissionBackendException {
-    fireEvent(branchName, event);
+    if (!dispatch(event, () -> fireEvent(branchName, event))) {
+      fireEvent(branchName, event);
+    }
   }
 
   @Override
   public void postEvent(Project.NameKey projectName, ProjectEvent event) {
-    fireEvent(projectName, event);
+    if (!dispatch(event, () -> fireEvent(projectName, event))) {
+      fireEvent(projectName, event);
+    }
   }
 
   @Override
   public void postEvent(Event event) throws OrmException, PermissionBackendException {
-    fireEvent(event);
+    if (!dispatch(event, () -> fireEvent(event))) {
+      fireEvent(event);
+    }
+  }
+
+  private interface Delivery {
+    void run() throws OrmException, PermissionBackendException;
+  }
+
+  /**
+   * Queue delivery of an event on the dispatch executor.
+   *
+   * <p>Errors of a queued delivery can no longer reach the caller and are logged instead.
+   *
+   * @return false if the caller must deliver the event itself, so that errors propagate to it.
+   */
+  private boolean dispatch(Event event, Delivery delivery) {
+    if (executor == null) {
+      return false;
+    }
+    try {
+      executor.execute(
+          () -> {
+            // The posting request may be gone by now; use a context of our own for loading
+            // changes.
+            try (ManualRequestContext ctx = requestContext.open()) {
+              delivery.run();
+            } catch (OrmException | PermissionBackendException | RuntimeException e) {
+              log.error("Failed to dispatch event " + event.getType(), e);
+            }
+          });
+      return true;
+    } catch (RejectedExecutionException e) {
+      // Event dispatch is shutting down.
+      return false;
+    }
+  }
+
+  /**
+   * Deliver an event to every user-scoped listener allowed to see it, and to all unrestricted
+   * listeners.
+   *
+   * <p>Listeners acting as the same account share a single visibility check. Unrestricted listeners
+   * receive the event even if checking its visibility fails.
+   */
+  protected void fireEvent(Event event, VisibilityCheck check)
+      throws OrmException, PermissionBackendException {
+    try {
+      Map<Object, Boolean> visibleByUser = new HashMap<>();
+      for (UserScopedEventListener listener : listeners) {
+        CurrentUser user = listener.getUser();
+        Object key = user.isIdentifiedUser() ? user.getAccountId() : user;
+        Boolean visible = visibleByUser.get(key);
+        if (visible == null) {
+          visible = check.isVisibleTo(user);
+          visibleByUser.put(key, visible);
+        }
+        if (visible) {
+          listener.onEvent(event);
+        }
+      }
+    } finally {
+      fireEventForUnrestrictedListeners(event);
+    }
   }
 
   protected void fireEventForUnrestrictedListeners(Event event) {
@@ -112,40 +232,74 @@ public class EventBroker implements EventDispatcher {
 
   protected void fireEvent(Change change, ChangeEvent event)
       throws OrmException, PermissionBackendException {
-    for (UserScopedEventListener listener : listeners) {
-      if (isVisibleTo(change, listener.getUser())) {
-        listener.onEvent(event);
-      }
-    }
-    fireEventForUnrestrictedListeners(event);
+    fireEvent(event, new ChangeVisibilityCheck(() -> loadNotes(change), user -> false));
   }
 
   protected void fireEvent(Project.NameKey project, ProjectEvent event) {
-    for (UserScopedEventListener listener : listeners) {
-      if (isVisibleTo(project, listener.getUser())) {
-        listener.onEvent(event);
-      }
+    try {
+      fireEvent(event, user -> isVisibleTo(project, user));
+    } catch (OrmException | PermissionBackendException e) {
+      // Not thrown by the project visibility check.
+      throw new IllegalStateException(e);
     }
-    fireEventForUnrestrictedListeners(event);
   }
 
   protected void fireEvent(Branch.NameKey branchName, RefEvent event)
       throws PermissionBackendException {
-    for (UserScopedEventListener listener : listeners) {
-      if (isVisibleTo(branchName, listener.getUser())) {
-        listener.onEvent(event);
-      }
+    try {
+      fireEvent(event, user -> isVisibleTo(branchName, user));
+    } catch (OrmException e) {
+      // Not thrown by the branch visibility check.
+      throw new IllegalStateException(e);
     }
-    fireEventForUnrestrictedListeners(event);
   }
 
   protected void fireEvent(Event event) throws OrmException, PermissionBackendException {
-    for (UserScopedEventListener listener : listeners) {
-      if (isVisibleTo(event, listener.getUser())) {
-        listener.onEvent(event);
+    if (event instanceof RefEvent) {
+      RefEvent refEvent = (RefEvent) event;
+      fireEvent(
+          event,
+          new ChangeVisibilityCheck(
+              () -> loadNotes(refEvent),
+              user -> isVisibleTo(refEvent.getBranchNameKey(), user)));
+      return;
+    }
+    fireEvent(event, user -> isVisibleTo(event, user));
+  }
+
+  private interface NotesLoader {
+    @Nullable
+    ChangeNotes load() throws OrmException;
+  }
+
+  /**
+   * Visibility of an event by the visibility of its change.
+   *
+   * <p>The change is only loaded when the first user is checked, so events without user-scoped
+   * listeners don't load it at all. If there is no change, the fallback check decides.
+   */
+  private class ChangeVisibilityCheck implements VisibilityCheck {
+    private final NotesLoader loader;
+    private final VisibilityCheck fallback;
+    private boolean loaded;
+    private ChangeNotes notes;
+
+    ChangeVisibilityCheck(NotesLoader loader, VisibilityCheck fallback) {
+      this.loader = loader;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public boolean isVisibleTo(CurrentUser user) throws OrmException, PermissionBackendException {
+      if (!loaded) {
+        notes = loader.load();
+        loaded = true;
+      }
+      if (notes == null) {
+        return fallback.isVisibleTo(user);
       }
+      return EventBroker.this.isVisibleTo(notes, user);
     }
-    fireEventForUnrestrictedListeners(event);
   }
 
   protected boolean isVisibleTo(Project.NameKey project, CurrentUser user) {
@@ -159,19 +313,47 @@ public class EventBroker implements EventDispatcher {
 
   protected boolean isVisibleTo(Change change, CurrentUser user)
       throws OrmException, PermissionBackendException {
+    ChangeNotes notes = loadNotes(change);
+    return notes != null && isVisibleTo(notes, user);
+  }
+
+  protected boolean isVisibleTo(ChangeNotes notes, CurrentUser user)
+      throws OrmException, PermissionBackendException {
+    return permissionBackend
+        .user(user)
+        .change(notes)
+        .database(dbProvider.get())
+        .test(ChangePermission.READ);
+  }
+
+  /** Returns notes of the change, or null if nobody can see the change. */
+  private ChangeNotes loadNotes(Change change) throws OrmException {
     if (change == null) {
-      return false;
+      return null;
     }
     ProjectState pe = projectCache.get(change.getProject());
     if (pe == null) {
-      return false;
+      return null;
+    }
+    return notesFactory.createChecked(dbProvider.get(), change);
+  }
+
+  /**
+   * Returns notes of the change the event's ref belongs to, or null if visibility should be decided
+   * by the ref itself.
+   */
+  private ChangeNotes loadNotes(RefEvent refEvent) throws OrmException {
+    String ref = refEvent.getRefName();
+    if (!PatchSet.isChangeRef(ref) || projectCache.get(refEvent.getProjectNameKey()) == null) {
+      return null;
+    }
+    Change.Id cid = PatchSet.Id.fromRef(ref).getParentKey();
+    try {
+      return notesFactory.createChecked(dbProvider.get(), refEvent.getProjectNameKey(), cid);
+    } catch (NoSuchChangeException e) {
+      log.debug("Change {} cannot be found, falling back on ref visibility check", cid.id);
+      return null;
     }
-    ReviewDb db = dbProvider.get();
-    return permissionBackend
-        .user(user)
-        .change(notesFactory.createChecked(db, change))
-        .database(db)
-        .test(ChangePermission.READ);
   }
 
   protected boolean isVisibleTo(Branch.NameKey branchName, CurrentUser user)
@@ -187,18 +369,9 @@ public class EventBroker implements EventDispatcher {
       throws OrmException, PermissionBackendException {
     if (event instanceof RefEvent) {
       RefEvent refEvent = (RefEvent) event;
-      String ref = refEvent.getRefName();
-      if (PatchSet.isChangeRef(ref)) {
-        Change.Id cid = PatchSet.Id.fromRef(ref).getParentKey();
-        try {
-          Change change =
-              notesFactory
-                  .createChecked(dbProvider.get(), refEvent.getProjectNameKey(), cid)
-                  .getChange();
-          return isVisibleTo(change, user);
-        } catch (NoSuchChangeException e) {
-          log.debug("Change {} cannot be found, falling back on ref visibility check", cid.id);
-        }
+      ChangeNotes notes = loadNotes(refEvent);
+      if (notes != null) {
+        return isVisibleTo(notes, user);
       }
       return isVisibleTo(refEvent.getBranchNameKey(), user);
     } else if (event instanceof ProjectEvent) {
@@ -0,0 +1,203 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Per-project index of patch set refs, by commit and by change.
+ *
+ * <p>An entry is built by scanning {@code refs/changes/} once, and afterwards kept current from
+ * {@link GitReferenceUpdatedListener} events, so that callers like {@code ReceiveCommits} do not
+ * have to hash every change ref of a repository on each push.
+ *
+ * <p>The cache is held in memory only: events are not seen while the server is down, so an entry
+ * written to disk could not be trusted after a restart. Updates made to change refs outside of
+ * Gerrit are not seen by this cache either. Callers should check the refs returned by it against
+ * the current refs of the repository.
+ */
+@Singleton
+public class ChangeRefCache implements GitReferenceUpdatedListener {
+  private static final String CACHE_NAME = "change_refs";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        // Entries are few but can be huge. With the default concurrency level a project would only
+        // fit in a quarter of the limit, as each segment of the cache gets an equal share of it.
+        cache(CACHE_NAME, String.class, ChangeRefs.class)
+            .maximumWeight(2 << 20)
+            .concurrencyLevel(1)
+            .weigher(Weigher.class);
+        bind(ChangeRefCache.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ChangeRefCache.class);
+      }
+    };
+  }
+
+  private final Cache<String, ChangeRefs> cache;
+  private final Striped<Lock> loadLocks = Striped.lock(64);
+
+  @Inject
+  ChangeRefCache(@Named(CACHE_NAME) Cache<String, ChangeRefs> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get the patch set refs of a project, scanning the repository if they are not cached yet.
+   *
+   * <p>The returned object is updated in place as change refs of the project are updated.
+   */
+  public ChangeRefs get(Project.NameKey project, Repository repo) throws IOException {
+    ChangeRefs refs = cache.getIfPresent(project.get());
+    if (refs != null) {
+      return refs;
+    }
+    Lock lock = loadLocks.get(project);
+    lock.lock();
+    try {
+      refs = cache.getIfPresent(project.get());
+      if (refs == null) {
+        refs = ChangeRefs.scan(repo);
+        cache.put(project.get(), refs);
+      }
+      return refs;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(Event event) {
+    PatchSet.Id psId = PatchSet.Id.fromRef(event.getRefName());
+    if (psId == null) {
+      return;
+    }
+    String project = event.getProjectName();
+    ChangeRefs refs = cache.getIfPresent(project);
+    if (refs == null) {
+      // Wait for a concurrent scan, which may have missed this update, to store its result.
+      Lock lock = loadLocks.get(new Project.NameKey(project));
+      lock.lock();
+      try {
+        refs = cache.getIfPresent(project);
+      } finally {
+        lock.unlock();
+      }
+      if (refs == null) {
+        // The next scan sees the update.
+        return;
+      }
+    }
+    ObjectId newId = event.isDelete() ? null : ObjectId.fromString(event.getNewObjectId());
+    if (refs.update(psId, newId)) {
+      // Entries are updated in place; put them again only so that they are reweighed.
+      cache.put(project, refs);
+    }
+  }
+
+  public static class Weigher implements com.google.common.cache.Weigher<String, ChangeRefs> {
+    @Override
+    public int weigh(String project, ChangeRefs refs) {
+      return 1 + refs.size();
+    }
+  }
+
+  /** Patch set refs of a single project. */
+  public static class ChangeRefs {
+    private final Map<PatchSet.Id, ObjectId> byPatchSet = new HashMap<>();
+    private final ListMultimap<ObjectId, PatchSet.Id> byCommit =
+        MultimapBuilder.hashKeys().arrayListValues(1).build();
+    private final ListMultimap<Change.Id, PatchSet.Id> byChange =
+        MultimapBuilder.hashKeys().arrayListValues(4).build();
+
+    static ChangeRefs scan(Repository repo) throws IOException {
+      ChangeRefs refs = new ChangeRefs();
+      for (Ref ref : repo.getRefDatabase().getRefs(RefNames.REFS_CHANGES).values()) {
+        PatchSet.Id psId = PatchSet.Id.fromRef(ref.getName());
+        if (psId != null && ref.getObjectId() != null) {
+          refs.put(psId, ref.getObjectId());
+        }
+      }
+      return refs;
+    }
+
+    private ChangeRefs() {}
+
+    /** @return patch sets whose ref pointed to {@code id} when last updated. */
+    public synchronized ImmutableList<PatchSet.Id> get(ObjectId id) {
+      return ImmutableList.copyOf(byCommit.get(id));
+    }
+
+    /** @return patch sets of {@code changeId} that had a ref when last updated. */
+    public synchronized ImmutableList<PatchSet.Id> get(Change.Id changeId) {
+      return ImmutableList.copyOf(byChange.get(changeId));
+    }
+
+    public synchronized int size() {
+      return byPatchSet.size();
+    }
+
+    /**
+     * Record a new value of a patch set ref.
+     *
+     * @param psId patch set whose ref was updated.
+     * @param id new value of the ref, or null if it was deleted.
+     * @return whether this changed the indexed refs.
+     */
+    synchronized boolean update(PatchSet.Id psId, @Nullable ObjectId id) {
+      ObjectId old = byPatchSet.remove(psId);
+      if (old != null) {
+        byCommit.remove(old, psId);
+        byChange.remove(psId.getParentKey(), psId);
+      }
+      if (id != null) {
+        put(psId, id);
+      }
+      return old == null ? id != null : !old.equals(id);
+    }
+
+    private void put(PatchSet.Id psId, ObjectId id) {
+      id = id.copy();
+      byPatchSet.put(psId, id);
+      byCommit.put(id, psId);
+      byChange.put(psId.getParentKey(), psId);
+    }
+  }
+}
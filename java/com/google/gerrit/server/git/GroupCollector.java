@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Function;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -98,21 +99,25 @@ public class GroupCollector {
     List<String> lookup(PatchSet.Id psId) throws OrmException;
   }
 
-  private final ListMultimap<ObjectId, PatchSet.Id> patchSetsBySha;
+  private final Function<ObjectId, List<PatchSet.Id>> patchSetsBySha;
   private final ListMultimap<ObjectId, String> groups;
   private final SetMultimap<String, String> groupAliases;
   private final Lookup groupLookup;
 
   private boolean done;
 
+  /**
+   * @param patchSetsBySha function returning the existing patch sets of a commit, or an empty list
+   *     if there are none.
+   */
   public static GroupCollector create(
-      ListMultimap<ObjectId, Ref> changeRefsById,
+      Function<ObjectId, List<PatchSet.Id>> patchSetsBySha,
       ReviewDb db,
       PatchSetUtil psUtil,
       ChangeNotes.Factory notesFactory,
       Project.NameKey project) {
     return new GroupCollector(
-        transformRefs(changeRefsById),
+        patchSetsBySha,
         new Lookup() {
           @Override
           public List<String> lookup(PatchSet.Id psId) throws OrmException {
@@ -127,7 +132,7 @@ public class GroupCollector {
   public static GroupCollector createForSchemaUpgradeOnly(
       ListMultimap<ObjectId, Ref> changeRefsById, ReviewDb db) {
     return new GroupCollector(
-        transformRefs(changeRefsById),
+        transformRefs(changeRefsById)::get,
         new Lookup() {
           @Override
           public List<String> lookup(PatchSet.Id psId) throws OrmException {
@@ -137,7 +142,8 @@ public class GroupCollector {
         });
   }
 
-  private GroupCollector(ListMultimap<ObjectId, PatchSet.Id> patchSetsBySha, Lookup groupLookup) {
+  private GroupCollector(
+      Function<ObjectId, List<PatchSet.Id>> patchSetsBySha, Lookup groupLookup) {
     this.patchSetsBySha = patchSetsBySha;
     this.groupLookup = groupLookup;
     groups = MultimapBuilder.hashKeys().arrayListValues().build();
@@ -154,7 +160,7 @@ public class GroupCollector {
       ListMultimap<ObjectId, PatchSet.Id> patchSetsBySha,
       ListMultimap<PatchSet.Id, String> groupLookup) {
     this(
-        patchSetsBySha,
+        patchSetsBySha::get,
         new Lookup() {
           @Override
           public List<String> lookup(PatchSet.Id psId) {
@@ -247,7 +253,7 @@ public class GroupCollector {
 
   private boolean isGroupFromExistingPatchSet(RevCommit commit, String group) {
     ObjectId id = parseGroup(commit, group);
-    return id != null && patchSetsBySha.containsKey(id);
+    return id != null && !patchSetsBySha.apply(id).isEmpty();
   }
 
   private Set<String> resolveGroups(ObjectId forCommit, Collection<String> candidates)
@@ -289,7 +295,7 @@ public class GroupCollector {
   private Iterable<String> resolveGroup(ObjectId forCommit, String group) throws OrmException {
     ObjectId id = parseGroup(forCommit, group);
     if (id != null) {
-      PatchSet.Id psId = Iterables.getFirst(patchSetsBySha.get(id), null);
+      PatchSet.Id psId = Iterables.getFirst(patchSetsBySha.apply(id), null);
       if (psId != null) {
         List<String> groups = groupLookup.lookup(psId);
         // Group for existing patch set may be missing, e.g. if group has not
@@ -15,11 +15,18 @@
 package com.google.gerrit.server.git;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
@@ -31,19 +38,29 @@ import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import com.google.inject.util.Providers;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Cache of the changes in a project, as needed by {@link VisibleRefFilter}.
+ *
+ * <p>Each project's entry is a snapshot of its changes read from the secondary index. Updates to
+ * change refs only mark the affected change as stale, and the next read reloads just the stale
+ * changes instead of querying the whole project again.
+ */
 @Singleton
 public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
   private static final Logger log = LoggerFactory.getLogger(SearchingChangeCacheImpl.class);
@@ -66,7 +83,7 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
         bind(SearchingChangeCacheImpl.class)
             .toProvider(Providers.<SearchingChangeCacheImpl>of(null));
       } else {
-        cache(ID_CACHE, Project.NameKey.class, new TypeLiteral<List<CachedChange>>() {})
+        cache(ID_CACHE, Project.NameKey.class, Snapshot.class)
             .maximumWeight(0)
             .loader(Loader.class);
 
@@ -86,17 +103,78 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
 
     @Nullable
     abstract ReviewerSet reviewers();
+
+    static CachedChange create(ChangeData cd) throws OrmException {
+      return create(cd.change(), cd.getReviewers());
+    }
+
+    static CachedChange create(Change change, @Nullable ReviewerSet reviewers) {
+      return new AutoValue_SearchingChangeCacheImpl_CachedChange(change, reviewers);
+    }
+  }
+
+  @AutoValue
+  abstract static class Snapshot {
+    /** Changes as last read from the index. */
+    abstract ImmutableMap<Change.Id, CachedChange> changes();
+
+    /** Changes whose refs were updated since they were read. */
+    abstract ImmutableSet<Change.Id> stale();
+
+    /**
+     * Number of updates marked on this snapshot, so that a refresh that started before an update
+     * never replaces the snapshot marked by it, even if the change was stale already.
+     */
+    abstract long generation();
+
+    static Snapshot create(Map<Change.Id, CachedChange> changes) {
+      return new AutoValue_SearchingChangeCacheImpl_Snapshot(
+          ImmutableMap.copyOf(changes), ImmutableSet.of(), 0);
+    }
+
+    Snapshot withStale(Change.Id id) {
+      ImmutableSet<Change.Id> stale =
+          stale().contains(id)
+              ? stale()
+              : ImmutableSet.<Change.Id>builder().addAll(stale()).add(id).build();
+      return new AutoValue_SearchingChangeCacheImpl_Snapshot(changes(), stale, generation() + 1);
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Counter1<String> snapshotRequests;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      snapshotRequests =
+          metricMaker.newCounter(
+              "git/visible_changes/snapshot_requests",
+              new Description("Reads of cached per-project change snapshots")
+                  .setRate()
+                  .setUnit("requests"),
+              Field.ofString("result"));
+    }
   }
 
-  private final LoadingCache<Project.NameKey, List<CachedChange>> cache;
+  private final LoadingCache<Project.NameKey, Snapshot> cache;
   private final ChangeData.Factory changeDataFactory;
+  private final OneOffRequestContext requestContext;
+  private final Provider<InternalChangeQuery> queryProvider;
+  private final Metrics metrics;
 
   @Inject
   SearchingChangeCacheImpl(
-      @Named(ID_CACHE) LoadingCache<Project.NameKey, List<CachedChange>> cache,
-      ChangeData.Factory changeDataFactory) {
+      @Named(ID_CACHE) LoadingCache<Project.NameKey, Snapshot> cache,
+      ChangeData.Factory changeDataFactory,
+      OneOffRequestContext requestContext,
+      Provider<InternalChangeQuery> queryProvider,
+      Metrics metrics) {
     this.cache = cache;
     this.changeDataFactory = changeDataFactory;
+    this.requestContext = requestContext;
+    this.queryProvider = queryProvider;
+    this.metrics = metrics;
   }
 
   /**
@@ -111,28 +189,82 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
    */
   public List<ChangeData> getChangeData(ReviewDb db, Project.NameKey project) {
     try {
-      List<CachedChange> cached = cache.get(project);
-      List<ChangeData> cds = new ArrayList<>(cached.size());
-      for (CachedChange cc : cached) {
+      Snapshot snapshot = cache.getIfPresent(project);
+      if (snapshot == null) {
+        metrics.snapshotRequests.increment("miss");
+        snapshot = cache.get(project);
+      } else if (!snapshot.stale().isEmpty()) {
+        metrics.snapshotRequests.increment("partial");
+        snapshot = refresh(project, snapshot);
+      } else {
+        metrics.snapshotRequests.increment("hit");
+      }
+      List<ChangeData> cds = new ArrayList<>(snapshot.changes().size());
+      for (CachedChange cc : snapshot.changes().values()) {
         ChangeData cd = changeDataFactory.create(db, cc.change());
         cd.setReviewers(cc.reviewers());
         cds.add(cd);
       }
       return Collections.unmodifiableList(cds);
-    } catch (ExecutionException e) {
+    } catch (ExecutionException | OrmException e) {
       log.warn("Cannot fetch changes for " + project, e);
       return Collections.emptyList();
     }
   }
 
+  @VisibleForTesting
+  Snapshot refresh(Project.NameKey project, Snapshot snapshot) throws OrmException {
+    Map<Change.Id, CachedChange> changes = new LinkedHashMap<>(snapshot.changes());
+    changes.keySet().removeAll(snapshot.stale());
+    for (CachedChange cc : reload(project, snapshot.stale())) {
+      changes.put(cc.change().getId(), cc);
+    }
+    Snapshot updated = Snapshot.create(changes);
+    // If more changes were updated in the meantime, leave the entry alone; the next read will
+    // reload them together with these.
+    cache.asMap().replace(project, snapshot, updated);
+    return updated;
+  }
+
+  /** Read the given changes of the project from the index, omitting changes no longer in it. */
+  @VisibleForTesting
+  List<CachedChange> reload(Project.NameKey project, Set<Change.Id> ids) throws OrmException {
+    List<ChangeData> cds;
+    try (ManualRequestContext ctx = requestContext.open()) {
+      cds =
+          queryProvider
+              .get()
+              .setRequestedFields(ChangeField.CHANGE, ChangeField.REVIEWER)
+              .byLegacyChangeIds(ids);
+    }
+    List<CachedChange> changes = new ArrayList<>(cds.size());
+    for (ChangeData cd : cds) {
+      if (cd.change().getProject().equals(project)) {
+        changes.add(CachedChange.create(cd));
+      }
+    }
+    return changes;
+  }
+
   @Override
   public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
     if (event.getRefName().startsWith(RefNames.REFS_CHANGES)) {
-      cache.invalidate(new Project.NameKey(event.getProjectName()));
+      Project.NameKey project = new Project.NameKey(event.getProjectName());
+      Change.Id id = Change.Id.fromRef(event.getRefName());
+      if (id == null) {
+        cache.invalidate(project);
+      } else {
+        markStale(project, id);
+      }
     }
   }
 
-  static class Loader extends CacheLoader<Project.NameKey, List<CachedChange>> {
+  @VisibleForTesting
+  void markStale(Project.NameKey project, Change.Id id) {
+    cache.asMap().computeIfPresent(project, (k, s) -> s.withStale(id));
+  }
+
+  static class Loader extends CacheLoader<Project.NameKey, Snapshot> {
     private final OneOffRequestContext requestContext;
     private final Provider<InternalChangeQuery> queryProvider;
 
@@ -143,19 +275,18 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
     }
 
     @Override
-    public List<CachedChange> load(Project.NameKey key) throws Exception {
+    public Snapshot load(Project.NameKey key) throws Exception {
       try (ManualRequestContext ctx = requestContext.open()) {
         List<ChangeData> cds =
             queryProvider
                 .get()
                 .setRequestedFields(ChangeField.CHANGE, ChangeField.REVIEWER)
                 .byProject(key);
-        List<CachedChange> result = new ArrayList<>(cds.size());
+        Map<Change.Id, CachedChange> result = new LinkedHashMap<>(cds.size());
         for (ChangeData cd : cds) {
-          result.add(
-              new AutoValue_SearchingChangeCacheImpl_CachedChange(cd.change(), cd.getReviewers()));
+          result.put(cd.getId(), CachedChange.create(cd));
         }
-        return Collections.unmodifiableList(result);
+        return Snapshot.create(result);
       }
     }
   }
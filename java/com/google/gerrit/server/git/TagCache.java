@@ -17,10 +17,15 @@ package com.google.gerrit.server.git;
 import com.google.common.cache.Cache;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheSerializer;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -35,7 +40,9 @@ public class TagCache {
     return new CacheModule() {
       @Override
       protected void configure() {
-        persist(CACHE_NAME, String.class, EntryVal.class);
+        persist(CACHE_NAME, String.class, EntryVal.class)
+            .version(1)
+            .valueSerializer(EntryVal.Serializer.INSTANCE);
         bind(TagCache.class);
       }
     };
@@ -108,6 +115,42 @@ public class TagCache {
 
     transient TagSetHolder holder;
 
+    enum Serializer implements CacheSerializer<EntryVal> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(EntryVal object) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+          TagSet tags = object.holder.getTagSet();
+          out.writeUTF(object.holder.getProjectName().get());
+          out.writeBoolean(tags != null);
+          if (tags != null) {
+            tags.writeTo(out);
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to serialize EntryVal", e);
+        }
+        return buf.toByteArray();
+      }
+
+      @Override
+      public EntryVal deserialize(byte[] in) {
+        EntryVal val = new EntryVal();
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in))) {
+          val.holder = new TagSetHolder(new Project.NameKey(data.readUTF()));
+          if (data.readBoolean()) {
+            TagSet tags = new TagSet(val.holder.getProjectName());
+            tags.readFrom(data);
+            val.holder.setTagSet(tags);
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to deserialize EntryVal", e);
+        }
+        return val;
+      }
+    }
+
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
       holder = new TagSetHolder(new Project.NameKey(in.readUTF()));
       if (in.readBoolean()) {
@@ -19,6 +19,8 @@ import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -220,6 +222,45 @@ class TagSet {
     }
   }
 
+  void readFrom(DataInputStream in) throws IOException {
+    int refCnt = in.readInt();
+    for (int i = 0; i < refCnt; i++) {
+      String name = in.readUTF();
+      int flag = in.readInt();
+      ObjectId id = readNotNull(in);
+      refs.put(name, new CachedRef(flag, id));
+    }
+
+    int tagCnt = in.readInt();
+    for (int i = 0; i < tagCnt; i++) {
+      ObjectId id = readNotNull(in);
+      long[] words = new long[in.readInt()];
+      for (int j = 0; j < words.length; j++) {
+        words[j] = in.readLong();
+      }
+      tags.add(new Tag(id, BitSet.valueOf(words)));
+    }
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(refs.size());
+    for (Map.Entry<String, CachedRef> e : refs.entrySet()) {
+      out.writeUTF(e.getKey());
+      out.writeInt(e.getValue().flag);
+      writeNotNull(out, e.getValue().get());
+    }
+
+    out.writeInt(tags.size());
+    for (Tag tag : tags) {
+      writeNotNull(out, tag);
+      long[] words = tag.refFlags.toLongArray();
+      out.writeInt(words.length);
+      for (long w : words) {
+        out.writeLong(w);
+      }
+    }
+  }
+
   private boolean refresh(TagSet old, TagMatcher m) {
     if (m.newRefs.isEmpty()) {
       // No new references is a simple update. Copy from the old set.
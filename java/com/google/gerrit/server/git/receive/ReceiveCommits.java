@@ -55,6 +55,8 @@ import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.common.data.LabelType;
@@ -101,6 +103,7 @@ import com.google.gerrit.server.edit.ChangeEdit;
 import com.google.gerrit.server.edit.ChangeEditUtil;
 import com.google.gerrit.server.events.CommitReceivedEvent;
 import com.google.gerrit.server.git.BanCommit;
+import com.google.gerrit.server.git.ChangeRefCache;
 import com.google.gerrit.server.git.ChangeReportFormatter;
 import com.google.gerrit.server.git.GroupCollector;
 import com.google.gerrit.server.git.MergeOp;
@@ -161,14 +164,17 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -304,8 +310,10 @@ class ReceiveCommits {
   private final ChangeIndexer indexer;
   private final ChangeInserter.Factory changeInserterFactory;
   private final ChangeNotes.Factory notesFactory;
+  private final ChangeRefCache changeRefCache;
   private final CmdLineParser.Factory optionParserFactory;
   private final CommitValidators.Factory commitValidatorsFactory;
+  private final ListeningExecutorService commitValidationExecutor;
   private final DynamicMap<ProjectConfigEntry> pluginConfigEntries;
   private final DynamicSet<ReceivePackInitializer> initializers;
   private final MergedByPushOp.Factory mergedByPushOpFactory;
@@ -364,8 +372,7 @@ class ReceiveCommits {
 
   // Collections lazily populated during processing.
   private List<CreateRequest> newChanges;
-  private ListMultimap<Change.Id, Ref> refsByChange;
-  private ListMultimap<ObjectId, Ref> refsById;
+  private ChangeRefCache.ChangeRefs changeRefs;
 
   // Other settings populated during processing.
   private MagicBranchInput magicBranch;
@@ -390,8 +397,10 @@ class ReceiveCommits {
       ChangeIndexer indexer,
       ChangeInserter.Factory changeInserterFactory,
       ChangeNotes.Factory notesFactory,
+      ChangeRefCache changeRefCache,
       CmdLineParser.Factory optionParserFactory,
       CommitValidators.Factory commitValidatorsFactory,
+      @CommitValidationExecutor ListeningExecutorService commitValidationExecutor,
       DynamicMap<ProjectConfigEntry> pluginConfigEntries,
       DynamicSet<ReceivePackInitializer> initializers,
       MergedByPushOp.Factory mergedByPushOpFactory,
@@ -429,6 +438,7 @@ class ReceiveCommits {
     this.batchUpdateFactory = batchUpdateFactory;
     this.changeInserterFactory = changeInserterFactory;
     this.commitValidatorsFactory = commitValidatorsFactory;
+    this.commitValidationExecutor = commitValidationExecutor;
     this.changeFormatter = changeFormatterProvider.get();
     this.db = db;
     this.editUtil = editUtil;
@@ -438,6 +448,7 @@ class ReceiveCommits {
     this.mergeOpProvider = mergeOpProvider;
     this.mergedByPushOpFactory = mergedByPushOpFactory;
     this.notesFactory = notesFactory;
+    this.changeRefCache = changeRefCache;
     this.notesMigration = notesMigration;
     this.optionParserFactory = optionParserFactory;
     this.ormProvider = ormProvider;
@@ -539,6 +550,7 @@ class ReceiveCommits {
     commandProgress = progress.beginSubTask("refs", UNKNOWN);
 
     try {
+      changeRefs = changeRefCache.get(project.getNameKey(), repo);
       parseCommands(commands);
     } catch (PermissionBackendException | NoSuchProjectException | IOException err) {
       for (ReceiveCommand cmd : actualCommands) {
@@ -1718,9 +1730,9 @@ class ReceiveCommits {
     logDebug("Finding new and replaced changes");
     newChanges = new ArrayList<>();
 
-    ListMultimap<ObjectId, Ref> existing = changeRefsById();
     GroupCollector groupCollector =
-        GroupCollector.create(changeRefsById(), db, psUtil, notesFactory, project.getNameKey());
+        GroupCollector.create(
+            this::patchSetsByCommit, db, psUtil, notesFactory, project.getNameKey());
 
     try {
       RevCommit start = setUpWalkForSelectingChanges();
@@ -1756,7 +1768,7 @@ class ReceiveCommits {
         rp.getRevWalk().parseBody(c);
         String name = c.name();
         groupCollector.visit(c);
-        Collection<Ref> existingRefs = existing.get(c);
+        Collection<Ref> existingRefs = refsByCommit(c);
 
         if (rejectImplicitMerges) {
           Collections.addAll(mergedParents, c.getParents());
@@ -1791,11 +1803,8 @@ class ReceiveCommits {
 
         String idStr = !idList.isEmpty() ? idList.get(idList.size() - 1).trim() : null;
 
-        if (idStr != null) {
-          pending.put(c, new ChangeLookup(c, new Change.Key(idStr)));
-        } else {
-          pending.put(c, new ChangeLookup(c));
-        }
+        ChangeLookup lookup = new ChangeLookup(c, idStr != null ? new Change.Key(idStr) : null);
+        pending.put(c, lookup);
         int n = pending.size() + newChanges.size();
         if (maxBatchChanges != 0 && n > maxBatchChanges) {
           logDebug("{} changes exceeds limit of {}", n, maxBatchChanges);
@@ -1807,8 +1816,10 @@ class ReceiveCommits {
         }
 
         if (commitAlreadyTracked) {
+          // Needed right away; other lookups are deferred and done in bulk below.
+          lookup.lookUp();
           boolean changeExistsOnDestBranch = false;
-          for (ChangeData cd : pending.get(c).destChanges) {
+          for (ChangeData cd : lookup.destChanges) {
             if (cd.change().getDest().equals(magicBranch.dest)) {
               changeExistsOnDestBranch = true;
               break;
@@ -1856,6 +1867,7 @@ class ReceiveCommits {
         rejectImplicitMerges(mergedParents);
       }
 
+      lookUpChangeKeys(pending.values());
       for (Iterator<ChangeLookup> itr = pending.values().iterator(); itr.hasNext(); ) {
         ChangeLookup p = itr.next();
         if (p.changeKey == null) {
@@ -1920,7 +1932,7 @@ class ReceiveCommits {
 
           // In case the change look up from the index failed,
           // double check against the existing refs
-          if (foundInExistingRef(existing.get(p.commit))) {
+          if (foundInExistingRef(refsByCommit(p.commit))) {
             if (pending.size() == 1) {
               reject(magicBranch.cmd, "commit(s) already exists (as current patchset)");
               newChanges = Collections.emptyList();
@@ -2070,8 +2082,26 @@ class ReceiveCommits {
   }
 
   private void markHeadsAsUninteresting(RevWalk rw, @Nullable String forRef) {
+    // Only consider refs that were advertised to the caller, but avoid iterating over all of them,
+    // as they usually include many more change refs than branches.
+    List<Ref> heads = new ArrayList<>();
+    try {
+      for (String name : repo.getRefDatabase().getRefs(R_HEADS).keySet()) {
+        Ref ref = allRefs().get(R_HEADS + name);
+        if (ref != null) {
+          heads.add(ref);
+        }
+      }
+    } catch (IOException e) {
+      logWarn(String.format("Cannot list branches of %s", project.getName()), e);
+      heads = new ArrayList<>(allRefs().values());
+    }
+    if (forRef != null && !forRef.startsWith(R_HEADS) && allRefs().containsKey(forRef)) {
+      heads.add(allRefs().get(forRef));
+    }
+
     int i = 0;
-    for (Ref ref : allRefs().values()) {
+    for (Ref ref : heads) {
       if ((ref.getName().startsWith(R_HEADS) || ref.getName().equals(forRef))
           && ref.getObjectId() != null) {
         try {
@@ -2089,21 +2119,57 @@ class ReceiveCommits {
     return idStr.matches("^I[0-9a-fA-F]{40}$") && !idStr.matches("^I00*$");
   }
 
+  /**
+   * Look up the destination changes of all pending Change-Ids that weren't looked up yet.
+   *
+   * <p>Uses one index query for the whole push rather than one per commit.
+   */
+  private void lookUpChangeKeys(Collection<ChangeLookup> lookups) throws OrmException {
+    Set<Change.Key> keys = new LinkedHashSet<>();
+    for (ChangeLookup p : lookups) {
+      if (p.destChanges == null && p.changeKey != null) {
+        keys.add(p.changeKey);
+      }
+    }
+    if (keys.isEmpty()) {
+      return;
+    }
+    logDebug("Looking up {} Change-Ids in {}", keys.size(), magicBranch.dest);
+    List<ChangeData> candidates = queryProvider.get().byBranchKeys(magicBranch.dest, keys);
+    for (ChangeLookup p : lookups) {
+      if (p.destChanges == null && p.changeKey != null) {
+        p.select(candidates);
+      }
+    }
+  }
+
   private class ChangeLookup {
     final RevCommit commit;
-    final Change.Key changeKey;
-    final List<ChangeData> destChanges;
+    @Nullable final Change.Key changeKey;
+    List<ChangeData> destChanges;
 
-    ChangeLookup(RevCommit c, Change.Key key) throws OrmException {
+    ChangeLookup(RevCommit c, @Nullable Change.Key key) {
       commit = c;
       changeKey = key;
-      destChanges = queryProvider.get().byBranchKey(magicBranch.dest, key);
     }
 
-    ChangeLookup(RevCommit c) throws OrmException {
-      commit = c;
-      destChanges = queryProvider.get().byBranchCommit(magicBranch.dest, c.getName());
-      changeKey = null;
+    void lookUp() throws OrmException {
+      if (changeKey != null) {
+        destChanges = queryProvider.get().byBranchKey(magicBranch.dest, changeKey);
+      } else {
+        destChanges = queryProvider.get().byBranchCommit(magicBranch.dest, commit.getName());
+      }
+    }
+
+    void select(List<ChangeData> candidates) throws OrmException {
+      // Same prefix semantics as the Change-Id predicate used by byBranchKey.
+      Map<Change.Id, ChangeData> matches = new LinkedHashMap<>();
+      for (ChangeData cd : candidates) {
+        if (cd.change().getKey().get().startsWith(changeKey.get())) {
+          matches.putIfAbsent(cd.getId(), cd);
+        }
+      }
+      destChanges = new ArrayList<>(matches.values());
     }
   }
 
@@ -2381,8 +2447,9 @@ class ReceiveCommits {
         return false;
       }
 
-      for (Ref r : rp.getRepository().getRefDatabase().getRefs("refs/changes").values()) {
-        if (r.getObjectId().equals(newCommit)) {
+      for (PatchSet.Id psId : changeRefs.get(newCommit)) {
+        Ref r = repo.exactRef(psId.toRefName());
+        if (r != null && newCommit.equals(r.getObjectId())) {
           reject(inputCommand, "commit already exists (in the project)");
           return false;
         }
@@ -2630,38 +2697,35 @@ class ReceiveCommits {
   }
 
   private List<Ref> refs(Change.Id changeId) {
-    return refsByChange().get(changeId);
-  }
-
-  private void initChangeRefMaps() {
-    if (refsByChange == null) {
-      int estRefsPerChange = 4;
-      refsById = MultimapBuilder.hashKeys().arrayListValues().build();
-      refsByChange =
-          MultimapBuilder.hashKeys(allRefs().size() / estRefsPerChange)
-              .arrayListValues(estRefsPerChange)
-              .build();
-      for (Ref ref : allRefs().values()) {
-        ObjectId obj = ref.getObjectId();
-        if (obj != null) {
-          PatchSet.Id psId = PatchSet.Id.fromRef(ref.getName());
-          if (psId != null) {
-            refsById.put(obj, ref);
-            refsByChange.put(psId.getParentKey(), ref);
-          }
-        }
-      }
-    }
+    return currentRefs(changeRefs.get(changeId), null);
+  }
+
+  private List<Ref> refsByCommit(ObjectId id) {
+    return currentRefs(changeRefs.get(id), id);
   }
 
-  private ListMultimap<Change.Id, Ref> refsByChange() {
-    initChangeRefMaps();
-    return refsByChange;
+  private List<PatchSet.Id> patchSetsByCommit(ObjectId id) {
+    return Lists.transform(refsByCommit(id), r -> PatchSet.Id.fromRef(r.getName()));
   }
 
-  private ListMultimap<ObjectId, Ref> changeRefsById() {
-    initChangeRefMaps();
-    return refsById;
+  /**
+   * Resolve patch sets found in the {@link ChangeRefCache} against the refs advertised for this
+   * push, dropping refs that no longer exist or that point elsewhere.
+   */
+  private List<Ref> currentRefs(List<PatchSet.Id> psIds, @Nullable ObjectId id) {
+    if (psIds.isEmpty()) {
+      return ImmutableList.of();
+    }
+    List<Ref> refs = new ArrayList<>(psIds.size());
+    for (PatchSet.Id psId : psIds) {
+      Ref ref = allRefs().get(psId.toRefName());
+      if (ref != null
+          && ref.getObjectId() != null
+          && (id == null || id.equals(ref.getObjectId()))) {
+        refs.add(ref);
+      }
+    }
+    return refs;
   }
 
   static boolean parentsEqual(RevCommit a, RevCommit b) {
@@ -2742,11 +2806,12 @@ class ReceiveCommits {
       if (!(parsedObject instanceof RevCommit)) {
         return;
       }
-      ListMultimap<ObjectId, Ref> existing = changeRefsById();
       walk.markStart((RevCommit) parsedObject);
       markHeadsAsUninteresting(walk, cmd.getRefName());
       int limit = receiveConfig.maxBatchCommits;
       int n = 0;
+      List<RevCommit> newCommits = new ArrayList<>();
+      List<RevCommit> toValidate = new ArrayList<>();
       for (RevCommit c; (c = walk.next()) != null; ) {
         if (++n > limit) {
           logDebug("Number of new commits exceeds limit of {}", limit);
@@ -2761,25 +2826,89 @@ class ReceiveCommits {
           reject(cmd, "too many commits");
           return;
         }
-        if (existing.keySet().contains(c)) {
+        if (!refsByCommit(c).isEmpty()) {
           continue;
-        } else if (!validCommit(walk, perm, branch, cmd, c)) {
-          break;
         }
+        newCommits.add(c);
+        if (!validCommits.contains(c)) {
+          toValidate.add(c);
+        }
+      }
 
+      int valid = validateCommits(walk, perm, branch, cmd, toValidate);
+      RevCommit rejected = valid < toValidate.size() ? toValidate.get(valid) : null;
+      for (RevCommit c : newCommits) {
+        if (c == rejected) {
+          break;
+        }
         if (missingFullName && user.hasEmailAddress(c.getCommitterIdent().getEmailAddress())) {
           logDebug("Will update full name of caller");
           setFullNameTo = c.getCommitterIdent().getName();
           missingFullName = false;
         }
       }
-      logDebug("Validated {} new commits", n);
+      logDebug("Validated {} new commits", valid);
     } catch (IOException err) {
       cmd.setResult(REJECTED_MISSING_OBJECT);
       logError("Invalid pack upload; one or more objects weren't sent", err);
     }
   }
 
+  /**
+   * Validates new commits in walk order, stopping at the first one that is rejected.
+   *
+   * <p>With {@code receive.commitValidationThreads} greater than one, up to that many commits are
+   * validated concurrently, each with its own {@link RevWalk}. Results are still applied in order,
+   * so messages and the rejection reason are the same as for sequential validation.
+   *
+   * @return number of leading commits in {@code commits} that passed validation.
+   */
+  private int validateCommits(
+      RevWalk walk,
+      PermissionBackend.ForRef perm,
+      Branch.NameKey branch,
+      ReceiveCommand cmd,
+      List<RevCommit> commits)
+      throws IOException {
+    int threads = receiveConfig.commitValidationThreads;
+    if (threads <= 1 || commits.size() <= 1) {
+      for (int i = 0; i < commits.size(); i++) {
+        if (!validCommit(walk, perm, branch, cmd, commits.get(i))) {
+          return i;
+        }
+      }
+      return commits.size();
+    }
+
+    Deque<Future<CommitValidationResult>> window = new ArrayDeque<>(threads);
+    int submitted = 0;
+    try {
+      for (int i = 0; i < commits.size(); i++) {
+        while (submitted < commits.size() && window.size() < threads) {
+          ObjectId id = commits.get(submitted++).copy();
+          window.add(
+              commitValidationExecutor.submit(
+                  requestScopePropagator.wrap(
+                      () -> {
+                        try (ObjectReader reader = repo.newObjectReader();
+                            RevWalk rw = new RevWalk(reader)) {
+                          return validateCommit(rw, perm, branch, cmd, id);
+                        }
+                      })));
+        }
+        CommitValidationResult result = Futures.getChecked(window.remove(), IOException.class);
+        if (!applyValidation(cmd, commits.get(i), result)) {
+          return i;
+        }
+      }
+      return commits.size();
+    } finally {
+      for (Future<?> f : window) {
+        f.cancel(false);
+      }
+    }
+  }
+
   private boolean validCommit(
       RevWalk rw,
       PermissionBackend.ForRef perm,
@@ -2791,7 +2920,22 @@ class ReceiveCommits {
     if (validCommits.contains(id)) {
       return true;
     }
+    return applyValidation(cmd, id, validateCommit(rw, perm, branch, cmd, id));
+  }
 
+  /**
+   * Runs the commit validators on a single commit without modifying the state of this push.
+   *
+   * <p>May be called concurrently for different commits, as long as each caller uses its own
+   * {@code rw}.
+   */
+  private CommitValidationResult validateCommit(
+      RevWalk rw,
+      PermissionBackend.ForRef perm,
+      Branch.NameKey branch,
+      ReceiveCommand cmd,
+      ObjectId id)
+      throws IOException {
     RevCommit c = rw.parseCommit(id);
     rw.parseBody(c);
 
@@ -2806,17 +2950,34 @@ class ReceiveCommits {
               ? commitValidatorsFactory.forMergedCommits(perm, user.asIdentifiedUser())
               : commitValidatorsFactory.forReceiveCommits(
                   perm, branch, user.asIdentifiedUser(), sshInfo, repo, rw);
-      messages.addAll(validators.validate(receiveEvent));
+      return new CommitValidationResult(validators.validate(receiveEvent), null);
     } catch (CommitValidationException e) {
-      logDebug("Commit validation failed on {}", c.name());
-      messages.addAll(e.getMessages());
-      reject(cmd, e.getMessage());
+      return new CommitValidationResult(e.getMessages(), e.getMessage());
+    }
+  }
+
+  private boolean applyValidation(
+      ReceiveCommand cmd, ObjectId id, CommitValidationResult result) {
+    messages.addAll(result.messages);
+    if (result.error != null) {
+      logDebug("Commit validation failed on {}", id.name());
+      reject(cmd, result.error);
       return false;
     }
-    validCommits.add(c.copy());
+    validCommits.add(id.copy());
     return true;
   }
 
+  private static class CommitValidationResult {
+    final List<CommitValidationMessage> messages;
+    @Nullable final String error;
+
+    CommitValidationResult(List<CommitValidationMessage> messages, @Nullable String error) {
+      this.messages = messages;
+      this.error = error;
+    }
+  }
+
   private void autoCloseChanges(ReceiveCommand cmd) {
     logDebug("Starting auto-closing of changes");
     String refName = cmd.getRefName();
@@ -2844,7 +3005,6 @@ class ReceiveCommits {
         rw.markUninteresting(rw.parseCommit(cmd.getOldId()));
       }
 
-      ListMultimap<ObjectId, Ref> byCommit = changeRefsById();
       Map<Change.Key, ChangeNotes> byKey = null;
       List<ReplaceRequest> replaceAndClose = new ArrayList<>();
 
@@ -2854,7 +3014,7 @@ class ReceiveCommits {
       for (RevCommit c; (c = rw.next()) != null; ) {
         rw.parseBody(c);
 
-        for (Ref ref : byCommit.get(c.copy())) {
+        for (Ref ref : refsByCommit(c)) {
           existingPatchSets++;
           PatchSet.Id psId = PatchSet.Id.fromRef(ref.getName());
           bu.addOp(
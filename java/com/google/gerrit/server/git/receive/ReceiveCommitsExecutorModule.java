@@ -82,4 +82,28 @@ public class ReceiveCommitsExecutorModule extends AbstractModule {
                 new ThreadFactoryBuilder().setNameFormat("ChangeUpdate-%d").setDaemon(true).build(),
                 new ThreadPoolExecutor.CallerRunsPolicy())));
   }
+
+  @Provides
+  @Singleton
+  @CommitValidationExecutor
+  public ListeningExecutorService createCommitValidationExecutor(
+      @GerritServerConfig Config config) {
+    int poolSize = config.getInt("receive", null, "commitValidationThreads", 1);
+    if (poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    // A ThreadPoolExecutor only starts threads beyond its core size once the queue is full, so
+    // use poolSize core threads and let them time out when idle.
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            10,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<Runnable>(poolSize),
+            new ThreadFactoryBuilder().setNameFormat("CommitValidation-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(MoreExecutors.getExitingExecutorService(executor));
+  }
 }
@@ -29,6 +29,11 @@ import com.google.gerrit.common.data.AccessSection;
 import com.google.gerrit.extensions.api.config.ConsistencyCheckInfo.ConsistencyProblemInfo;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.RefNames;
@@ -83,6 +88,26 @@ public class CommitValidators {
   public static final Pattern NEW_PATCHSET_PATTERN =
       Pattern.compile("^" + REFS_CHANGES + "(?:[0-9][0-9]/)?([1-9][0-9]*)(?:/new)?$");
 
+  @Singleton
+  public static class Metrics {
+    final Timer1<String> latency;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      latency =
+          metricMaker.newTimer(
+              "receive/validate_commit_latency",
+              new Description("Latency of a single commit validator on a received commit")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              Field.ofString("validator", "commit validator implementation class"));
+    }
+
+    Timer1.Context start(CommitValidationListener validator) {
+      return latency.start(validator.getClass().getName());
+    }
+  }
+
   @Singleton
   public static class Factory {
     private final PersonIdent gerritIdent;
@@ -94,6 +119,7 @@ public class CommitValidators {
     private final AccountValidator accountValidator;
     private final String installCommitMsgHookCommand;
     private final ProjectCache projectCache;
+    private final Metrics metrics;
 
     @Inject
     Factory(
@@ -105,7 +131,8 @@ public class CommitValidators {
         AllProjectsName allProjects,
         ExternalIdsConsistencyChecker externalIdsConsistencyChecker,
         AccountValidator accountValidator,
-        ProjectCache projectCache) {
+        ProjectCache projectCache,
+        Metrics metrics) {
       this.gerritIdent = gerritIdent;
       this.canonicalWebUrl = canonicalWebUrl;
       this.pluginValidators = pluginValidators;
@@ -116,6 +143,7 @@ public class CommitValidators {
       this.installCommitMsgHookCommand =
           cfg != null ? cfg.getString("gerrit", null, "installCommitMsgHookCommand") : null;
       this.projectCache = projectCache;
+      this.metrics = metrics;
     }
 
     public CommitValidators forReceiveCommits(
@@ -139,10 +167,11 @@ public class CommitValidators {
                   projectState, user, canonicalWebUrl, installCommitMsgHookCommand, sshInfo),
               new ConfigValidator(branch, user, rw, allUsers, allProjects, projectState),
               new BannedCommitsValidator(rejectCommits),
-              new PluginCommitValidationListener(pluginValidators),
+              new PluginCommitValidationListener(pluginValidators, metrics),
               new ExternalIdUpdateListener(allUsers, externalIdsConsistencyChecker),
               new AccountCommitValidator(allUsers, accountValidator),
-              new GroupCommitValidator(allUsers)));
+              new GroupCommitValidator(allUsers)),
+          metrics);
     }
 
     public CommitValidators forGerritCommits(
@@ -166,10 +195,11 @@ public class CommitValidators {
                   installCommitMsgHookCommand,
                   sshInfo),
               new ConfigValidator(branch, user, rw, allUsers, allProjects, projectState),
-              new PluginCommitValidationListener(pluginValidators),
+              new PluginCommitValidationListener(pluginValidators, metrics),
               new ExternalIdUpdateListener(allUsers, externalIdsConsistencyChecker),
               new AccountCommitValidator(allUsers, accountValidator),
-              new GroupCommitValidator(allUsers)));
+              new GroupCommitValidator(allUsers)),
+          metrics);
     }
 
     public CommitValidators forMergedCommits(PermissionBackend.ForRef perm, IdentifiedUser user) {
@@ -190,14 +220,17 @@ public class CommitValidators {
           ImmutableList.of(
               new UploadMergesPermissionValidator(perm),
               new AuthorUploaderValidator(user, perm, canonicalWebUrl),
-              new CommitterUploaderValidator(user, perm, canonicalWebUrl)));
+              new CommitterUploaderValidator(user, perm, canonicalWebUrl)),
+          metrics);
     }
   }
 
   private final List<CommitValidationListener> validators;
+  private final Metrics metrics;
 
-  CommitValidators(List<CommitValidationListener> validators) {
+  CommitValidators(List<CommitValidationListener> validators, Metrics metrics) {
     this.validators = validators;
+    this.metrics = metrics;
   }
 
   public List<CommitValidationMessage> validate(CommitReceivedEvent receiveEvent)
@@ -205,7 +238,14 @@ public class CommitValidators {
     List<CommitValidationMessage> messages = new ArrayList<>();
     try {
       for (CommitValidationListener commitValidator : validators) {
-        messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+        if (commitValidator instanceof PluginCommitValidationListener) {
+          // Times each plugin validator individually.
+          messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+          continue;
+        }
+        try (Timer1.Context ctx = metrics.start(commitValidator)) {
+          messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+        }
       }
     } catch (CommitValidationException e) {
       // Keep the old messages (and their order) in case of an exception
@@ -509,10 +549,18 @@ public class CommitValidators {
   /** Execute commit validation plug-ins */
   public static class PluginCommitValidationListener implements CommitValidationListener {
     private final DynamicSet<CommitValidationListener> commitValidationListeners;
+    @Nullable private final Metrics metrics;
 
     public PluginCommitValidationListener(
         final DynamicSet<CommitValidationListener> commitValidationListeners) {
+      this(commitValidationListeners, null);
+    }
+
+    PluginCommitValidationListener(
+        DynamicSet<CommitValidationListener> commitValidationListeners,
+        @Nullable Metrics metrics) {
       this.commitValidationListeners = commitValidationListeners;
+      this.metrics = metrics;
     }
 
     @Override
@@ -521,7 +569,7 @@ public class CommitValidators {
       List<CommitValidationMessage> messages = new ArrayList<>();
 
       for (CommitValidationListener validator : commitValidationListeners) {
-        try {
+        try (Timer1.Context ctx = metrics != null ? metrics.start(validator) : null) {
           messages.addAll(validator.onCommitReceived(receiveEvent));
         } catch (CommitValidationException e) {
           messages.addAll(e.getMessages());
@@ -220,11 +220,17 @@ public class IndexModule extends LifecycleModule {
     if (batchExecutor != null) {
       return batchExecutor;
     }
+    return MoreExecutors.listeningDecorator(
+        workQueue.createQueue(getBatchThreads(config), "Index-Batch"));
+  }
+
+  /** @return number of threads of the batch index executor, as configured in {@code config}. */
+  public static int getBatchThreads(Config config) {
     int threads = config.getInt("index", null, "batchThreads", 0);
     if (threads <= 0) {
       threads = Runtime.getRuntime().availableProcessors();
     }
-    return MoreExecutors.listeningDecorator(workQueue.createQueue(threads, "Index-Batch"));
+    return threads;
   }
 
   @Singleton
@@ -0,0 +1,70 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Splitter;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.index.query.QueryParseException;
+import java.util.List;
+
+/**
+ * Position in the sort order of change index results.
+ *
+ * <p>Changes are returned by descending last update time, with ties broken by descending change
+ * number. A cursor identifies the last change of a page, so that the next page can be read without
+ * the index having to skip over all previous results again.
+ */
+@AutoValue
+public abstract class ChangeIndexCursor {
+  public static ChangeIndexCursor create(long updated, int changeId) {
+    return new AutoValue_ChangeIndexCursor(updated, changeId);
+  }
+
+  /**
+   * Parse a cursor passed in {@link com.google.gerrit.index.QueryOptions#searchAfter()}.
+   *
+   * @param searchAfter cursor, or its {@link #token()}.
+   * @return parsed cursor; null if {@code searchAfter} is null.
+   * @throws QueryParseException if the cursor is not valid.
+   */
+  @Nullable
+  public static ChangeIndexCursor parse(@Nullable Object searchAfter) throws QueryParseException {
+    if (searchAfter == null || searchAfter instanceof ChangeIndexCursor) {
+      return (ChangeIndexCursor) searchAfter;
+    }
+    if (searchAfter instanceof String) {
+      List<String> parts = Splitter.on('.').splitToList((String) searchAfter);
+      if (parts.size() == 2) {
+        try {
+          return create(Long.parseLong(parts.get(0), 36), Integer.parseInt(parts.get(1), 36));
+        } catch (NumberFormatException e) {
+          // Fall through.
+        }
+      }
+    }
+    throw new QueryParseException("Invalid search-after cursor: " + searchAfter);
+  }
+
+  /** @return last update time of the change, in milliseconds. */
+  public abstract long updated();
+
+  public abstract int changeId();
+
+  /** @return opaque string form of this cursor, as handed out to clients. */
+  public String token() {
+    return Long.toString(updated(), 36) + '.' + Integer.toString(changeId(), 36);
+  }
+}
@@ -18,29 +18,38 @@ import static com.google.gerrit.server.extensions.events.EventUtil.logEventListe
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.Atomics;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gerrit.extensions.events.ChangeIndexedListener;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.index.Index;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.index.IndexModule;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.NotesMigration;
+import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
 import com.google.inject.OutOfScopeException;
 import com.google.inject.Provider;
 import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import com.google.inject.util.Providers;
@@ -48,10 +57,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
@@ -62,6 +75,12 @@ import org.slf4j.LoggerFactory;
  *
  * <p>Indexing is run in the background, as it may require substantial work to compute some of the
  * fields and/or update the index.
+ *
+ * <p>Asynchronous requests made through an indexer bound to the {@link ChangeIndexCollection} are
+ * queued rather than executed one task per change. A change that is already waiting in the queue
+ * is not queued a second time; both callers share the result of the same index write. Queued
+ * changes are written to the index in batches of up to {@code index.maxBatchSize}, by at most
+ * {@code index.batchThreads} tasks at a time.
  */
 public class ChangeIndexer {
   private static final Logger log = LoggerFactory.getLogger(ChangeIndexer.class);
@@ -82,6 +101,54 @@ public class ChangeIndexer {
     return Futures.makeChecked(Futures.allAsList(futures), MAPPER);
   }
 
+  @Singleton
+  static class Metrics {
+    final AtomicLong queueDepth = new AtomicLong();
+    final AtomicLong requestCount = new AtomicLong();
+    final AtomicLong coalescedCount = new AtomicLong();
+    final Counter0 requests;
+    final Counter0 coalesced;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      metricMaker.newCallbackMetric(
+          "index/change/queue_depth",
+          Long.class,
+          new Description("Changes waiting in the reindex queue").setGauge().setUnit("changes"),
+          queueDepth::get);
+      metricMaker.newCallbackMetric(
+          "index/change/coalesce_ratio",
+          Double.class,
+          new Description("Fraction of reindex requests merged into an already queued request")
+              .setGauge(),
+          () -> {
+            long n = requestCount.get();
+            return n > 0 ? (double) coalescedCount.get() / n : 0.0;
+          });
+      requests =
+          metricMaker.newCounter(
+              "index/change/reindex_requests",
+              new Description("Asynchronous change reindex requests")
+                  .setCumulative()
+                  .setUnit("requests"));
+      coalesced =
+          metricMaker.newCounter(
+              "index/change/reindex_coalesced",
+              new Description("Reindex requests merged into an already queued request")
+                  .setCumulative()
+                  .setUnit("requests"));
+    }
+
+    void requested(boolean merged) {
+      requests.increment();
+      requestCount.incrementAndGet();
+      if (merged) {
+        coalesced.increment();
+        coalescedCount.incrementAndGet();
+      }
+    }
+  }
+
   private static final Function<Exception, IOException> MAPPER =
       new Function<Exception, IOException>() {
         @Override
@@ -108,6 +175,13 @@ public class ChangeIndexer {
   private final DynamicSet<ChangeIndexedListener> indexedListeners;
   private final StalenessChecker stalenessChecker;
   private final boolean autoReindexIfStale;
+  private final Metrics metrics;
+  private final int maxBatchSize;
+  private final int maxConcurrentDrains;
+
+  // Changes waiting to be written by a BatchIndexTask, in request order. Guarded by itself.
+  private final Map<Change.Id, PendingIndex> pending = new LinkedHashMap<>();
+  private int drainsScheduled;
 
   @AssistedInject
   ChangeIndexer(
@@ -119,6 +193,7 @@ public class ChangeIndexer {
       ThreadLocalRequestContext context,
       DynamicSet<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
+      Metrics metrics,
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndex index) {
@@ -132,6 +207,9 @@ public class ChangeIndexer {
     this.stalenessChecker = stalenessChecker;
     this.batchExecutor = batchExecutor;
     this.autoReindexIfStale = autoReindexIfStale(cfg);
+    this.metrics = metrics;
+    this.maxBatchSize = Math.max(1, cfg.getInt("index", null, "maxBatchSize", 100));
+    this.maxConcurrentDrains = IndexModule.getBatchThreads(cfg);
     this.index = index;
     this.indexes = null;
   }
@@ -146,6 +224,7 @@ public class ChangeIndexer {
       ThreadLocalRequestContext context,
       DynamicSet<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
+      Metrics metrics,
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndexCollection indexes) {
@@ -159,6 +238,9 @@ public class ChangeIndexer {
     this.stalenessChecker = stalenessChecker;
     this.batchExecutor = batchExecutor;
     this.autoReindexIfStale = autoReindexIfStale(cfg);
+    this.metrics = metrics;
+    this.maxBatchSize = Math.max(1, cfg.getInt("index", null, "maxBatchSize", 100));
+    this.maxConcurrentDrains = IndexModule.getBatchThreads(cfg);
     this.index = null;
     this.indexes = indexes;
   }
@@ -170,13 +252,35 @@ public class ChangeIndexer {
   /**
    * Start indexing a change.
    *
+   * <p>If the change is already queued and its index write has not started yet, the returned
+   * future completes together with the earlier request.
+   *
    * @param id change to index.
    * @return future for the indexing task.
    */
   @SuppressWarnings("deprecation")
   public com.google.common.util.concurrent.CheckedFuture<?, IOException> indexAsync(
       Project.NameKey project, Change.Id id) {
-    return submit(new IndexTask(project, id));
+    if (indexes == null) {
+      return submit(new IndexTask(project, id));
+    }
+
+    PendingIndex p;
+    boolean schedule;
+    synchronized (pending) {
+      p = pending.get(id);
+      metrics.requested(p != null);
+      if (p == null) {
+        p = new PendingIndex(project, id);
+        pending.put(id, p);
+        metrics.queueDepth.incrementAndGet();
+      }
+      schedule = needsDrain();
+    }
+    if (schedule) {
+      scheduleDrain();
+    }
+    return Futures.makeChecked(Futures.nonCancellationPropagating(p.future), MAPPER);
   }
 
   /**
@@ -322,6 +426,100 @@ public class ChangeIndexer {
     }
   }
 
+  /** Must be called while holding the {@code pending} lock. */
+  private boolean needsDrain() {
+    if (!pending.isEmpty() && drainsScheduled < maxConcurrentDrains) {
+      drainsScheduled++;
+      return true;
+    }
+    return false;
+  }
+
+  private void scheduleDrain() {
+    try {
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError = executor.submit(new BatchIndexTask());
+    } catch (RuntimeException e) {
+      // Executor is shutting down; fail the queued requests rather than leaving them waiting.
+      List<PendingIndex> batch;
+      synchronized (pending) {
+        drainsScheduled--;
+        batch = takeBatch(pending.size());
+      }
+      for (PendingIndex p : batch) {
+        p.future.setException(e);
+      }
+    }
+  }
+
+  /** Must be called while holding the {@code pending} lock. */
+  private List<PendingIndex> takeBatch(int max) {
+    List<PendingIndex> batch = new ArrayList<>(Math.min(max, pending.size()));
+    Iterator<PendingIndex> it = pending.values().iterator();
+    while (batch.size() < max && it.hasNext()) {
+      batch.add(it.next());
+      it.remove();
+    }
+    metrics.queueDepth.addAndGet(-batch.size());
+    return batch;
+  }
+
+  private void indexBatch(ReviewDb db, List<PendingIndex> batch) {
+    List<PendingIndex> loaded = new ArrayList<>(batch.size());
+    List<ChangeData> cds = new ArrayList<>(batch.size());
+    for (PendingIndex p : batch) {
+      try {
+        ChangeData cd = newChangeData(db, p.project, p.id);
+        // Load the change now, so that a change that cannot be loaded only fails its own request.
+        cd.change();
+        loaded.add(p);
+        cds.add(cd);
+      } catch (Exception e) {
+        if (isNoSuchChange(e)) {
+          // The change was deleted or moved since it was requested; don't leave a stale document.
+          p.complete(() -> delete(p.id));
+          continue;
+        }
+        log.error("Failed to load change " + p.id + " for reindexing", e);
+        p.future.setException(e);
+      }
+    }
+    if (cds.isEmpty()) {
+      return;
+    }
+
+    try {
+      for (ChangeIndex i : getWriteIndexes()) {
+        i.replaceAll(cds);
+      }
+    } catch (IOException | RuntimeException e) {
+      // Retry one change at a time, so that a single bad document doesn't fail the whole batch.
+      log.warn("Failed to index batch of " + cds.size() + " changes, retrying individually", e);
+      for (int i = 0; i < loaded.size(); i++) {
+        ChangeData cd = cds.get(i);
+        loaded.get(i).complete(() -> index(cd));
+      }
+      return;
+    }
+
+    for (int i = 0; i < loaded.size(); i++) {
+      ChangeData cd = cds.get(i);
+      fireChangeIndexedEvent(cd.getId().get());
+      // See comment in #index(ChangeData).
+      autoReindexIfStale(cd);
+      loaded.get(i).future.set(null);
+    }
+  }
+
+  private static boolean isNoSuchChange(Throwable t) {
+    for (Throwable c : Throwables.getCausalChain(t)) {
+      if (c instanceof NoSuchChangeException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private Collection<ChangeIndex> getWriteIndexes() {
     return indexes != null ? indexes.getWriteIndexes() : Collections.singleton(index);
   }
@@ -338,15 +536,32 @@ public class ChangeIndexer {
     return Futures.makeChecked(Futures.nonCancellationPropagating(executor.submit(task)), MAPPER);
   }
 
-  private abstract class AbstractIndexTask<T> implements Callable<T> {
-    protected final Project.NameKey project;
-    protected final Change.Id id;
+  private interface IndexAction {
+    void run() throws IOException;
+  }
+
+  private static class PendingIndex {
+    final Project.NameKey project;
+    final Change.Id id;
+    final SettableFuture<Void> future = SettableFuture.create();
 
-    protected AbstractIndexTask(Project.NameKey project, Change.Id id) {
+    PendingIndex(Project.NameKey project, Change.Id id) {
       this.project = project;
       this.id = id;
     }
 
+    void complete(IndexAction action) {
+      try {
+        action.run();
+        future.set(null);
+      } catch (IOException | RuntimeException e) {
+        log.error("Failed to index change " + id, e);
+        future.setException(e);
+      }
+    }
+  }
+
+  private abstract class AbstractIndexTask<T> implements Callable<T> {
     protected abstract T callImpl(Provider<ReviewDb> db) throws Exception;
 
     @Override
@@ -397,8 +612,12 @@ public class ChangeIndexer {
   }
 
   private class IndexTask extends AbstractIndexTask<Void> {
+    private final Project.NameKey project;
+    private final Change.Id id;
+
     private IndexTask(Project.NameKey project, Change.Id id) {
-      super(project, id);
+      this.project = project;
+      this.id = id;
     }
 
     @Override
@@ -414,6 +633,34 @@ public class ChangeIndexer {
     }
   }
 
+  private class BatchIndexTask extends AbstractIndexTask<Void> {
+    @Override
+    public Void callImpl(Provider<ReviewDb> db) throws Exception {
+      List<PendingIndex> batch;
+      synchronized (pending) {
+        batch = takeBatch(maxBatchSize);
+      }
+      try {
+        indexBatch(db.get(), batch);
+      } finally {
+        boolean schedule;
+        synchronized (pending) {
+          drainsScheduled--;
+          schedule = needsDrain();
+        }
+        if (schedule) {
+          scheduleDrain();
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "index-change-batch";
+    }
+  }
+
   // Not AbstractIndexTask as it doesn't need ReviewDb.
   private class DeleteTask implements Callable<Void> {
     private final Change.Id id;
@@ -437,8 +684,12 @@ public class ChangeIndexer {
   }
 
   private class ReindexIfStaleTask extends AbstractIndexTask<Boolean> {
+    private final Project.NameKey project;
+    private final Change.Id id;
+
     private ReindexIfStaleTask(Project.NameKey project, Change.Id id) {
-      super(project, id);
+      this.project = project;
+      this.id = id;
     }
 
     @Override
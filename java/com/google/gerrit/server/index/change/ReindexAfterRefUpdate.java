@@ -26,14 +26,11 @@ import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
-import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.QueueProvider.QueueType;
 import com.google.gerrit.server.index.IndexExecutor;
-import com.google.gerrit.server.notedb.ChangeNotes;
-import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
@@ -41,6 +38,7 @@ import com.google.gerrit.server.util.RequestContext;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -49,14 +47,13 @@ import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+@Singleton
 public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
   private static final Logger log = LoggerFactory.getLogger(ReindexAfterRefUpdate.class);
 
   private final OneOffRequestContext requestContext;
   private final Provider<InternalChangeQuery> queryProvider;
-  private final ChangeIndexer.Factory indexerFactory;
-  private final ChangeIndexCollection indexes;
-  private final ChangeNotes.Factory notesFactory;
+  private final ChangeIndexer indexer;
   private final AllUsersName allUsersName;
   private final AccountCache accountCache;
   private final ListeningExecutorService executor;
@@ -69,15 +66,14 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
       Provider<InternalChangeQuery> queryProvider,
       ChangeIndexer.Factory indexerFactory,
       ChangeIndexCollection indexes,
-      ChangeNotes.Factory notesFactory,
       AllUsersName allUsersName,
       AccountCache accountCache,
       @IndexExecutor(QueueType.BATCH) ListeningExecutorService executor) {
     this.requestContext = requestContext;
     this.queryProvider = queryProvider;
-    this.indexerFactory = indexerFactory;
-    this.indexes = indexes;
-    this.notesFactory = notesFactory;
+    // Share one indexer so that changes touched by several ref updates in quick succession are
+    // coalesced in its queue and written in batches.
+    this.indexer = indexerFactory.create(executor, indexes);
     this.allUsersName = allUsersName;
     this.accountCache = accountCache;
     this.executor = executor;
@@ -108,10 +104,11 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
         new FutureCallback<List<Change>>() {
           @Override
           public void onSuccess(List<Change> changes) {
+            Project.NameKey project = new Project.NameKey(event.getProjectName());
             for (Change c : changes) {
               // Don't retry indefinitely; if this fails changes may be stale.
               @SuppressWarnings("unused")
-              Future<?> possiblyIgnoredError = executor.submit(new Index(event, c.getId()));
+              Future<?> possiblyIgnoredError = indexer.indexAsync(project, c.getId());
             }
           }
 
@@ -166,34 +163,4 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
           + event.getProjectName();
     }
   }
-
-  private class Index extends Task<Void> {
-    private final Change.Id id;
-
-    Index(Event event, Change.Id id) {
-      super(event);
-      this.id = id;
-    }
-
-    @Override
-    protected Void impl(RequestContext ctx) throws OrmException, IOException {
-      // Reload change, as some time may have passed since GetChanges.
-      ReviewDb db = ctx.getReviewDbProvider().get();
-      try {
-        Change c =
-            notesFactory
-                .createChecked(db, new Project.NameKey(event.getProjectName()), id)
-                .getChange();
-        indexerFactory.create(executor, indexes).index(db, c);
-      } catch (NoSuchChangeException e) {
-        indexerFactory.create(executor, indexes).delete(id);
-      }
-      return null;
-    }
-
-    @Override
-    public String toString() {
-      return "Index change " + id.get() + " of project " + event.getProjectName();
-    }
-  }
 }
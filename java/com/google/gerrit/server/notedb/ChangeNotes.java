@@ -23,8 +23,10 @@ import static java.util.Comparator.comparing;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -36,6 +38,12 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 import com.google.common.collect.Streams;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.metrics.Timer1;
@@ -71,6 +79,8 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -108,17 +118,30 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
   @Singleton
   public static class Factory {
+    /** Number of changes read from ReviewDb and parsed together while scanning a project. */
+    private static final int SCAN_BATCH_SIZE = 100;
+
     private final Args args;
     private final Provider<InternalChangeQuery> queryProvider;
     private final ProjectCache projectCache;
+    private final ListeningExecutorService loadExecutor;
 
     @VisibleForTesting
-    @Inject
     public Factory(
         Args args, Provider<InternalChangeQuery> queryProvider, ProjectCache projectCache) {
+      this(args, queryProvider, projectCache, MoreExecutors.newDirectExecutorService());
+    }
+
+    @Inject
+    Factory(
+        Args args,
+        Provider<InternalChangeQuery> queryProvider,
+        ProjectCache projectCache,
+        @ChangeNotesLoadExecutor ListeningExecutorService loadExecutor) {
       this.args = args;
       this.queryProvider = queryProvider;
       this.projectCache = projectCache;
+      this.loadExecutor = loadExecutor;
     }
 
     public ChangeNotes createChecked(ReviewDb db, Change c) throws OrmException {
@@ -245,6 +268,19 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return notes;
     }
 
+    /**
+     * Create and load the notes of many changes in one project.
+     *
+     * <p>When reading from NoteDb the notes are parsed in parallel, so this is considerably faster
+     * than calling {@link #create(ReviewDb, Project.NameKey, Change.Id)} for each change.
+     *
+     * @param db review database.
+     * @param project project containing all of the changes.
+     * @param changeIds changes to load; changes that don't exist are silently omitted.
+     * @param predicate filter applied to the loaded notes.
+     * @return notes of the matching changes, in the iteration order of {@code changeIds}.
+     * @throws OrmException if loading any of the changes failed.
+     */
     public List<ChangeNotes> create(
         ReviewDb db,
         Project.NameKey project,
@@ -253,18 +289,28 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
         throws OrmException {
       List<ChangeNotes> notes = new ArrayList<>();
       if (args.migration.readChanges()) {
+        List<Change> changes = new ArrayList<>(changeIds.size());
         for (Change.Id cid : changeIds) {
           try {
-            ChangeNotes cn = create(db, project, cid);
-            if (cn.getChange() != null && predicate.test(cn)) {
-              notes.add(cn);
-            }
+            changes.add(loadChangeFromDb(db, project, cid));
           } catch (NoSuchChangeException e) {
-            // Match ReviewDb behavior, returning not found; maybe the caller learned about it from
-            // a dangling patch set ref or something.
             continue;
           }
         }
+        for (ChangeNotesResult r : loadAll(changes, null)) {
+          if (r.error().isPresent()) {
+            if (r.error().get() instanceof NoSuchChangeException) {
+              // Match ReviewDb behavior, returning not found; maybe the caller learned about it
+              // from a dangling patch set ref or something.
+              continue;
+            }
+            throw r.error().get();
+          }
+          ChangeNotes cn = r.notes();
+          if (cn.getChange() != null && predicate.test(cn)) {
+            notes.add(cn);
+          }
+        }
         return notes;
       }
 
@@ -279,6 +325,42 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return notes;
     }
 
+    /**
+     * Load the notes of many changes in one project, reporting errors for each change separately.
+     *
+     * <p>Like {@link #create(ReviewDb, Project.NameKey, Collection, Predicate)}, the notes are
+     * parsed in parallel. Only supported when reading changes from NoteDb.
+     *
+     * @param db review database.
+     * @param project project containing the changes.
+     * @param changeIds changes to load.
+     * @return one result per change, in the iteration order of {@code changeIds}; changes that
+     *     don't exist or are not in {@code project} have an error.
+     */
+    public List<ChangeNotesResult> loadAll(
+        ReviewDb db, Project.NameKey project, Collection<Change.Id> changeIds) {
+      checkState(args.migration.readChanges(), "changes must be read from NoteDb");
+      List<Change> changes = new ArrayList<>(changeIds.size());
+      Map<Change.Id, ChangeNotesResult> errors = new HashMap<>();
+      for (Change.Id id : changeIds) {
+        try {
+          changes.add(loadChangeFromDb(db, project, id));
+        } catch (OrmException e) {
+          errors.put(id, ChangeNotesResult.error(id, e));
+        } catch (IllegalArgumentException e) {
+          errors.put(id, ChangeNotesResult.error(id, new OrmException(e.getMessage(), e)));
+        }
+      }
+
+      Iterator<ChangeNotesResult> loaded = loadAll(changes, null).iterator();
+      List<ChangeNotesResult> results = new ArrayList<>(changeIds.size());
+      for (Change.Id id : changeIds) {
+        ChangeNotesResult error = errors.get(id);
+        results.add(error != null ? error : loaded.next());
+      }
+      return results;
+    }
+
     public ListMultimap<Project.NameKey, ChangeNotes> create(
         ReviewDb db, Predicate<ChangeNotes> predicate) throws IOException, OrmException {
       ListMultimap<Project.NameKey, ChangeNotes> m =
@@ -336,26 +418,38 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
         Repository repo, ReviewDb db, Project.NameKey project) throws IOException {
       ScanResult sr = scanChangeIds(repo);
       PrimaryStorage defaultStorage = args.migration.changePrimaryStorage();
+      // Reuse the meta refs read by the scan rather than looking up each of them again.
+      RefCache refs = refName -> Optional.ofNullable(sr.metaIds().get(refName));
 
-      return sr.all()
-          .stream()
-          .map(id -> scanOneNoteDbChange(db, project, sr, defaultStorage, id))
-          .filter(Objects::nonNull);
+      return Streams.stream(Iterators.partition(sr.all().iterator(), SCAN_BATCH_SIZE))
+          .flatMap(
+              batch -> {
+                List<ChangeNotesResult> results = new ArrayList<>(batch.size());
+                List<Change> changes = new ArrayList<>(batch.size());
+                for (Change.Id id : batch) {
+                  try {
+                    Change change = scanOneNoteDbChange(db, project, sr, defaultStorage, id);
+                    if (change != null) {
+                      changes.add(change);
+                    }
+                  } catch (OrmException e) {
+                    results.add(ChangeNotesResult.error(id, e));
+                  }
+                }
+                results.addAll(loadAll(changes, refs));
+                return results.stream();
+              });
     }
 
-    private ChangeNotesResult scanOneNoteDbChange(
+    @Nullable
+    private Change scanOneNoteDbChange(
         ReviewDb db,
         Project.NameKey project,
         ScanResult sr,
         PrimaryStorage defaultStorage,
-        Change.Id id) {
-      Change change;
-      try {
-        change = readOneReviewDbChange(db, id);
-      } catch (OrmException e) {
-        return ChangeNotesResult.error(id, e);
-      }
-
+        Change.Id id)
+        throws OrmException {
+      Change change = readOneReviewDbChange(db, id);
       if (change == null) {
         if (!sr.fromMetaRefs().contains(id)) {
           // Stray patch set refs can happen due to normal error conditions, e.g. failed
@@ -379,12 +473,15 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
         return null;
       }
       log.debug("adding change {} found in project {}", id, project);
-      return toResult(change);
+      return change;
     }
 
     @Nullable
     private ChangeNotesResult toResult(Change rawChangeFromReviewDbOrNoteDb) {
-      ChangeNotes n = new ChangeNotes(args, rawChangeFromReviewDbOrNoteDb);
+      return load(new ChangeNotes(args, rawChangeFromReviewDbOrNoteDb));
+    }
+
+    private static ChangeNotesResult load(ChangeNotes n) {
       try {
         n.load();
       } catch (OrmException e) {
@@ -393,6 +490,43 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return ChangeNotesResult.notes(n);
     }
 
+    /**
+     * Load the notes of many changes in parallel.
+     *
+     * <p>Changes that may have to be auto-rebuilt from ReviewDb are loaded on the calling thread,
+     * since rebuilding uses the database handle of the current request.
+     *
+     * @param changes changes to load, all in the same project.
+     * @param refs snapshot of the meta refs of the project, or null to read each ref when loading.
+     * @return one result per change, in the same order.
+     */
+    private List<ChangeNotesResult> loadAll(List<Change> changes, @Nullable RefCache refs) {
+      List<ListenableFuture<ChangeNotesResult>> futures = new ArrayList<>(changes.size());
+      for (Change c : changes) {
+        ChangeNotes n = new ChangeNotes(args, c, true, true, refs);
+        if (n.autoRebuild) {
+          // Checking whether the change is up to date also reads draft refs, which are not part
+          // of the snapshot.
+          futures.add(Futures.immediateFuture(load(new ChangeNotes(args, c))));
+        } else if (changes.size() == 1) {
+          futures.add(Futures.immediateFuture(load(n)));
+        } else {
+          futures.add(loadExecutor.submit(() -> load(n)));
+        }
+      }
+
+      List<ChangeNotesResult> results = new ArrayList<>(futures.size());
+      for (ListenableFuture<ChangeNotesResult> f : futures) {
+        try {
+          results.add(Futures.getUnchecked(f));
+        } catch (UncheckedExecutionException | ExecutionError e) {
+          Throwables.throwIfUnchecked(e.getCause());
+          throw e;
+        }
+      }
+      return results;
+    }
+
     /** Result of {@link #scan(Repository, ReviewDb, Project.NameKey)}. */
     @AutoValue
     public abstract static class ChangeNotesResult {
@@ -433,6 +567,9 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
       abstract ImmutableSet<Change.Id> fromMetaRefs();
 
+      /** Values of the meta refs, keyed by ref name. */
+      abstract ImmutableMap<String, ObjectId> metaIds();
+
       SetView<Change.Id> all() {
         return Sets.union(fromPatchSetRefs(), fromMetaRefs());
       }
@@ -441,13 +578,22 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     private static ScanResult scanChangeIds(Repository repo) throws IOException {
       ImmutableSet.Builder<Change.Id> fromPs = ImmutableSet.builder();
       ImmutableSet.Builder<Change.Id> fromMeta = ImmutableSet.builder();
+      ImmutableMap.Builder<String, ObjectId> metaIds = ImmutableMap.builder();
       for (Ref r : repo.getRefDatabase().getRefs(RefNames.REFS_CHANGES).values()) {
         Change.Id id = Change.Id.fromRef(r.getName());
         if (id != null) {
-          (r.getName().endsWith(RefNames.META_SUFFIX) ? fromMeta : fromPs).add(id);
+          if (r.getName().endsWith(RefNames.META_SUFFIX)) {
+            fromMeta.add(id);
+            if (r.getObjectId() != null) {
+              metaIds.put(r.getName(), r.getObjectId());
+            }
+          } else {
+            fromPs.add(id);
+          }
         }
       }
-      return new AutoValue_ChangeNotes_Factory_ScanResult(fromPs.build(), fromMeta.build());
+      return new AutoValue_ChangeNotes_Factory_ScanResult(
+          fromPs.build(), fromMeta.build(), metaIds.build());
     }
   }
 
@@ -24,13 +24,20 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.cache.CacheBinding;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.notedb.AbstractChangeNotes.Args;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -38,20 +45,43 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 
 @Singleton
 public class ChangeNotesCache {
   @VisibleForTesting static final String CACHE_NAME = "change_notes";
 
-  public static Module module() {
+  private static final int DEFAULT_MAX_INCREMENTAL_COMMITS = 100;
+
+  /**
+   * Module binding the cache.
+   *
+   * @param persist whether to also store parsed states on disk, so that they survive restarts and
+   *     can be used as a starting point for parsing newer commits.
+   */
+  public static Module module(boolean persist) {
     return new CacheModule() {
       @Override
       protected void configure() {
         bind(ChangeNotesCache.class);
-        cache(CACHE_NAME, Key.class, ChangeNotesState.class)
-            .weigher(Weigher.class)
-            .maximumWeight(10 << 20);
+        CacheBinding<Key, ChangeNotesState> binding;
+        if (persist) {
+          binding =
+              persist(
+                      CACHE_NAME,
+                      Key.class,
+                      ChangeNotesState.class,
+                      Key.Serializer.INSTANCE,
+                      ChangeNotesState.Serializer.INSTANCE)
+                  .version(1);
+        } else {
+          binding =
+              cache(CACHE_NAME, Key.class, ChangeNotesState.class)
+                  .valueSerializer(ChangeNotesState.Serializer.INSTANCE);
+        }
+        binding.weigher(Weigher.class).maximumWeight(10 << 20);
       }
     };
   }
@@ -63,6 +93,36 @@ public class ChangeNotesCache {
     abstract Change.Id changeId();
 
     abstract ObjectId id();
+
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Key object) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+          out.writeUTF(object.project().get());
+          out.writeInt(object.changeId().get());
+          object.id().copyRawTo(out);
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to serialize change notes key", e);
+        }
+        return buf.toByteArray();
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in))) {
+          Project.NameKey project = new Project.NameKey(data.readUTF());
+          Change.Id changeId = new Change.Id(data.readInt());
+          byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+          data.readFully(raw);
+          return new AutoValue_ChangeNotesCache_Key(project, changeId, ObjectId.fromRaw(raw));
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to deserialize change notes key", e);
+        }
+      }
+    }
   }
 
   public static class Weigher implements com.google.common.cache.Weigher<Key, ChangeNotesState> {
@@ -311,23 +371,53 @@ public class ChangeNotesCache {
 
     @Override
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
-      ChangeNotesParser parser =
-          new ChangeNotesParser(key.changeId(), key.id(), rw, args.noteUtil, args.metrics);
-      ChangeNotesState result = parser.parseAll();
+      ChangeNotesState result = null;
+      ChangeNotesParser parser = newParser();
+      if (maxIncrementalCommits > 0) {
+        try {
+          result = parser.parseIncremental(this::getSnapshot, maxIncrementalCommits);
+        } catch (ConfigInvalidException e) {
+          // Let the full parse below report the problem.
+        }
+        if (result != null) {
+          args.metrics.incrementalParseCount.increment(NoteDbTable.CHANGES);
+        } else {
+          parser = newParser();
+        }
+      }
+      if (result == null) {
+        result = parser.parseAll();
+      }
       // This assignment only happens if call() was actually called, which only
       // happens when Cache#get(K, Callable<V>) incurs a cache miss.
       revisionNoteMap = parser.getRevisionNoteMap();
       return result;
     }
+
+    private ChangeNotesParser newParser() {
+      return new ChangeNotesParser(key.changeId(), key.id(), rw, args.noteUtil, args.metrics);
+    }
+
+    @Nullable
+    private ChangeNotesState getSnapshot(ObjectId metaId) {
+      return cache.getIfPresent(
+          new AutoValue_ChangeNotesCache_Key(key.project(), key.changeId(), metaId.copy()));
+    }
   }
 
   private final Cache<Key, ChangeNotesState> cache;
   private final Args args;
+  private final int maxIncrementalCommits;
 
   @Inject
-  ChangeNotesCache(@Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache, Args args) {
+  ChangeNotesCache(
+      @Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache,
+      Args args,
+      @GerritServerConfig Config cfg) {
     this.cache = cache;
     this.args = args;
+    this.maxIncrementalCommits =
+        cfg.getInt("cache", CACHE_NAME, "maxIncrementalCommits", DEFAULT_MAX_INCREMENTAL_COMMITS);
   }
 
   Value get(Project.NameKey project, Change.Id changeId, ObjectId metaId, ChangeNotesRevWalk rw)
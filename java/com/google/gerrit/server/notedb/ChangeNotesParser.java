@@ -42,6 +42,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.Enums;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.LinkedListMultimap;
@@ -52,6 +53,7 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelType;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.metrics.Timer1;
@@ -110,6 +112,18 @@ class ChangeNotesParser {
   // the parser does not yet know its commit SHA-1.
   private static final RevId PARTIAL_PATCH_SET = new RevId("INVALID PARTIAL PATCH SET");
 
+  // Footers whose effect depends on older commits in ways that are not visible in a
+  // ChangeNotesState. Commits containing them are only parsed along with the full history.
+  private static final ImmutableList<FooterKey> FULL_PARSE_FOOTERS =
+      ImmutableList.of(
+          FOOTER_COMMIT,
+          FOOTER_CURRENT,
+          FOOTER_GROUPS,
+          FOOTER_PATCH_SET_DESCRIPTION,
+          FOOTER_STATUS,
+          FOOTER_SUBMITTED_WITH,
+          FOOTER_WORK_IN_PROGRESS);
+
   @AutoValue
   abstract static class ApprovalKey {
     abstract PatchSet.Id psId();
@@ -232,10 +246,179 @@ class ChangeNotesParser {
     return buildState();
   }
 
+  /**
+   * Parse only the commits added on top of a previously parsed state.
+   *
+   * <p>Walks back from the tip until {@code snapshots} returns the state of an ancestor, parses the
+   * newer commits and applies them on top of that state. Commits that create patch sets, change
+   * the status, reviewers or work-in-progress state, or refer to unknown patch sets interact with
+   * the older history in ways that cannot be recovered from a {@link ChangeNotesState}; if any is
+   * found, {@link #parseAll()} must be used instead.
+   *
+   * @param snapshots returns the known state at a meta commit, or null.
+   * @param maxCommits maximum number of commits to apply on top of a snapshot.
+   * @return state at the tip, or null if no snapshot was found within {@code maxCommits} commits or
+   *     the newer commits require a full parse. This instance must not be reused after a null
+   *     return.
+   */
+  @Nullable
+  ChangeNotesState parseIncremental(Function<ObjectId, ChangeNotesState> snapshots, int maxCommits)
+      throws ConfigInvalidException, IOException {
+    walk.reset();
+    walk.markStart(walk.parseCommit(tip));
+
+    List<ChangeNotesCommit> commits = new ArrayList<>();
+    ChangeNotesState base = null;
+    ChangeNotesCommit commit;
+    while ((commit = walk.next()) != null) {
+      if (!commits.isEmpty()) {
+        base = snapshots.apply(commit);
+        if (base != null) {
+          break;
+        }
+      }
+      if (commits.size() >= maxCommits || !canParseIncrementally(commit)) {
+        return null;
+      }
+      commits.add(commit);
+    }
+    if (base == null || base.columns() == null) {
+      return null;
+    }
+    Set<PatchSet.Id> basePatchSets = new HashSet<>();
+    for (Map.Entry<PatchSet.Id, PatchSet> e : base.patchSets()) {
+      basePatchSets.add(e.getKey());
+    }
+    for (ChangeNotesCommit c : commits) {
+      if (!basePatchSets.contains(parsePatchSetId(c))) {
+        return null;
+      }
+    }
+
+    try (Timer1.Context timer = metrics.parseLatency.start(CHANGES)) {
+      for (ChangeNotesCommit c : commits) {
+        parse(c);
+      }
+      parseNotes();
+      applySnapshot(base);
+      // Comments are read from the notes at the tip and may still refer to deleted patch sets.
+      comments
+          .values()
+          .removeIf(c -> !patchSets.containsKey(new PatchSet.Id(id, c.key.patchSetId)));
+    }
+    return buildState();
+  }
+
   RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
     return revisionNoteMap;
   }
 
+  private boolean canParseIncrementally(ChangeNotesCommit commit) throws ConfigInvalidException {
+    if (commit.getParentCount() > 1 || parsePatchSetState(commit) != null) {
+      return false;
+    }
+    for (FooterKey footer : FULL_PARSE_FOOTERS) {
+      if (!commit.getFooterLineValues(footer).isEmpty()) {
+        return false;
+      }
+    }
+    for (ReviewerStateInternal state : ReviewerStateInternal.values()) {
+      if (!commit.getFooterLineValues(state.getFooterKey()).isEmpty()
+          || !commit.getFooterLineValues(state.getByEmailFooterKey()).isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fill in everything not set by the parsed commits from the state of their parent, as if the
+   * older commits had been parsed too.
+   */
+  private void applySnapshot(ChangeNotesState base) {
+    ChangeNotesState.ChangeColumns c = base.columns();
+
+    // Set by the oldest commit.
+    createdOn = c.createdOn();
+    ownerId = c.owner();
+    originalSubject = c.originalSubject();
+
+    // Set by the newest commit that has the footer.
+    if (branch == null) {
+      branch = c.branch();
+    }
+    if (changeId == null) {
+      changeId = c.changeKey().get();
+    }
+    if (subject == null) {
+      subject = c.subject();
+    }
+    if (topic == null) {
+      topic = c.topic();
+    }
+    if (submissionId == null) {
+      submissionId = c.submissionId();
+    }
+    if (assignee == null) {
+      assignee = Optional.ofNullable(c.assignee());
+    }
+    if (hashtags == null) {
+      hashtags = base.hashtags();
+    }
+    if (readOnlyUntil == null) {
+      readOnlyUntil = base.readOnlyUntil();
+    }
+    if (isPrivate == null) {
+      isPrivate = c.isPrivate();
+    }
+    if (revertOf == null) {
+      revertOf = c.revertOf();
+    }
+    if (lastUpdatedOn.before(c.lastUpdatedOn())) {
+      lastUpdatedOn = c.lastUpdatedOn();
+    }
+
+    // Never changed by commits that can be parsed incrementally.
+    status = c.status();
+    workInProgress = c.isWorkInProgress();
+    hasReviewStarted = c.hasReviewStarted();
+    if (c.currentPatchSetId() != null) {
+      currentPatchSets.add(c.currentPatchSetId());
+    }
+    for (Map.Entry<PatchSet.Id, PatchSet> e : base.patchSets()) {
+      patchSets.put(e.getKey(), e.getValue());
+    }
+    reviewers.putAll(Tables.transpose(base.reviewers().asTable()));
+    reviewersByEmail.putAll(Tables.transpose(base.reviewersByEmail().asTable()));
+    pendingReviewers = base.pendingReviewers();
+    pendingReviewersByEmail = base.pendingReviewersByEmail();
+    allPastReviewers.addAll(base.allPastReviewers());
+    reviewerUpdates.addAll(base.reviewerUpdates().reverse());
+    submitRecords.addAll(base.submitRecords());
+
+    // The status of the older history applies to approvals in the parsed commits.
+    if (status == Change.Status.MERGED) {
+      for (PatchSetApproval psa : bufferedApprovals) {
+        if (!psa.isLegacySubmit()) {
+          psa.setPostSubmit(true);
+        }
+      }
+    }
+    bufferedApprovals.clear();
+
+    // Collections are kept in parse order, i.e. newest first, until the state is built.
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : base.approvals()) {
+      PatchSetApproval psa = e.getValue();
+      approvals.putIfAbsent(
+          ApprovalKey.create(psa.getPatchSetId(), psa.getAccountId(), psa.getLabel()), psa);
+    }
+    pastAssignees.addAll(base.pastAssignees().asList().reverse());
+    allChangeMessages.addAll(base.allChangeMessages().reverse());
+    for (PatchSet.Id psId : base.changeMessagesByPatchSet().keySet()) {
+      changeMessagesByPatchSet.putAll(psId, base.changeMessagesByPatchSet().get(psId).reverse());
+    }
+  }
+
   private ChangeNotesState buildState() {
     return ChangeNotesState.create(
         tip.copy(),
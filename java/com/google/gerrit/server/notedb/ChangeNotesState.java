@@ -16,13 +16,19 @@ package com.google.gerrit.server.notedb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readCanBeNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeCanBeNull;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.reviewdb.client.Account;
@@ -37,9 +43,24 @@ import com.google.gerrit.reviewdb.client.RevId;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.ReviewerStatusUpdate;
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.gerrit.server.mail.Address;
 import com.google.gerrit.server.notedb.NoteDbChangeState.PrimaryStorage;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gwtorm.protobuf.CodecFactory;
+import com.google.gwtorm.protobuf.ProtobufCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -268,6 +289,471 @@ public abstract class ChangeNotesState {
   @Nullable
   abstract Change.Id revertOf();
 
+  /**
+   * Compact binary serializer for {@link ChangeNotesState}.
+   *
+   * <p>ReviewDb entity types are encoded with their protobuf codecs and comments with the same JSON
+   * representation used in NoteDb; everything else is written field by field. The format is not
+   * versioned by itself: caches using this serializer must bump their version when it changes.
+   */
+  public enum Serializer implements CacheSerializer<ChangeNotesState> {
+    INSTANCE;
+
+    private static final ProtobufCodec<PatchSet> PATCH_SET_CODEC =
+        CodecFactory.encoder(PatchSet.class);
+    private static final ProtobufCodec<PatchSetApproval> APPROVAL_CODEC =
+        CodecFactory.encoder(PatchSetApproval.class);
+    private static final ProtobufCodec<ChangeMessage> MESSAGE_CODEC =
+        CodecFactory.encoder(ChangeMessage.class);
+    private static final Gson GSON =
+        new GsonBuilder()
+            .registerTypeAdapter(
+                Timestamp.class,
+                new TypeAdapter<Timestamp>() {
+                  @Override
+                  public void write(JsonWriter out, Timestamp ts) throws IOException {
+                    out.value(ts.getTime());
+                  }
+
+                  @Override
+                  public Timestamp read(JsonReader in) throws IOException {
+                    return new Timestamp(in.nextLong());
+                  }
+                }.nullSafe())
+            .create();
+
+    @Override
+    public byte[] serialize(ChangeNotesState object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(buf)) {
+        write(out, object);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize ChangeNotesState", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public ChangeNotesState deserialize(byte[] in) {
+      try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in))) {
+        return read(data);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize ChangeNotesState", e);
+      }
+    }
+
+    private static void write(DataOutputStream out, ChangeNotesState s) throws IOException {
+      writeCanBeNull(out, s.metaId());
+      out.writeInt(s.changeId().get());
+
+      ChangeColumns c = s.columns();
+      out.writeBoolean(c != null);
+      if (c != null) {
+        out.writeUTF(c.changeKey().get());
+        out.writeLong(c.createdOn().getTime());
+        out.writeLong(c.lastUpdatedOn().getTime());
+        out.writeInt(c.owner().get());
+        out.writeUTF(c.branch());
+        writePatchSetId(out, c.currentPatchSetId());
+        writeString(out, c.subject());
+        writeString(out, c.topic());
+        writeString(out, c.originalSubject());
+        writeString(out, c.submissionId());
+        writeAccountId(out, c.assignee());
+        out.writeBoolean(c.status() != null);
+        if (c.status() != null) {
+          out.writeChar(c.status().getCode());
+        }
+        writeBoolean(out, c.isPrivate());
+        writeBoolean(out, c.isWorkInProgress());
+        writeBoolean(out, c.hasReviewStarted());
+        writeChangeId(out, c.revertOf());
+      }
+
+      out.writeInt(s.pastAssignees().size());
+      for (Account.Id id : s.pastAssignees()) {
+        out.writeInt(id.get());
+      }
+      out.writeInt(s.hashtags().size());
+      for (String h : s.hashtags()) {
+        out.writeUTF(h);
+      }
+      out.writeInt(s.patchSets().size());
+      for (Map.Entry<PatchSet.Id, PatchSet> e : s.patchSets()) {
+        writePatchSetId(out, e.getKey());
+        writeBytes(out, PATCH_SET_CODEC.encodeToByteArray(e.getValue()));
+      }
+      out.writeInt(s.approvals().size());
+      for (Map.Entry<PatchSet.Id, PatchSetApproval> e : s.approvals()) {
+        writePatchSetId(out, e.getKey());
+        writeBytes(out, APPROVAL_CODEC.encodeToByteArray(e.getValue()));
+      }
+
+      writeReviewers(out, s.reviewers());
+      writeReviewersByEmail(out, s.reviewersByEmail());
+      writeReviewers(out, s.pendingReviewers());
+      writeReviewersByEmail(out, s.pendingReviewersByEmail());
+
+      out.writeInt(s.allPastReviewers().size());
+      for (Account.Id id : s.allPastReviewers()) {
+        out.writeInt(id.get());
+      }
+      out.writeInt(s.reviewerUpdates().size());
+      for (ReviewerStatusUpdate u : s.reviewerUpdates()) {
+        out.writeLong(u.date().getTime());
+        out.writeInt(u.updatedBy().get());
+        out.writeInt(u.reviewer().get());
+        out.writeUTF(u.state().name());
+      }
+      out.writeInt(s.submitRecords().size());
+      for (SubmitRecord r : s.submitRecords()) {
+        writeSubmitRecord(out, r);
+      }
+
+      // Messages by patch set are the same instances as in allChangeMessages; store only their
+      // position in that list.
+      Map<ChangeMessage, Integer> messageIndex = new IdentityHashMap<>();
+      out.writeInt(s.allChangeMessages().size());
+      for (ChangeMessage m : s.allChangeMessages()) {
+        messageIndex.put(m, messageIndex.size());
+        writeBytes(out, MESSAGE_CODEC.encodeToByteArray(m));
+      }
+      out.writeInt(s.changeMessagesByPatchSet().size());
+      for (Map.Entry<PatchSet.Id, ChangeMessage> e : s.changeMessagesByPatchSet().entries()) {
+        writePatchSetId(out, e.getKey());
+        Integer i = messageIndex.get(e.getValue());
+        out.writeInt(i != null ? i : -1);
+        if (i == null) {
+          writeBytes(out, MESSAGE_CODEC.encodeToByteArray(e.getValue()));
+        }
+      }
+
+      out.writeInt(s.publishedComments().size());
+      for (Map.Entry<RevId, Comment> e : s.publishedComments().entries()) {
+        out.writeUTF(e.getKey().get());
+        writeBytes(out, GSON.toJson(e.getValue()).getBytes(UTF_8));
+      }
+
+      writeTimestamp(out, s.readOnlyUntil());
+      writeBoolean(out, s.isPrivate());
+      writeBoolean(out, s.isWorkInProgress());
+      writeBoolean(out, s.hasReviewStarted());
+      writeChangeId(out, s.revertOf());
+    }
+
+    private static ChangeNotesState read(DataInputStream in) throws IOException {
+      ObjectId metaId = readCanBeNull(in);
+      Change.Id changeId = new Change.Id(in.readInt());
+
+      ChangeColumns columns = null;
+      if (in.readBoolean()) {
+        Change.Key changeKey = new Change.Key(in.readUTF());
+        Timestamp createdOn = new Timestamp(in.readLong());
+        Timestamp lastUpdatedOn = new Timestamp(in.readLong());
+        Account.Id owner = new Account.Id(in.readInt());
+        String branch = in.readUTF();
+        PatchSet.Id currentPatchSetId = readPatchSetId(in);
+        String subject = readString(in);
+        String topic = readString(in);
+        String originalSubject = readString(in);
+        String submissionId = readString(in);
+        Account.Id assignee = readAccountId(in);
+        Change.Status status = in.readBoolean() ? Change.Status.forCode(in.readChar()) : null;
+        Boolean isPrivate = readBoolean(in);
+        Boolean workInProgress = readBoolean(in);
+        Boolean hasReviewStarted = readBoolean(in);
+        Change.Id revertOf = readChangeId(in);
+        columns =
+            new AutoValue_ChangeNotesState_ChangeColumns(
+                changeKey,
+                createdOn,
+                lastUpdatedOn,
+                owner,
+                branch,
+                currentPatchSetId,
+                subject,
+                topic,
+                originalSubject,
+                submissionId,
+                assignee,
+                status,
+                isPrivate,
+                workInProgress,
+                hasReviewStarted,
+                revertOf);
+      }
+
+      ImmutableSet.Builder<Account.Id> pastAssignees = ImmutableSet.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        pastAssignees.add(new Account.Id(in.readInt()));
+      }
+      ImmutableSet.Builder<String> hashtags = ImmutableSet.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        hashtags.add(in.readUTF());
+      }
+      ImmutableList.Builder<Map.Entry<PatchSet.Id, PatchSet>> patchSets = ImmutableList.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        PatchSet.Id psId = readPatchSetId(in);
+        patchSets.add(Maps.immutableEntry(psId, PATCH_SET_CODEC.decode(readBytes(in))));
+      }
+      ImmutableList.Builder<Map.Entry<PatchSet.Id, PatchSetApproval>> approvals =
+          ImmutableList.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        PatchSet.Id psId = readPatchSetId(in);
+        approvals.add(Maps.immutableEntry(psId, APPROVAL_CODEC.decode(readBytes(in))));
+      }
+
+      ReviewerSet reviewers = readReviewers(in);
+      ReviewerByEmailSet reviewersByEmail = readReviewersByEmail(in);
+      ReviewerSet pendingReviewers = readReviewers(in);
+      ReviewerByEmailSet pendingReviewersByEmail = readReviewersByEmail(in);
+
+      ImmutableList.Builder<Account.Id> allPastReviewers = ImmutableList.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        allPastReviewers.add(new Account.Id(in.readInt()));
+      }
+      ImmutableList.Builder<ReviewerStatusUpdate> reviewerUpdates = ImmutableList.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        Timestamp date = new Timestamp(in.readLong());
+        Account.Id updatedBy = new Account.Id(in.readInt());
+        Account.Id reviewer = new Account.Id(in.readInt());
+        ReviewerStateInternal state = ReviewerStateInternal.valueOf(in.readUTF());
+        reviewerUpdates.add(ReviewerStatusUpdate.create(date, updatedBy, reviewer, state));
+      }
+      ImmutableList.Builder<SubmitRecord> submitRecords = ImmutableList.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        submitRecords.add(readSubmitRecord(in));
+      }
+
+      int messageCount = in.readInt();
+      List<ChangeMessage> allChangeMessages = new ArrayList<>(messageCount);
+      for (int i = 0; i < messageCount; i++) {
+        allChangeMessages.add(MESSAGE_CODEC.decode(readBytes(in)));
+      }
+      ImmutableListMultimap.Builder<PatchSet.Id, ChangeMessage> changeMessagesByPatchSet =
+          ImmutableListMultimap.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        PatchSet.Id psId = readPatchSetId(in);
+        int i = in.readInt();
+        changeMessagesByPatchSet.put(
+            psId, i >= 0 ? allChangeMessages.get(i) : MESSAGE_CODEC.decode(readBytes(in)));
+      }
+
+      ImmutableListMultimap.Builder<RevId, Comment> publishedComments =
+          ImmutableListMultimap.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        RevId revId = new RevId(in.readUTF());
+        publishedComments.put(
+            revId, GSON.fromJson(new String(readBytes(in), UTF_8), Comment.class));
+      }
+
+      Timestamp readOnlyUntil = readTimestamp(in);
+      Boolean isPrivate = readBoolean(in);
+      Boolean isWorkInProgress = readBoolean(in);
+      Boolean hasReviewStarted = readBoolean(in);
+      Change.Id revertOf = readChangeId(in);
+
+      return new AutoValue_ChangeNotesState(
+          metaId,
+          changeId,
+          columns,
+          pastAssignees.build(),
+          hashtags.build(),
+          patchSets.build(),
+          approvals.build(),
+          reviewers,
+          reviewersByEmail,
+          pendingReviewers,
+          pendingReviewersByEmail,
+          allPastReviewers.build(),
+          reviewerUpdates.build(),
+          submitRecords.build(),
+          ImmutableList.copyOf(allChangeMessages),
+          changeMessagesByPatchSet.build(),
+          publishedComments.build(),
+          readOnlyUntil,
+          isPrivate,
+          isWorkInProgress,
+          hasReviewStarted,
+          revertOf);
+    }
+
+    private static void writeReviewers(DataOutputStream out, ReviewerSet reviewers)
+        throws IOException {
+      out.writeInt(reviewers.asTable().size());
+      for (Table.Cell<ReviewerStateInternal, Account.Id, Timestamp> c :
+          reviewers.asTable().cellSet()) {
+        out.writeUTF(c.getRowKey().name());
+        out.writeInt(c.getColumnKey().get());
+        out.writeLong(c.getValue().getTime());
+      }
+    }
+
+    private static ReviewerSet readReviewers(DataInputStream in) throws IOException {
+      ImmutableTable.Builder<ReviewerStateInternal, Account.Id, Timestamp> table =
+          ImmutableTable.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        table.put(
+            ReviewerStateInternal.valueOf(in.readUTF()),
+            new Account.Id(in.readInt()),
+            new Timestamp(in.readLong()));
+      }
+      return ReviewerSet.fromTable(table.build());
+    }
+
+    private static void writeReviewersByEmail(DataOutputStream out, ReviewerByEmailSet reviewers)
+        throws IOException {
+      out.writeInt(reviewers.asTable().size());
+      for (Table.Cell<ReviewerStateInternal, Address, Timestamp> c :
+          reviewers.asTable().cellSet()) {
+        out.writeUTF(c.getRowKey().name());
+        writeString(out, c.getColumnKey().getName());
+        out.writeUTF(c.getColumnKey().getEmail());
+        out.writeLong(c.getValue().getTime());
+      }
+    }
+
+    private static ReviewerByEmailSet readReviewersByEmail(DataInputStream in)
+        throws IOException {
+      ImmutableTable.Builder<ReviewerStateInternal, Address, Timestamp> table =
+          ImmutableTable.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        ReviewerStateInternal state = ReviewerStateInternal.valueOf(in.readUTF());
+        String name = readString(in);
+        String email = in.readUTF();
+        table.put(state, new Address(name, email), new Timestamp(in.readLong()));
+      }
+      return ReviewerByEmailSet.fromTable(table.build());
+    }
+
+    private static void writeSubmitRecord(DataOutputStream out, SubmitRecord r)
+        throws IOException {
+      out.writeUTF(r.status.name());
+      writeString(out, r.errorMessage);
+      out.writeInt(r.labels != null ? r.labels.size() : -1);
+      if (r.labels != null) {
+        for (SubmitRecord.Label l : r.labels) {
+          writeString(out, l.label);
+          out.writeBoolean(l.status != null);
+          if (l.status != null) {
+            out.writeUTF(l.status.name());
+          }
+          writeAccountId(out, l.appliedBy);
+        }
+      }
+    }
+
+    private static SubmitRecord readSubmitRecord(DataInputStream in) throws IOException {
+      SubmitRecord r = new SubmitRecord();
+      r.status = SubmitRecord.Status.valueOf(in.readUTF());
+      r.errorMessage = readString(in);
+      int labelCount = in.readInt();
+      if (labelCount >= 0) {
+        r.labels = new ArrayList<>(labelCount);
+        for (int i = 0; i < labelCount; i++) {
+          SubmitRecord.Label l = new SubmitRecord.Label();
+          l.label = readString(in);
+          l.status = in.readBoolean() ? SubmitRecord.Label.Status.valueOf(in.readUTF()) : null;
+          l.appliedBy = readAccountId(in);
+          r.labels.add(l);
+        }
+      }
+      return r;
+    }
+
+    private static void writePatchSetId(DataOutputStream out, @Nullable PatchSet.Id psId)
+        throws IOException {
+      out.writeBoolean(psId != null);
+      if (psId != null) {
+        out.writeInt(psId.getParentKey().get());
+        out.writeInt(psId.get());
+      }
+    }
+
+    @Nullable
+    private static PatchSet.Id readPatchSetId(DataInputStream in) throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      Change.Id changeId = new Change.Id(in.readInt());
+      return new PatchSet.Id(changeId, in.readInt());
+    }
+
+    private static void writeAccountId(DataOutputStream out, @Nullable Account.Id id)
+        throws IOException {
+      out.writeBoolean(id != null);
+      if (id != null) {
+        out.writeInt(id.get());
+      }
+    }
+
+    @Nullable
+    private static Account.Id readAccountId(DataInputStream in) throws IOException {
+      return in.readBoolean() ? new Account.Id(in.readInt()) : null;
+    }
+
+    private static void writeChangeId(DataOutputStream out, @Nullable Change.Id id)
+        throws IOException {
+      out.writeBoolean(id != null);
+      if (id != null) {
+        out.writeInt(id.get());
+      }
+    }
+
+    @Nullable
+    private static Change.Id readChangeId(DataInputStream in) throws IOException {
+      return in.readBoolean() ? new Change.Id(in.readInt()) : null;
+    }
+
+    private static void writeTimestamp(DataOutputStream out, @Nullable Timestamp ts)
+        throws IOException {
+      out.writeBoolean(ts != null);
+      if (ts != null) {
+        out.writeLong(ts.getTime());
+      }
+    }
+
+    @Nullable
+    private static Timestamp readTimestamp(DataInputStream in) throws IOException {
+      return in.readBoolean() ? new Timestamp(in.readLong()) : null;
+    }
+
+    private static void writeBoolean(DataOutputStream out, @Nullable Boolean b)
+        throws IOException {
+      out.writeByte(b == null ? -1 : b ? 1 : 0);
+    }
+
+    @Nullable
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+      byte b = in.readByte();
+      return b < 0 ? null : b != 0;
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String str)
+        throws IOException {
+      out.writeBoolean(str != null);
+      if (str != null) {
+        writeBytes(out, str.getBytes(UTF_8));
+      }
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+      return in.readBoolean() ? new String(readBytes(in), UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return bytes;
+    }
+  }
+
   Change newChange(Project.NameKey project) {
     ChangeColumns c = checkNotNull(columns(), "columns are required");
     Change change =
@@ -44,6 +44,12 @@ class NoteDbMetrics {
    */
   final Timer1<NoteDbTable> parseLatency;
 
+  /**
+   * Count of parses that only read the commits added since a cached state, instead of the whole
+   * history.
+   */
+  final Counter1<NoteDbTable> incrementalParseCount;
+
   /**
    * Latency due to auto-rebuilding entities when out of date.
    *
@@ -90,6 +96,13 @@ class NoteDbMetrics {
                 .setUnit(Units.MICROSECONDS),
             view);
 
+    incrementalParseCount =
+        metrics.newCounter(
+            "notedb/incremental_parse_count",
+            new Description("NoteDb parses applied on top of a cached state by table")
+                .setCumulative(),
+            view);
+
     autoRebuildLatency =
         metrics.newTimer(
             "notedb/auto_rebuild_latency",
@@ -16,6 +16,9 @@ package com.google.gerrit.server.notedb;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.config.FactoryModule;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.reviewdb.client.Change;
@@ -26,8 +29,13 @@ import com.google.gerrit.server.notedb.NoteDbUpdateManager.Result;
 import com.google.gerrit.server.notedb.rebuild.ChangeRebuilder;
 import com.google.gerrit.server.notedb.rebuild.ChangeRebuilderImpl;
 import com.google.gerrit.server.notedb.rebuild.NotesMigrationStateListener;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
 
 public class NoteDbModule extends FactoryModule {
@@ -59,7 +67,10 @@ public class NoteDbModule extends FactoryModule {
     DynamicSet.setOf(binder(), NotesMigrationStateListener.class);
 
     if (!useTestBindings) {
-      install(ChangeNotesCache.module());
+      // Parsed states are only kept on disk if a limit is set explicitly.
+      install(
+          ChangeNotesCache.module(
+              cfg.getLong("cache", ChangeNotesCache.CACHE_NAME, "diskLimit", 0) > 0));
       if (cfg.getBoolean("noteDb", null, "testRebuilderWrapper", false)) {
         // Yes, another variety of test bindings with a different way of
         // configuring it.
@@ -112,4 +123,28 @@ public class NoteDbModule extends FactoryModule {
           .toInstance(CacheBuilder.newBuilder().<ChangeNotesCache.Key, ChangeNotesState>build());
     }
   }
+
+  @Provides
+  @Singleton
+  @ChangeNotesLoadExecutor
+  ListeningExecutorService createChangeNotesLoadExecutor() {
+    int poolSize =
+        cfg.getInt("noteDb", null, "loadThreads", Runtime.getRuntime().availableProcessors());
+    if (useTestBindings || poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    // Threads beyond the core size are only started once the queue is full, so use poolSize core
+    // threads and let them time out when idle.
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            10,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<Runnable>(poolSize),
+            new ThreadFactoryBuilder().setNameFormat("ChangeNotesLoad-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(MoreExecutors.getExitingExecutorService(executor));
+  }
 }
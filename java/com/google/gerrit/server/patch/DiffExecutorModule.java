@@ -14,12 +14,19 @@
 
 package com.google.gerrit.server.patch;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
 
 /** Module providing the {@link DiffExecutor}. */
 public class DiffExecutorModule extends AbstractModule {
@@ -30,8 +37,38 @@ public class DiffExecutorModule extends AbstractModule {
   @Provides
   @Singleton
   @DiffExecutor
-  public ExecutorService createDiffExecutor() {
-    return Executors.newCachedThreadPool(
-        new ThreadFactoryBuilder().setNameFormat("Diff-%d").setDaemon(true).build());
+  public ExecutorService createDiffExecutor(
+      @GerritServerConfig Config cfg, WorkQueue queues, MetricMaker metricMaker) {
+    int threads =
+        cfg.getInt(
+            "cache",
+            PatchListCacheImpl.FILE_NAME,
+            "threads",
+            Runtime.getRuntime().availableProcessors());
+    ScheduledThreadPoolExecutor executor =
+        queues.createQueue(Math.max(threads, 1), "Diff", Thread.NORM_PRIORITY);
+    metricMaker.newCallbackMetric(
+        "diff/executor/active",
+        Integer.class,
+        new Description("Diff computations currently running").setGauge().setUnit("diffs"),
+        executor::getActiveCount);
+    metricMaker.newCallbackMetric(
+        "diff/executor/queued",
+        Integer.class,
+        new Description("Diff computations waiting for a thread").setGauge().setUnit("diffs"),
+        () -> executor.getQueue().size());
+    // WorkQueue executors only accept Runnables; wrap them so callers can submit Callables.
+    return MoreExecutors.listeningDecorator(executor);
+  }
+
+  /** Maximum time a diff computation may wait in the queue of the {@link DiffExecutor}. */
+  static long queueTimeoutMillis(Config cfg) {
+    return ConfigUtil.getTimeUnit(
+        cfg,
+        "cache",
+        PatchListCacheImpl.FILE_NAME,
+        "queueTimeout",
+        TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS),
+        TimeUnit.MILLISECONDS);
   }
 }
@@ -0,0 +1,71 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Diff computation submitted to the {@link DiffExecutor}, whose timeout starts once it runs.
+ *
+ * <p>The diff executor has a bounded number of threads. Time a computation spends waiting for one
+ * of them says nothing about the diff itself, so it must not count against the timeout; otherwise
+ * a busy server would cache timeouts for diffs that are cheap to compute. The wait for a thread is
+ * bounded separately, so that callers still return when the executor is saturated.
+ */
+class DiffFuture<V> {
+  static <V> DiffFuture<V> submit(ExecutorService executor, Callable<V> task) {
+    DiffFuture<V> f = new DiffFuture<>();
+    f.future =
+        executor.submit(
+            () -> {
+              f.started.countDown();
+              return task.call();
+            });
+    return f;
+  }
+
+  private final CountDownLatch started = new CountDownLatch(1);
+  private Future<V> future;
+
+  private DiffFuture() {}
+
+  /**
+   * Waits at most {@code queueTimeout} for the computation to start, and then at most {@code
+   * timeout} for its result.
+   *
+   * <p>A computation that is still queued once {@code queueTimeout} expires is cancelled, so that
+   * it never runs, and {@link TimeoutException} is thrown just as if it had run for too long.
+   *
+   * @see Future#get(long, TimeUnit)
+   */
+  V get(long queueTimeout, long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!started.await(queueTimeout, unit) && !future.isDone()) {
+      future.cancel(true);
+      throw new TimeoutException("diff did not start within " + queueTimeout + " " + unit);
+    }
+    return future.get(timeout, unit);
+  }
+
+  boolean cancel(boolean mayInterruptIfRunning) {
+    return future.cancel(mayInterruptIfRunning);
+  }
+}
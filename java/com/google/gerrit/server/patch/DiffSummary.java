@@ -19,10 +19,15 @@ import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 
+import com.google.gerrit.server.cache.CacheSerializer;
 import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
@@ -33,10 +38,39 @@ import java.util.zip.InflaterInputStream;
 public class DiffSummary implements Serializable {
   private static final long serialVersionUID = DiffSummaryKey.serialVersionUID;
 
+  /** Compact binary serializer for the persistent {@code diff_summary} cache. */
+  public enum Serializer implements CacheSerializer<DiffSummary> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(DiffSummary object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try {
+        object.writeTo(buf);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize DiffSummary", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public DiffSummary deserialize(byte[] in) {
+      DiffSummary s = new DiffSummary();
+      try {
+        s.readFrom(new ByteArrayInputStream(in));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize DiffSummary", e);
+      }
+      return s;
+    }
+  }
+
   private transient String[] paths;
   private transient int insertions;
   private transient int deletions;
 
+  private DiffSummary() {}
+
   public DiffSummary(String[] paths, int insertions, int deletions) {
     this.paths = paths;
     this.insertions = insertions;
@@ -52,6 +86,14 @@ public class DiffSummary implements Serializable {
   }
 
   private void writeObject(ObjectOutputStream output) throws IOException {
+    writeTo(output);
+  }
+
+  private void readObject(ObjectInputStream input) throws IOException {
+    readFrom(input);
+  }
+
+  private void writeTo(OutputStream output) throws IOException {
     writeVarInt32(output, insertions);
     writeVarInt32(output, deletions);
     writeVarInt32(output, paths.length);
@@ -62,7 +104,7 @@ public class DiffSummary implements Serializable {
     }
   }
 
-  private void readObject(ObjectInputStream input) throws IOException {
+  private void readFrom(InputStream input) throws IOException {
     insertions = readVarInt32(input);
     deletions = readVarInt32(input);
     paths = new String[readVarInt32(input)];
@@ -21,9 +21,16 @@ import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.common.base.Preconditions;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.server.cache.CacheSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Objects;
 import org.eclipse.jgit.lib.ObjectId;
@@ -31,6 +38,33 @@ import org.eclipse.jgit.lib.ObjectId;
 public class DiffSummaryKey implements Serializable {
   public static final long serialVersionUID = 1L;
 
+  /** Compact binary serializer for keys of the persistent {@code diff_summary} cache. */
+  public enum Serializer implements CacheSerializer<DiffSummaryKey> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(DiffSummaryKey object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try {
+        object.writeTo(buf);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize DiffSummaryKey", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public DiffSummaryKey deserialize(byte[] in) {
+      DiffSummaryKey k = new DiffSummaryKey();
+      try {
+        k.readFrom(new ByteArrayInputStream(in));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize DiffSummaryKey", e);
+      }
+      return k;
+    }
+  }
+
   /** see PatchListKey#oldId */
   private transient ObjectId oldId;
 
@@ -46,6 +80,8 @@ public class DiffSummaryKey implements Serializable {
         plk.getOldId(), plk.getParentNum(), plk.getNewId(), plk.getWhitespace());
   }
 
+  private DiffSummaryKey() {}
+
   private DiffSummaryKey(ObjectId oldId, Integer parentNum, ObjectId newId, Whitespace whitespace) {
     this.oldId = oldId;
     this.parentNum = parentNum;
@@ -93,6 +129,15 @@ public class DiffSummaryKey implements Serializable {
   }
 
   private void writeObject(ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException {
+    readFrom(in);
+  }
+
+  private void writeTo(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
     writeCanBeNull(out, oldId);
     out.writeInt(parentNum == null ? 0 : parentNum);
     writeNotNull(out, newId);
@@ -101,9 +146,11 @@ public class DiffSummaryKey implements Serializable {
       throw new IOException("Invalid whitespace type: " + whitespace);
     }
     out.writeChar(c);
+    out.flush();
   }
 
-  private void readObject(ObjectInputStream in) throws IOException {
+  private void readFrom(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is);
     oldId = readCanBeNull(in);
     int n = in.readInt();
     parentNum = n == 0 ? null : Integer.valueOf(n);
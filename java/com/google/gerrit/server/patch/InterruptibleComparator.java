@@ -0,0 +1,71 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import java.util.Arrays;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.DiffInterruptedException;
+
+/**
+ * Comparator that aborts the diff it is used by once the computing thread is interrupted.
+ *
+ * <p>{@code MyersDiff} already checks for interruption, but {@code HistogramDiff} does not. Using
+ * this comparator allows diffs on the {@link DiffExecutor} that were abandoned after a timeout to
+ * release their thread, instead of running to completion.
+ */
+class InterruptibleComparator extends RawTextComparator {
+  static RawTextComparator wrap(RawTextComparator cmp) {
+    return cmp instanceof InterruptibleComparator ? cmp : new InterruptibleComparator(cmp);
+  }
+
+  // Stateless apart from the delegate, so that it can be shared by diffs running concurrently.
+  private final RawTextComparator delegate;
+
+  private InterruptibleComparator(RawTextComparator delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public boolean equals(RawText a, int ai, RawText b, int bi) {
+    checkInterrupted();
+    return delegate.equals(a, ai, b, bi);
+  }
+
+  @Override
+  public int hash(RawText seq, int lno) {
+    checkInterrupted();
+    return delegate.hash(seq, lno);
+  }
+
+  @Override
+  public Edit reduceCommonStartEnd(RawText a, RawText b, Edit e) {
+    return delegate.reduceCommonStartEnd(a, b, e);
+  }
+
+  @Override
+  protected int hashRegion(byte[] raw, int ptr, int end) {
+    // hashRegion of the delegate is not accessible from here. RawTextComparator only calls it from
+    // hash, which is delegated as a whole; hash the region as a line of its own for other callers.
+    return delegate.hash(new RawText(Arrays.copyOfRange(raw, ptr, end)), 0);
+  }
+
+  private static void checkInterrupted() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new DiffInterruptedException();
+    }
+  }
+}
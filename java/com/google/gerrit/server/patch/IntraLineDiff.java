@@ -21,6 +21,9 @@ import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.reviewdb.client.CodedEnum;
+import com.google.gerrit.server.cache.CacheSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -55,9 +58,38 @@ public class IntraLineDiff implements Serializable {
     }
   }
 
+  /** Compact binary serializer for the persistent {@code diff_intraline} cache. */
+  public enum Serializer implements CacheSerializer<IntraLineDiff> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(IntraLineDiff object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try {
+        object.writeTo(buf);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize IntraLineDiff", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public IntraLineDiff deserialize(byte[] in) {
+      IntraLineDiff d = new IntraLineDiff();
+      try {
+        d.readFrom(new ByteArrayInputStream(in));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize IntraLineDiff", e);
+      }
+      return d;
+    }
+  }
+
   private transient Status status;
   private transient ImmutableList<Edit> edits;
 
+  private IntraLineDiff() {}
+
   IntraLineDiff(Status status) {
     this.status = status;
     this.edits = ImmutableList.of();
@@ -79,6 +111,14 @@ public class IntraLineDiff implements Serializable {
   }
 
   private void writeObject(ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException {
+    readFrom(in);
+  }
+
+  private void writeTo(OutputStream out) throws IOException {
     writeEnum(out, status);
     writeVarInt32(out, edits.size());
     for (Edit e : edits) {
@@ -96,7 +136,7 @@ public class IntraLineDiff implements Serializable {
     }
   }
 
-  private void readObject(ObjectInputStream in) throws IOException {
+  private void readFrom(InputStream in) throws IOException {
     status = readEnum(in, Status.values());
     int editCount = readVarInt32(in);
     Edit[] editArray = new Edit[editCount];
@@ -14,8 +14,15 @@
 
 package com.google.gerrit.server.patch;
 
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
+
 import com.google.auto.value.AutoValue;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.server.cache.CacheSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import org.eclipse.jgit.lib.ObjectId;
 
@@ -23,6 +30,45 @@ import org.eclipse.jgit.lib.ObjectId;
 public abstract class IntraLineDiffKey implements Serializable {
   public static final long serialVersionUID = 8L;
 
+  /** Compact binary serializer for keys of the persistent {@code diff_intraline} cache. */
+  public enum Serializer implements CacheSerializer<IntraLineDiffKey> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(IntraLineDiffKey object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try {
+        writeNotNull(buf, object.getBlobA());
+        writeNotNull(buf, object.getBlobB());
+        Character c = PatchListKey.WHITESPACE_TYPES.get(object.getWhitespace());
+        if (c == null) {
+          throw new IOException("Invalid whitespace type: " + object.getWhitespace());
+        }
+        buf.write(c);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize IntraLineDiffKey", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public IntraLineDiffKey deserialize(byte[] in) {
+      ByteArrayInputStream buf = new ByteArrayInputStream(in);
+      try {
+        ObjectId aId = readNotNull(buf);
+        ObjectId bId = readNotNull(buf);
+        char t = (char) buf.read();
+        Whitespace ws = PatchListKey.WHITESPACE_TYPES.inverse().get(t);
+        if (ws == null) {
+          throw new IOException("Invalid whitespace type code: " + t);
+        }
+        return create(aId, bId, ws);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize IntraLineDiffKey", e);
+      }
+    }
+  }
+
   public static IntraLineDiffKey create(ObjectId aId, ObjectId bId, Whitespace whitespace) {
     return new AutoValue_IntraLineDiffKey(aId, bId, whitespace);
   }
@@ -26,7 +26,6 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
@@ -50,17 +49,21 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern.compile("[{:][ \\t]*$");
 
   private final ExecutorService diffExecutor;
+  private final DiffExecutorMetrics diffExecutorMetrics;
   private final long timeoutMillis;
+  private final long queueTimeoutMillis;
   private final IntraLineDiffKey key;
   private final IntraLineDiffArgs args;
 
   @Inject
   IntraLineLoader(
       @DiffExecutor ExecutorService diffExecutor,
+      DiffExecutorMetrics diffExecutorMetrics,
       @GerritServerConfig Config cfg,
       @Assisted IntraLineDiffKey key,
       @Assisted IntraLineDiffArgs args) {
     this.diffExecutor = diffExecutor;
+    this.diffExecutorMetrics = diffExecutorMetrics;
     timeoutMillis =
         ConfigUtil.getTimeUnit(
             cfg,
@@ -69,17 +72,18 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
             "timeout",
             TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    queueTimeoutMillis = DiffExecutorModule.queueTimeoutMillis(cfg);
     this.key = key;
     this.args = args;
   }
 
   @Override
   public IntraLineDiff call() throws Exception {
-    Future<IntraLineDiff> result =
-        diffExecutor.submit(
-            () -> IntraLineLoader.compute(args.aText(), args.bText(), args.edits()));
+    DiffFuture<IntraLineDiff> result =
+        DiffFuture.submit(
+            diffExecutor, () -> IntraLineLoader.compute(args.aText(), args.bText(), args.edits()));
     try {
-      return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return result.get(queueTimeoutMillis, timeoutMillis, TimeUnit.MILLISECONDS);
     } catch (InterruptedException | TimeoutException e) {
       log.warn(
           timeoutMillis
@@ -95,6 +99,7 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
               + ".."
               + key.getBlobB().name());
       result.cancel(true);
+      diffExecutorMetrics.abandoned.increment(PatchListCacheImpl.INTRA_NAME);
       return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
     } catch (ExecutionException e) {
       // If there was an error computing the result, carry it
@@ -27,6 +27,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.server.cache.CacheSerializer;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -69,6 +70,31 @@ public class PatchList implements Serializable {
     return a.compareTo(b);
   }
 
+  /** Compact binary serializer for the persistent {@code diff} cache. */
+  public enum Serializer implements CacheSerializer<PatchList> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(PatchList object) {
+      try {
+        return object.toBytes();
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize PatchList", e);
+      }
+    }
+
+    @Override
+    public PatchList deserialize(byte[] in) {
+      try {
+        PatchList p = new PatchList();
+        p.readFrom(in);
+        return p;
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize PatchList", e);
+      }
+    }
+  }
+
   @Nullable private transient ObjectId oldId;
   private transient ObjectId newId;
   private transient boolean isMerge;
@@ -77,6 +103,8 @@ public class PatchList implements Serializable {
   private transient int deletions;
   private transient PatchListEntry[] patches;
 
+  private PatchList() {}
+
   public PatchList(
       @Nullable AnyObjectId oldId,
       AnyObjectId newId,
@@ -171,6 +199,14 @@ public class PatchList implements Serializable {
   }
 
   private void writeObject(ObjectOutputStream output) throws IOException {
+    writeBytes(output, toBytes());
+  }
+
+  private void readObject(ObjectInputStream input) throws IOException {
+    readFrom(readBytes(input));
+  }
+
+  private byte[] toBytes() throws IOException {
     final ByteArrayOutputStream buf = new ByteArrayOutputStream();
     try (DeflaterOutputStream out = new DeflaterOutputStream(buf)) {
       writeCanBeNull(out, oldId);
@@ -184,11 +220,11 @@ public class PatchList implements Serializable {
         p.writeTo(out);
       }
     }
-    writeBytes(output, buf.toByteArray());
+    return buf.toByteArray();
   }
 
-  private void readObject(ObjectInputStream input) throws IOException {
-    final ByteArrayInputStream buf = new ByteArrayInputStream(readBytes(input));
+  private void readFrom(byte[] data) throws IOException {
+    final ByteArrayInputStream buf = new ByteArrayInputStream(data);
     try (InflaterInputStream in = new InflaterInputStream(buf)) {
       oldId = readCanBeNull(in);
       newId = readNotNull(in);
@@ -48,16 +48,25 @@ public class PatchListCacheImpl implements PatchListCache {
       protected void configure() {
         factory(PatchListLoader.Factory.class);
         persist(FILE_NAME, PatchListKey.class, PatchList.class)
+            .version(1)
+            .keySerializer(PatchListKey.Serializer.INSTANCE)
+            .valueSerializer(PatchList.Serializer.INSTANCE)
             .maximumWeight(10 << 20)
             .weigher(PatchListWeigher.class);
 
         factory(IntraLineLoader.Factory.class);
         persist(INTRA_NAME, IntraLineDiffKey.class, IntraLineDiff.class)
+            .version(1)
+            .keySerializer(IntraLineDiffKey.Serializer.INSTANCE)
+            .valueSerializer(IntraLineDiff.Serializer.INSTANCE)
             .maximumWeight(10 << 20)
             .weigher(IntraLineWeigher.class);
 
         factory(DiffSummaryLoader.Factory.class);
         persist(DIFF_SUMMARY, DiffSummaryKey.class, DiffSummary.class)
+            .version(1)
+            .keySerializer(DiffSummaryKey.Serializer.INSTANCE)
+            .valueSerializer(DiffSummary.Serializer.INSTANCE)
             .maximumWeight(10 << 20)
             .weigher(DiffSummaryWeigher.class)
             .diskLimit(1 << 30);
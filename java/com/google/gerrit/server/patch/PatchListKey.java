@@ -23,9 +23,16 @@ import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.server.cache.CacheSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Objects;
 import org.eclipse.jgit.lib.AnyObjectId;
@@ -58,6 +65,33 @@ public class PatchListKey implements Serializable {
     checkState(ALGORITHM_TYPES.size() == Algorithm.values().length);
   }
 
+  /** Compact binary serializer for keys of the persistent {@code diff} cache. */
+  public enum Serializer implements CacheSerializer<PatchListKey> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(PatchListKey object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try {
+        object.writeTo(buf);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize PatchListKey", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public PatchListKey deserialize(byte[] in) {
+      PatchListKey k = new PatchListKey();
+      try {
+        k.readFrom(new ByteArrayInputStream(in));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize PatchListKey", e);
+      }
+      return k;
+    }
+  }
+
   public static PatchListKey againstDefaultBase(AnyObjectId newId, Whitespace ws) {
     return new PatchListKey(null, newId, ws, Algorithm.OPTIMIZED_DIFF);
   }
@@ -95,6 +129,8 @@ public class PatchListKey implements Serializable {
   private transient Whitespace whitespace;
   private transient Algorithm algorithm;
 
+  private PatchListKey() {}
+
   private PatchListKey(AnyObjectId a, AnyObjectId b, Whitespace ws, Algorithm algorithm) {
     oldId = a != null ? a.copy() : null;
     newId = b.copy();
@@ -186,6 +222,15 @@ public class PatchListKey implements Serializable {
   }
 
   private void writeObject(ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException {
+    readFrom(in);
+  }
+
+  private void writeTo(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
     writeCanBeNull(out, oldId);
     out.writeInt(parentNum == null ? 0 : parentNum);
     writeNotNull(out, newId);
@@ -195,9 +240,11 @@ public class PatchListKey implements Serializable {
     }
     out.writeChar(c);
     out.writeChar(ALGORITHM_TYPES.get(algorithm));
+    out.flush();
   }
 
-  private void readObject(ObjectInputStream in) throws IOException {
+  private void readFrom(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is);
     oldId = readCanBeNull(in);
     int n = in.readInt();
     parentNum = n == 0 ? null : Integer.valueOf(n);
@@ -28,6 +28,9 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.ConfigUtil;
@@ -37,9 +40,12 @@ import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.patch.EditTransformer.ContextAwareEdit;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -47,9 +53,9 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
@@ -84,6 +90,23 @@ public class PatchListLoader implements Callable<PatchList> {
     PatchListLoader create(PatchListKey key, Project.NameKey project);
   }
 
+  @Singleton
+  static class Metrics {
+    final Histogram0 parallelSpeedup;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      parallelSpeedup =
+          metricMaker.newHistogram(
+              "diff/parallel_speedup",
+              new Description(
+                      "Time spent computing file diffs of a patch list in parallel, relative to"
+                          + " the elapsed time")
+                  .setCumulative()
+                  .setUnit("percent"));
+    }
+  }
+
   private final GitRepositoryManager repoManager;
   private final PatchListCache patchListCache;
   private final ThreeWayMergeStrategy mergeStrategy;
@@ -92,7 +115,11 @@ public class PatchListLoader implements Callable<PatchList> {
   private final PatchListKey key;
   private final Project.NameKey project;
   private final long timeoutMillis;
+  private final long queueTimeoutMillis;
+  private final int parallelism;
   private final boolean save;
+  private final Metrics metrics;
+  private final DiffExecutorMetrics diffExecutorMetrics;
 
   @Inject
   PatchListLoader(
@@ -101,6 +128,8 @@ public class PatchListLoader implements Callable<PatchList> {
       @GerritServerConfig Config cfg,
       @DiffExecutor ExecutorService de,
       AutoMerger am,
+      Metrics metrics,
+      DiffExecutorMetrics diffExecutorMetrics,
       @Assisted PatchListKey k,
       @Assisted Project.NameKey p) {
     repoManager = mgr;
@@ -118,7 +147,16 @@ public class PatchListLoader implements Callable<PatchList> {
             "timeout",
             TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    queueTimeoutMillis = DiffExecutorModule.queueTimeoutMillis(cfg);
+    parallelism =
+        cfg.getInt(
+            "cache",
+            PatchListCacheImpl.FILE_NAME,
+            "parallelism",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
     save = AutoMerger.cacheAutomerge(cfg);
+    this.metrics = metrics;
+    this.diffExecutorMetrics = diffExecutorMetrics;
   }
 
   @Override
@@ -156,7 +194,7 @@ public class PatchListLoader implements Callable<PatchList> {
       throws IOException, PatchListNotAvailableException {
     ObjectReader reader = rw.getObjectReader();
     checkArgument(reader.getCreatedFromInserter() == ins);
-    RawTextComparator cmp = comparatorFor(key.getWhitespace());
+    RawTextComparator cmp = InterruptibleComparator.wrap(comparatorFor(key.getWhitespace()));
     try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
       RevCommit b = rw.parseCommit(key.getNewId());
       RevObject a = aFor(key, repo, rw, ins, b);
@@ -208,18 +246,97 @@ public class PatchListLoader implements Callable<PatchList> {
                 b,
                 comparisonType));
       }
-      for (DiffEntry diffEntry : diffEntries) {
-        Set<ContextAwareEdit> editsDueToRebase =
-            getEditsDueToRebase(editsDueToRebasePerFilePath, diffEntry);
-        Optional<PatchListEntry> patchListEntry =
-            getPatchListEntry(reader, df, diffEntry, aTree, bTree, editsDueToRebase);
-        patchListEntry.ifPresent(entries::add);
+      if (parallelism > 1 && diffEntries.size() > 1) {
+        addPatchListEntriesInParallel(
+            entries,
+            ins,
+            reader,
+            repo.getConfig(),
+            cmp,
+            df,
+            diffEntries,
+            aTree,
+            bTree,
+            editsDueToRebasePerFilePath);
+      } else {
+        for (DiffEntry diffEntry : diffEntries) {
+          Set<ContextAwareEdit> editsDueToRebase =
+              getEditsDueToRebase(editsDueToRebasePerFilePath, diffEntry);
+          Optional<PatchListEntry> patchListEntry =
+              getPatchListEntry(reader, df, diffEntry, aTree, bTree, editsDueToRebase);
+          patchListEntry.ifPresent(entries::add);
+        }
       }
       return new PatchList(
           a, b, isMerge, comparisonType, entries.toArray(new PatchListEntry[entries.size()]));
     }
   }
 
+  /**
+   * Computes the file headers of {@code diffEntries} on the {@link DiffExecutor}, keeping up to
+   * {@link #parallelism} of them in flight, and adds the resulting entries in order.
+   *
+   * <p>Each task uses its own reader and {@link DiffFormatter}, as neither is thread-safe. {@code
+   * reader} and {@code df} are only used on the calling thread, the latter to fall back to a
+   * simpler diff on timeout. A timed out task shares no formatter with the fallback, so the two are
+   * not locked against each other and the fallback does not wait for the abandoned task.
+   */
+  private void addPatchListEntriesInParallel(
+      List<PatchListEntry> entries,
+      ObjectInserter ins,
+      ObjectReader reader,
+      Config repoConfig,
+      RawTextComparator cmp,
+      DiffFormatter df,
+      List<DiffEntry> diffEntries,
+      RevTree aTree,
+      RevTree bTree,
+      Multimap<String, ContextAwareEdit> editsDueToRebasePerFilePath)
+      throws IOException {
+    AtomicLong busyNanos = new AtomicLong();
+    long start = System.nanoTime();
+    Deque<DiffFuture<FileHeader>> window = new ArrayDeque<>(parallelism);
+    int submitted = 0;
+    try {
+      for (DiffEntry diffEntry : diffEntries) {
+        while (submitted < diffEntries.size() && window.size() < parallelism) {
+          DiffEntry next = diffEntries.get(submitted++);
+          window.add(
+              DiffFuture.submit(
+                  diffExecutor,
+                  () -> {
+                    long taskStart = System.nanoTime();
+                    try (ObjectReader taskReader = ins.newReader();
+                        DiffFormatter taskDf = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+                      taskDf.setReader(taskReader, repoConfig);
+                      taskDf.setDiffComparator(cmp);
+                      return taskDf.toFileHeader(next);
+                    } finally {
+                      busyNanos.addAndGet(System.nanoTime() - taskStart);
+                    }
+                  }));
+        }
+        FileHeader fileHeader = getFileHeader(window.remove(), key.getNewId(), df, diffEntry);
+        newPatchListEntry(
+                reader,
+                fileHeader,
+                diffEntry,
+                aTree,
+                bTree,
+                getEditsDueToRebase(editsDueToRebasePerFilePath, diffEntry))
+            .ifPresent(entries::add);
+      }
+    } finally {
+      for (DiffFuture<?> f : window) {
+        f.cancel(true);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (elapsed > 0) {
+      metrics.parallelSpeedup.record(busyNanos.get() * 100 / elapsed);
+    }
+  }
+
   /**
    * Identifies the edits which are present between {@code commitA} and {@code commitB} due to other
    * commits in between those two. Edits which cannot be clearly attributed to those other commits
@@ -387,6 +504,17 @@ public class PatchListLoader implements Callable<PatchList> {
       Set<ContextAwareEdit> editsDueToRebase)
       throws IOException {
     FileHeader fileHeader = toFileHeader(key.getNewId(), diffFormatter, diffEntry);
+    return newPatchListEntry(objectReader, fileHeader, diffEntry, treeA, treeB, editsDueToRebase);
+  }
+
+  private Optional<PatchListEntry> newPatchListEntry(
+      ObjectReader objectReader,
+      FileHeader fileHeader,
+      DiffEntry diffEntry,
+      RevTree treeA,
+      RevTree treeB,
+      Set<ContextAwareEdit> editsDueToRebase)
+      throws IOException {
     long oldSize = getFileSize(objectReader, diffEntry.getOldMode(), diffEntry.getOldPath(), treeA);
     long newSize = getFileSize(objectReader, diffEntry.getNewMode(), diffEntry.getNewPath(), treeB);
     Set<Edit> contentEditsDueToRebase = getContentEdits(editsDueToRebase);
@@ -440,16 +568,25 @@ public class PatchListLoader implements Callable<PatchList> {
   private FileHeader toFileHeader(
       ObjectId commitB, DiffFormatter diffFormatter, DiffEntry diffEntry) throws IOException {
 
-    Future<FileHeader> result =
-        diffExecutor.submit(
+    DiffFuture<FileHeader> result =
+        DiffFuture.submit(
+            diffExecutor,
             () -> {
               synchronized (diffEntry) {
                 return diffFormatter.toFileHeader(diffEntry);
               }
             });
+    return getFileHeader(result, commitB, diffFormatter, diffEntry);
+  }
 
+  private FileHeader getFileHeader(
+      DiffFuture<FileHeader> result,
+      ObjectId commitB,
+      DiffFormatter diffFormatter,
+      DiffEntry diffEntry)
+      throws IOException {
     try {
-      return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return result.get(queueTimeoutMillis, timeoutMillis, TimeUnit.MILLISECONDS);
     } catch (InterruptedException | TimeoutException e) {
       log.warn(
           timeoutMillis
@@ -465,6 +602,7 @@ public class PatchListLoader implements Callable<PatchList> {
               + ".."
               + diffEntry.getNewId().name());
       result.cancel(true);
+      diffExecutorMetrics.abandoned.increment(PatchListCacheImpl.FILE_NAME);
       synchronized (diffEntry) {
         return toFileHeaderWithoutMyersDiff(diffFormatter, diffEntry);
       }
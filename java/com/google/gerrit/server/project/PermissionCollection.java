@@ -32,6 +32,7 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -60,25 +61,25 @@ public class PermissionCollection {
     /**
      * Get all permissions that apply to a reference.
      *
-     * @param matcherList collection of sections that should be considered, in priority order
-     *     (project specific definitions must appear before inherited ones).
+     * @param index collection of sections that should be considered, in priority order (project
+     *     specific definitions must appear before inherited ones).
      * @param ref reference being accessed.
      * @param user if the reference is a per-user reference, e.g. access sections using the
      *     parameter variable "${username}" will have each username inserted into them to see if
      *     they apply to the reference named by {@code ref}.
      * @return map of permissions that apply to this reference, keyed by permission name.
      */
-    PermissionCollection filter(
-        Iterable<SectionMatcher> matcherList, String ref, CurrentUser user) {
+    PermissionCollection filter(SectionMatcherIndex index, String ref, CurrentUser user) {
       if (isRE(ref)) {
         ref = RefPattern.shortestExample(ref);
       } else if (ref.endsWith("/*")) {
         ref = ref.substring(0, ref.length() - 1);
       }
 
+      BitSet matches = index.match(ref);
       boolean perUser = false;
-      Map<AccessSection, Project.NameKey> sectionToProject = new LinkedHashMap<>();
-      for (SectionMatcher sm : matcherList) {
+      for (int i : index.parameterized()) {
+        SectionMatcher sm = index.get(i);
         // If the matcher has to expand parameters and its prefix matches the
         // reference there is a very good chance the reference is actually user
         // specific, even if the matcher does not match the reference. Since its
@@ -91,18 +92,20 @@ public class PermissionCollection {
         // that will never be shared with non-user references, and the per-user
         // references are usually less frequent than the non-user references.
         //
-        if (sm.matcher instanceof RefPatternMatcher.ExpandParameters) {
-          if (!((RefPatternMatcher.ExpandParameters) sm.matcher).matchPrefix(ref)) {
-            continue;
-          }
-          perUser = true;
-          if (sm.match(ref, user)) {
-            sectionToProject.put(sm.section, sm.project);
-          }
-        } else if (sm.match(ref, null)) {
-          sectionToProject.put(sm.section, sm.project);
+        if (!((RefPatternMatcher.ExpandParameters) sm.matcher).matchPrefix(ref)) {
+          continue;
+        }
+        perUser = true;
+        if (sm.match(ref, user)) {
+          matches.set(i);
         }
       }
+
+      Map<AccessSection, Project.NameKey> sectionToProject = new LinkedHashMap<>();
+      for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+        SectionMatcher sm = index.get(i);
+        sectionToProject.put(sm.section, sm.project);
+      }
       List<AccessSection> sections = Lists.newArrayList(sectionToProject.keySet());
       sorter.sort(ref, sections);
 
@@ -14,12 +14,14 @@
 
 package com.google.gerrit.server.project;
 
+import com.google.common.math.LongMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.math.RoundingMode;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -30,7 +32,8 @@ import org.eclipse.jgit.lib.Config;
 /** Ticks periodically to force refresh events for {@link ProjectCacheImpl}. */
 @Singleton
 public class ProjectCacheClock implements LifecycleListener {
-  private final Config serverConfig;
+  private final long checkFrequencyMillis;
+  private final long probeInterval;
 
   private final AtomicLong generation = new AtomicLong();
 
@@ -38,13 +41,12 @@ public class ProjectCacheClock implements LifecycleListener {
 
   @Inject
   public ProjectCacheClock(@GerritServerConfig Config serverConfig) {
-    this.serverConfig = serverConfig;
+    this.checkFrequencyMillis = checkFrequency(serverConfig);
+    this.probeInterval = probeInterval(serverConfig, checkFrequencyMillis);
   }
 
   @Override
   public void start() {
-    long checkFrequencyMillis = checkFrequency(serverConfig);
-
     if (checkFrequencyMillis == Long.MAX_VALUE) {
       // Start with generation 1 (to avoid magic 0 below).
       // Do not begin background thread, disabling the clock.
@@ -87,6 +89,15 @@ public class ProjectCacheClock implements LifecycleListener {
     return generation.get();
   }
 
+  /**
+   * @return number of generations between two checks of the revision of a cached project. This is
+   *     greater than 1 only if updates of refs/meta/config are trusted to be observed as ref update
+   *     events, see {@code cache.projects.trustRefUpdateEvents}.
+   */
+  long probeInterval() {
+    return probeInterval;
+  }
+
   private static long checkFrequency(Config serverConfig) {
     String freq = serverConfig.getString("cache", "projects", "checkFrequency");
     if (freq != null && ("disabled".equalsIgnoreCase(freq) || "off".equalsIgnoreCase(freq))) {
@@ -97,4 +108,18 @@ public class ProjectCacheClock implements LifecycleListener {
             serverConfig, "cache", "projects", "checkFrequency", 5, TimeUnit.MINUTES),
         TimeUnit.MINUTES);
   }
+
+  private static long probeInterval(Config serverConfig, long checkFrequencyMillis) {
+    if (!serverConfig.getBoolean("cache", "projects", "trustRefUpdateEvents", false)
+        || checkFrequencyMillis == Long.MAX_VALUE
+        || checkFrequencyMillis <= 10) {
+      return 1;
+    }
+    long fallbackMillis =
+        TimeUnit.MILLISECONDS.convert(
+            ConfigUtil.getTimeUnit(
+                serverConfig, "cache", "projects", "fallbackCheckFrequency", 60, TimeUnit.MINUTES),
+            TimeUnit.MINUTES);
+    return Math.max(1, LongMath.divide(fallbackMillis, checkFrequencyMillis, RoundingMode.CEILING));
+  }
 }
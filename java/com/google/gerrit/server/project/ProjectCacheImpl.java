@@ -20,9 +20,15 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Sets;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
@@ -46,13 +52,23 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Cache of project information, including access rights. */
+/**
+ * Cache of project information, including access rights.
+ *
+ * <p>Updates of refs/meta/config made through this server are observed as {@link
+ * GitReferenceUpdatedListener} events, and a cached project whose configuration is outdated by such
+ * an update is invalidated right away. If {@code cache.projects.trustRefUpdateEvents} is set, these
+ * events are the primary source of freshness and the revision of a cached project is only read
+ * from the repository every {@link ProjectCacheClock#probeInterval()} generations, as a fallback
+ * for updates made outside of this server.
+ */
 @Singleton
-public class ProjectCacheImpl implements ProjectCache {
+public class ProjectCacheImpl implements ProjectCache, GitReferenceUpdatedListener {
   private static final Logger log = LoggerFactory.getLogger(ProjectCacheImpl.class);
 
   private static final String CACHE_NAME = "projects";
@@ -70,6 +86,7 @@ public class ProjectCacheImpl implements ProjectCache {
 
         bind(ProjectCacheImpl.class);
         bind(ProjectCache.class).to(ProjectCacheImpl.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ProjectCacheImpl.class);
 
         install(
             new LifecycleModule() {
@@ -90,6 +107,7 @@ public class ProjectCacheImpl implements ProjectCache {
   private final Lock listLock;
   private final ProjectCacheClock clock;
   private final Provider<ProjectIndexer> indexer;
+  private final Counter0 skippedRevisionChecks;
 
   @Inject
   ProjectCacheImpl(
@@ -98,7 +116,8 @@ public class ProjectCacheImpl implements ProjectCache {
       @Named(CACHE_NAME) LoadingCache<String, ProjectState> byName,
       @Named(CACHE_LIST) LoadingCache<ListKey, SortedSet<Project.NameKey>> list,
       ProjectCacheClock clock,
-      Provider<ProjectIndexer> indexer) {
+      Provider<ProjectIndexer> indexer,
+      MetricMaker metricMaker) {
     this.allProjectsName = allProjectsName;
     this.allUsersName = allUsersName;
     this.byName = byName;
@@ -106,6 +125,13 @@ public class ProjectCacheImpl implements ProjectCache {
     this.listLock = new ReentrantLock(true /* fair */);
     this.clock = clock;
     this.indexer = indexer;
+    this.skippedRevisionChecks =
+        metricMaker.newCounter(
+            "caches/projects/skipped_revision_checks",
+            new Description(
+                    "Reads of refs/meta/config skipped because ref update events are trusted")
+                .setRate()
+                .setUnit("checks"));
   }
 
   @Override
@@ -145,7 +171,8 @@ public class ProjectCacheImpl implements ProjectCache {
     }
     try {
       ProjectState state = byName.get(projectName.get());
-      if (state != null && state.needsRefresh(clock.read())) {
+      if (state != null
+          && state.needsRefresh(clock.read(), clock.probeInterval(), skippedRevisionChecks)) {
         byName.invalidate(projectName.get());
         state = byName.get(projectName.get());
       }
@@ -160,6 +187,20 @@ public class ProjectCacheImpl implements ProjectCache {
     }
   }
 
+  @Override
+  public void onGitReferenceUpdated(Event event) {
+    if (!RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      return;
+    }
+    ProjectState state = byName.getIfPresent(event.getProjectName());
+    if (state == null) {
+      return;
+    }
+    if (!state.isRevision(ObjectId.fromString(event.getNewObjectId()))) {
+      byName.invalidate(event.getProjectName());
+    }
+  }
+
   @Override
   public void evict(Project p) throws IOException {
     evict(p.getNameKey());
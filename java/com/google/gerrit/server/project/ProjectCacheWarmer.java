@@ -18,14 +18,17 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.rules.RulesCache;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.googlecode.prolog_cafe.exceptions.CompileException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,17 +38,20 @@ public class ProjectCacheWarmer implements LifecycleListener {
 
   private final Config config;
   private final ProjectCache cache;
+  private final RulesCache rulesCache;
 
   @Inject
-  ProjectCacheWarmer(@GerritServerConfig Config config, ProjectCache cache) {
+  ProjectCacheWarmer(@GerritServerConfig Config config, ProjectCache cache, RulesCache rulesCache) {
     this.config = config;
     this.cache = cache;
+    this.rulesCache = rulesCache;
   }
 
   @Override
   public void start() {
     int cpus = Runtime.getRuntime().availableProcessors();
     if (config.getBoolean("cache", "projects", "loadOnStartup", false)) {
+      boolean loadRules = config.getBoolean("cache", "prolog_rules", "loadOnStartup", false);
       ThreadPoolExecutor pool =
           new ScheduledThreadPoolExecutor(
               config.getInt("cache", "projects", "loadThreads", cpus),
@@ -58,7 +64,10 @@ public class ProjectCacheWarmer implements LifecycleListener {
             for (Project.NameKey name : cache.all()) {
               pool.execute(
                   () -> {
-                    cache.get(name);
+                    ProjectState state = cache.get(name);
+                    if (loadRules && state != null) {
+                      loadRules(state);
+                    }
                   });
             }
             pool.shutdown();
@@ -72,6 +81,18 @@ public class ProjectCacheWarmer implements LifecycleListener {
     }
   }
 
+  private void loadRules(ProjectState state) {
+    ObjectId rulesId = state.getConfig().getRulesId();
+    if (rulesId == null) {
+      return;
+    }
+    try {
+      rulesCache.loadMachine(state.getNameKey(), rulesId);
+    } catch (CompileException e) {
+      log.warn("Cannot load rules of " + state.getName(), e);
+    }
+  }
+
   @Override
   public void stop() {}
 }
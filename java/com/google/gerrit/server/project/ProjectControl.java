@@ -116,7 +116,7 @@ class ProjectControl {
   private final ChangeControl.Factory changeControlFactory;
   private final PermissionCollection.Factory permissionFilter;
 
-  private List<SectionMatcher> allSections;
+  private SectionMatcherIndex allSections;
   private Map<String, RefControl> refControls;
   private Boolean declaredOwner;
 
@@ -166,7 +166,7 @@ class ProjectControl {
     }
     RefControl ctl = refControls.get(refName);
     if (ctl == null) {
-      PermissionCollection relevant = permissionFilter.filter(access(), refName, user);
+      PermissionCollection relevant = permissionFilter.filter(accessIndex(), refName, user);
       ctl = new RefControl(this, refName, relevant);
       refControls.put(refName, ctl);
     }
@@ -324,8 +324,12 @@ class ProjectControl {
   }
 
   private List<SectionMatcher> access() {
+    return accessIndex().sections();
+  }
+
+  private SectionMatcherIndex accessIndex() {
     if (allSections == null) {
-      allSections = state.getAllSections();
+      allSections = state.getAllSectionsIndex();
     }
     return allSections;
   }
@@ -32,6 +32,7 @@ import com.google.gerrit.common.data.SubscribeSection;
 import com.google.gerrit.extensions.api.projects.CommentLinkInfo;
 import com.google.gerrit.extensions.api.projects.ThemeInfo;
 import com.google.gerrit.extensions.client.InheritableBoolean;
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Project;
@@ -68,6 +69,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.slf4j.Logger;
@@ -96,15 +98,18 @@ public class ProjectState {
   private final Map<String, ProjectLevelConfig> configs;
   private final Set<AccountGroup.UUID> localOwners;
 
-  /** Prolog rule state. */
-  private volatile PrologMachineCopy rulesMachine;
-
   /** Last system time the configuration's revision was examined. */
   private volatile long lastCheckGeneration;
 
+  /** Last system time the configuration's revision was read from the repository. */
+  private volatile long lastProbeGeneration;
+
   /** Local access sections, wrapped in SectionMatchers for faster evaluation. */
   private volatile List<SectionMatcher> localAccessSections;
 
+  /** Local and inherited access sections, indexed for matching references. */
+  private volatile SectionMatcherIndex allSectionsIndex;
+
   /** Theme information loaded from site_path/themes. */
   private volatile ThemeInfo theme;
 
@@ -166,19 +171,38 @@ public class ProjectState {
 
   void initLastCheck(long generation) {
     lastCheckGeneration = generation;
+    lastProbeGeneration = generation;
   }
 
-  boolean needsRefresh(long generation) {
+  /**
+   * @param generation current generation of the {@link ProjectCacheClock}.
+   * @param probeInterval number of generations between two reads of the revision from the
+   *     repository. In the generations in between, the revision is trusted to be kept up to date by
+   *     ref update events.
+   * @param skippedChecks incremented for each generation in which reading the revision is skipped.
+   * @return true if the cached configuration is out of date and must be reloaded.
+   */
+  boolean needsRefresh(long generation, long probeInterval, Counter0 skippedChecks) {
     if (generation <= 0) {
       return isRevisionOutOfDate();
     }
     if (lastCheckGeneration != generation) {
       lastCheckGeneration = generation;
+      if (generation - lastProbeGeneration < probeInterval) {
+        skippedChecks.increment();
+        return false;
+      }
+      lastProbeGeneration = generation;
       return isRevisionOutOfDate();
     }
     return false;
   }
 
+  /** @return true if the cached configuration was loaded from the given revision. */
+  boolean isRevision(ObjectId rev) {
+    return rev.equals(config.getRevision());
+  }
+
   private boolean isRevisionOutOfDate() {
     try (Repository git = gitMgr.openRepository(getNameKey())) {
       Ref ref = git.getRefDatabase().exactRef(RefNames.REFS_CONFIG);
@@ -201,11 +225,7 @@ public class ProjectState {
 
   /** @return Construct a new PrologEnvironment for the calling thread. */
   public PrologEnvironment newPrologEnvironment() throws CompileException {
-    PrologMachineCopy pmc = rulesMachine;
-    if (pmc == null) {
-      pmc = rulesCache.loadMachine(getNameKey(), config.getRulesId());
-      rulesMachine = pmc;
-    }
+    PrologMachineCopy pmc = rulesCache.loadMachine(getNameKey(), config.getRulesId());
     return envFactory.create(pmc);
   }
 
@@ -302,6 +322,20 @@ public class ProjectState {
     return all;
   }
 
+  /**
+   * Obtain an index of all local and inherited sections. The index is reused until this project or
+   * one of its parents is reloaded into the project cache.
+   */
+  SectionMatcherIndex getAllSectionsIndex() {
+    List<SectionMatcher> all = getAllSections();
+    SectionMatcherIndex index = allSectionsIndex;
+    if (index == null || !index.isBuiltFrom(all)) {
+      index = new SectionMatcherIndex(all);
+      allSectionsIndex = index;
+    }
+    return index;
+  }
+
   /**
    * @return all {@link AccountGroup}'s to which the owner privilege for 'refs/*' is assigned for
    *     this project (the local owners), if there are no local owners the local owners of the
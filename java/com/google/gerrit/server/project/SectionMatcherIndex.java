@@ -0,0 +1,263 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.gerrit.server.project.RefPattern.isRE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RunAutomaton;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precompiled lookup of the {@link SectionMatcher}s that apply to a reference.
+ *
+ * <p>Instead of testing a reference against every section one by one, exact names are looked up in
+ * a hash table, {@code refs/.../*} prefixes are looked up once per path component of the
+ * reference, and regular expressions are first tested together against a single combined
+ * automaton, so that references not matched by any of them are rejected in one pass.
+ *
+ * <p>Sections using parameters such as "${username}" depend on the user and are not indexed; see
+ * {@link #parameterized()}.
+ */
+class SectionMatcherIndex {
+  /**
+   * Upper bound on the regular expressions combined into one automaton. Determinizing their union
+   * can take time exponential in their number, so it must be bounded before it is attempted.
+   */
+  @VisibleForTesting static final int MAX_COMBINED_REGEXPS = 32;
+
+  /** Upper bound on the states of the automata to combine, summed up before determinizing. */
+  private static final int MAX_UNION_STATES = 1000;
+
+  /** Upper bound on the states of the combined automaton, to cap its memory. */
+  private static final int MAX_COMBINED_STATES = 10000;
+
+  private final ImmutableList<SectionMatcher> sections;
+  private final Map<String, int[]> exact;
+  private final Map<String, int[]> prefixes;
+  private final RunAutomaton anyRegexp;
+  private final int[] regexpIdx;
+  private final RunAutomaton[] regexps;
+  private final int[] otherIdx;
+  private final int[] parameterizedIdx;
+
+  SectionMatcherIndex(List<SectionMatcher> sections) {
+    this.sections = ImmutableList.copyOf(sections);
+
+    Map<String, List<Integer>> exact = new HashMap<>();
+    Map<String, List<Integer>> prefixes = new HashMap<>();
+    List<Integer> regexpIdx = new ArrayList<>();
+    List<Automaton> automata = new ArrayList<>();
+    List<Integer> otherIdx = new ArrayList<>();
+    List<Integer> parameterizedIdx = new ArrayList<>();
+    for (int i = 0; i < sections.size(); i++) {
+      SectionMatcher sm = sections.get(i);
+      String name = sm.section.getName();
+      if (sm.matcher instanceof RefPatternMatcher.ExpandParameters) {
+        parameterizedIdx.add(i);
+      } else if (isRE(name)) {
+        Automaton a = toAutomaton(name);
+        if (a != null) {
+          regexpIdx.add(i);
+          automata.add(a);
+        } else {
+          otherIdx.add(i);
+        }
+      } else if (name.endsWith("/*")) {
+        prefixes
+            .computeIfAbsent(name.substring(0, name.length() - 1), k -> new ArrayList<>())
+            .add(i);
+      } else {
+        exact.computeIfAbsent(name, k -> new ArrayList<>()).add(i);
+      }
+    }
+
+    this.exact = toArrays(exact);
+    this.prefixes = toArrays(prefixes);
+    this.regexpIdx = Ints.toArray(regexpIdx);
+    this.regexps = new RunAutomaton[automata.size()];
+    for (int i = 0; i < automata.size(); i++) {
+      regexps[i] = new RunAutomaton(automata.get(i));
+    }
+    this.anyRegexp = combine(automata);
+    this.otherIdx = Ints.toArray(otherIdx);
+    this.parameterizedIdx = Ints.toArray(parameterizedIdx);
+  }
+
+  /** @return all sections, in the order the index was built from. */
+  ImmutableList<SectionMatcher> sections() {
+    return sections;
+  }
+
+  SectionMatcher get(int i) {
+    return sections.get(i);
+  }
+
+  /** @return true if this index was built from exactly these matcher instances, in this order. */
+  boolean isBuiltFrom(List<SectionMatcher> other) {
+    if (sections.size() != other.size()) {
+      return false;
+    }
+    for (int i = 0; i < sections.size(); i++) {
+      if (sections.get(i) != other.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the sections matching a reference, excluding {@link #parameterized()} ones.
+   *
+   * @param ref reference name, which must not be a pattern itself.
+   * @return positions of the matching sections in {@link #sections()}.
+   */
+  BitSet match(String ref) {
+    BitSet r = new BitSet(sections.size());
+    set(r, exact.get(ref));
+    for (int i = ref.indexOf('/'); i >= 0; i = ref.indexOf('/', i + 1)) {
+      set(r, prefixes.get(ref.substring(0, i + 1)));
+    }
+    if (regexps.length > 0 && (anyRegexp == null || anyRegexp.run(ref))) {
+      for (int i = 0; i < regexps.length; i++) {
+        if (regexps[i].run(ref)) {
+          r.set(regexpIdx[i]);
+        }
+      }
+    }
+    for (int i : otherIdx) {
+      if (sections.get(i).match(ref, null)) {
+        r.set(i);
+      }
+    }
+    return r;
+  }
+
+  /** @return whether references are tested against all regular expressions in a single pass. */
+  @VisibleForTesting
+  boolean hasCombinedRegexps() {
+    return anyRegexp != null;
+  }
+
+  /**
+   * @return positions of the sections whose patterns contain parameters and must be evaluated for
+   *     each user.
+   */
+  int[] parameterized() {
+    return parameterizedIdx;
+  }
+
+  private static void set(BitSet r, int[] idx) {
+    if (idx != null) {
+      for (int i : idx) {
+        r.set(i);
+      }
+    }
+  }
+
+  private static Map<String, int[]> toArrays(Map<String, List<Integer>> in) {
+    Map<String, int[]> out = new HashMap<>(in.size() * 4 / 3 + 1);
+    for (Map.Entry<String, List<Integer>> e : in.entrySet()) {
+      out.put(e.getKey(), Ints.toArray(e.getValue()));
+    }
+    return out;
+  }
+
+  private static RunAutomaton combine(List<Automaton> automata) {
+    if (automata.size() < 2 || automata.size() > MAX_COMBINED_REGEXPS) {
+      return null;
+    }
+    int states = 0;
+    for (Automaton a : automata) {
+      states += a.getNumberOfStates();
+      if (states > MAX_UNION_STATES) {
+        return null;
+      }
+    }
+    Automaton union = Automaton.union(automata);
+    union.determinize();
+    if (union.getNumberOfStates() > MAX_COMBINED_STATES) {
+      return null;
+    }
+    union.minimize();
+    return new RunAutomaton(union);
+  }
+
+  /**
+   * Compile a regular expression section name into an automaton.
+   *
+   * @return automaton accepting exactly the references {@link RefPatternMatcher} would match, or
+   *     null if the expression uses {@link java.util.regex.Pattern} syntax that the automaton
+   *     library does not support or interprets differently.
+   */
+  private static Automaton toAutomaton(String pattern) {
+    String re = pattern.substring(1);
+    for (int i = 0; i < re.length(); i++) {
+      char c = re.charAt(i);
+      char next = i + 1 < re.length() ? re.charAt(i + 1) : 0;
+      switch (c) {
+        case '\\':
+          if (Character.isLetterOrDigit(next)) {
+            // Character classes like \d and \w, or back references.
+            return null;
+          }
+          i++;
+          break;
+        case '[':
+          if (next == '^') {
+            i++;
+          }
+          break;
+        case '(':
+          if (next == '?') {
+            return null;
+          }
+          break;
+        case '&':
+          if (next == '&') {
+            return null;
+          }
+          break;
+        case '*':
+        case '+':
+        case '?':
+        case '}':
+          if (next == '?' || next == '+') {
+            // Reluctant and possessive quantifiers.
+            return null;
+          }
+          break;
+        case '^':
+        case '$':
+        case '"':
+          return null;
+        default:
+          break;
+      }
+    }
+    try {
+      return RefPattern.toRegExp(pattern).toAutomaton();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.extensions.events.GroupIndexedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.notedb.NotesMigration;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Caches the submit records computed by {@link SubmitRuleEvaluator} across requests.
+ *
+ * <p>Entries are keyed by everything the default submit rules read: the configuration revisions
+ * of the project and all of its parents (which include their {@code rules.pl}), the evaluated
+ * patch set, the NoteDb meta revision of the change (which covers approvals and change state), the
+ * evaluating user and the evaluation options. Updating any of these produces a new key; stale
+ * entries are simply aged out.
+ *
+ * <p>Rules may also depend on group membership, which is not part of the key. All entries are
+ * therefore invalidated whenever a group is reindexed. Membership in external groups is only
+ * picked up once entries expire.
+ */
+@Singleton
+public class SubmitRecordCache implements GroupIndexedListener {
+  private static final String CACHE_NAME = "submit_records";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, new TypeLiteral<List<SubmitRecord>>() {})
+            .maximumWeight(10000)
+            .expireAfterWrite(1, HOURS);
+        bind(SubmitRecordCache.class);
+        DynamicSet.bind(binder(), GroupIndexedListener.class).to(SubmitRecordCache.class);
+      }
+    };
+  }
+
+  @AutoValue
+  public abstract static class Key {
+    public abstract Project.NameKey project();
+
+    public abstract ImmutableList<ObjectId> configRevisions();
+
+    @Nullable
+    public abstract ObjectId rulesId();
+
+    public abstract PatchSet.Id patchSet();
+
+    public abstract String revision();
+
+    public abstract ObjectId metaId();
+
+    public abstract Account.Id user();
+
+    public abstract boolean allowClosed();
+
+    public abstract boolean skipFilters();
+  }
+
+  private final Cache<Key, List<SubmitRecord>> cache;
+  private final NotesMigration notesMigration;
+
+  @Inject
+  SubmitRecordCache(
+      @Named(CACHE_NAME) Cache<Key, List<SubmitRecord>> cache, NotesMigration notesMigration) {
+    this.cache = cache;
+    this.notesMigration = notesMigration;
+  }
+
+  /**
+   * Compute the cache key for an evaluation.
+   *
+   * @return key, or null if the result of this evaluation must not be cached, e.g. because a
+   *     custom rule is evaluated or the state of the change cannot be identified by a revision.
+   */
+  @Nullable
+  Key key(
+      ChangeData cd,
+      ProjectState projectState,
+      PatchSet patchSet,
+      CurrentUser user,
+      SubmitRuleOptions opts) {
+    if (opts.rule() != null || !user.isIdentifiedUser() || !notesMigration.readChanges()) {
+      return null;
+    }
+
+    ObjectId metaId;
+    try {
+      metaId = cd.notes().getMetaId();
+    } catch (OrmException e) {
+      return null;
+    }
+    if (metaId == null) {
+      return null;
+    }
+
+    ImmutableList.Builder<ObjectId> configRevisions = ImmutableList.builder();
+    for (ProjectState p : projectState.tree()) {
+      ObjectId rev = p.getConfig().getRevision();
+      if (rev == null) {
+        return null;
+      }
+      configRevisions.add(rev);
+    }
+
+    return new AutoValue_SubmitRecordCache_Key(
+        projectState.getNameKey(),
+        configRevisions.build(),
+        projectState.getConfig().getRulesId(),
+        patchSet.getId(),
+        patchSet.getRevision().get(),
+        metaId,
+        user.getAccountId(),
+        opts.allowClosed(),
+        opts.skipFilters());
+  }
+
+  @Nullable
+  List<SubmitRecord> get(Key key) {
+    List<SubmitRecord> records = cache.getIfPresent(key);
+    return records != null ? copy(records) : null;
+  }
+
+  void put(Key key, List<SubmitRecord> records) {
+    for (SubmitRecord r : records) {
+      if (r.status == SubmitRecord.Status.RULE_ERROR) {
+        // Errors may be transient, e.g. caused by a reduction limit or a failed lookup; retry
+        // them on the next evaluation.
+        return;
+      }
+    }
+    cache.put(key, copy(records));
+  }
+
+  @Override
+  public void onGroupIndexed(String uuid) {
+    cache.invalidateAll();
+  }
+
+  private static List<SubmitRecord> copy(List<SubmitRecord> in) {
+    // SubmitRecord is mutable; callers must neither see nor modify the cached instances.
+    List<SubmitRecord> out = new ArrayList<>(in.size());
+    for (SubmitRecord r : in) {
+      SubmitRecord c = new SubmitRecord();
+      c.status = r.status;
+      c.errorMessage = r.errorMessage;
+      if (r.labels != null) {
+        c.labels = new ArrayList<>(r.labels.size());
+        for (SubmitRecord.Label l : r.labels) {
+          SubmitRecord.Label lc = new SubmitRecord.Label();
+          lc.label = l.label;
+          lc.status = l.status;
+          lc.appliedBy = l.appliedBy;
+          c.labels.add(lc);
+        }
+      }
+      out.add(c);
+    }
+    return out;
+  }
+}
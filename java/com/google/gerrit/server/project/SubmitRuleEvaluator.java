@@ -95,6 +95,7 @@ public class SubmitRuleEvaluator {
   private final Accounts accounts;
   private final Emails emails;
   private final ProjectCache projectCache;
+  private final SubmitRecordCache submitRecordCache;
   private final ChangeData cd;
 
   private SubmitRuleOptions.Builder optsBuilder = SubmitRuleOptions.defaults();
@@ -114,12 +115,14 @@ public class SubmitRuleEvaluator {
       Accounts accounts,
       Emails emails,
       ProjectCache projectCache,
+      SubmitRecordCache submitRecordCache,
       @Assisted CurrentUser user,
       @Assisted ChangeData cd) {
     this.accountCache = accountCache;
     this.accounts = accounts;
     this.emails = emails;
     this.projectCache = projectCache;
+    this.submitRecordCache = submitRecordCache;
     this.user = user;
     this.cd = cd;
   }
@@ -201,7 +204,10 @@ public class SubmitRuleEvaluator {
     return this;
   }
 
-  /** @return Prolog reductions consumed during evaluation. */
+  /**
+   * @return Prolog reductions consumed during evaluation; 0 if the submit records were served from
+   *     {@link SubmitRecordCache}.
+   */
   public long getReductionsConsumed() {
     return reductionsConsumed;
   }
@@ -226,6 +232,21 @@ public class SubmitRuleEvaluator {
       return Collections.singletonList(rec);
     }
 
+    SubmitRecordCache.Key key = submitRecordCache.key(cd, projectState, patchSet, user, opts);
+    if (key != null) {
+      List<SubmitRecord> cached = submitRecordCache.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    List<SubmitRecord> records = evaluateSubmitRule();
+    if (key != null) {
+      submitRecordCache.put(key, records);
+    }
+    return records;
+  }
+
+  private List<SubmitRecord> evaluateSubmitRule() {
     List<Term> results;
     try {
       results =
@@ -31,6 +31,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelTypes;
 import com.google.gerrit.common.data.SubmitRecord;
@@ -66,6 +67,7 @@ import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
 import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.patch.DiffSummary;
 import com.google.gerrit.server.patch.DiffSummaryKey;
@@ -119,11 +121,53 @@ public class ChangeData {
     return changes.stream().collect(toMap(ChangeData::getId, cd -> cd));
   }
 
+  /**
+   * Load the notes of all changes that have not been loaded yet, in bulk per project.
+   *
+   * <p>Changes that cannot be loaded this way are skipped; accessing their notes later reports the
+   * error as usual.
+   */
+  public static void ensureNotesLoaded(Iterable<ChangeData> changes) {
+    ChangeData first = Iterables.getFirst(changes, null);
+    if (first == null || !first.notesMigration.readChanges()) {
+      return;
+    }
+
+    Map<Project.NameKey, ListMultimap<Change.Id, ChangeData>> missing = new HashMap<>();
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.lazyLoad && cd.project() != null) {
+        ListMultimap<Change.Id, ChangeData> byId = missing.get(cd.project());
+        if (byId == null) {
+          byId = MultimapBuilder.hashKeys().arrayListValues().build();
+          missing.put(cd.project(), byId);
+        }
+        byId.put(cd.getId(), cd);
+      }
+    }
+    for (Map.Entry<Project.NameKey, ListMultimap<Change.Id, ChangeData>> e : missing.entrySet()) {
+      ListMultimap<Change.Id, ChangeData> byId = e.getValue();
+      for (ChangeNotesResult r : first.notesFactory.loadAll(first.db, e.getKey(), byId.keySet())) {
+        if (r.error().isPresent()) {
+          // Leave the change to be loaded on its own, which reports the error.
+          continue;
+        }
+        ChangeNotes notes = r.notes();
+        for (ChangeData cd : byId.get(notes.getChangeId())) {
+          cd.notes = notes;
+          if (cd.change == null) {
+            cd.change = notes.getChange();
+          }
+        }
+      }
+    }
+  }
+
   public static void ensureChangeLoaded(Iterable<ChangeData> changes) throws OrmException {
     ChangeData first = Iterables.getFirst(changes, null);
     if (first == null) {
       return;
     } else if (first.notesMigration.readChanges()) {
+      ensureNotesLoaded(Iterables.filter(changes, cd -> cd.change == null));
       for (ChangeData cd : changes) {
         cd.change();
       }
@@ -14,7 +14,17 @@
 
 package com.google.gerrit.server.query.change;
 
+import static com.google.gerrit.server.change.MergeabilityCacheImpl.SUBMIT_TYPES;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
+
 import com.google.gerrit.extensions.client.SubmitType;
+import com.google.gerrit.server.cache.CacheSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Objects;
 import org.eclipse.jgit.lib.ObjectId;
@@ -22,6 +32,37 @@ import org.eclipse.jgit.lib.ObjectId;
 public class ConflictKey implements Serializable {
   private static final long serialVersionUID = 2L;
 
+  /** Compact binary serializer for keys of the persistent {@code conflicts} cache. */
+  enum Serializer implements CacheSerializer<ConflictKey> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(ConflictKey object) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(buf)) {
+        writeNotNull(out, object.commit);
+        writeNotNull(out, object.otherCommit);
+        out.writeChar(SUBMIT_TYPES.get(object.submitType));
+        out.writeBoolean(object.contentMerge);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to serialize conflict key", e);
+      }
+      return buf.toByteArray();
+    }
+
+    @Override
+    public ConflictKey deserialize(byte[] in) {
+      try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(in))) {
+        ObjectId commit = readNotNull(data);
+        ObjectId otherCommit = readNotNull(data);
+        SubmitType submitType = SUBMIT_TYPES.inverse().get(data.readChar());
+        return new ConflictKey(commit, otherCommit, submitType, data.readBoolean());
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to deserialize conflict key", e);
+      }
+    }
+  }
+
   private final ObjectId commit;
   private final ObjectId otherCommit;
   private final SubmitType submitType;
@@ -22,6 +22,7 @@ import static com.google.gerrit.server.query.change.ChangeStatusPredicate.open;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.gerrit.index.FieldDef;
@@ -138,6 +139,32 @@ public class InternalChangeQuery extends InternalQuery<ChangeData> {
     return query(and(ref(branch), project(branch.getParentKey()), change(key)));
   }
 
+  /**
+   * Look up changes on a branch matching any of the given Change-Ids.
+   *
+   * <p>Equivalent to calling {@link #byBranchKey(Branch.NameKey, Change.Key)} for each key, but
+   * issues one query per {@code index.maxTerms} keys rather than one per key. Callers are
+   * responsible for matching the returned changes to keys.
+   *
+   * @param branch destination branch.
+   * @param keys Change-Ids to look up.
+   * @return changes matching any of the keys, in no particular order.
+   */
+  public List<ChangeData> byBranchKeys(Branch.NameKey branch, Collection<Change.Key> keys)
+      throws OrmException {
+    List<ChangeData> result = new ArrayList<>(keys.size());
+    // Account for the ref and project predicates.
+    int n = Math.max(1, indexConfig.maxTerms() - 2);
+    for (List<Change.Key> batch : Iterables.partition(keys, n)) {
+      List<Predicate<ChangeData>> preds = new ArrayList<>(batch.size());
+      for (Change.Key key : batch) {
+        preds.add(change(key));
+      }
+      result.addAll(query(and(ref(branch), project(branch.getParentKey()), or(preds))));
+    }
+    return result;
+  }
+
   public List<ChangeData> byProject(Project.NameKey project) throws OrmException {
     return query(project(project));
   }
@@ -83,6 +83,16 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
     imp.setStart(start);
   }
 
+  @Option(
+    name = "--search-after",
+    aliases = {"-A"},
+    metaVar = "CURSOR",
+    usage = "Return changes after the cursor returned with the previous page of results"
+  )
+  public void setSearchAfter(String searchAfter) {
+    imp.setSearchAfter(searchAfter);
+  }
+
   @Inject
   QueryChanges(ChangeJson.Factory json, ChangeQueryBuilder qb, ChangeQueryProcessor qp) {
     this.json = json;
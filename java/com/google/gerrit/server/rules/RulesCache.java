@@ -17,15 +17,26 @@ package com.google.gerrit.server.rules;
 import static com.googlecode.prolog_cafe.lang.PrologMachineCopy.save;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
+import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.googlecode.prolog_cafe.exceptions.CompileException;
 import com.googlecode.prolog_cafe.exceptions.SyntaxException;
 import com.googlecode.prolog_cafe.exceptions.TermException;
@@ -42,9 +53,6 @@ import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -52,9 +60,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
@@ -68,18 +75,68 @@ import org.eclipse.jgit.util.RawParseUtils;
  *
  * <p>Rules are loaded from the {@code site_path/cache/rules/rules-SHA1.jar}, where {@code SHA1} is
  * the SHA1 of the Prolog {@code rules.pl} in a project's {@link RefNames#REFS_CONFIG} branch.
+ *
+ * <p>Compiled machines are held in the {@code prolog_rules} cache, keyed by that SHA1, so projects
+ * sharing the same rules also share the machine.
  */
 @Singleton
 public class RulesCache {
   private static final ImmutableList<String> PACKAGE_LIST =
       ImmutableList.of(Prolog.BUILTIN, "gerrit");
 
-  private static final class MachineRef extends WeakReference<PrologMachineCopy> {
-    final ObjectId key;
+  private static final String CACHE_NAME = "prolog_rules";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, ObjectId.class, CompiledRules.class)
+            .maximumWeight(8 << 20)
+            .weigher(Weigher.class);
+        bind(RulesCache.class);
+      }
+    };
+  }
+
+  /**
+   * Compiled machine of a rules.pl, weighed by the size in bytes of the source or jar it was loaded
+   * from rather than by its own, larger, size on the heap.
+   */
+  public static class CompiledRules {
+    final PrologMachineCopy machine;
+    final int weight;
+
+    CompiledRules(PrologMachineCopy machine, long size) {
+      this.machine = machine;
+      this.weight = (int) Math.min(Math.max(size, 1), Integer.MAX_VALUE);
+    }
+  }
+
+  public static class Weigher implements com.google.common.cache.Weigher<ObjectId, CompiledRules> {
+    @Override
+    public int weigh(ObjectId rulesId, CompiledRules rules) {
+      return rules.weight;
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Counter1<Boolean> lookups;
+    final Timer0 loadLatency;
 
-    MachineRef(ObjectId key, PrologMachineCopy pcm, ReferenceQueue<PrologMachineCopy> queue) {
-      super(pcm, queue);
-      this.key = key;
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      lookups =
+          metricMaker.newCounter(
+              "rules/machine_cache_lookups",
+              new Description("Lookups of compiled project rules").setRate().setUnit("lookups"),
+              Field.ofBoolean("hit", "whether the compiled rules were found in the cache"));
+      loadLatency =
+          metricMaker.newTimer(
+              "rules/load_latency",
+              new Description("Latency of compiling or loading the rules.pl of a project")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
     }
   }
 
@@ -92,15 +149,17 @@ public class RulesCache {
   private final DynamicSet<PredicateProvider> predicateProviders;
   private final ClassLoader systemLoader;
   private final PrologMachineCopy defaultMachine;
-  private final Map<ObjectId, MachineRef> machineCache = new HashMap<>();
-  private final ReferenceQueue<PrologMachineCopy> dead = new ReferenceQueue<>();
+  private final Cache<ObjectId, CompiledRules> machineCache;
+  private final Metrics metrics;
 
   @Inject
   protected RulesCache(
       @GerritServerConfig Config config,
       SitePaths site,
       GitRepositoryManager gm,
-      DynamicSet<PredicateProvider> predicateProviders) {
+      DynamicSet<PredicateProvider> predicateProviders,
+      @Named(CACHE_NAME) Cache<ObjectId, CompiledRules> machineCache,
+      Metrics metrics) {
     maxDbSize = config.getInt("rules", null, "maxPrologDatabaseSize", 256);
     maxSrcBytes = config.getInt("rules", null, "maxSourceBytes", 128 << 10);
     enableProjectRules = config.getBoolean("rules", null, "enable", true) && maxSrcBytes > 0;
@@ -108,6 +167,8 @@ public class RulesCache {
     rulesDir = cacheDir != null ? cacheDir.resolve("rules") : null;
     gitMgr = gm;
     this.predicateProviders = predicateProviders;
+    this.machineCache = machineCache;
+    this.metrics = metrics;
 
     systemLoader = getClass().getClassLoader();
     defaultMachine = save(newEmptyMachine(systemLoader));
@@ -123,29 +184,27 @@ public class RulesCache {
    * @return a Prolog machine, after loading the specified rules.
    * @throws CompileException the machine cannot be created.
    */
-  public synchronized PrologMachineCopy loadMachine(Project.NameKey project, ObjectId rulesId)
+  public PrologMachineCopy loadMachine(Project.NameKey project, ObjectId rulesId)
       throws CompileException {
     if (!enableProjectRules || project == null || rulesId == null) {
       return defaultMachine;
     }
 
-    Reference<? extends PrologMachineCopy> ref = machineCache.get(rulesId);
-    if (ref != null) {
-      PrologMachineCopy pmc = ref.get();
-      if (pmc != null) {
-        return pmc;
-      }
-
-      machineCache.remove(rulesId);
-      ref.enqueue();
+    CompiledRules rules = machineCache.getIfPresent(rulesId);
+    if (rules != null) {
+      metrics.lookups.increment(true);
+      return rules.machine;
     }
 
-    gc();
-
-    PrologMachineCopy pcm = createMachine(project, rulesId);
-    MachineRef newRef = new MachineRef(rulesId, pcm, dead);
-    machineCache.put(rulesId, newRef);
-    return pcm;
+    metrics.lookups.increment(false);
+    try {
+      return machineCache.get(rulesId.copy(), () -> createMachine(project, rulesId)).machine;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof CompileException) {
+        throw (CompileException) e.getCause();
+      }
+      throw new CompileException("Cannot load rules of " + project, e.getCause());
+    }
   }
 
   public PrologMachineCopy loadMachine(String name, Reader in) throws CompileException {
@@ -156,17 +215,14 @@ public class RulesCache {
     return pmc;
   }
 
-  private void gc() {
-    Reference<?> ref;
-    while ((ref = dead.poll()) != null) {
-      ObjectId key = ((MachineRef) ref).key;
-      if (machineCache.get(key) == ref) {
-        machineCache.remove(key);
-      }
+  private CompiledRules createMachine(Project.NameKey project, ObjectId rulesId)
+      throws CompileException {
+    try (Timer0.Context ctx = metrics.loadLatency.start()) {
+      return createMachineImpl(project, rulesId);
     }
   }
 
-  private PrologMachineCopy createMachine(Project.NameKey project, ObjectId rulesId)
+  private CompiledRules createMachineImpl(Project.NameKey project, ObjectId rulesId)
       throws CompileException {
     // If the rules are available as a complied JAR on local disk, prefer
     // that over dynamic consult as the bytecode will be faster.
@@ -175,18 +231,27 @@ public class RulesCache {
       Path jarPath = rulesDir.resolve("rules-" + rulesId.getName() + ".jar");
       if (Files.isRegularFile(jarPath)) {
         URL[] cp = new URL[] {toURL(jarPath)};
-        return save(newEmptyMachine(new URLClassLoader(cp, systemLoader)));
+        return new CompiledRules(
+            save(newEmptyMachine(new URLClassLoader(cp, systemLoader))), size(jarPath));
       }
     }
 
     // Dynamically consult the rules into the machine's internal database.
     //
-    String rules = read(project, rulesId);
-    PrologMachineCopy pmc = consultRules("rules.pl", new StringReader(rules));
+    byte[] raw = read(project, rulesId);
+    PrologMachineCopy pmc = consultRules("rules.pl", new StringReader(RawParseUtils.decode(raw)));
     if (pmc == null) {
       throw new CompileException("Cannot consult rules of " + project);
     }
-    return pmc;
+    return new CompiledRules(pmc, raw.length);
+  }
+
+  private static long size(Path jarPath) throws CompileException {
+    try {
+      return Files.size(jarPath);
+    } catch (IOException e) {
+      throw new CompileException("Cannot read " + jarPath, e);
+    }
   }
 
   private PrologMachineCopy consultRules(String name, Reader rules) throws CompileException {
@@ -249,12 +314,11 @@ public class RulesCache {
     return b.toString().trim();
   }
 
-  private String read(Project.NameKey project, ObjectId rulesId) throws CompileException {
+  private byte[] read(Project.NameKey project, ObjectId rulesId) throws CompileException {
     try (Repository git = gitMgr.openRepository(project)) {
       try {
         ObjectLoader ldr = git.open(rulesId, Constants.OBJ_BLOB);
-        byte[] raw = ldr.getCachedBytes(maxSrcBytes);
-        return RawParseUtils.decode(raw);
+        return ldr.getCachedBytes(maxSrcBytes);
       } catch (LargeObjectException e) {
         throw new CompileException("rules of " + project + " are too large", e);
       } catch (RuntimeException | IOException e) {
@@ -16,43 +16,33 @@ package com.google.gerrit.sshd.commands;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.base.Supplier;
 import com.google.gerrit.common.data.GlobalCapability;
 import com.google.gerrit.extensions.annotations.RequiresCapability;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.registration.RegistrationHandle;
-import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.events.Event;
 import com.google.gerrit.server.events.EventTypes;
-import com.google.gerrit.server.events.ProjectNameKeySerializer;
-import com.google.gerrit.server.events.SupplierSerializer;
 import com.google.gerrit.server.events.UserScopedEventListener;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.CommandMetaData;
 import com.google.gerrit.sshd.StreamCommandExecutor;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gerrit.sshd.commands.StreamEventsBuffer.Entry;
 import com.google.inject.Inject;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import org.apache.sshd.server.Environment;
 import org.kohsuke.args4j.Option;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 @RequiresCapability(GlobalCapability.STREAM_EVENTS)
 @CommandMetaData(name = "stream-events", description = "Monitor events occurring in real time")
 final class StreamEvents extends BaseCommand {
-  private static final Logger log = LoggerFactory.getLogger(StreamEvents.class);
-
   /** Maximum number of events that may be queued up for each connection. */
   private static final int MAX_EVENTS = 128;
 
@@ -73,10 +63,10 @@ final class StreamEvents extends BaseCommand {
 
   @Inject @StreamCommandExecutor private ScheduledThreadPoolExecutor pool;
 
-  /** Queue of events to stream to the connected user. */
-  private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>(MAX_EVENTS);
+  @Inject private StreamEventsBuffer buffer;
 
-  private Gson gson;
+  /** Queue of serialized events to stream to the connected user. */
+  private final ArrayDeque<Entry> queue = new ArrayDeque<>();
 
   private RegistrationHandle eventListenerRegistration;
 
@@ -128,7 +118,8 @@ final class StreamEvents extends BaseCommand {
    */
   private Future<?> task;
 
-  private PrintWriter stdout;
+  /** True if writing to the output failed. */
+  private volatile boolean writeFailed;
 
   @Override
   public void start(Environment env) throws IOException {
@@ -145,7 +136,6 @@ final class StreamEvents extends BaseCommand {
       return;
     }
 
-    stdout = toPrintWriter(out);
     eventListenerRegistration =
         eventListeners.add(
             new UserScopedEventListener() {
@@ -161,12 +151,6 @@ final class StreamEvents extends BaseCommand {
                 return currentUser;
               }
             });
-
-    gson =
-        new GsonBuilder()
-            .registerTypeAdapter(Supplier.class, new SupplierSerializer())
-            .registerTypeAdapter(Project.NameKey.class, new ProjectNameKeySerializer())
-            .create();
   }
 
   private void removeEventListenerRegistration() {
@@ -206,10 +190,16 @@ final class StreamEvents extends BaseCommand {
   }
 
   private void offer(Event event) {
+    Entry entry = buffer.get(event);
+    if (entry == null) {
+      return;
+    }
     synchronized (taskLock) {
-      if (!queue.offer(event)) {
+      if (queue.size() >= MAX_EVENTS) {
         dropped = true;
+        return;
       }
+      queue.addLast(entry);
 
       if (task == null && !done) {
         task = pool.submit(writer);
@@ -217,13 +207,13 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
-  private Event poll() {
+  private Entry poll() {
     synchronized (taskLock) {
-      Event event = queue.poll();
-      if (event == null) {
+      Entry entry = queue.pollFirst();
+      if (entry == null) {
         task = null;
       }
-      return event;
+      return entry;
     }
   }
 
@@ -231,7 +221,7 @@ final class StreamEvents extends BaseCommand {
     int processed = 0;
 
     while (processed < BATCH_SIZE) {
-      if (Thread.interrupted() || stdout.checkError()) {
+      if (Thread.interrupted() || writeFailed) {
         // The other side either requested a shutdown by calling our
         // destroy() above, or it closed the stream and is no longer
         // accepting output. Either way terminate this instance.
@@ -243,16 +233,16 @@ final class StreamEvents extends BaseCommand {
       }
 
       if (dropped) {
-        write(new DroppedOutputEvent());
+        write(buffer.serialize(new DroppedOutputEvent()));
         dropped = false;
       }
 
-      final Event event = poll();
-      if (event == null) {
+      final Entry entry = poll();
+      if (entry == null) {
         break;
       }
 
-      write(event);
+      write(entry.bytes);
       processed++;
     }
 
@@ -269,23 +259,27 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void write(Object message) {
-    String msg = null;
-    try {
-      msg = gson.toJson(message) + "\n";
-    } catch (Exception e) {
-      log.warn("Could not deserialize the msg: ", e);
+  private void write(byte[] msg) {
+    if (msg == null) {
+      return;
     }
-    if (msg != null) {
-      synchronized (stdout) {
-        stdout.print(msg);
+    synchronized (out) {
+      try {
+        // Written straight from the shared buffer; the channel copies it into its own packets.
+        out.write(msg);
+      } catch (IOException e) {
+        writeFailed = true;
       }
     }
   }
 
   private void flush() {
-    synchronized (stdout) {
-      stdout.flush();
+    synchronized (out) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        writeFailed = true;
+      }
     }
   }
 }
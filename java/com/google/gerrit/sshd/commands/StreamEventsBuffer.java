@@ -0,0 +1,120 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.sshd.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Supplier;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.ProjectNameKeySerializer;
+import com.google.gerrit.server.events.SupplierSerializer;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.inject.Singleton;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recently serialized events, shared by all {@code stream-events} sessions.
+ *
+ * <p>Every session sees the same {@link Event} instance for an event it is allowed to see, so the
+ * JSON encoding is computed by whichever session receives the event first and reused by the others.
+ * Sessions queue references to the shared entries, so an entry stays alive until every session has
+ * written it, even once it was evicted from this buffer.
+ */
+@Singleton
+class StreamEventsBuffer {
+  private static final Logger log = LoggerFactory.getLogger(StreamEventsBuffer.class);
+
+  /** Number of recent events whose serialized form is looked up for reuse. */
+  static final int CAPACITY = 128;
+
+  /** A serialized event. */
+  static class Entry {
+    final byte[] bytes;
+    private final Event event;
+
+    private Entry(Event event, byte[] bytes) {
+      this.event = event;
+      this.bytes = bytes;
+    }
+  }
+
+  private final Gson gson =
+      new GsonBuilder()
+          .registerTypeAdapter(Supplier.class, new SupplierSerializer())
+          .registerTypeAdapter(Project.NameKey.class, new ProjectNameKeySerializer())
+          .create();
+
+  /** Lock to protect {@link #ring}, {@link #byEvent} and {@link #next}. */
+  private final Object lock = new Object();
+
+  private final Entry[] ring = new Entry[CAPACITY];
+  private final Map<Event, Entry> byEvent = new IdentityHashMap<>();
+  private int next;
+
+  /**
+   * Get the shared entry for an event, serializing it if this is the first request.
+   *
+   * @param event event to look up.
+   * @return the entry, or null if the event cannot be serialized.
+   */
+  Entry get(Event event) {
+    synchronized (lock) {
+      Entry e = byEvent.get(event);
+      if (e != null) {
+        return e;
+      }
+    }
+
+    byte[] bytes = serialize(event);
+    if (bytes == null) {
+      return null;
+    }
+    synchronized (lock) {
+      // Another session may have added the event while it was being serialized.
+      Entry e = byEvent.get(event);
+      if (e == null) {
+        e = new Entry(event, bytes);
+        Entry evicted = ring[next];
+        if (evicted != null) {
+          byEvent.remove(evicted.event);
+        }
+        ring[next] = e;
+        byEvent.put(event, e);
+        next = (next + 1) % CAPACITY;
+      }
+      return e;
+    }
+  }
+
+  /**
+   * Serialize a message that isn't shared with other sessions.
+   *
+   * @param message object to serialize.
+   * @return JSON encoding of the message followed by a newline, or null on failure.
+   */
+  byte[] serialize(Object message) {
+    try {
+      return (gson.toJson(message) + "\n").getBytes(UTF_8);
+    } catch (Exception e) {
+      log.warn("Could not serialize the msg: ", e);
+      return null;
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.AllUsersNameProvider;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /** Fake implementation of {@link AccountCache} for testing. */
 public class FakeAccountCache implements AccountCache {
@@ -50,6 +51,15 @@ public class FakeAccountCache implements AccountCache {
     return byId.get(accountId);
   }
 
+  @Override
+  public synchronized Map<Account.Id, AccountState> get(Set<Account.Id> accountIds) {
+    Map<Account.Id, AccountState> result = new HashMap<>();
+    for (Account.Id accountId : accountIds) {
+      result.put(accountId, get(accountId));
+    }
+    return result;
+  }
+
   @Override
   public synchronized AccountState getByUsername(String username) {
     return byUsername.get(username);
@@ -85,6 +85,7 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.Sequences;
 import com.google.gerrit.server.account.AccountConfig;
+import com.google.gerrit.server.account.AccountState;
 import com.google.gerrit.server.account.AccountsUpdate;
 import com.google.gerrit.server.account.Emails;
 import com.google.gerrit.server.account.WatchConfig;
@@ -1478,6 +1479,42 @@ public class AccountIT extends AbstractDaemonTest {
     assertThat(accountQueryProvider.get().byDefault(admin.id.toString())).isEmpty();
   }
 
+  @Test
+  public void getAccountsFromCacheInBulk() throws Exception {
+    Account.Id missing = new Account.Id(999999);
+    accountCache.evictAllNoReindex();
+
+    Map<Account.Id, AccountState> states =
+        accountCache.get(ImmutableSet.of(admin.id, user.id, missing));
+    assertThat(states.keySet()).containsExactly(admin.id, user.id, missing);
+    assertThat(states.get(admin.id).getAccount().getFullName()).isEqualTo(admin.fullName);
+    assertThat(states.get(user.id).getAccount().getPreferredEmail()).isEqualTo(user.email);
+    assertThat(states.get(user.id).getExternalIds())
+        .containsExactlyElementsIn(accountCache.get(user.id).getExternalIds());
+    assertThat(states.get(missing).getAccount().isActive()).isFalse();
+  }
+
+  @Test
+  public void getAccountsFromCacheInBulkWithBrokenAccount() throws Exception {
+    TestAccount broken = accountCreator.create("broken");
+    try (Repository repo = repoManager.openRepository(allUsers)) {
+      TestRepository<Repository> tr = new TestRepository<>(repo);
+      tr.branch(RefNames.refsUsers(broken.id))
+          .commit()
+          .add(AccountConfig.ACCOUNT_CONFIG, "[invalid")
+          .create();
+    }
+    accountCache.evictAllNoReindex();
+
+    Map<Account.Id, AccountState> states =
+        accountCache.get(ImmutableSet.of(admin.id, broken.id, user.id));
+    assertThat(states.keySet()).containsExactly(admin.id, broken.id, user.id);
+    assertThat(states.get(admin.id).getAccount().getFullName()).isEqualTo(admin.fullName);
+    assertThat(states.get(user.id).getAccount().getFullName()).isEqualTo(user.fullName);
+    assertThat(states.get(broken.id).getAccount().isActive()).isFalse();
+    assertThat(states.get(broken.id).getAccount().getFullName()).isNull();
+  }
+
   @Test
   public void addGpgKey() throws Exception {
     TestKey key = validKeyWithoutExpiration();
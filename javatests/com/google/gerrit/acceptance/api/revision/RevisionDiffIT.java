@@ -23,6 +23,7 @@ import static com.google.gerrit.reviewdb.client.Patch.COMMIT_MSG;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
 import com.google.gerrit.acceptance.GitUtil;
 import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.acceptance.PushOneCommit.Result;
@@ -128,6 +129,21 @@ public class RevisionDiffIT extends AbstractDaemonTest {
     assertThat(changedFiles.keySet()).containsExactly(COMMIT_MSG, newFilePath);
   }
 
+  @GerritConfig(name = "cache.diff.parallelism", value = "4")
+  @Test
+  public void filesDiffedInParallelGetTheirOwnResults() throws Exception {
+    assertLinesInsertedPerFile(createChangeWithFiles(10), 10);
+  }
+
+  @GerritConfig(name = "cache.diff.parallelism", value = "4")
+  @GerritConfig(name = "cache.diff.timeout", value = "1 ms")
+  @Test
+  public void filesDiffedInParallelFallBackToSimplerDiffOnTimeout() throws Exception {
+    // Whether or not a file diff times out, the simpler diff must give the same result for added
+    // files.
+    assertLinesInsertedPerFile(createChangeWithFiles(10), 10);
+  }
+
   @Test
   public void renamedFileIsIncludedInDiff() throws Exception {
     String newFilePath = "a_new_file.txt";
@@ -1254,6 +1270,32 @@ public class RevisionDiffIT extends AbstractDaemonTest {
     gApi.changes().id(changeId).current().rebase(rebaseInput);
   }
 
+  /** Creates a change adding {@code n} files, where the i-th file has i lines. */
+  private String createChangeWithFiles(int n) throws Exception {
+    ImmutableMap.Builder<String, String> files = ImmutableMap.builder();
+    for (int i = 1; i <= n; i++) {
+      files.put(String.format("file_%02d.txt", i), lines(i));
+    }
+    PushOneCommit push =
+        pushFactory.create(db, admin.getIdent(), testRepo, "Add files", files.build());
+    return push.to("refs/for/master").getChangeId();
+  }
+
+  private static String lines(int n) {
+    return IntStream.rangeClosed(1, n)
+        .mapToObj(number -> String.format("Line %d\n", number))
+        .collect(Collectors.joining());
+  }
+
+  private void assertLinesInsertedPerFile(String changeId, int n) throws Exception {
+    Map<String, FileInfo> changedFiles = gApi.changes().id(changeId).current().files();
+    assertThat(changedFiles).hasSize(n + 1);
+    for (int i = 1; i <= n; i++) {
+      FileInfo fileInfo = changedFiles.get(String.format("file_%02d.txt", i));
+      assertThat(fileInfo).linesInserted().isEqualTo(i);
+    }
+  }
+
   private ObjectId addCommit(ObjectId parentCommit, String filePath, String fileContent)
       throws Exception {
     ImmutableMap<String, String> files = ImmutableMap.of(filePath, fileContent);
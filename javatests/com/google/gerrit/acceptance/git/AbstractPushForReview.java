@@ -1228,6 +1228,13 @@ public abstract class AbstractPushForReview extends AbstractDaemonTest {
     testPushAFewChanges();
   }
 
+  @GerritConfig(name = "index.maxTerms", value = "8")
+  @Test
+  public void pushAFewChangesWithMoreChangeIdsThanIndexTerms() throws Exception {
+    // Change-Ids of the amended changes are looked up in more than one query.
+    testPushAFewChanges();
+  }
+
   private void testPushAFewChanges() throws Exception {
     int n = 10;
     String r = "refs/for/master";
@@ -1922,6 +1929,25 @@ public abstract class AbstractPushForReview extends AbstractDaemonTest {
         .isEqualTo(Iterables.getLast(commits).name());
   }
 
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  @Test
+  public void pushAFewChangesWithParallelCommitValidation() throws Exception {
+    testPushAFewChanges();
+  }
+
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  @Test
+  public void parallelCommitValidationRejectsInvalidCommitInTheMiddle() throws Exception {
+    List<RevCommit> commits = new ArrayList<>();
+    commits.addAll(initChanges(3));
+    commits.add(createCommit(testRepo, "Message without Change-Id"));
+    commits.addAll(initChanges(3));
+    pushForReviewRejected(testRepo, "missing Change-Id in commit message footer");
+
+    String q = commits.stream().map(ObjectId::name).collect(joining(" OR commit:", "commit:", ""));
+    assertThat(gApi.changes().query(q).get()).isEmpty();
+  }
+
   @Test
   public void pushToPublishMagicBranchIsAllowed() throws Exception {
     // Push to "refs/publish/*" will be a synonym of "refs/for/*".
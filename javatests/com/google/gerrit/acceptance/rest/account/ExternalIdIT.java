@@ -858,13 +858,71 @@ public class ExternalIdIT extends AbstractDaemonTest {
     assertThat(externalIds.byAccount(admin.id)).containsExactlyElementsIn(expectedExternalIds);
   }
 
+  @Test
+  public void byEmailUpdateExternalIdsBehindGerritsBack() throws Exception {
+    assertThat(externalIds.byEmail("foo.bar@example.com")).isEmpty();
+    ExternalId newExtId = ExternalId.createWithEmail("foo", "bar", admin.id, "foo.bar@example.com");
+    insertExtIdBehindGerritsBack(newExtId);
+    assertThat(externalIds.byEmail("foo.bar@example.com")).containsExactly(newExtId);
+    assertThat(externalIds.byAccount(admin.id)).contains(newExtId);
+  }
+
+  @Test
+  public void byAccountAndByEmailDeleteExternalIdBehindGerritsBack() throws Exception {
+    ExternalId extId = ExternalId.createWithEmail("foo", "bar", admin.id, "foo.bar@example.com");
+    extIdsUpdate.create().insert(extId);
+    assertThat(externalIds.byAccount(admin.id)).contains(extId);
+    assertThat(externalIds.byEmail("foo.bar@example.com")).containsExactly(extId);
+
+    deleteExtIdBehindGerritsBack(extId);
+    assertThat(externalIds.byAccount(admin.id)).doesNotContain(extId);
+    assertThat(externalIds.byEmail("foo.bar@example.com")).isEmpty();
+  }
+
+  @Test
+  public void byAccountAndByEmailModifyExternalIdBehindGerritsBack() throws Exception {
+    ExternalId extId = ExternalId.createWithEmail("foo", "bar", admin.id, "foo.bar@example.com");
+    extIdsUpdate.create().insert(extId);
+    assertThat(externalIds.byEmail("foo.bar@example.com")).containsExactly(extId);
+
+    // move the external ID to another account and change its email
+    ExternalId modifiedExtId =
+        ExternalId.createWithEmail("foo", "bar", user.id, "other.foo.bar@example.com");
+    upsertExtIdBehindGerritsBack(modifiedExtId);
+    assertThat(externalIds.byAccount(admin.id)).doesNotContain(extId);
+    assertThat(externalIds.byAccount(user.id)).contains(modifiedExtId);
+    assertThat(externalIds.byEmail("foo.bar@example.com")).isEmpty();
+    assertThat(externalIds.byEmail("other.foo.bar@example.com")).containsExactly(modifiedExtId);
+    assertThat(externalIds.get(extId.key())).isEqualTo(modifiedExtId);
+  }
+
   private void insertExtIdBehindGerritsBack(ExternalId extId) throws Exception {
+    updateExtIdsBehindGerritsBack(
+        "insert new ID", (rw, ins, noteMap) -> ExternalIdsUpdate.insert(rw, ins, noteMap, extId));
+  }
+
+  private void upsertExtIdBehindGerritsBack(ExternalId extId) throws Exception {
+    updateExtIdsBehindGerritsBack(
+        "update ID", (rw, ins, noteMap) -> ExternalIdsUpdate.upsert(rw, ins, noteMap, extId));
+  }
+
+  private void deleteExtIdBehindGerritsBack(ExternalId extId) throws Exception {
+    updateExtIdsBehindGerritsBack(
+        "delete ID", (rw, ins, noteMap) -> ExternalIdsUpdate.remove(rw, noteMap, extId));
+  }
+
+  private interface NoteMapUpdate {
+    void update(RevWalk rw, ObjectInserter ins, NoteMap noteMap) throws Exception;
+  }
+
+  private void updateExtIdsBehindGerritsBack(String commitMessage, NoteMapUpdate update)
+      throws Exception {
     try (Repository repo = repoManager.openRepository(allUsers);
         RevWalk rw = new RevWalk(repo);
         ObjectInserter ins = repo.newObjectInserter()) {
       ObjectId rev = ExternalIdReader.readRevision(repo);
       NoteMap noteMap = ExternalIdReader.readNoteMap(rw, rev);
-      ExternalIdsUpdate.insert(rw, ins, noteMap, extId);
+      update.update(rw, ins, noteMap);
       ExternalIdsUpdate.commit(
           allUsers,
           repo,
@@ -872,7 +930,7 @@ public class ExternalIdIT extends AbstractDaemonTest {
           ins,
           rev,
           noteMap,
-          "insert new ID",
+          commitMessage,
           serverIdent.get(),
           serverIdent.get(),
           null,
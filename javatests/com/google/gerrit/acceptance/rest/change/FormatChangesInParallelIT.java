@@ -0,0 +1,115 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.TruthJUnit.assume;
+import static com.google.gerrit.extensions.client.ListChangesOption.CURRENT_REVISION;
+import static com.google.gerrit.extensions.client.ListChangesOption.DETAILED_ACCOUNTS;
+import static com.google.gerrit.extensions.client.ListChangesOption.DETAILED_LABELS;
+import static com.google.gerrit.extensions.client.ListChangesOption.MESSAGES;
+import static com.google.gerrit.extensions.client.ListChangesOption.REVIEWED;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ApprovalInfo;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import java.util.EnumSet;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+@NoHttpd
+public class FormatChangesInParallelIT extends AbstractDaemonTest {
+  private static final EnumSet<ListChangesOption> OPTIONS =
+      EnumSet.of(CURRENT_REVISION, DETAILED_ACCOUNTS, DETAILED_LABELS, MESSAGES);
+
+  private List<String> changeIds;
+
+  @Before
+  public void setUp() throws Exception {
+    assume().that(notesMigration.disableChangeReviewDb()).isTrue();
+
+    changeIds = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      PushOneCommit.Result r = createChange();
+      if (i % 2 == 0) {
+        setApiUser(user);
+        recommend(r.getChangeId());
+        setApiUser(admin);
+      }
+      changeIds.add(r.getChangeId());
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "change.formatThreads", value = "4")
+  public void changesAreReturnedInQueryOrder() throws Exception {
+    List<ChangeInfo> result = query();
+    assertThat(result.stream().map(c -> c.changeId).collect(toList()))
+        .containsExactlyElementsIn(Lists.reverse(changeIds))
+        .inOrder();
+  }
+
+  @Test
+  @GerritConfig(name = "change.formatThreads", value = "4")
+  public void changesAreFormattedLikeSingleChanges() throws Exception {
+    for (ChangeInfo actual : query()) {
+      ChangeInfo expected = gApi.changes().id(actual.id).get(OPTIONS);
+      assertThat(actual._number).isEqualTo(expected._number);
+      assertThat(actual.currentRevision).isEqualTo(expected.currentRevision);
+      assertThat(actual.owner.email).isEqualTo(admin.email);
+      assertThat(actual.owner.name).isEqualTo(admin.fullName);
+      assertThat(votes(actual)).containsExactlyElementsIn(votes(expected)).inOrder();
+      assertThat(actual.messages.stream().map(m -> m.message).collect(toList()))
+          .containsExactlyElementsIn(
+              expected.messages.stream().map(m -> m.message).collect(toList()))
+          .inOrder();
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "change.formatThreads", value = "4")
+  public void changesAreFormattedAsCallingUser() throws Exception {
+    // admin owns all changes, user voted on every other one.
+    for (ChangeInfo c : gApi.changes().query("project:" + project).withOption(REVIEWED).get()) {
+      assertThat(c.reviewed).named("reviewed %s", c.changeId).isNull();
+    }
+
+    setApiUser(user);
+    for (ChangeInfo c : gApi.changes().query("project:" + project).withOption(REVIEWED).get()) {
+      assertThat(c.reviewed)
+          .named("reviewed %s", c.changeId)
+          .isEqualTo(changeIds.indexOf(c.changeId) % 2 == 0 ? true : null);
+    }
+  }
+
+  private List<ChangeInfo> query() throws Exception {
+    return gApi.changes().query("project:" + project).withOptions(OPTIONS).get();
+  }
+
+  private static List<String> votes(ChangeInfo c) {
+    List<String> votes = Lists.newArrayList();
+    for (ApprovalInfo a : c.labels.get("Code-Review").all) {
+      votes.add(a.email + "=" + a.value);
+    }
+    return votes;
+  }
+}
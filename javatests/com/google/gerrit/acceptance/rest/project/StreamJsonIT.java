@@ -0,0 +1,69 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.extensions.api.projects.BranchInfo;
+import com.google.gerrit.extensions.common.ProjectInfo;
+import com.google.gson.reflect.TypeToken;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class StreamJsonIT extends AbstractDaemonTest {
+  @Test
+  @GerritConfig(name = "site.streamJsonThreshold", value = "1")
+  public void streamMapResult() throws Exception {
+    RestResponse r = adminRestSession.get("/projects/");
+    r.assertOK();
+    assertThat(r.getHeader(HttpHeaders.CONTENT_LENGTH)).isNull();
+    Map<String, ProjectInfo> result =
+        newGson().fromJson(r.getReader(), new TypeToken<Map<String, ProjectInfo>>() {}.getType());
+    assertThat(result).containsKey(project.get());
+    assertThat(result.get(project.get()).id).isEqualTo(project.get());
+  }
+
+  @Test
+  @GerritConfig(name = "site.streamJsonThreshold", value = "1")
+  public void streamListResult() throws Exception {
+    RestResponse r = adminRestSession.get("/projects/" + project.get() + "/branches/");
+    r.assertOK();
+    assertThat(r.getHeader(HttpHeaders.CONTENT_LENGTH)).isNull();
+    List<BranchInfo> result =
+        newGson().fromJson(r.getReader(), new TypeToken<List<BranchInfo>>() {}.getType());
+    assertThat(result.stream().map(b -> b.ref)).contains("refs/heads/master");
+  }
+
+  @Test
+  @GerritConfig(name = "site.streamJsonThreshold", value = "1")
+  public void headOfStreamedResultHasNoContentEncoding() throws Exception {
+    RestResponse r = adminRestSession.head("/projects/" + project.get() + "/branches/");
+    r.assertOK();
+    assertThat(r.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+    assertThat(r.getHeader(HttpHeaders.CONTENT_TYPE)).startsWith("application/json");
+  }
+
+  @Test
+  public void smallResultIsNotStreamed() throws Exception {
+    RestResponse r = adminRestSession.get("/projects/" + project.get() + "/branches/");
+    r.assertOK();
+    assertThat(r.getHeader(HttpHeaders.CONTENT_LENGTH)).isNotNull();
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.event;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.fail;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.events.ChangeAbandonedEvent;
+import com.google.gerrit.server.events.CommentAddedEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventDispatcher;
+import com.google.gerrit.server.events.EventListener;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.events.UserScopedEventListener;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.After;
+import org.junit.Test;
+
+@NoHttpd
+public class EventBrokerIT extends AbstractDaemonTest {
+  @Inject private DynamicSet<UserScopedEventListener> listeners;
+  @Inject private DynamicSet<EventListener> unrestrictedListeners;
+  @Inject private DynamicItem<EventDispatcher> eventDispatcher;
+
+  private final List<RegistrationHandle> registrations = new ArrayList<>();
+
+  @After
+  public void cleanup() {
+    for (RegistrationHandle r : registrations) {
+      r.remove();
+    }
+  }
+
+  @Test
+  public void eventsDeliveredOnPostingThread() throws Exception {
+    Recorder recorder = record(admin);
+    createChange();
+
+    assertThat(recorder.events).hasSize(1);
+    assertThat(recorder.threads).containsExactly(Thread.currentThread());
+  }
+
+  @Test
+  @GerritConfig(name = "event.asyncDispatch", value = "true")
+  public void asyncDispatchDeliversVisibleEventsInOrder() throws Exception {
+    Recorder ownerRecorder = record(admin);
+    Recorder otherRecorder = record(user);
+
+    String changeId = createChange().getChangeId();
+    gApi.changes().id(changeId).setPrivate(true, null);
+    gApi.changes().id(changeId).current().review(new ReviewInput().message("private"));
+    gApi.changes().id(changeId).setPrivate(false, null);
+    gApi.changes().id(changeId).current().review(new ReviewInput().message("public"));
+
+    assertThat(ownerRecorder.next()).isInstanceOf(PatchSetCreatedEvent.class);
+    assertThat(comment(ownerRecorder.next())).contains("private");
+    assertThat(comment(ownerRecorder.next())).contains("public");
+
+    // Events are delivered in order, so the private comment was skipped for the other user.
+    assertThat(otherRecorder.next()).isInstanceOf(PatchSetCreatedEvent.class);
+    assertThat(comment(otherRecorder.next())).contains("public");
+
+    assertThat(ownerRecorder.threads).doesNotContain(Thread.currentThread());
+    assertThat(otherRecorder.threads).doesNotContain(Thread.currentThread());
+  }
+
+  @Test
+  public void unrestrictedListenersGetEventsOfChangesThatCannotBeLoaded() throws Exception {
+    record(admin);
+    List<Event> unrestrictedEvents = new ArrayList<>();
+    registrations.add(unrestrictedListeners.add(unrestrictedEvents::add));
+
+    Change change =
+        new Change(
+            new Change.Key("I0123456789abcdef0123456789abcdef01234567"),
+            new Change.Id(Integer.MAX_VALUE),
+            admin.id,
+            new Branch.NameKey(project, "refs/heads/master"),
+            TimeUtil.nowTs());
+    ChangeAbandonedEvent event = new ChangeAbandonedEvent(change);
+    try {
+      eventDispatcher.get().postEvent(change, event);
+      fail("expected OrmException");
+    } catch (OrmException e) {
+      // Expected: the change doesn't exist, so its visibility cannot be checked.
+    }
+    assertThat(unrestrictedEvents).containsExactly(event);
+  }
+
+  private Recorder record(TestAccount account) {
+    Recorder recorder = new Recorder(identifiedUserFactory.create(account.getId()));
+    registrations.add(listeners.add(recorder));
+    return recorder;
+  }
+
+  private static String comment(Event event) {
+    assertThat(event).isInstanceOf(CommentAddedEvent.class);
+    return ((CommentAddedEvent) event).comment;
+  }
+
+  private static class Recorder implements UserScopedEventListener {
+    final CurrentUser user;
+    final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    Recorder(CurrentUser user) {
+      this.user = user;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+      if (event instanceof PatchSetCreatedEvent || event instanceof CommentAddedEvent) {
+        threads.add(Thread.currentThread());
+        events.add(event);
+      }
+    }
+
+    @Override
+    public CurrentUser getUser() {
+      return user;
+    }
+
+    Event next() throws InterruptedException {
+      Event event = events.poll(30, SECONDS);
+      assertThat(event).isNotNull();
+      return event;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
+import com.google.inject.Inject;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Test;
+
+@NoHttpd
+public class ProjectCacheIT extends AbstractDaemonTest {
+  @Inject private GitReferenceUpdated gitReferenceUpdated;
+
+  @Test
+  @GerritConfig(name = "cache.projects.checkFrequency", value = "disabled")
+  public void refsMetaConfigUpdateEventRefreshesCachedProject() throws Exception {
+    ObjectId oldRev = projectCache.checkedGet(project).getConfig().getRevision();
+    ObjectId newRev;
+    try (Repository repo = repoManager.openRepository(project);
+        TestRepository<Repository> tr = new TestRepository<>(repo)) {
+      newRev =
+          tr.branch(RefNames.REFS_CONFIG)
+              .commit()
+              .message("Update config")
+              .add("README", "Updated behind the project cache's back")
+              .create();
+    }
+    assertThat(projectCache.checkedGet(project).getConfig().getRevision()).isEqualTo(oldRev);
+
+    gitReferenceUpdated.fire(project, RefNames.REFS_CONFIG, oldRev, newRev, null);
+    assertThat(projectCache.checkedGet(project).getConfig().getRevision()).isEqualTo(newRev);
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.TruthJUnit.assume;
+import static com.google.gerrit.server.project.testing.Util.category;
+import static com.google.gerrit.server.project.testing.Util.value;
+import static java.util.stream.Collectors.toList;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GitUtil;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.git.ProjectConfig;
+import com.google.gerrit.server.project.SubmitRuleEvaluator;
+import com.google.inject.Inject;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+@NoHttpd
+public class SubmitRecordCacheIT extends AbstractDaemonTest {
+  @Inject private SubmitRuleEvaluator.Factory evaluatorFactory;
+
+  private Change.Id changeId;
+
+  @Before
+  public void setUp() throws Exception {
+    // Submit records are only cached when changes are read from NoteDb.
+    assume().that(notesMigration.readChanges()).isTrue();
+    changeId = createChange().getChange().getId();
+  }
+
+  @Test
+  public void unchangedChangeIsServedFromCache() throws Exception {
+    assertEvaluated(SubmitRecord.Status.NOT_READY);
+    assertCached(SubmitRecord.Status.NOT_READY);
+  }
+
+  @Test
+  public void newVoteIsSeen() throws Exception {
+    assertEvaluated(SubmitRecord.Status.NOT_READY);
+    gApi.changes().id(changeId.get()).current().review(ReviewInput.approve());
+    assertEvaluated(SubmitRecord.Status.OK);
+    assertCached(SubmitRecord.Status.OK);
+  }
+
+  @Test
+  public void rulesPlUpdateIsSeen() throws Exception {
+    assertEvaluated(SubmitRecord.Status.NOT_READY);
+
+    GitUtil.fetch(testRepo, RefNames.REFS_CONFIG + ":config");
+    testRepo.reset("config");
+    PushOneCommit push =
+        pushFactory.create(
+            db,
+            admin.getIdent(),
+            testRepo,
+            "Always submittable",
+            "rules.pl",
+            "submit_rule(submit(R)) :- gerrit:commit_author(A), R = label('Any', ok(A)).");
+    push.to(RefNames.REFS_CONFIG).assertOkStatus();
+
+    assertEvaluated(SubmitRecord.Status.OK);
+    assertCached(SubmitRecord.Status.OK);
+  }
+
+  @Test
+  public void projectConfigUpdateIsSeen() throws Exception {
+    assertEvaluated(SubmitRecord.Status.NOT_READY);
+
+    ProjectConfig cfg = projectCache.checkedGet(project).getConfig();
+    cfg.getLabelSections()
+        .put("Verified", category("Verified", value(1, "Passes"), value(0, "No score")));
+    saveProjectConfig(project, cfg);
+
+    List<SubmitRecord> records = assertEvaluated(SubmitRecord.Status.NOT_READY);
+    assertThat(records.get(0).labels.stream().map(l -> l.label).collect(toList()))
+        .contains("Verified");
+  }
+
+  @Test
+  public void groupUpdateInvalidatesCache() throws Exception {
+    assertEvaluated(SubmitRecord.Status.NOT_READY);
+    gApi.groups().id(createGroup("group")).addMembers(user.username);
+    assertEvaluated(SubmitRecord.Status.NOT_READY);
+  }
+
+  private List<SubmitRecord> assertEvaluated(SubmitRecord.Status expected) throws Exception {
+    SubmitRuleEvaluator evaluator = evaluator();
+    List<SubmitRecord> records = evaluator.evaluate();
+    assertThat(records.get(0).status).isEqualTo(expected);
+    assertThat(evaluator.getReductionsConsumed()).isGreaterThan(0L);
+    return records;
+  }
+
+  private void assertCached(SubmitRecord.Status expected) throws Exception {
+    SubmitRuleEvaluator evaluator = evaluator();
+    List<SubmitRecord> records = evaluator.evaluate();
+    assertThat(records.get(0).status).isEqualTo(expected);
+    assertThat(evaluator.getReductionsConsumed()).isEqualTo(0L);
+  }
+
+  private SubmitRuleEvaluator evaluator() throws Exception {
+    // Use a fresh ChangeData each time, as a new request would. Evaluate as a user other than the
+    // owner, so that evaluations done while reindexing the change can't populate the cache.
+    return evaluatorFactory.create(
+        identifiedUserFactory.create(user.getId()),
+        changeDataFactory.create(db, project, changeId));
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SubIndexSearchTest {
+  @Test
+  public void runsOnlyOnce() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    SubIndexSearch<Integer> search = new SubIndexSearch<>(calls::incrementAndGet);
+    search.run();
+    search.run();
+    assertThat(search.get()).isEqualTo(1);
+    assertThat(calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void cancelBeforeStartSkipsSearch() throws Exception {
+    AtomicBoolean called = new AtomicBoolean();
+    SubIndexSearch<Boolean> search = new SubIndexSearch<>(() -> called.getAndSet(true));
+    search.cancelOrAwait();
+    search.run();
+    assertThat(search.isCancelled()).isTrue();
+    assertThat(called.get()).isFalse();
+  }
+
+  @Test
+  public void cancelWaitsForRunningSearch() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    SubIndexSearch<String> search =
+        new SubIndexSearch<>(
+            () -> {
+              started.countDown();
+              try {
+                proceed.await();
+              } catch (InterruptedException e) {
+                interrupted.set(true);
+              }
+              return "done";
+            });
+    Thread t = new Thread(search);
+    t.start();
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+    Thread canceller = new Thread(search::cancelOrAwait);
+    canceller.start();
+    canceller.join(100);
+    assertThat(canceller.isAlive()).isTrue();
+
+    proceed.countDown();
+    canceller.join();
+    assertThat(search.get()).isEqualTo("done");
+    assertThat(interrupted.get()).isFalse();
+    t.join();
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalIdReaderTest {
+  private static final Account.Id ACCOUNT_ID = new Account.Id(1000);
+
+  private InMemoryRepositoryManager repoManager;
+  private AllUsersName allUsers;
+  private ExternalIdReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    allUsers = new AllUsersName("All-Users");
+    repoManager.createRepository(allUsers);
+    reader = new ExternalIdReader(repoManager, allUsers, new DisabledMetricMaker());
+  }
+
+  @Test
+  public void diffFromEmptyBranch() throws Exception {
+    ExternalId a = ExternalId.create("foo", "a", ACCOUNT_ID);
+    ExternalId b = ExternalId.create("foo", "b", ACCOUNT_ID);
+    ObjectId rev = update((rw, ins, noteMap) -> upsert(rw, ins, noteMap, a, b));
+
+    ExternalIdReader.Diff diff = reader.diff(ObjectId.zeroId(), rev);
+    assertThat(diff.removed()).isEmpty();
+    assertThat(diff.added()).containsExactly(a, b);
+  }
+
+  @Test
+  public void diffReportsAddedModifiedAndRemovedExternalIds() throws Exception {
+    ExternalId unchanged = ExternalId.create("foo", "unchanged", ACCOUNT_ID);
+    ExternalId modified = ExternalId.create("foo", "modified", ACCOUNT_ID);
+    ExternalId removed = ExternalId.create("foo", "removed", ACCOUNT_ID);
+    ObjectId oldRev =
+        update((rw, ins, noteMap) -> upsert(rw, ins, noteMap, unchanged, modified, removed));
+
+    ExternalId newModified =
+        ExternalId.createWithEmail("foo", "modified", ACCOUNT_ID, "foo@example.com");
+    ExternalId added = ExternalId.create("foo", "added", new Account.Id(1001));
+    ObjectId newRev =
+        update(
+            (rw, ins, noteMap) -> {
+              upsert(rw, ins, noteMap, newModified, added);
+              ExternalIdsUpdate.remove(rw, noteMap, removed);
+            });
+
+    ExternalIdReader.Diff diff = reader.diff(oldRev, newRev);
+    assertThat(diff.removed()).containsExactly(modified, removed);
+    assertThat(diff.added()).containsExactly(newModified, added);
+    for (ExternalId extId : diff.added()) {
+      extId.checkThatBlobIdIsSet();
+    }
+
+    assertThat(reader.diff(newRev, newRev).removed()).isEmpty();
+    assertThat(reader.diff(newRev, newRev).added()).isEmpty();
+  }
+
+  @Test
+  public void diffAcrossFanOutRestructuring() throws Exception {
+    // NoteMap stores up to 256 notes in a flat tree and moves all notes into fan-out directories
+    // once there are more. All unchanged notes then have a new path.
+    List<ExternalId> oldExtIds = newExternalIds(0, 200);
+    ObjectId oldRev = update((rw, ins, noteMap) -> upsert(rw, ins, noteMap, toArray(oldExtIds)));
+    List<ExternalId> newExtIds = newExternalIds(200, 100);
+    ObjectId newRev = update((rw, ins, noteMap) -> upsert(rw, ins, noteMap, toArray(newExtIds)));
+
+    List<ExternalId> allExtIds = new ArrayList<>(oldExtIds);
+    allExtIds.addAll(newExtIds);
+    assertThat(reader.all(newRev)).containsExactlyElementsIn(allExtIds);
+
+    // Unchanged external IDs are reported as removed and added again, so applying the diff to the
+    // old state still yields the new state.
+    ExternalIdReader.Diff diff = reader.diff(oldRev, newRev);
+    assertThat(diff.removed()).containsExactlyElementsIn(oldExtIds);
+    assertThat(diff.added()).containsExactlyElementsIn(allExtIds);
+
+    ExternalId removed = oldExtIds.get(0);
+    ObjectId revAfterRemove =
+        update((rw, ins, noteMap) -> ExternalIdsUpdate.remove(rw, noteMap, removed));
+    diff = reader.diff(newRev, revAfterRemove);
+    assertThat(diff.removed()).containsExactly(removed);
+    assertThat(diff.added()).isEmpty();
+  }
+
+  private static List<ExternalId> newExternalIds(int start, int count) {
+    List<ExternalId> extIds = new ArrayList<>(count);
+    for (int i = start; i < start + count; i++) {
+      extIds.add(ExternalId.create("foo", "id-" + i, new Account.Id(1000 + i)));
+    }
+    return extIds;
+  }
+
+  private static ExternalId[] toArray(List<ExternalId> extIds) {
+    return extIds.toArray(new ExternalId[extIds.size()]);
+  }
+
+  private static void upsert(RevWalk rw, ObjectInserter ins, NoteMap noteMap, ExternalId... extIds)
+      throws Exception {
+    for (ExternalId extId : extIds) {
+      ExternalIdsUpdate.upsert(rw, ins, noteMap, extId);
+    }
+  }
+
+  private interface NoteMapUpdate {
+    void update(RevWalk rw, ObjectInserter ins, NoteMap noteMap) throws Exception;
+  }
+
+  private ObjectId update(NoteMapUpdate update) throws Exception {
+    try (Repository repo = repoManager.openRepository(allUsers);
+        RevWalk rw = new RevWalk(repo);
+        ObjectInserter ins = repo.newObjectInserter()) {
+      ObjectId rev = ExternalIdReader.readRevision(repo);
+      NoteMap noteMap = ExternalIdReader.readNoteMap(rw, rev);
+      update.update(rw, ins, noteMap);
+      PersonIdent ident = new PersonIdent("Gerrit Server", "noreply@gerritcodereview.com");
+      return ExternalIdsUpdate.commit(
+          allUsers,
+          repo,
+          rw,
+          ins,
+          rev,
+          noteMap,
+          "Update external IDs",
+          ident,
+          ident,
+          null,
+          GitReferenceUpdated.DISABLED);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ShardedMapTest {
+  @Test
+  public void emptyMap() {
+    ShardedMap<String, Integer> m = ShardedMap.empty();
+    assertThat(m.get("foo")).isNull();
+    assertThat(m.entries()).isEmpty();
+  }
+
+  @Test
+  public void putAndRemove() {
+    ShardedMap.Builder<String, Integer> b = ShardedMap.<String, Integer>empty().toBuilder();
+    b.put("foo", 1);
+    b.put("bar", 2);
+    b.put("baz", 3);
+    b.remove("bar");
+    b.remove("missing");
+    b.put("foo", 4);
+    assertThat(b.get("foo")).isEqualTo(4);
+    assertThat(b.values()).containsExactly(4, 3);
+
+    ShardedMap<String, Integer> m = b.build();
+    assertThat(m.get("foo")).isEqualTo(4);
+    assertThat(m.get("bar")).isNull();
+    assertThat(m.get("baz")).isEqualTo(3);
+    assertThat(toMap(m)).containsExactly("foo", 4, "baz", 3);
+  }
+
+  @Test
+  public void modifiedCopyDoesNotChangeOriginal() {
+    ShardedMap.Builder<Integer, String> b = ShardedMap.<Integer, String>empty().toBuilder();
+    ImmutableMap.Builder<Integer, String> expected = ImmutableMap.builder();
+    for (int i = 0; i < 1000; i++) {
+      b.put(i, "v" + i);
+      expected.put(i, "v" + i);
+    }
+    ShardedMap<Integer, String> original = b.build();
+
+    // The builder can still be used after build().
+    b.put(1000, "v1000");
+    b.remove(0);
+    ShardedMap<Integer, String> first = b.build();
+
+    ShardedMap.Builder<Integer, String> b2 = original.toBuilder();
+    b2.put(1, "modified");
+    b2.remove(2);
+    ShardedMap<Integer, String> second = b2.build();
+
+    assertThat(toMap(original)).containsExactlyEntriesIn(expected.build());
+
+    assertThat(first.get(0)).isNull();
+    assertThat(first.get(1000)).isEqualTo("v1000");
+    assertThat(toMap(first)).hasSize(1000);
+
+    assertThat(second.get(1)).isEqualTo("modified");
+    assertThat(second.get(2)).isNull();
+    assertThat(second.get(3)).isEqualTo("v3");
+    assertThat(second.get(1000)).isNull();
+    assertThat(toMap(second)).hasSize(999);
+  }
+
+  private static <K, V> Map<K, V> toMap(ShardedMap<K, V> m) {
+    Map<K, V> result = new HashMap<>();
+    for (Map.Entry<K, V> e : m.entries()) {
+      assertThat(result.put(e.getKey(), e.getValue())).isNull();
+    }
+    return result;
+  }
+}
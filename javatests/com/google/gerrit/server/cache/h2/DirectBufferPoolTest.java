@@ -0,0 +1,61 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class DirectBufferPoolTest {
+  private final DirectBufferPool pool = new DirectBufferPool();
+
+  @Test
+  public void roundsUpToSizeClass() {
+    ByteBuffer buf = pool.allocate(100);
+    assertTrue(buf.isDirect());
+    assertEquals(128, buf.capacity());
+    assertEquals(100, buf.limit());
+    assertEquals(0, buf.position());
+
+    assertEquals(64, pool.allocate(0).capacity());
+    assertEquals(64, pool.allocate(64).capacity());
+    assertEquals(DirectBufferPool.SLAB_SIZE, pool.allocate(DirectBufferPool.SLAB_SIZE).capacity());
+  }
+
+  @Test
+  public void reusesReleasedBuffers() {
+    ByteBuffer a = pool.allocate(200);
+    ByteBuffer b = pool.allocate(200);
+    assertNotSame(a, b);
+
+    pool.release(a);
+    ByteBuffer c = pool.allocate(150);
+    assertSame(a, c);
+    assertEquals(150, c.limit());
+  }
+
+  @Test
+  public void largeBuffersAreNotPooled() {
+    int size = DirectBufferPool.SLAB_SIZE + 1;
+    ByteBuffer a = pool.allocate(size);
+    assertEquals(size, a.capacity());
+    pool.release(a);
+    assertNotSame(a, pool.allocate(size));
+  }
+}
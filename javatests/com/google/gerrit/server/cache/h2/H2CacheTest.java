@@ -14,35 +14,79 @@
 
 package com.google.gerrit.server.cache.h2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.server.cache.BooleanCacheSerializer;
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.gerrit.server.cache.StringCacheSerializer;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.inject.TypeLiteral;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class H2CacheTest {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<String>() {};
+
   private static int dbCnt;
 
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private String url;
+  private Path bloomFilterFile;
   private Cache<String, ValueHolder<Boolean>> mem;
   private H2CacheImpl<String, Boolean> impl;
 
   @Before
-  public void setUp() {
+  public void setUp() throws Exception {
+    url = "jdbc:h2:mem:Test_" + (++dbCnt) + ";DB_CLOSE_DELAY=-1";
+    bloomFilterFile = tmp.getRoot().toPath().resolve("Test_" + dbCnt + ".bloom");
     mem = CacheBuilder.newBuilder().build();
+    impl = newCache(mem, 1, BooleanCacheSerializer.INSTANCE);
+  }
+
+  private H2CacheImpl<String, Boolean> newCache(
+      Cache<String, ValueHolder<Boolean>> memCache,
+      int version,
+      CacheSerializer<Boolean> valueSerializer) {
+    return newCache(memCache, version, valueSerializer, 1024);
+  }
 
-    TypeLiteral<String> keyType = new TypeLiteral<String>() {};
+  private H2CacheImpl<String, Boolean> newCache(
+      Cache<String, ValueHolder<Boolean>> memCache,
+      int version,
+      CacheSerializer<Boolean> valueSerializer,
+      int writeQueueSize) {
     SqlStore<String, Boolean> store =
-        new SqlStore<>("jdbc:h2:mem:Test_" + (++dbCnt), keyType, 1 << 20, 0);
-    impl = new H2CacheImpl<>(MoreExecutors.directExecutor(), store, keyType, mem);
+        new SqlStore<>(
+            url,
+            bloomFilterFile,
+            KEY_TYPE,
+            StringCacheSerializer.INSTANCE,
+            valueSerializer,
+            version,
+            1 << 20,
+            0,
+            writeQueueSize,
+            () -> {});
+    return new H2CacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, memCache);
   }
 
   @Test
@@ -72,4 +116,108 @@ public class H2CacheTest {
             }));
     assertFalse("did not invoke Callable", called.get());
   }
+
+  @Test
+  public void versionMismatchDiscardsEntries() {
+    impl.put("foo", true);
+    mem.invalidate("foo");
+    assertTrue("exists on disk", impl.getIfPresent("foo"));
+
+    Cache<String, ValueHolder<Boolean>> newMem = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, Boolean> newImpl = newCache(newMem, 2, BooleanCacheSerializer.INSTANCE);
+    newImpl.start();
+    assertNull(newImpl.getIfPresent("foo"));
+    assertEquals(0, newImpl.diskStats().size());
+  }
+
+  @Test
+  public void undeserializableEntryIsMiss() {
+    CacheSerializer<Boolean> broken =
+        new CacheSerializer<Boolean>() {
+          @Override
+          public byte[] serialize(Boolean object) {
+            return BooleanCacheSerializer.INSTANCE.serialize(object);
+          }
+
+          @Override
+          public Boolean deserialize(byte[] in) {
+            throw new IllegalStateException("cannot deserialize");
+          }
+        };
+
+    impl.put("foo", true);
+    Cache<String, ValueHolder<Boolean>> newMem = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, Boolean> newImpl = newCache(newMem, 1, broken);
+    assertNull(newImpl.getIfPresent("foo"));
+    assertEquals(0, newImpl.diskStats().size());
+  }
+
+  @Test
+  public void fullWriteQueueDropsWrites() {
+    List<Runnable> tasks = new ArrayList<>();
+    AtomicInteger dropped = new AtomicInteger();
+    SqlStore<String, Boolean> store =
+        new SqlStore<>(
+            url,
+            bloomFilterFile,
+            KEY_TYPE,
+            StringCacheSerializer.INSTANCE,
+            BooleanCacheSerializer.INSTANCE,
+            1,
+            1 << 20,
+            0,
+            1,
+            dropped::incrementAndGet);
+    Cache<String, ValueHolder<Boolean>> memCache = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, Boolean> cache = new H2CacheImpl<>(tasks::add, store, KEY_TYPE, memCache);
+
+    cache.put("foo", true);
+    cache.put("foo", false);
+    cache.put("bar", true);
+    assertEquals(1, tasks.size());
+    assertEquals(1, cache.diskStats().pendingWrites());
+    assertEquals(1, cache.diskStats().droppedWrites());
+    assertEquals(1, dropped.get());
+
+    tasks.forEach(Runnable::run);
+    assertEquals(0, cache.diskStats().pendingWrites());
+    assertEquals(1, cache.diskStats().size());
+    memCache.invalidate("foo");
+    assertFalse("coalesced on disk", cache.getIfPresent("foo"));
+
+    cache.stop();
+    Cache<String, ValueHolder<Boolean>> newMem = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, Boolean> newImpl = newCache(newMem, 1, BooleanCacheSerializer.INSTANCE);
+    assertTrue("flushed on stop", newImpl.getIfPresent("bar"));
+  }
+
+  @Test
+  public void bloomFilterSavedOnStop() {
+    impl.put("foo", true);
+    impl.stop();
+    assertTrue("BloomFilter saved", Files.exists(bloomFilterFile));
+
+    Cache<String, ValueHolder<Boolean>> newMem = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, Boolean> newImpl = newCache(newMem, 1, BooleanCacheSerializer.INSTANCE);
+    newImpl.start();
+    assertTrue("exists on disk", newImpl.getIfPresent("foo"));
+
+    newImpl.invalidateAll();
+    assertFalse("BloomFilter deleted", Files.exists(bloomFilterFile));
+  }
+
+  @Test
+  public void bloomFilterSaturation() {
+    BloomFilter<Integer> b = BloomFilter.create(Funnels.integerFunnel(), 100);
+    for (int i = 0; i < 50; i++) {
+      b.put(i);
+    }
+    assertFalse(SqlStore.isSaturated(b, 100, 50));
+    assertTrue("more entries than expected", SqlStore.isSaturated(b, 100, 101));
+
+    for (int i = 50; i < 2000; i++) {
+      b.put(i);
+    }
+    assertTrue("false positive probability too high", SqlStore.isSaturated(b, 100, 100));
+  }
 }
@@ -0,0 +1,88 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.server.cache.StringCacheSerializer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+  private final List<String> removed = new ArrayList<>();
+  private boolean notifyRemovals = true;
+
+  private OffHeapCacheImpl<String, String> newCache(long maximumWeight) {
+    return new OffHeapCacheImpl<>(
+        CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maximumWeight),
+        StringCacheSerializer.INSTANCE,
+        n -> removed.add(n.getValue()),
+        () -> notifyRemovals,
+        null);
+  }
+
+  @Test
+  public void loadedValueReturnedWithoutDecoding() throws Exception {
+    OffHeapCacheImpl<String, String> cache = newCache(1024);
+    String val = new String("bar");
+    assertSame(val, cache.get("foo", () -> val));
+
+    String cached = cache.getIfPresent("foo");
+    assertEquals("bar", cached);
+    assertEquals("bar", cache.get("foo", () -> "baz"));
+  }
+
+  @Test
+  public void evictsByReservedSize() {
+    // Each value fits in the smallest 64 byte size class.
+    OffHeapCacheImpl<String, String> cache = newCache(128);
+    cache.put("a", "12345");
+    cache.put("b", "12345");
+    assertEquals(2, cache.size());
+
+    cache.put("c", "1");
+    assertEquals(2, cache.size());
+    assertNull(cache.getIfPresent("a"));
+    assertEquals("12345", cache.getIfPresent("b"));
+    assertEquals("1", cache.getIfPresent("c"));
+    assertEquals(1, removed.size());
+    assertEquals("12345", removed.get(0));
+  }
+
+  @Test
+  public void removedValuesNotDecodedWithoutListeners() {
+    notifyRemovals = false;
+    OffHeapCacheImpl<String, String> cache = newCache(128);
+    cache.put("a", "1");
+    cache.invalidate("a");
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(0, removed.size());
+  }
+
+  @Test
+  public void releasedBuffersAreReused() {
+    OffHeapCacheImpl<String, String> cache = newCache(1024);
+    for (int i = 0; i < 1000; i++) {
+      cache.put("k" + i, "v" + i);
+      assertEquals("v" + i, cache.getIfPresent("k" + i));
+    }
+    assertEquals(16, cache.size());
+    assertEquals("v999", cache.getIfPresent("k999"));
+  }
+}
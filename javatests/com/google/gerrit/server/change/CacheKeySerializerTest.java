@@ -0,0 +1,46 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.extensions.client.SubmitType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class CacheKeySerializerTest {
+  private static final ObjectId ID1 =
+      ObjectId.fromString("0123456789012345678901234567890123456789");
+  private static final ObjectId ID2 =
+      ObjectId.fromString("9876543210987654321098765432109876543210");
+
+  @Test
+  public void changeKindKeyRoundTrip() throws Exception {
+    ChangeKindCacheImpl.Key key = new ChangeKindCacheImpl.Key(ID1, ID2, "recursive");
+    ChangeKindCacheImpl.Key.Serializer s = ChangeKindCacheImpl.Key.Serializer.INSTANCE;
+    assertThat(s.deserialize(s.serialize(key))).isEqualTo(key);
+  }
+
+  @Test
+  public void mergeabilityKeyRoundTrip() throws Exception {
+    MergeabilityCacheImpl.EntryKey.Serializer s =
+        MergeabilityCacheImpl.EntryKey.Serializer.INSTANCE;
+    for (SubmitType t : SubmitType.values()) {
+      MergeabilityCacheImpl.EntryKey key =
+          new MergeabilityCacheImpl.EntryKey(ID1, ID2, t, "resolve");
+      assertThat(s.deserialize(s.serialize(key))).isEqualTo(key);
+    }
+  }
+}
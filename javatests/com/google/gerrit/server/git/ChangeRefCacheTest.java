@@ -0,0 +1,184 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.api.changes.NotifyHandling;
+import com.google.gerrit.extensions.common.AccountInfo;
+import com.google.gerrit.extensions.config.FactoryModule;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.cache.CacheRemovalListener;
+import com.google.gerrit.server.cache.ForwardingRemovalListener;
+import com.google.gerrit.server.cache.MemoryCacheFactory;
+import com.google.gerrit.server.cache.h2.DefaultCacheFactory;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.ChangeRefCache.ChangeRefs;
+import com.google.inject.Guice;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeRefCacheTest {
+  private static final Change.Id C1 = new Change.Id(1);
+  private static final Change.Id C2 = new Change.Id(2);
+
+  private TestRepository<InMemoryRepository> tr;
+  private RevCommit a;
+  private RevCommit b;
+
+  @Before
+  public void setUp() throws Exception {
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("repo")));
+    a = tr.commit().message("a").create();
+    b = tr.commit().message("b").create();
+    tr.update("refs/heads/master", a);
+    tr.update(new PatchSet.Id(C1, 1).toRefName(), a);
+    tr.update(new PatchSet.Id(C1, 2).toRefName(), b);
+    tr.update(new PatchSet.Id(C2, 1).toRefName(), a);
+    tr.update(RefNames.changeMetaRef(C1), b);
+  }
+
+  @Test
+  public void scanIndexesPatchSetRefsOnly() throws Exception {
+    ChangeRefs refs = ChangeRefs.scan(tr.getRepository());
+    assertThat(refs.size()).isEqualTo(3);
+    assertThat(refs.get(a)).containsExactly(new PatchSet.Id(C1, 1), new PatchSet.Id(C2, 1));
+    assertThat(refs.get(b)).containsExactly(new PatchSet.Id(C1, 2));
+    assertThat(refs.get(C1)).containsExactly(new PatchSet.Id(C1, 1), new PatchSet.Id(C1, 2));
+  }
+
+  @Test
+  public void update() throws Exception {
+    ChangeRefs refs = ChangeRefs.scan(tr.getRepository());
+    PatchSet.Id ps = new PatchSet.Id(C2, 2);
+    assertThat(refs.update(ps, b)).isTrue();
+    assertThat(refs.update(ps, b)).isFalse();
+    assertThat(refs.get(b)).containsExactly(new PatchSet.Id(C1, 2), ps);
+    assertThat(refs.get(C2)).containsExactly(new PatchSet.Id(C2, 1), ps);
+
+    assertThat(refs.update(new PatchSet.Id(C1, 1), null)).isTrue();
+    assertThat(refs.get(a)).containsExactly(new PatchSet.Id(C2, 1));
+    assertThat(refs.get(C1)).containsExactly(new PatchSet.Id(C1, 2));
+    assertThat(refs.update(new PatchSet.Id(C1, 1), null)).isFalse();
+    assertThat(refs.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void cachedEntryIsUpdatedFromRefEvents() throws Exception {
+    ChangeRefCache cache = new ChangeRefCache(CacheBuilder.newBuilder().build());
+    Project.NameKey project = new Project.NameKey("repo");
+    PatchSet.Id ps = new PatchSet.Id(C2, 2);
+
+    // Events for projects that are not cached yet are ignored; the next scan sees them.
+    cache.onGitReferenceUpdated(event(ps, ObjectId.zeroId(), b));
+    tr.update(ps.toRefName(), b);
+    ChangeRefs refs = cache.get(project, tr.getRepository());
+    assertThat(refs.get(C2)).containsExactly(new PatchSet.Id(C2, 1), ps);
+
+    cache.onGitReferenceUpdated(event(ps, b, ObjectId.zeroId()));
+    assertThat(cache.get(project, tr.getRepository()).get(C2))
+        .containsExactly(new PatchSet.Id(C2, 1));
+    assertThat(refs.get(b)).containsExactly(new PatchSet.Id(C1, 2));
+  }
+
+  @Test
+  public void projectLargerThanQuarterOfLimitStaysCached() throws Exception {
+    for (int i = 3; i <= 22; i++) {
+      tr.update(new PatchSet.Id(new Change.Id(i), 1).toRefName(), a);
+    }
+    Config cfg = new Config();
+    cfg.setLong("cache", "change_refs", "memoryLimit", 40);
+    ChangeRefCache cache =
+        Guice.createInjector(
+                ChangeRefCache.module(),
+                new FactoryModule() {
+                  @Override
+                  protected void configure() {
+                    factory(ForwardingRemovalListener.Factory.class);
+                    DynamicSet.setOf(binder(), CacheRemovalListener.class);
+                    bind(Config.class).annotatedWith(GerritServerConfig.class).toInstance(cfg);
+                    bind(MemoryCacheFactory.class).to(DefaultCacheFactory.class);
+                  }
+                })
+            .getInstance(ChangeRefCache.class);
+    Project.NameKey project = new Project.NameKey("repo");
+
+    ChangeRefs refs = cache.get(project, tr.getRepository());
+    assertThat(refs.size()).isEqualTo(23);
+    assertThat(cache.get(project, tr.getRepository())).isSameAs(refs);
+  }
+
+  private static GitReferenceUpdatedListener.Event event(
+      PatchSet.Id psId, ObjectId oldId, ObjectId newId) {
+    return new GitReferenceUpdatedListener.Event() {
+      @Override
+      public String getProjectName() {
+        return "repo";
+      }
+
+      @Override
+      public NotifyHandling getNotify() {
+        return NotifyHandling.ALL;
+      }
+
+      @Override
+      public String getRefName() {
+        return psId.toRefName();
+      }
+
+      @Override
+      public String getOldObjectId() {
+        return oldId.name();
+      }
+
+      @Override
+      public String getNewObjectId() {
+        return newId.name();
+      }
+
+      @Override
+      public boolean isCreate() {
+        return oldId.equals(ObjectId.zeroId());
+      }
+
+      @Override
+      public boolean isDelete() {
+        return newId.equals(ObjectId.zeroId());
+      }
+
+      @Override
+      public boolean isNonFastForward() {
+        return false;
+      }
+
+      @Override
+      public AccountInfo getUpdater() {
+        return null;
+      }
+    };
+  }
+}
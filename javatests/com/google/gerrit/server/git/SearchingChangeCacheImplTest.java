@@ -0,0 +1,203 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.SearchingChangeCacheImpl.CachedChange;
+import com.google.gerrit.server.git.SearchingChangeCacheImpl.Metrics;
+import com.google.gerrit.server.git.SearchingChangeCacheImpl.Snapshot;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchingChangeCacheImplTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private Map<Change.Id, Change> index;
+  private LoadingCache<Project.NameKey, Snapshot> cache;
+  private TestCache changeCache;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    index = new ConcurrentHashMap<>();
+    cache =
+        CacheBuilder.newBuilder()
+            .build(
+                new CacheLoader<Project.NameKey, Snapshot>() {
+                  @Override
+                  public Snapshot load(Project.NameKey project) {
+                    Map<Change.Id, CachedChange> changes = new LinkedHashMap<>();
+                    for (Change c : index.values()) {
+                      changes.put(c.getId(), CachedChange.create(c, null));
+                    }
+                    return Snapshot.create(changes);
+                  }
+                });
+    changeCache = new TestCache(cache, index);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void withStaleAlwaysCreatesNewSnapshot() {
+    Change.Id id = new Change.Id(1);
+    Snapshot s = Snapshot.create(ImmutableMap.of());
+    Snapshot s1 = s.withStale(id);
+    Snapshot s2 = s1.withStale(id);
+    assertThat(s1.stale()).containsExactly(id);
+    assertThat(s2.stale()).containsExactly(id);
+    assertThat(s2).isNotEqualTo(s1);
+  }
+
+  @Test
+  public void refreshReloadsOnlyStaleChanges() throws Exception {
+    Change c1 = addChange(1);
+    Change c2 = addChange(2);
+    cache.get(PROJECT);
+
+    changeCache.markStale(PROJECT, c2.getId());
+    Snapshot refreshed = changeCache.refresh(PROJECT, cache.get(PROJECT));
+
+    assertThat(changeCache.reloaded).containsExactly(c2.getId());
+    assertThat(refreshed.changes().keySet()).containsExactly(c1.getId(), c2.getId());
+    assertThat(refreshed.stale()).isEmpty();
+    assertThat(cache.get(PROJECT)).isSameAs(refreshed);
+  }
+
+  @Test
+  public void refreshDropsDeletedChanges() throws Exception {
+    Change c1 = addChange(1);
+    Change c2 = addChange(2);
+    cache.get(PROJECT);
+
+    index.remove(c2.getId());
+    changeCache.markStale(PROJECT, c2.getId());
+    Snapshot refreshed = changeCache.refresh(PROJECT, cache.get(PROJECT));
+
+    assertThat(refreshed.changes().keySet()).containsExactly(c1.getId());
+  }
+
+  @Test
+  public void updateOfStaleChangeDuringRefreshIsNotLost() throws Exception {
+    Change c1 = addChange(1);
+    cache.get(PROJECT);
+    changeCache.markStale(PROJECT, c1.getId());
+    Snapshot stale = cache.get(PROJECT);
+
+    CountDownLatch reloading = new CountDownLatch(1);
+    CountDownLatch updated = new CountDownLatch(1);
+    changeCache.onReload =
+        () -> {
+          reloading.countDown();
+          Uninterruptibles.awaitUninterruptibly(updated);
+        };
+    Future<Snapshot> refresh = executor.submit(() -> changeCache.refresh(PROJECT, stale));
+    reloading.await();
+    // The change is updated again after the refresh read it from the index.
+    changeCache.markStale(PROJECT, c1.getId());
+    updated.countDown();
+    refresh.get();
+
+    assertThat(cache.get(PROJECT).stale()).containsExactly(c1.getId());
+  }
+
+  @Test
+  public void updateOfOtherChangeDuringRefreshIsNotLost() throws Exception {
+    Change c1 = addChange(1);
+    Change c2 = addChange(2);
+    cache.get(PROJECT);
+    changeCache.markStale(PROJECT, c1.getId());
+    Snapshot stale = cache.get(PROJECT);
+
+    CountDownLatch reloading = new CountDownLatch(1);
+    CountDownLatch updated = new CountDownLatch(1);
+    changeCache.onReload =
+        () -> {
+          reloading.countDown();
+          Uninterruptibles.awaitUninterruptibly(updated);
+        };
+    Future<Snapshot> refresh = executor.submit(() -> changeCache.refresh(PROJECT, stale));
+    reloading.await();
+    changeCache.markStale(PROJECT, c2.getId());
+    updated.countDown();
+    refresh.get();
+
+    assertThat(cache.get(PROJECT).stale()).containsExactly(c1.getId(), c2.getId());
+  }
+
+  private Change addChange(int id) {
+    Change c =
+        new Change(
+            new Change.Key("I" + id),
+            new Change.Id(id),
+            new Account.Id(1000),
+            new Branch.NameKey(PROJECT, "master"),
+            TimeUtil.nowTs());
+    index.put(c.getId(), c);
+    return c;
+  }
+
+  private static class TestCache extends SearchingChangeCacheImpl {
+    private final Map<Change.Id, Change> index;
+    final List<Change.Id> reloaded = new ArrayList<>();
+    volatile Runnable onReload = () -> {};
+
+    TestCache(LoadingCache<Project.NameKey, Snapshot> cache, Map<Change.Id, Change> index) {
+      super(cache, null, null, null, new Metrics(new DisabledMetricMaker()));
+      this.index = index;
+    }
+
+    @Override
+    List<CachedChange> reload(Project.NameKey project, Set<Change.Id> ids) {
+      onReload.run();
+      List<CachedChange> changes = new ArrayList<>();
+      for (Change.Id id : ids) {
+        reloaded.add(id);
+        Change c = index.get(id);
+        if (c != null) {
+          changes.add(CachedChange.create(c, null));
+        }
+      }
+      return changes;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.BaseEncoding;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.ChangeMessage;
+import com.google.gerrit.reviewdb.client.Comment;
+import com.google.gerrit.reviewdb.client.LabelId;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.client.RevId;
+import com.google.gerrit.server.ReviewerByEmailSet;
+import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.ReviewerStatusUpdate;
+import com.google.gerrit.server.mail.Address;
+import com.google.gwtorm.protobuf.CodecFactory;
+import com.google.gwtorm.protobuf.ProtobufCodec;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class ChangeNotesStateTest {
+  private static final ProtobufCodec<PatchSet> PATCH_SET_CODEC =
+      CodecFactory.encoder(PatchSet.class);
+  private static final ProtobufCodec<ChangeMessage> MESSAGE_CODEC =
+      CodecFactory.encoder(ChangeMessage.class);
+  private static final BaseEncoding HEX = BaseEncoding.base16();
+
+  private static final Change.Id CHANGE_ID = new Change.Id(123);
+  private static final Account.Id OWNER = new Account.Id(1000);
+  private static final Account.Id OTHER = new Account.Id(1001);
+  private static final String SHA1 = "1234567812345678123456781234567812345678";
+
+  @Test
+  public void serializeEmpty() {
+    Change change = new Change(new Change.Key("Iabc"), CHANGE_ID, OWNER, null, ts(1));
+    assertRoundTrip(ChangeNotesState.empty(change));
+  }
+
+  @Test
+  public void serializeAllFields() {
+    PatchSet.Id psId1 = new PatchSet.Id(CHANGE_ID, 1);
+    PatchSet.Id psId2 = new PatchSet.Id(CHANGE_ID, 2);
+
+    PatchSet ps1 = new PatchSet(psId1);
+    ps1.setRevision(new RevId(SHA1));
+    ps1.setUploader(OWNER);
+    ps1.setCreatedOn(ts(10));
+    ps1.setGroups(ImmutableList.of("g1", "g2"));
+    ps1.setPushCertificate("cert");
+    ps1.setDescription("first");
+    PatchSet ps2 = new PatchSet(psId2);
+    ps2.setRevision(new RevId("abcdefabcdefabcdefabcdefabcdefabcdefabcd"));
+    ps2.setUploader(OTHER);
+    ps2.setCreatedOn(ts(20));
+
+    PatchSetApproval psa =
+        new PatchSetApproval(
+            new PatchSetApproval.Key(psId2, OTHER, new LabelId("Code-Review")), (short) 2, ts(21));
+    psa.setTag("tag");
+    psa.setRealAccountId(OWNER);
+
+    ChangeMessage m1 =
+        new ChangeMessage(new ChangeMessage.Key(CHANGE_ID, "m1"), OWNER, ts(11), psId1);
+    m1.setMessage("Uploaded patch set 1.");
+    ChangeMessage m2 =
+        new ChangeMessage(new ChangeMessage.Key(CHANGE_ID, "m2"), OTHER, ts(22), psId2);
+    m2.setMessage("Patch Set 2: Code-Review+2");
+    m2.setTag("autogenerated:gerrit");
+    m2.setRealAuthor(OWNER);
+
+    Comment c =
+        new Comment(
+            new Comment.Key("c1", "a.txt", 1), OTHER, ts(23), (short) 1, "nit", "srv", true);
+    c.range = new Comment.Range(1, 2, 3, 4);
+    c.lineNbr = 3;
+    c.tag = "ctag";
+    c.parentUuid = "p1";
+    c.revId = SHA1;
+
+    SubmitRecord sr = new SubmitRecord();
+    sr.status = SubmitRecord.Status.NOT_READY;
+    SubmitRecord.Label label = new SubmitRecord.Label();
+    label.label = "Code-Review";
+    label.status = SubmitRecord.Label.Status.OK;
+    label.appliedBy = OTHER;
+    SubmitRecord.Label need = new SubmitRecord.Label();
+    need.label = "Verified";
+    need.status = SubmitRecord.Label.Status.NEED;
+    sr.labels = ImmutableList.of(label, need);
+    SubmitRecord error = new SubmitRecord();
+    error.status = SubmitRecord.Status.RULE_ERROR;
+    error.errorMessage = "broken";
+
+    ListMultimap<PatchSet.Id, ChangeMessage> messagesByPs =
+        ImmutableListMultimap.of(psId1, m1, psId2, m2);
+
+    ChangeNotesState state =
+        ChangeNotesState.create(
+            ObjectId.fromString(SHA1),
+            CHANGE_ID,
+            new Change.Key("Iabc"),
+            ts(1),
+            ts(30),
+            OWNER,
+            "refs/heads/master",
+            psId2,
+            "Subject",
+            "topic",
+            "Original subject",
+            "submission-1",
+            OTHER,
+            Change.Status.MERGED,
+            ImmutableSet.of(OWNER, OTHER),
+            ImmutableSet.of("tag1", "tag2"),
+            ImmutableMap.of(psId1, ps1, psId2, ps2),
+            ImmutableListMultimap.of(psId2, psa),
+            ReviewerSet.fromTable(ImmutableTable.of(ReviewerStateInternal.REVIEWER, OTHER, ts(12))),
+            ReviewerByEmailSet.fromTable(
+                ImmutableTable.of(
+                    ReviewerStateInternal.CC, new Address("Name", "name@example.com"), ts(13))),
+            ReviewerSet.fromTable(ImmutableTable.of(ReviewerStateInternal.CC, OWNER, ts(14))),
+            ReviewerByEmailSet.fromTable(
+                ImmutableTable.of(
+                    ReviewerStateInternal.REMOVED, new Address(null, "x@example.com"), ts(15))),
+            ImmutableList.of(OTHER),
+            ImmutableList.of(
+                ReviewerStatusUpdate.create(ts(12), OWNER, OTHER, ReviewerStateInternal.REVIEWER)),
+            ImmutableList.of(sr, error),
+            ImmutableList.of(m1, m2),
+            messagesByPs,
+            ImmutableListMultimap.of(new RevId(SHA1), c),
+            ts(40),
+            true,
+            false,
+            true,
+            new Change.Id(99));
+    assertRoundTrip(state);
+  }
+
+  private static void assertRoundTrip(ChangeNotesState state) {
+    byte[] bytes = ChangeNotesState.Serializer.INSTANCE.serialize(state);
+    assertStatesEqual(state, ChangeNotesState.Serializer.INSTANCE.deserialize(bytes));
+  }
+
+  /**
+   * Assert two states hold the same data.
+   *
+   * <p>{@link PatchSet} and {@link ChangeMessage} do not implement {@code equals}, so they are
+   * compared by their protobuf encoding.
+   */
+  static void assertStatesEqual(ChangeNotesState expected, ChangeNotesState actual) {
+    assertThat(actual.metaId()).isEqualTo(expected.metaId());
+    assertThat(actual.changeId()).isEqualTo(expected.changeId());
+    assertThat(actual.columns()).isEqualTo(expected.columns());
+    assertThat(actual.pastAssignees()).isEqualTo(expected.pastAssignees());
+    assertThat(actual.hashtags()).isEqualTo(expected.hashtags());
+    assertThat(encodePatchSets(actual.patchSets()))
+        .containsExactlyElementsIn(encodePatchSets(expected.patchSets()))
+        .inOrder();
+    assertThat(actual.approvals()).isEqualTo(expected.approvals());
+    assertThat(actual.reviewers()).isEqualTo(expected.reviewers());
+    assertThat(actual.reviewersByEmail()).isEqualTo(expected.reviewersByEmail());
+    assertThat(actual.pendingReviewers()).isEqualTo(expected.pendingReviewers());
+    assertThat(actual.pendingReviewersByEmail()).isEqualTo(expected.pendingReviewersByEmail());
+    assertThat(actual.allPastReviewers()).isEqualTo(expected.allPastReviewers());
+    assertThat(actual.reviewerUpdates()).isEqualTo(expected.reviewerUpdates());
+    assertThat(actual.submitRecords()).isEqualTo(expected.submitRecords());
+    assertThat(encodeMessages(actual.allChangeMessages()))
+        .containsExactlyElementsIn(encodeMessages(expected.allChangeMessages()))
+        .inOrder();
+    assertThat(actual.changeMessagesByPatchSet().keys())
+        .containsExactlyElementsIn(expected.changeMessagesByPatchSet().keys())
+        .inOrder();
+    assertThat(encodeMessages(actual.changeMessagesByPatchSet().values()))
+        .containsExactlyElementsIn(encodeMessages(expected.changeMessagesByPatchSet().values()))
+        .inOrder();
+    assertThat(actual.publishedComments()).isEqualTo(expected.publishedComments());
+    assertThat(actual.readOnlyUntil()).isEqualTo(expected.readOnlyUntil());
+    assertThat(actual.isPrivate()).isEqualTo(expected.isPrivate());
+    assertThat(actual.isWorkInProgress()).isEqualTo(expected.isWorkInProgress());
+    assertThat(actual.hasReviewStarted()).isEqualTo(expected.hasReviewStarted());
+    assertThat(actual.revertOf()).isEqualTo(expected.revertOf());
+  }
+
+  private static List<String> encodePatchSets(List<Map.Entry<PatchSet.Id, PatchSet>> patchSets) {
+    return patchSets
+        .stream()
+        .map(e -> e.getKey() + "=" + HEX.encode(PATCH_SET_CODEC.encodeToByteArray(e.getValue())))
+        .collect(toList());
+  }
+
+  private static List<String> encodeMessages(Collection<ChangeMessage> messages) {
+    return messages
+        .stream()
+        .map(m -> HEX.encode(MESSAGE_CODEC.encodeToByteArray(m)))
+        .collect(toList());
+  }
+
+  private static Timestamp ts(long seconds) {
+    return new Timestamp(seconds * 1000);
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.gerrit.server.notedb.ReviewerStateInternal.CC;
 import static com.google.gerrit.server.notedb.ReviewerStateInternal.REMOVED;
 import static com.google.gerrit.server.notedb.ReviewerStateInternal.REVIEWER;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.junit.Assert.fail;
 
@@ -33,6 +34,7 @@ import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.reviewdb.client.Account;
@@ -44,24 +46,34 @@ import com.google.gerrit.reviewdb.client.CommentRange;
 import com.google.gerrit.reviewdb.client.PatchLineComment.Status;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RevId;
+import com.google.gerrit.reviewdb.server.ChangeAccess;
+import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.reviewdb.server.ReviewDbUtil;
+import com.google.gerrit.reviewdb.server.ReviewDbWrapper.ChangeAccessWrapper;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.config.GerritServerId;
 import com.google.gerrit.server.mail.Address;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.util.RequestId;
+import com.google.gerrit.testing.DisabledReviewDb;
 import com.google.gerrit.testing.TestChanges;
 import com.google.gerrit.testing.TestTimeUtil;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.Constants;
@@ -1305,6 +1317,125 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     }
   }
 
+  @Test
+  public void parseIncrementalOnTopOfParentState() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), REVIEWER);
+    update.setAssignee(otherUser.getAccountId());
+    update.commit();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("Looks good");
+    update.commit();
+
+    update = newUpdate(c, changeOwner);
+    update.setTopic("topic");
+    update.setHashtags(ImmutableSet.of("tag"));
+    update.setAssignee(changeOwner.getAccountId());
+    update.putApproval("Verified", (short) 1);
+    update.commit();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 2);
+    update.setChangeMessage("Ship it");
+    update.commit();
+
+    ObjectId tip = newNotes(c).getRevision();
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      ObjectId base = rw.parseCommit(rw.parseCommit(tip).getParent(0)).getParent(0).copy();
+      ChangeNotesState baseState = parseAll(c, base, rw);
+      assertThat(
+              newParser(c, tip, rw).parseIncremental(id -> id.equals(base) ? baseState : null, 1))
+          .isNull();
+    }
+
+    ChangeNotesState actual = parseIncrementally(c, 2);
+    assertThat(actual.columns().topic()).isEqualTo("topic");
+    assertThat(actual.hashtags()).containsExactly("tag");
+    assertThat(actual.pastAssignees())
+        .containsExactly(otherUser.getAccountId(), changeOwner.getAccountId());
+  }
+
+  @Test
+  public void parseIncrementalRemovingVote() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.putApproval("Verified", (short) 1);
+    update.commit();
+
+    update = newUpdate(c, otherUser);
+    update.removeApproval("Code-Review");
+    update.setChangeMessage("Removed vote");
+    update.commit();
+
+    ChangeNotesState actual = parseIncrementally(c, 1);
+    assertThat(Lists.transform(actual.approvals(), e -> e.getValue().getValue()))
+        .containsExactly((short) 0, (short) 1);
+  }
+
+  @Test
+  public void parseIncrementalAfterMerge() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.putApproval("Verified", (short) 1);
+    update.commit();
+
+    update = newUpdate(c, changeOwner);
+    update.merge(
+        RequestId.forChange(c),
+        ImmutableList.of(
+            submitRecord(
+                "OK",
+                null,
+                submitLabel("Verified", "OK", changeOwner.getAccountId()),
+                submitLabel("Code-Review", "OK", changeOwner.getAccountId()))));
+    update.commit();
+
+    update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 2);
+    update.setChangeMessage("Post-submit vote");
+    update.commit();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+
+    ChangeNotesState actual = parseIncrementally(c, 2);
+    assertThat(actual.columns().status()).isEqualTo(Change.Status.MERGED);
+    assertThat(actual.submitRecords()).hasSize(1);
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : actual.approvals()) {
+      PatchSetApproval psa = e.getValue();
+      assertThat(psa.isPostSubmit())
+          .named("postSubmit of %s by %s", psa.getLabel(), psa.getAccountId())
+          .isEqualTo(psa.getLabel().equals("Code-Review"));
+    }
+  }
+
+  @Test
+  public void parseIncrementalFallsBackOnStatusChange() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+
+    update = newUpdate(c, changeOwner);
+    update.setStatus(Change.Status.ABANDONED);
+    update.commit();
+
+    ObjectId tip = newNotes(c).getRevision();
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      ObjectId base = rw.parseCommit(tip).getParent(0).copy();
+      ChangeNotesState baseState = parseAll(c, base, rw);
+      assertThat(
+              newParser(c, tip, rw).parseIncremental(id -> id.equals(base) ? baseState : null, 10))
+          .isNull();
+    }
+  }
+
   @Test
   public void multipleUpdatesAcrossRefs() throws Exception {
     Change c1 = newChange();
@@ -3526,6 +3657,113 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     update.commit();
   }
 
+  @Test
+  public void loadAllInParallel() throws Exception {
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      Change c = newChange();
+      ChangeUpdate update = newUpdate(c, changeOwner);
+      update.setTopic("topic-" + i);
+      update.commit();
+      changes.add(c);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<ChangeNotesResult> results =
+          newFactory(executor)
+              .loadAll(
+                  reviewDbWith(), project, changes.stream().map(Change::getId).collect(toList()));
+      assertThat(results).hasSize(changes.size());
+      for (int i = 0; i < changes.size(); i++) {
+        ChangeNotesResult r = results.get(i);
+        assertThat(r.id()).isEqualTo(changes.get(i).getId());
+        assertThat(r.error()).isEmpty();
+        assertThat(r.notes().getChange().getTopic()).isEqualTo("topic-" + i);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void loadAllReportsErrorsPerChange() throws Exception {
+    Change c1 = newChange();
+    Change c2 = newChange();
+    Change otherProject =
+        TestChanges.newChange(new Project.NameKey("other-project"), changeOwner.getAccountId());
+    Change.Id missing = new Change.Id(c2.getId().get() + 100);
+
+    List<ChangeNotesResult> results =
+        newFactory(MoreExecutors.newDirectExecutorService())
+            .loadAll(
+                reviewDbWith(otherProject),
+                project,
+                ImmutableList.of(c1.getId(), otherProject.getId(), missing, c2.getId()));
+
+    assertThat(results.stream().map(ChangeNotesResult::id).collect(toList()))
+        .containsExactly(c1.getId(), otherProject.getId(), missing, c2.getId())
+        .inOrder();
+    assertThat(results.get(0).notes().getChangeId()).isEqualTo(c1.getId());
+    assertThat(results.get(1).error()).isPresent();
+    assertThat(results.get(2).error().get()).isInstanceOf(NoSuchChangeException.class);
+    assertThat(results.get(3).notes().getChangeId()).isEqualTo(c2.getId());
+  }
+
+  private ChangeNotes.Factory newFactory(ExecutorService executor) {
+    return new ChangeNotes.Factory(args, null, null, MoreExecutors.listeningDecorator(executor));
+  }
+
+  /** ReviewDb containing only the given changes; all other changes are NoteDb-only. */
+  private static ReviewDb reviewDbWith(Change... changes) {
+    Map<Change.Id, Change> byId = new HashMap<>();
+    for (Change c : changes) {
+      byId.put(c.getId(), c);
+    }
+    return new DisabledReviewDb() {
+      @Override
+      public ChangeAccess changes() {
+        return new ChangeAccessWrapper(null) {
+          @Override
+          public Change get(Change.Id id) {
+            return byId.get(id);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Parse the last {@code n} commits of the change on top of the fully parsed state before them,
+   * and check that the result equals a full parse of the change.
+   */
+  private ChangeNotesState parseIncrementally(Change c, int n) throws Exception {
+    ObjectId tip = newNotes(c).getRevision();
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      ObjectId base = tip;
+      for (int i = 0; i < n; i++) {
+        base = rw.parseCommit(base).getParent(0).copy();
+      }
+      ObjectId baseId = base;
+      ChangeNotesState baseState = parseAll(c, baseId, rw);
+
+      ChangeNotesState actual =
+          newParser(c, tip, rw).parseIncremental(id -> id.equals(baseId) ? baseState : null, n);
+      assertThat(actual).isNotNull();
+      ChangeNotesStateTest.assertStatesEqual(parseAll(c, tip, rw), actual);
+      return actual;
+    }
+  }
+
+  private ChangeNotesState parseAll(Change c, ObjectId tip, ChangeNotesRevWalk rw)
+      throws Exception {
+    return newParser(c, tip, rw).parseAll();
+  }
+
+  private ChangeNotesParser newParser(Change c, ObjectId tip, ChangeNotesRevWalk rw) {
+    return new ChangeNotesParser(c.getId(), tip, rw, noteUtil, args.metrics);
+  }
+
   private boolean testJson() {
     return noteUtil.getWriteJson();
   }
@@ -0,0 +1,126 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiffExecutorTest {
+  private final Map<String, Supplier<?>> gauges = new ConcurrentHashMap<>();
+  private final Map<String, Long> counters = new ConcurrentHashMap<>();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private ExecutorService executor;
+  private IntraLineLoader loader;
+
+  @Before
+  public void setUp() {
+    MetricMaker metricMaker =
+        new DisabledMetricMaker() {
+          @Override
+          public <V> void newCallbackMetric(
+              String name, Class<V> valueClass, Description desc, Supplier<V> trigger) {
+            gauges.put(name, trigger);
+          }
+
+          @Override
+          public <F1> Counter1<F1> newCounter(String name, Description desc, Field<F1> field1) {
+            return new Counter1<F1>() {
+              @Override
+              public void incrementBy(F1 field1, long value) {
+                counters.merge(name + "/" + field1, value, Long::sum);
+              }
+
+              @Override
+              public void remove() {}
+            };
+          }
+        };
+
+    Config cfg = new Config();
+    cfg.setInt("cache", PatchListCacheImpl.FILE_NAME, "threads", 1);
+    cfg.setString("cache", PatchListCacheImpl.FILE_NAME, "queueTimeout", "50 ms");
+    cfg.setString("cache", PatchListCacheImpl.INTRA_NAME, "timeout", "10 s");
+    WorkQueue workQueue = new WorkQueue(Guice.createInjector().getInstance(IdGenerator.class), 1);
+    executor = new DiffExecutorModule().createDiffExecutor(cfg, workQueue, metricMaker);
+    loader =
+        new IntraLineLoader(
+            executor,
+            new DiffExecutorMetrics(metricMaker),
+            cfg,
+            IntraLineDiffKey.create(ObjectId.zeroId(), ObjectId.zeroId(), Whitespace.IGNORE_NONE),
+            IntraLineDiffArgs.create(
+                Text.EMPTY,
+                Text.EMPTY,
+                ImmutableList.of(),
+                new Project.NameKey("project"),
+                ObjectId.zeroId(),
+                "file"));
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 10000)
+  public void callerReturnsWhenAllThreadsAreBusy() throws Exception {
+    CountDownLatch busy = new CountDownLatch(1);
+    Future<?> blocker =
+        executor.submit(
+            () -> {
+              busy.countDown();
+              release.await();
+              return null;
+            });
+    busy.await();
+    assertThat(gauges.get("diff/executor/active").get()).isEqualTo(1);
+    assertThat(gauges.get("diff/executor/queued").get()).isEqualTo(0);
+
+    // Gives up after the queue timeout, well before the intraline timeout.
+    assertThat(loader.call().getStatus()).isEqualTo(IntraLineDiff.Status.TIMEOUT);
+    assertThat(counters).containsExactly("diff/executor/abandoned/diff_intraline", 1L);
+    // The cancelled computation keeps its place until it reaches the thread, and then does nothing.
+    assertThat(gauges.get("diff/executor/queued").get()).isEqualTo(1);
+
+    release.countDown();
+    blocker.get();
+    assertThat(loader.call().getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
+    assertThat(gauges.get("diff/executor/queued").get()).isEqualTo(0);
+    assertThat(counters).containsExactly("diff/executor/abandoned/diff_intraline", 1L);
+  }
+}
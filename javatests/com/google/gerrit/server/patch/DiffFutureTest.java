@@ -0,0 +1,110 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiffFutureTest {
+  private ExecutorService executor;
+  private CountDownLatch release;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+    release = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void timeoutStartsWhenTaskRuns() throws Exception {
+    CountDownLatch busy = new CountDownLatch(1);
+    executor.submit(
+        () -> {
+          busy.countDown();
+          Thread.sleep(200);
+          return null;
+        });
+    busy.await();
+
+    // Waits for the only thread to become free, which takes longer than the timeout.
+    DiffFuture<String> f = DiffFuture.submit(executor, () -> "done");
+    assertThat(f.get(10000, 20, MILLISECONDS)).isEqualTo("done");
+  }
+
+  @Test
+  public void runningTaskTimesOut() throws Exception {
+    DiffFuture<String> f =
+        DiffFuture.submit(
+            executor,
+            () -> {
+              release.await();
+              return "done";
+            });
+    try {
+      f.get(10000, 20, MILLISECONDS);
+      fail("expected TimeoutException");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    assertThat(f.cancel(true)).isTrue();
+  }
+
+  @Test(timeout = 10000)
+  public void queuedTaskTimesOutAndNeverRuns() throws Exception {
+    CountDownLatch busy = new CountDownLatch(1);
+    executor.submit(
+        () -> {
+          busy.countDown();
+          release.await();
+          return null;
+        });
+    busy.await();
+
+    AtomicBoolean ran = new AtomicBoolean();
+    DiffFuture<String> f =
+        DiffFuture.submit(
+            executor,
+            () -> {
+              ran.set(true);
+              return "done";
+            });
+    try {
+      f.get(20, 10000, MILLISECONDS);
+      fail("expected TimeoutException");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+
+    release.countDown();
+    executor.submit(() -> null).get();
+    assertThat(ran.get()).isFalse();
+  }
+}
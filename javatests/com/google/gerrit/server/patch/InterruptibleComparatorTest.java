@@ -0,0 +1,79 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.DiffInterruptedException;
+import org.junit.Test;
+
+public class InterruptibleComparatorTest {
+  private static final RawText A = text("a\n  b\nc\nd\n");
+  private static final RawText B = text("a\nb  \nx\nd\n");
+
+  @Test
+  public void sameEditsAsDelegate() throws Exception {
+    for (RawTextComparator cmp :
+        ImmutableList.of(RawTextComparator.DEFAULT, RawTextComparator.WS_IGNORE_ALL)) {
+      assertThat(diff(InterruptibleComparator.wrap(cmp))).isEqualTo(diff(cmp));
+    }
+  }
+
+  @Test
+  public void hashDelegates() throws Exception {
+    RawTextComparator cmp = InterruptibleComparator.wrap(RawTextComparator.WS_IGNORE_ALL);
+    for (int i = 0; i < A.size(); i++) {
+      assertThat(cmp.hash(A, i)).isEqualTo(RawTextComparator.WS_IGNORE_ALL.hash(A, i));
+    }
+  }
+
+  @Test
+  public void wrapIsIdempotent() {
+    RawTextComparator cmp = InterruptibleComparator.wrap(RawTextComparator.DEFAULT);
+    assertThat(InterruptibleComparator.wrap(cmp)).isSameAs(cmp);
+  }
+
+  @Test
+  public void interruptedThreadAbortsDiff() throws Exception {
+    Thread.currentThread().interrupt();
+    try {
+      diff(InterruptibleComparator.wrap(RawTextComparator.DEFAULT));
+      fail("expected DiffInterruptedException");
+    } catch (DiffInterruptedException e) {
+      // Expected.
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  private static EditList diff(RawTextComparator cmp) {
+    HistogramDiff histogramDiff = new HistogramDiff();
+    histogramDiff.setFallbackAlgorithm(null);
+    DiffAlgorithm algorithm = histogramDiff;
+    return algorithm.diff(cmp, A, B);
+  }
+
+  private static RawText text(String s) {
+    return new RawText(s.getBytes(UTF_8));
+  }
+}
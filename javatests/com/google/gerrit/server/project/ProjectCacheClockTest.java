@@ -0,0 +1,69 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class ProjectCacheClockTest {
+  @Test
+  public void eventsNotTrustedByDefault() {
+    Config cfg = new Config();
+    assertThat(probeInterval(cfg)).isEqualTo(1);
+
+    cfg.setString("cache", "projects", "fallbackCheckFrequency", "2 hours");
+    assertThat(probeInterval(cfg)).isEqualTo(1);
+  }
+
+  @Test
+  public void trustedEventsUseFallbackCheckFrequency() {
+    Config cfg = new Config();
+    cfg.setBoolean("cache", "projects", "trustRefUpdateEvents", true);
+    // 1 hour / 5 minutes
+    assertThat(probeInterval(cfg)).isEqualTo(12);
+
+    cfg.setString("cache", "projects", "fallbackCheckFrequency", "2 hours");
+    cfg.setString("cache", "projects", "checkFrequency", "10 minutes");
+    assertThat(probeInterval(cfg)).isEqualTo(12);
+  }
+
+  @Test
+  public void fallbackCheckFrequencyIsRoundedUp() {
+    Config cfg = new Config();
+    cfg.setBoolean("cache", "projects", "trustRefUpdateEvents", true);
+    cfg.setString("cache", "projects", "fallbackCheckFrequency", "11 minutes");
+    assertThat(probeInterval(cfg)).isEqualTo(3);
+
+    cfg.setString("cache", "projects", "fallbackCheckFrequency", "1 minute");
+    assertThat(probeInterval(cfg)).isEqualTo(1);
+  }
+
+  @Test
+  public void trustedEventsIgnoredIfChecksAreDisabledOrAlwaysDone() {
+    Config cfg = new Config();
+    cfg.setBoolean("cache", "projects", "trustRefUpdateEvents", true);
+    cfg.setString("cache", "projects", "checkFrequency", "disabled");
+    assertThat(probeInterval(cfg)).isEqualTo(1);
+
+    cfg.setString("cache", "projects", "checkFrequency", "0");
+    assertThat(probeInterval(cfg)).isEqualTo(1);
+  }
+
+  private static long probeInterval(Config cfg) {
+    return new ProjectCacheClock(cfg).probeInterval();
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.common.data.AccessSection;
+import com.google.gerrit.reviewdb.client.Project;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+
+public class SectionMatcherIndexTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private static List<SectionMatcher> matchers(String... names) {
+    List<SectionMatcher> r = new ArrayList<>();
+    for (String name : names) {
+      r.add(SectionMatcher.wrap(PROJECT, new AccessSection(name)));
+    }
+    return r;
+  }
+
+  private static List<String> match(SectionMatcherIndex index, String ref) {
+    List<String> r = new ArrayList<>();
+    BitSet matches = index.match(ref);
+    for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+      r.add(index.get(i).section.getName());
+    }
+    return r;
+  }
+
+  @Test
+  public void matchesLikeSectionMatchers() {
+    List<SectionMatcher> matchers =
+        matchers(
+            "refs/heads/master",
+            "refs/*",
+            "^refs/heads/stable-[0-9]+\\.[0-9]+",
+            "refs/heads/*",
+            "^refs/heads/[^/]+",
+            "^refs/heads/rel\\d+",
+            "refs/tags/*",
+            "refs/heads/master");
+    SectionMatcherIndex index = new SectionMatcherIndex(matchers);
+
+    for (String ref :
+        new String[] {
+          "refs/heads/master",
+          "refs/heads/stable-2.15",
+          "refs/heads/rel2",
+          "refs/heads/feature/foo",
+          "refs/tags/v1",
+          "refs/meta/config",
+          "refs/heads/",
+          "refs/heads"
+        }) {
+      List<String> expected = new ArrayList<>();
+      for (SectionMatcher sm : matchers) {
+        if (sm.match(ref, null)) {
+          expected.add(sm.section.getName());
+        }
+      }
+      assertThat(match(index, ref)).named(ref).containsExactlyElementsIn(expected).inOrder();
+    }
+  }
+
+  @Test
+  public void parameterizedSectionsAreNotIndexed() {
+    SectionMatcherIndex index =
+        new SectionMatcherIndex(matchers("refs/heads/*", "refs/heads/users/${username}/*"));
+    assertThat(match(index, "refs/heads/users/jdoe/foo")).containsExactly("refs/heads/*");
+    assertThat(index.parameterized()).asList().containsExactly(1);
+  }
+
+  @Test
+  public void fewRegexpsAreCombined() {
+    SectionMatcherIndex index =
+        new SectionMatcherIndex(matchers("^refs/heads/stable-[0-9]+", "^refs/tags/v[0-9]+"));
+    assertThat(index.hasCombinedRegexps()).isTrue();
+    assertThat(match(index, "refs/tags/v1")).containsExactly("^refs/tags/v[0-9]+");
+    assertThat(match(index, "refs/tags/v")).isEmpty();
+  }
+
+  @Test
+  public void tooManyRegexpsAreNotCombined() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i <= SectionMatcherIndex.MAX_COMBINED_REGEXPS; i++) {
+      names.add("^refs/heads/team" + i + "/[a-z]+");
+    }
+    SectionMatcherIndex index = new SectionMatcherIndex(matchers(names.toArray(new String[0])));
+    assertThat(index.hasCombinedRegexps()).isFalse();
+    assertThat(match(index, "refs/heads/team7/foo")).containsExactly("^refs/heads/team7/[a-z]+");
+    assertThat(match(index, "refs/heads/team7/Foo")).isEmpty();
+  }
+
+  @Test
+  public void isBuiltFromSameInstances() {
+    List<SectionMatcher> matchers = matchers("refs/*", "refs/heads/*");
+    SectionMatcherIndex index = new SectionMatcherIndex(matchers);
+    assertThat(index.isBuiltFrom(new ArrayList<>(matchers))).isTrue();
+    assertThat(index.isBuiltFrom(matchers("refs/*", "refs/heads/*"))).isFalse();
+    assertThat(index.isBuiltFrom(matchers.subList(0, 1))).isFalse();
+  }
+}
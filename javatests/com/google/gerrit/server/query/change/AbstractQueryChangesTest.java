@@ -26,14 +26,18 @@ import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Streams;
 import com.google.common.truth.ThrowableSubject;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.extensions.api.GerritApi;
@@ -57,6 +61,9 @@ import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.ChangeInput;
 import com.google.gerrit.extensions.common.ChangeMessageInfo;
 import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.events.ChangeIndexedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.index.FieldDef;
@@ -128,6 +135,10 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
@@ -166,6 +177,8 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject protected IdentifiedUser.GenericFactory userFactory;
   @Inject protected ChangeIndexCollection indexes;
   @Inject protected ChangeIndexer indexer;
+  @Inject protected ChangeIndexer.Factory indexerFactory;
+  @Inject protected DynamicSet<ChangeIndexedListener> changeIndexedListeners;
   @Inject protected IndexConfig indexConfig;
   @Inject protected InMemoryRepositoryManager repoManager;
   @Inject protected Provider<InternalChangeQuery> queryProvider;
@@ -1038,6 +1051,49 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(newQuery("status:new").withStart(3));
   }
 
+  @Test
+  public void searchAfter() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+
+    List<ChangeInfo> page =
+        assertQuery(newQuery("status:new limit:2"), changes.get(2), changes.get(1));
+    String cursor = page.get(1)._searchAfter;
+    assertThat(cursor).isNotNull();
+    page = assertQuery(newQuery("status:new limit:2").withSearchAfter(cursor), changes.get(0));
+    assertThat(page.get(0)._searchAfter).isNull();
+
+    assertThatQueryException(newQuery("status:new").withSearchAfter("not-a-cursor"))
+        .hasMessageThat()
+        .contains("Invalid search-after cursor");
+  }
+
+  @Test
+  public void searchAfterSkipsInvisibleChanges() throws Exception {
+    assume().that(getSchemaVersion()).isAtLeast(40);
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+    gApi.changes().id(changes.get(3).getChangeId()).setPrivate(true, null);
+
+    Account.Id user2 =
+        accountManager.authenticate(AuthRequest.forUser("anotheruser")).getAccountId();
+    requestContext.setContext(newRequestContext(user2));
+    List<ChangeInfo> page =
+        assertQuery(newQuery("status:new limit:2"), changes.get(4), changes.get(2));
+    page =
+        assertQuery(
+            newQuery("status:new limit:2").withSearchAfter(page.get(1)._searchAfter),
+            changes.get(1),
+            changes.get(0));
+    assertThat(page.get(1)._searchAfter).isNull();
+  }
+
   @Test
   public void startWithLimit() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -1052,6 +1108,23 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(newQuery("status:new limit:2").withStart(3));
   }
 
+  @Test
+  public void openAndClosedChangesMergedInOrder() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change.Status[] statuses = {
+      Change.Status.NEW, Change.Status.MERGED, Change.Status.NEW, Change.Status.ABANDONED
+    };
+    List<Change> changes = new ArrayList<>();
+    for (Change.Status status : statuses) {
+      changes.add(insert(repo, newChangeWithStatus(repo, status)));
+    }
+
+    assertQuery("project:repo", changes.get(3), changes.get(2), changes.get(1), changes.get(0));
+    assertQuery("project:repo limit:3", changes.get(3), changes.get(2), changes.get(1));
+    assertQuery(newQuery("project:repo limit:2").withStart(1), changes.get(2), changes.get(1));
+    assertQuery(newQuery("project:repo").withStart(3), changes.get(0));
+  }
+
   @Test
   public void maxPages() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -1987,6 +2060,27 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     }
   }
 
+  @Test
+  public void byBranchKeys() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change2 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change3 = insert(repo, newChangeForBranch(repo, "branch"));
+
+    List<Change.Key> keys = new ArrayList<>();
+    keys.add(change1.getKey());
+    // Enough unknown Change-Ids that the keys don't fit into a single query.
+    for (int i = 0; i < indexConfig.maxTerms(); i++) {
+      keys.add(new Change.Key(String.format("I%040x", i + 1)));
+    }
+    keys.add(change2.getKey());
+    keys.add(change3.getKey());
+
+    List<ChangeData> cds = queryProvider.get().byBranchKeys(change1.getDest(), keys);
+    assertThat(cds.stream().map(ChangeData::getId).collect(toList()))
+        .containsExactly(change1.getId(), change2.getId());
+  }
+
   @Test
   public void prepopulatedFields() throws Exception {
     assume().that(notesMigration.readChanges()).isFalse();
@@ -2073,6 +2167,90 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("has:edit");
   }
 
+  @Test
+  public void indexAsyncCoalescesQueuedRequests() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    Project.NameKey project = change1.getProject();
+
+    Multiset<Integer> indexed = ConcurrentHashMultiset.create();
+    Multiset<Integer> deleted = ConcurrentHashMultiset.create();
+    RegistrationHandle handle =
+        changeIndexedListeners.add(
+            new ChangeIndexedListener() {
+              @Override
+              public void onChangeIndexed(int id) {
+                indexed.add(id);
+              }
+
+              @Override
+              public void onChangeDeleted(int id) {
+                deleted.add(id);
+              }
+            });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch blocked = new CountDownLatch(1);
+    try {
+      // Keep the executor busy, so that all requests are queued before the first batch is written.
+      executor.execute(() -> Uninterruptibles.awaitUninterruptibly(blocked));
+      ChangeIndexer queued =
+          indexerFactory.create(MoreExecutors.listeningDecorator(executor), indexes);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        futures.add(queued.indexAsync(project, change1.getId()));
+        futures.add(queued.indexAsync(project, change2.getId()));
+      }
+      Future<?> missing = queued.indexAsync(project, new Change.Id(Integer.MAX_VALUE));
+      assertThat(indexed).isEmpty();
+
+      blocked.countDown();
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      // The missing change is deleted from the index without failing the rest of its batch.
+      missing.get();
+    } finally {
+      blocked.countDown();
+      handle.remove();
+      executor.shutdown();
+    }
+
+    assertThat(indexed).containsExactly(change1.getId().get(), change2.getId().get());
+    assertThat(deleted).containsExactly(Integer.MAX_VALUE);
+    assertQuery("status:new", change2, change1);
+  }
+
+  @Test
+  public void indexAsyncDeletesChangeWithoutMetaRef() throws Exception {
+    // With ReviewDb, the change can still be loaded without its meta ref.
+    assume().that(notesMigration.disableChangeReviewDb()).isTrue();
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    Project.NameKey project = change1.getProject();
+    assertQuery("status:new", change2, change1);
+
+    // Delete meta ref behind index's back.
+    RefUpdate ru = repo.getRepository().updateRef(RefNames.changeMetaRef(change1.getId()));
+    ru.setForceUpdate(true);
+    assertThat(ru.delete()).isEqualTo(RefUpdate.Result.FORCED);
+    assertQuery("status:new", change2, change1);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ChangeIndexer queued =
+          indexerFactory.create(MoreExecutors.listeningDecorator(executor), indexes);
+      Future<?> f1 = queued.indexAsync(project, change1.getId());
+      Future<?> f2 = queued.indexAsync(project, change2.getId());
+      f1.get();
+      f2.get();
+    } finally {
+      executor.shutdown();
+    }
+    assertQuery("status:new", change2);
+  }
+
   @Test
   public void refStateFields() throws Exception {
     // This test method manages primary storage manually.
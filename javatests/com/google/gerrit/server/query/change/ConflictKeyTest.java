@@ -0,0 +1,39 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.extensions.client.SubmitType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class ConflictKeyTest {
+  private static final ObjectId ID1 =
+      ObjectId.fromString("0123456789012345678901234567890123456789");
+  private static final ObjectId ID2 =
+      ObjectId.fromString("9876543210987654321098765432109876543210");
+
+  @Test
+  public void serializerRoundTrip() throws Exception {
+    for (SubmitType t : SubmitType.values()) {
+      for (boolean contentMerge : new boolean[] {true, false}) {
+        ConflictKey key = new ConflictKey(ID2, ID1, t, contentMerge);
+        byte[] bytes = ConflictKey.Serializer.INSTANCE.serialize(key);
+        assertThat(ConflictKey.Serializer.INSTANCE.deserialize(bytes)).isEqualTo(key);
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.rules;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.rules.RulesCache.CompiledRules;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.googlecode.prolog_cafe.lang.PrologMachineCopy;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RulesCacheTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Cache<ObjectId, CompiledRules> cache;
+  private RulesCache rulesCache;
+  private TestRepository<?> repo;
+
+  @Before
+  public void setUp() throws Exception {
+    cache =
+        CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(1024)
+            .weigher(new RulesCache.Weigher())
+            .build();
+    InMemoryRepositoryManager repoManager = new InMemoryRepositoryManager();
+    repo = new TestRepository<>(repoManager.createRepository(PROJECT));
+    rulesCache =
+        new RulesCache(
+            new Config(),
+            new SitePaths(tmp.getRoot().toPath()),
+            repoManager,
+            DynamicSet.emptySet(),
+            cache,
+            new RulesCache.Metrics(new DisabledMetricMaker()));
+  }
+
+  @Test
+  public void rulesAreWeighedBySourceSize() throws Exception {
+    String rules = "submit_rule(submit(R)) :- R = label('Any', need(_)).\n";
+    ObjectId rulesId = repo.blob(rules);
+
+    PrologMachineCopy pmc = rulesCache.loadMachine(PROJECT, rulesId);
+    assertThat(rulesCache.loadMachine(PROJECT, rulesId)).isSameAs(pmc);
+    assertThat(cache.getIfPresent(rulesId).weight).isEqualTo(rules.getBytes(UTF_8).length);
+  }
+
+  @Test
+  public void rulesLargerThanLimitAreNotKept() throws Exception {
+    // A comment doesn't add to the compiled program, but does to the consulted source.
+    String rules =
+        "% " + Strings.repeat("x", 2048) + "\nsubmit_rule(submit(R)) :- R = label('Any', ok(_)).\n";
+    ObjectId rulesId = repo.blob(rules);
+
+    PrologMachineCopy pmc = rulesCache.loadMachine(PROJECT, rulesId);
+    assertThat(pmc).isNotNull();
+    assertThat(cache.getIfPresent(rulesId)).isNull();
+  }
+}
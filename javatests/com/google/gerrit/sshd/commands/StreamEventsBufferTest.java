@@ -0,0 +1,76 @@
+// Copyright (C) 2018 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.sshd.commands;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.sshd.commands.StreamEventsBuffer.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class StreamEventsBufferTest {
+  private final StreamEventsBuffer buffer = new StreamEventsBuffer();
+
+  @Test
+  public void eventSerializedOnce() {
+    Event event = new TestEvent();
+    Entry entry = buffer.get(event);
+    assertThat(new String(entry.bytes, UTF_8)).contains("\"type\":\"test-event\"");
+    assertThat(new String(entry.bytes, UTF_8)).endsWith("\n");
+    assertThat(buffer.get(event)).isSameAs(entry);
+  }
+
+  @Test
+  public void equalEventsSerializedSeparately() {
+    Entry entry = buffer.get(new TestEvent());
+    assertThat(buffer.get(new TestEvent())).isNotSameAs(entry);
+  }
+
+  @Test
+  public void burstOfEventsSerializedOnce() {
+    List<Event> events = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+    for (int i = 0; i < StreamEventsBuffer.CAPACITY; i++) {
+      Event event = new TestEvent();
+      events.add(event);
+      entries.add(buffer.get(event));
+    }
+    for (int i = 0; i < events.size(); i++) {
+      assertThat(buffer.get(events.get(i))).isSameAs(entries.get(i));
+    }
+  }
+
+  @Test
+  public void evictedEventSerializedAgain() {
+    Event event = new TestEvent();
+    Entry entry = buffer.get(event);
+    for (int i = 0; i < StreamEventsBuffer.CAPACITY; i++) {
+      buffer.get(new TestEvent());
+    }
+    Entry again = buffer.get(event);
+    assertThat(again).isNotSameAs(entry);
+    assertThat(again.bytes).isEqualTo(entry.bytes);
+    assertThat(buffer.get(event)).isSameAs(again);
+  }
+
+  private static class TestEvent extends Event {
+    TestEvent() {
+      super("test-event");
+    }
+  }
+}